@@ -0,0 +1,58 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.benchmarks;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.Context;
+import org.geogit.di.GeogitModule;
+import org.geogit.storage.bdbje.JEStorageModule;
+import org.geogit.storage.sqlite.XerialSQLiteModule;
+
+import com.google.inject.Guice;
+import com.google.inject.Module;
+import com.google.inject.util.Modules;
+
+/**
+ * The storage backends the benchmarks can run against.
+ */
+public enum Backend {
+    /**
+     * The default, file system based, storage
+     */
+    FILE {
+        @Override
+        Module storageModule() {
+            return null;
+        }
+    },
+    BDBJE {
+        @Override
+        Module storageModule() {
+            return new JEStorageModule();
+        }
+    },
+    SQLITE {
+        @Override
+        Module storageModule() {
+            return new XerialSQLiteModule();
+        }
+    };
+
+    @Nullable
+    abstract Module storageModule();
+
+    /**
+     * @return a new context whose databases are provided by this backend
+     */
+    public Context newContext() {
+        Module module = new GeogitModule();
+        Module storage = storageModule();
+        if (storage != null) {
+            module = Modules.override(module).with(storage);
+        }
+        return Guice.createInjector(module).getInstance(Context.class);
+    }
+}
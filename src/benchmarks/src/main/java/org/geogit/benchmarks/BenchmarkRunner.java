@@ -0,0 +1,36 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.google.common.base.Objects;
+
+/**
+ * Runs the benchmarks, taking the standard JMH command line arguments.
+ * <p>
+ * Unless told otherwise, results are saved as JSON in {@code geogit-benchmarks-<version>.json},
+ * so the results of different releases can be compared side by side.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmdOptions = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(cmdOptions);
+        if (!cmdOptions.getResult().hasValue()) {
+            String version = Objects.firstNonNull(
+                    BenchmarkRunner.class.getPackage().getImplementationVersion(), "dev");
+            options.result("geogit-benchmarks-" + version + ".json");
+        }
+        if (!cmdOptions.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        new Runner(options.build()).run();
+    }
+}
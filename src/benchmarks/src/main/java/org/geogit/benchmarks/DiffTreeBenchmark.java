@@ -0,0 +1,125 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.Bucket;
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.plumbing.diff.DiffTreeVisitor;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Walks the differences between two feature type trees of {@code size} features, where one every
+ * {@code changeInterval} features was changed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DiffTreeBenchmark {
+
+    @Param({ "10000", "1000000" })
+    public int size;
+
+    @Param({ "2", "100" })
+    public int changeInterval;
+
+    private HeapObjectDatabse db;
+
+    private RevTree left;
+
+    private RevTree right;
+
+    private ForkJoinPool pool;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        db = new HeapObjectDatabse();
+        db.open();
+        List<Node> nodes = SyntheticData.featureNodes(size);
+        left = SyntheticData.tree(db, nodes);
+        for (int i = 0; i < size; i += changeInterval) {
+            Node node = nodes.get(i);
+            nodes.set(i, Node.create(node.getName(), ObjectId.forString(node.getName() + "v2"),
+                    ObjectId.NULL, TYPE.FEATURE, null));
+        }
+        right = SyntheticData.tree(db, nodes);
+        pool = new ForkJoinPool();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+        db.close();
+    }
+
+    @Benchmark
+    public long walk() {
+        CountingConsumer consumer = new CountingConsumer();
+        new DiffTreeVisitor(left, right, db, db).walk(consumer);
+        return consumer.features.get();
+    }
+
+    @Benchmark
+    public long walkParallel() {
+        CountingConsumer consumer = new CountingConsumer();
+        new DiffTreeVisitor(left, right, db, db).walk(consumer, pool);
+        return consumer.features.get();
+    }
+
+    private static class CountingConsumer implements DiffTreeVisitor.Consumer {
+
+        final AtomicLong features = new AtomicLong();
+
+        @Override
+        public void feature(@Nullable Node left, @Nullable Node right) {
+            features.incrementAndGet();
+        }
+
+        @Override
+        public boolean tree(@Nullable Node left, @Nullable Node right) {
+            return true;
+        }
+
+        @Override
+        public void endTree(@Nullable Node left, @Nullable Node right) {
+        }
+
+        @Override
+        public boolean bucket(int bucketIndex, int bucketDepth, @Nullable Bucket left,
+                @Nullable Bucket right) {
+            return true;
+        }
+
+        @Override
+        public void endBucket(int bucketIndex, int bucketDepth, @Nullable Bucket left,
+                @Nullable Bucket right) {
+        }
+    }
+}
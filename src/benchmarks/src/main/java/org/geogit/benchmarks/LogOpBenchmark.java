@@ -0,0 +1,73 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.benchmarks;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.geogit.api.RevCommit;
+import org.geogit.api.porcelain.LogOp;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Iterates over the full history of a {@link SyntheticRepository synthetic repository}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class LogOpBenchmark {
+
+    @Param({ "FILE", "BDBJE", "SQLITE" })
+    public Backend backend;
+
+    @Param({ "SMALL", "MEDIUM" })
+    public SyntheticRepository.Size size;
+
+    private SyntheticRepository repo;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        repo = SyntheticRepository.create(backend, size);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        repo.close();
+    }
+
+    @Benchmark
+    public void log(Blackhole bh) {
+        Iterator<RevCommit> commits = repo.geogit().command(LogOp.class).call();
+        while (commits.hasNext()) {
+            bh.consume(commits.next());
+        }
+    }
+
+    @Benchmark
+    public void logTopoOrder(Blackhole bh) {
+        Iterator<RevCommit> commits = repo.geogit().command(LogOp.class).setTopoOrder(true)
+                .call();
+        while (commits.hasNext()) {
+            bh.consume(commits.next());
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevObject;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Random reads, batched reads and writes of features on each {@link ObjectDatabase} backend.
+ * <p>
+ * The database is populated with {@code size} features up front; the write benchmarks insert new
+ * features generated before each iteration, so every put stores a new object.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ObjectDatabaseBenchmark {
+
+    private static final int BATCH_SIZE = 1000;
+
+    private static final int PUT_BATCH_SIZE = 10 * 1000;
+
+    @Param({ "HEAP", "FILE", "BDBJE", "SQLITE" })
+    public String backend;
+
+    @Param({ "100000" })
+    public int size;
+
+    private SyntheticRepository repo;
+
+    private ObjectDatabase db;
+
+    private List<ObjectId> ids;
+
+    private int next;
+
+    private List<RevFeature> newFeatures;
+
+    private int nextNew;
+
+    private int generation;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if ("HEAP".equals(backend)) {
+            db = new HeapObjectDatabse();
+            db.open();
+        } else {
+            repo = SyntheticRepository.create(Backend.valueOf(backend), 0, 0);
+            db = repo.repository().objectDatabase();
+        }
+        List<RevFeature> features = features(0, size);
+        db.putAll(features.iterator());
+        ids = new ArrayList<ObjectId>(size);
+        for (RevFeature f : features) {
+            ids.add(f.getId());
+        }
+        Collections.shuffle(ids, new Random(size));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (repo == null) {
+            db.close();
+        } else {
+            repo.close();
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void createNewFeatures() {
+        generation++;
+        newFeatures = features(size + generation * PUT_BATCH_SIZE, PUT_BATCH_SIZE);
+        nextNew = 0;
+    }
+
+    private static List<RevFeature> features(int from, int count) {
+        List<RevFeature> features = new ArrayList<RevFeature>(count);
+        for (int i = from; i < from + count; i++) {
+            features.add(SyntheticData.revFeature(i));
+        }
+        return features;
+    }
+
+    private ObjectId nextId() {
+        ObjectId id = ids.get(next);
+        next = (next + 1) % ids.size();
+        return id;
+    }
+
+    @Benchmark
+    public RevObject get() {
+        return db.get(nextId());
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void getAll(Blackhole bh) {
+        List<ObjectId> batch = new ArrayList<ObjectId>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(nextId());
+        }
+        Iterator<RevObject> objects = db.getAll(batch);
+        while (objects.hasNext()) {
+            bh.consume(objects.next());
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 3, batchSize = PUT_BATCH_SIZE)
+    @Measurement(iterations = 5, batchSize = PUT_BATCH_SIZE)
+    public boolean put() {
+        return db.put(newFeatures.get(nextNew++));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 5)
+    public void putAll() {
+        db.putAll(newFeatures.iterator());
+    }
+}
@@ -0,0 +1,49 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.geogit.api.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Conversions between {@link ObjectId}s and their hex string representation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ObjectIdBenchmark {
+
+    private final ObjectId id = ObjectId.forString("benchmark");
+
+    private final String hash = id.toString();
+
+    @Benchmark
+    public ObjectId valueOf() {
+        return ObjectId.valueOf(hash);
+    }
+
+    @Benchmark
+    public String toHexString() {
+        return id.toString();
+    }
+
+    @Benchmark
+    public ObjectId forString() {
+        return ObjectId.forString(hash);
+    }
+}
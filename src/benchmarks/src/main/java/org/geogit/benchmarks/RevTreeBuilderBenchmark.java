@@ -0,0 +1,71 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.geogit.api.Node;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Builds a feature type tree of {@code size} nodes from scratch, on a heap database so only the
+ * tree building cost is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class RevTreeBuilderBenchmark {
+
+    @Param({ "1000", "100000", "1000000" })
+    public int size;
+
+    private List<Node> nodes;
+
+    private HeapObjectDatabse db;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        nodes = SyntheticData.featureNodes(size);
+    }
+
+    @Setup(Level.Iteration)
+    public void openDatabase() {
+        db = new HeapObjectDatabse();
+        db.open();
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeDatabase() {
+        db.close();
+    }
+
+    @Benchmark
+    public RevTree build() {
+        RevTreeBuilder builder = new RevTreeBuilder(db);
+        for (Node node : nodes) {
+            builder.put(node);
+        }
+        return builder.build();
+    }
+}
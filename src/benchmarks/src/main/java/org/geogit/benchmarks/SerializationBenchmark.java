@@ -0,0 +1,135 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevObject;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.storage.ObjectSerializingFactory;
+import org.geogit.storage.ObjectWriter;
+import org.geogit.storage.datastream.DataStreamSerializationFactory;
+import org.geogit.storage.datastream.DataStreamSerializationFactoryV2;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Writes and reads features, leaf trees and commits with each version of the data stream
+ * serialization format.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SerializationBenchmark {
+
+    public static enum Format {
+        V1(new DataStreamSerializationFactory()), V2(new DataStreamSerializationFactoryV2());
+
+        final ObjectSerializingFactory factory;
+
+        private Format(ObjectSerializingFactory factory) {
+            this.factory = factory;
+        }
+    }
+
+    @Param({ "V1", "V2" })
+    public Format format;
+
+    private RevFeature feature;
+
+    private RevTree tree;
+
+    private RevCommit commit;
+
+    private byte[] featureBytes, treeBytes, commitBytes;
+
+    private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        feature = SyntheticData.revFeature(42);
+        HeapObjectDatabse db = new HeapObjectDatabse();
+        db.open();
+        // the largest possible leaf tree
+        tree = SyntheticData.tree(db, SyntheticData.featureNodes(RevTree.NORMALIZED_SIZE_LIMIT));
+        db.close();
+        commit = SyntheticData.commit(42);
+
+        featureBytes = write(feature);
+        treeBytes = write(tree);
+        commitBytes = write(commit);
+    }
+
+    private byte[] write(RevObject object) throws IOException {
+        buffer.reset();
+        ObjectWriter<RevObject> writer = format.factory.createObjectWriter(object.getType());
+        writer.write(object, buffer);
+        return buffer.toByteArray();
+    }
+
+    private RevObject read(TYPE type, RevObject object, byte[] bytes) {
+        return format.factory.<RevObject> createObjectReader(type).read(object.getId(),
+                new ByteArrayInputStream(bytes));
+    }
+
+    @Benchmark
+    public byte[] writeFeature() throws IOException {
+        return write(feature);
+    }
+
+    @Benchmark
+    public RevObject readFeature() {
+        return read(TYPE.FEATURE, feature, featureBytes);
+    }
+
+    /**
+     * Reads a feature and accesses all its values, as opposed to {@link #readFeature()} which may
+     * leave geometries encoded
+     */
+    @Benchmark
+    public Object readFeatureValues() {
+        return ((RevFeature) read(TYPE.FEATURE, feature, featureBytes)).getValues();
+    }
+
+    @Benchmark
+    public byte[] writeTree() throws IOException {
+        return write(tree);
+    }
+
+    @Benchmark
+    public RevObject readTree() {
+        return read(TYPE.TREE, tree, treeBytes);
+    }
+
+    @Benchmark
+    public byte[] writeCommit() throws IOException {
+        return write(commit);
+    }
+
+    @Benchmark
+    public RevObject readCommit() {
+        return read(TYPE.COMMIT, commit, commitBytes);
+    }
+}
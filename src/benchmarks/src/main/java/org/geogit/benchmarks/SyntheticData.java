@@ -0,0 +1,145 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.geogit.api.CommitBuilder;
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevFeatureBuilder;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.storage.ObjectDatabase;
+import org.geotools.data.DataUtilities;
+import org.geotools.feature.SchemaException;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * Deterministic synthetic data for the benchmarks.
+ * <p>
+ * The same index always produces the same feature, node or commit, so results are comparable
+ * across runs and releases. Points are laid out on a grid with 7 decimal digits, like typical
+ * GPS/OSM data.
+ */
+public final class SyntheticData {
+
+    public static final String TYPE_NAME = "points";
+
+    private static final SimpleFeatureType FEATURE_TYPE;
+    static {
+        try {
+            FEATURE_TYPE = DataUtilities.createType(TYPE_NAME,
+                    "sp:String,ip:Integer,dp:Double,pp:Point:srid=4326");
+        } catch (SchemaException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
+
+    private SyntheticData() {
+        // static utility
+    }
+
+    public static SimpleFeatureType featureType() {
+        return FEATURE_TYPE;
+    }
+
+    public static String featureId(int index) {
+        return "f" + index;
+    }
+
+    private static Coordinate coordinate(int index) {
+        double x = -180 + (index % 3600) * 0.1 + (index % 7) * 0.0000123;
+        double y = -90 + (index / 3600 % 1800) * 0.1 + (index % 11) * 0.0000321;
+        return new Coordinate(Math.round(x * 1e7) / 1e7, Math.round(y * 1e7) / 1e7);
+    }
+
+    public static SimpleFeature feature(int index) {
+        SimpleFeatureBuilder builder = new SimpleFeatureBuilder(FEATURE_TYPE);
+        builder.set("sp", "String property " + index);
+        builder.set("ip", Integer.valueOf(index));
+        builder.set("dp", Double.valueOf(index / 3.0));
+        builder.set("pp", GEOMETRY_FACTORY.createPoint(coordinate(index)));
+        return builder.buildFeature(featureId(index));
+    }
+
+    /**
+     * @return the features with indexes {@code [from, from + count)}
+     */
+    public static Iterator<SimpleFeature> features(final int from, final int count) {
+        return new AbstractIterator<SimpleFeature>() {
+            private int index = from;
+
+            @Override
+            protected SimpleFeature computeNext() {
+                if (index == from + count) {
+                    return endOfData();
+                }
+                return feature(index++);
+            }
+        };
+    }
+
+    public static RevFeature revFeature(int index) {
+        return RevFeatureBuilder.build(feature(index));
+    }
+
+    public static Node featureNode(int index) {
+        Coordinate c = coordinate(index);
+        return Node.create(featureId(index), ObjectId.forString(featureId(index)),
+                ObjectId.NULL, TYPE.FEATURE, new Envelope(c));
+    }
+
+    public static List<Node> featureNodes(int count) {
+        List<Node> nodes = new ArrayList<Node>(count);
+        for (int i = 0; i < count; i++) {
+            nodes.add(featureNode(i));
+        }
+        return nodes;
+    }
+
+    /**
+     * Builds and saves a feature type tree with the given nodes
+     */
+    public static RevTree tree(ObjectDatabase db, Iterable<Node> nodes) {
+        RevTreeBuilder builder = new RevTreeBuilder(db);
+        for (Node node : nodes) {
+            builder.put(node);
+        }
+        RevTree tree = builder.build();
+        db.put(tree);
+        return tree;
+    }
+
+    public static RevCommit commit(int index) {
+        CommitBuilder builder = new CommitBuilder();
+        builder.setTreeId(ObjectId.forString("tree" + index));
+        builder.setParentIds(ImmutableList.of(ObjectId.forString("commit" + (index - 1))));
+        builder.setAuthor("author");
+        builder.setAuthorEmail("author@example.com");
+        builder.setCommitter("committer");
+        builder.setCommitterEmail("committer@example.com");
+        builder.setAuthorTimestamp(1000L * index);
+        builder.setCommitterTimestamp(1000L * index);
+        builder.setMessage("Commit number " + index);
+        return builder.build();
+    }
+}
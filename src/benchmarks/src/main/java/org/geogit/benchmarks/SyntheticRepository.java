@@ -0,0 +1,116 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.benchmarks;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+import org.geogit.api.DefaultProgressListener;
+import org.geogit.api.GeoGIT;
+import org.geogit.api.porcelain.AddOp;
+import org.geogit.api.porcelain.CommitOp;
+import org.geogit.repository.Repository;
+
+import com.google.common.io.Files;
+
+/**
+ * A throw away repository in a temporary directory, populated with {@link SyntheticData synthetic
+ * features} spread evenly over a number of commits.
+ */
+public final class SyntheticRepository implements Closeable {
+
+    /**
+     * Standard repository sizes, so results of different benchmarks and releases line up
+     */
+    public static enum Size {
+        SMALL(1000, 10), MEDIUM(100 * 1000, 100), LARGE(1000 * 1000, 1000);
+
+        public final int features;
+
+        public final int commits;
+
+        private Size(int features, int commits) {
+            this.features = features;
+            this.commits = commits;
+        }
+    }
+
+    private final File directory;
+
+    private final GeoGIT geogit;
+
+    private SyntheticRepository(File directory, GeoGIT geogit) {
+        this.directory = directory;
+        this.geogit = geogit;
+    }
+
+    public static SyntheticRepository create(final Backend backend, final Size size) {
+        return create(backend, size.features, size.commits);
+    }
+
+    /**
+     * Creates a new repository with {@code numFeatures} features, inserted in {@code numCommits}
+     * commits. If there are no features, the commits are empty.
+     */
+    public static SyntheticRepository create(final Backend backend, final int numFeatures,
+            final int numCommits) {
+        checkArgument(numFeatures >= 0 && numCommits >= 0);
+        File directory = Files.createTempDir();
+        GeoGIT geogit = new GeoGIT(backend.newContext(), directory);
+        geogit.getOrCreateRepository();
+        SyntheticRepository repo = new SyntheticRepository(directory, geogit);
+
+        int inserted = 0;
+        for (int c = 0; c < numCommits; c++) {
+            final int count = (numFeatures - inserted) / (numCommits - c);
+            if (count > 0) {
+                repo.insert(inserted, count);
+                inserted += count;
+            }
+            geogit.command(CommitOp.class).setAllowEmpty(true).setAuthor("bench", null)
+                    .setCommitter("bench", null).setMessage("commit " + c).call();
+        }
+        return repo;
+    }
+
+    /**
+     * Inserts and stages the synthetic features {@code [from, from + count)}
+     */
+    public void insert(final int from, final int count) {
+        repository().workingTree().insert(SyntheticData.TYPE_NAME,
+                SyntheticData.features(from, count), new DefaultProgressListener(), null,
+                Integer.valueOf(count));
+        geogit.command(AddOp.class).call();
+    }
+
+    public GeoGIT geogit() {
+        return geogit;
+    }
+
+    public Repository repository() {
+        return geogit.getRepository();
+    }
+
+    @Override
+    public void close() throws IOException {
+        geogit.close();
+        delete(directory);
+    }
+
+    private static void delete(File file) throws IOException {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (!file.delete() && file.exists()) {
+            throw new IOException("Unable to delete " + file);
+        }
+    }
+}
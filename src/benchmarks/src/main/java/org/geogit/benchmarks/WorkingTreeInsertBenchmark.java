@@ -0,0 +1,60 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.geogit.api.DefaultProgressListener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Inserts {@code size} features into the working tree of a new, empty repository.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WorkingTreeInsertBenchmark {
+
+    @Param({ "FILE", "BDBJE", "SQLITE" })
+    public Backend backend;
+
+    @Param({ "1000", "100000" })
+    public int size;
+
+    private SyntheticRepository repo;
+
+    @Setup(Level.Iteration)
+    public void createRepository() {
+        repo = SyntheticRepository.create(backend, 0, 0);
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteRepository() throws IOException {
+        repo.close();
+    }
+
+    @Benchmark
+    public void insert() {
+        repo.repository().workingTree().insert(SyntheticData.TYPE_NAME,
+                SyntheticData.features(0, size), new DefaultProgressListener(), null,
+                Integer.valueOf(size));
+    }
+}
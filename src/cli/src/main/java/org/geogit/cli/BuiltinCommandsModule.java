@@ -9,10 +9,13 @@ import org.geogit.cli.plumbing.DiffTree;
 import org.geogit.cli.plumbing.Insert;
 import org.geogit.cli.plumbing.LsTree;
 import org.geogit.cli.plumbing.MergeBase;
+import org.geogit.cli.plumbing.PruneSpatialIndexes;
 import org.geogit.cli.plumbing.RebuildGraph;
+import org.geogit.cli.plumbing.Repack;
 import org.geogit.cli.plumbing.RevList;
 import org.geogit.cli.plumbing.RevParse;
 import org.geogit.cli.plumbing.ShowRef;
+import org.geogit.cli.plumbing.UpdateBitmaps;
 import org.geogit.cli.plumbing.WalkGraph;
 import org.geogit.cli.porcelain.Add;
 import org.geogit.cli.porcelain.Apply;
@@ -79,6 +82,9 @@ import com.google.inject.AbstractModule;
  * @see Fetch
  * @see Version
  * @see RebuildGraph
+ * @see Repack
+ * @see UpdateBitmaps
+ * @see PruneSpatialIndexes
  */
 public class BuiltinCommandsModule extends AbstractModule implements CLIModule {
 
@@ -126,6 +132,9 @@ public class BuiltinCommandsModule extends AbstractModule implements CLIModule {
         bind(WalkGraph.class);
         bind(Version.class);
         bind(RebuildGraph.class);
+        bind(Repack.class);
+        bind(UpdateBitmaps.class);
+        bind(PruneSpatialIndexes.class);
     }
 
 }
@@ -21,7 +21,9 @@ import org.geogit.storage.bdbje.JEGraphDatabase;
 import org.geogit.storage.bdbje.JEObjectDatabase;
 import org.geogit.storage.bdbje.JEStagingDatabase;
 import org.geogit.storage.blueprints.TinkerGraphDatabase;
+import org.geogit.storage.fs.FileObjectDatabase;
 import org.geogit.storage.fs.FileRefDatabase;
+import org.geogit.storage.fs.PackedRefDatabase;
 import org.geogit.storage.mongo.MongoGraphDatabase;
 import org.geogit.storage.mongo.MongoObjectDatabase;
 import org.geogit.storage.mongo.MongoStagingDatabase;
@@ -38,13 +40,28 @@ import com.google.inject.util.Modules;
 
 public class CLIContextBuilder extends ContextBuilder {
 
-    private static final VersionedFormat DEFAULT_OBJECTS = new VersionedFormat("bdbje", "0.1");
+    private static final VersionedFormat DEFAULT_OBJECTS = new VersionedFormat(
+            JEObjectDatabase.FORMAT_NAME, JEObjectDatabase.VERSION);
 
-    private static final VersionedFormat DEFAULT_STAGING = new VersionedFormat("bdbje", "0.1");
+    private static final VersionedFormat DEFAULT_STAGING = DEFAULT_OBJECTS;
 
-    private static final VersionedFormat DEFAULT_REFS = new VersionedFormat("file", "1.0");
+    private static final VersionedFormat DEFAULT_REFS = new VersionedFormat(
+            PackedRefDatabase.FORMAT_NAME, PackedRefDatabase.VERSION);
 
-    private static final VersionedFormat DEFAULT_GRAPH = new VersionedFormat("bdbje", "0.1");
+    private static final VersionedFormat DEFAULT_GRAPH = DEFAULT_OBJECTS;
+
+    /**
+     * Older versions of the formats, still bound so their repositories can be opened, which
+     * upgrades them
+     */
+    private static final VersionedFormat JE_0_1 = new VersionedFormat(JEObjectDatabase.FORMAT_NAME,
+            "0.1");
+
+    private static final VersionedFormat MONGO = new VersionedFormat(
+            MongoObjectDatabase.FORMAT_NAME, MongoObjectDatabase.VERSION);
+
+    private static final VersionedFormat MONGO_0_1 = new VersionedFormat(
+            MongoObjectDatabase.FORMAT_NAME, "0.1");
 
     private static final PluginDefaults defaults = new PluginDefaults(DEFAULT_OBJECTS,//
             DEFAULT_STAGING,//
@@ -66,19 +83,35 @@ public class CLIContextBuilder extends ContextBuilder {
             MapBinder<VersionedFormat, RefDatabase> refPlugins = MapBinder.newMapBinder(binder(),
                     VersionedFormat.class, RefDatabase.class);
             refPlugins //
-                    .addBinding(DEFAULT_REFS)//
+                    .addBinding(
+                            new VersionedFormat(FileObjectDatabase.FORMAT_NAME,
+                                    FileObjectDatabase.VERSION))//
                     .to(FileRefDatabase.class)//
                     .in(Scopes.SINGLETON);
+            for (String version : new String[] { "1.0", "1.1" }) {
+                refPlugins //
+                        .addBinding(new VersionedFormat(FileObjectDatabase.FORMAT_NAME, version))//
+                        .to(FileRefDatabase.class)//
+                        .in(Scopes.SINGLETON);
+            }
+            refPlugins //
+                    .addBinding(DEFAULT_REFS)//
+                    .to(PackedRefDatabase.class)//
+                    .in(Scopes.SINGLETON);
             MapBinder<VersionedFormat, ObjectDatabase> objectPlugins = MapBinder.newMapBinder(
                     binder(), VersionedFormat.class, ObjectDatabase.class);
-            objectPlugins //
-                    .addBinding(DEFAULT_OBJECTS)//
-                    .to(JEObjectDatabase.class)//
-                    .in(Scopes.SINGLETON);//
-            objectPlugins //
-                    .addBinding(new VersionedFormat("mongodb", "0.1"))//
-                    .to(MongoObjectDatabase.class)//
-                    .in(Scopes.SINGLETON);
+            for (VersionedFormat format : new VersionedFormat[] { DEFAULT_OBJECTS, JE_0_1 }) {
+                objectPlugins //
+                        .addBinding(format)//
+                        .to(JEObjectDatabase.class)//
+                        .in(Scopes.SINGLETON);//
+            }
+            for (VersionedFormat format : new VersionedFormat[] { MONGO, MONGO_0_1 }) {
+                objectPlugins //
+                        .addBinding(format)//
+                        .to(MongoObjectDatabase.class)//
+                        .in(Scopes.SINGLETON);
+            }
             objectPlugins //
                     .addBinding(
                             new VersionedFormat(SQLiteStorage.FORMAT_NAME, SQLiteStorage.VERSION))//
@@ -86,14 +119,18 @@ public class CLIContextBuilder extends ContextBuilder {
                     .in(Scopes.SINGLETON);
             MapBinder<VersionedFormat, StagingDatabase> stagingPlugins = MapBinder.newMapBinder(
                     binder(), VersionedFormat.class, StagingDatabase.class);
-            stagingPlugins //
-                    .addBinding(new VersionedFormat("mongodb", "0.1"))//
-                    .to(MongoStagingDatabase.class)//
-                    .in(Scopes.SINGLETON);
-            stagingPlugins //
-                    .addBinding(DEFAULT_STAGING)//
-                    .to(JEStagingDatabase.class)//
-                    .in(Scopes.SINGLETON);
+            for (VersionedFormat format : new VersionedFormat[] { MONGO, MONGO_0_1 }) {
+                stagingPlugins //
+                        .addBinding(format)//
+                        .to(MongoStagingDatabase.class)//
+                        .in(Scopes.SINGLETON);
+            }
+            for (VersionedFormat format : new VersionedFormat[] { DEFAULT_STAGING, JE_0_1 }) {
+                stagingPlugins //
+                        .addBinding(format)//
+                        .to(JEStagingDatabase.class)//
+                        .in(Scopes.SINGLETON);
+            }
             stagingPlugins //
                     .addBinding(
                             new VersionedFormat(SQLiteStorage.FORMAT_NAME, SQLiteStorage.VERSION))//
@@ -101,18 +138,22 @@ public class CLIContextBuilder extends ContextBuilder {
                     .in(Scopes.SINGLETON);
             MapBinder<VersionedFormat, GraphDatabase> graphPlugins = MapBinder.newMapBinder(
                     binder(), VersionedFormat.class, GraphDatabase.class);
-            graphPlugins //
-                    .addBinding(DEFAULT_GRAPH) //
-                    .to(JEGraphDatabase.class) //
-                    .in(Scopes.SINGLETON);
+            for (VersionedFormat format : new VersionedFormat[] { DEFAULT_GRAPH, JE_0_1 }) {
+                graphPlugins //
+                        .addBinding(format) //
+                        .to(JEGraphDatabase.class) //
+                        .in(Scopes.SINGLETON);
+            }
             graphPlugins //
                     .addBinding(new VersionedFormat("tinkergraph", "0.1")) //
                     .to(TinkerGraphDatabase.class) //
                     .in(Scopes.SINGLETON);
-            graphPlugins //
-                    .addBinding(new VersionedFormat("mongodb", "0.1")) //
-                    .to(MongoGraphDatabase.class) //
-                    .in(Scopes.SINGLETON);
+            for (VersionedFormat format : new VersionedFormat[] { MONGO, MONGO_0_1 }) {
+                graphPlugins //
+                        .addBinding(format) //
+                        .to(MongoGraphDatabase.class) //
+                        .in(Scopes.SINGLETON);
+            }
             graphPlugins //
                     .addBinding(
                             new VersionedFormat(SQLiteStorage.FORMAT_NAME, SQLiteStorage.VERSION)) //
@@ -0,0 +1,38 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.cli.plumbing;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.geogit.api.plumbing.PruneSpatialIndexesOp;
+import org.geogit.cli.AbstractCommand;
+import org.geogit.cli.CLICommand;
+import org.geogit.cli.GeogitCLI;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+
+/**
+ * Deletes the spatial indexes of the feature type trees that are no longer reachable from any ref
+ * and haven't been queried lately.
+ * 
+ * @see PruneSpatialIndexesOp
+ */
+@Parameters(commandNames = "prune-spatial-indexes", commandDescription = "Deletes the spatial indexes no longer in use.")
+public class PruneSpatialIndexes extends AbstractCommand implements CLICommand {
+
+    @Parameter(names = "--keep-days", description = "Number of days the indexes of trees not reachable from any ref are kept for after they were last queried.")
+    private int keepDays = (int) TimeUnit.MILLISECONDS
+            .toDays(PruneSpatialIndexesOp.DEFAULT_RETENTION_PERIOD);
+
+    @Override
+    public void runInternal(GeogitCLI cli) throws IOException {
+        Integer deleted = cli.getGeogit().command(PruneSpatialIndexesOp.class)
+                .setRetentionPeriod(TimeUnit.DAYS.toMillis(keepDays)).call();
+        cli.getConsole().println(deleted + " spatial indexes deleted.");
+    }
+}
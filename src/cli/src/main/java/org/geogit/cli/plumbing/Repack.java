@@ -0,0 +1,30 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.cli.plumbing;
+
+import java.io.IOException;
+
+import org.geogit.api.plumbing.RepackOp;
+import org.geogit.cli.AbstractCommand;
+import org.geogit.cli.CLICommand;
+import org.geogit.cli.GeogitCLI;
+
+import com.beust.jcommander.Parameters;
+
+/**
+ * Moves all the loose objects in the object database into pack files.
+ * 
+ * @see RepackOp
+ */
+@Parameters(commandNames = "repack", commandDescription = "Packs loose objects into pack files.")
+public class Repack extends AbstractCommand implements CLICommand {
+
+    @Override
+    public void runInternal(GeogitCLI cli) throws IOException {
+        Long packed = cli.getGeogit().command(RepackOp.class).call();
+        cli.getConsole().println(packed + " objects packed.");
+    }
+}
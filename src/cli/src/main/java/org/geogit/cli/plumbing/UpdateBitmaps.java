@@ -0,0 +1,36 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.cli.plumbing;
+
+import java.io.IOException;
+
+import org.geogit.api.plumbing.UpdateBitmapsOp;
+import org.geogit.cli.AbstractCommand;
+import org.geogit.cli.CLICommand;
+import org.geogit.cli.GeogitCLI;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+
+/**
+ * Adds the reachability bitmaps of the branch tips and their history, used to compute the
+ * objects to send to remotes.
+ * 
+ * @see UpdateBitmapsOp
+ */
+@Parameters(commandNames = "update-bitmaps", commandDescription = "Updates the reachability bitmaps used to serve fetches and clones.")
+public class UpdateBitmaps extends AbstractCommand implements CLICommand {
+
+    @Parameter(names = "--interval", description = "Number of commits between two commits with a bitmap along the history of a branch.")
+    private int interval = UpdateBitmapsOp.DEFAULT_INTERVAL;
+
+    @Override
+    public void runInternal(GeogitCLI cli) throws IOException {
+        Integer added = cli.getGeogit().command(UpdateBitmapsOp.class).setInterval(interval)
+                .call();
+        cli.getConsole().println(added + " bitmaps added.");
+    }
+}
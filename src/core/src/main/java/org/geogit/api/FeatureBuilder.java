@@ -5,6 +5,8 @@
 
 package org.geogit.api;
 
+import java.util.AbstractList;
+import java.util.List;
 import java.util.Map;
 
 import org.geotools.filter.identity.FeatureIdVersionedImpl;
@@ -16,7 +18,6 @@ import org.opengis.filter.identity.FeatureId;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.BiMap;
-import com.google.common.collect.ImmutableList;
 
 /**
  * Provides a method of building features from {@link RevFeature} objects that have the type
@@ -76,7 +77,18 @@ public class FeatureBuilder {
         final String version = revFeature.getId().toString();
         final FeatureId fid = new FeatureIdVersionedImpl(id, version);
 
-        ImmutableList<Optional<Object>> values = revFeature.getValues();
+        // access the values through get(int) so they're only decoded as the feature is queried
+        List<Optional<Object>> values = new AbstractList<Optional<Object>>() {
+            @Override
+            public Optional<Object> get(int index) {
+                return revFeature.get(index);
+            }
+
+            @Override
+            public int size() {
+                return revFeature.size();
+            }
+        };
         GeogitSimpleFeature feature = new GeogitSimpleFeature(values,
                 (SimpleFeatureType) featureType, fid, attNameToRevTypeIndex, typeToRevTypeIndex);
         return feature;
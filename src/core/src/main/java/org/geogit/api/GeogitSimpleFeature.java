@@ -84,13 +84,13 @@ public class GeogitSimpleFeature implements SimpleFeature {
      * constructor
      * </p>
      * 
-     * @param values
+     * @param values the feature values, not to be modified
      * @param featureType
      * @param id
      * @param validating
      * @param nameToRevTypeInded - attribute name to value index mapping
      */
-    public GeogitSimpleFeature(ImmutableList<Optional<Object>> values,
+    public GeogitSimpleFeature(List<Optional<Object>> values,
             SimpleFeatureType featureType, FeatureId id, Map<String, Integer> nameToRevTypeInded,
             BiMap<Integer, Integer> typeToRevTypeIndex) {
         this.id = id;
@@ -101,7 +101,7 @@ public class GeogitSimpleFeature implements SimpleFeature {
     }
 
     private List<Optional<Object>> mutableValues() {
-        if (revFeatureValues instanceof ImmutableList) {
+        if (!(revFeatureValues instanceof ArrayList)) {
             revFeatureValues = Lists.newArrayList(revFeatureValues);
         }
         return revFeatureValues;
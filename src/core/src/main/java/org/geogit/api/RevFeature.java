@@ -43,6 +43,17 @@ public class RevFeature extends AbstractRevObject {
         this.values = values;
     }
 
+    /**
+     * Constructor for subclasses that decode their values on demand, which shall override
+     * {@link #getValues()}, {@link #get(int)} and {@link #size()}
+     * 
+     * @param id the {@link ObjectId} to use for this feature
+     */
+    protected RevFeature(ObjectId id) {
+        super(id);
+        this.values = null;
+    }
+
     /**
      * @return a list of values, with {@link Optional#absent()} representing a null value
      */
@@ -50,6 +61,24 @@ public class RevFeature extends AbstractRevObject {
         return values;
     }
 
+    /**
+     * Returns a single value, which may be cheaper than {@link #getValues()} if the feature
+     * values are decoded on demand.
+     * 
+     * @param index the index of the value
+     * @return the value at {@code index}, with {@link Optional#absent()} representing a null value
+     */
+    public Optional<Object> get(int index) {
+        return values.get(index);
+    }
+
+    /**
+     * @return the number of values
+     */
+    public int size() {
+        return values.size();
+    }
+
     @Override
     public TYPE getType() {
         return TYPE.FEATURE;
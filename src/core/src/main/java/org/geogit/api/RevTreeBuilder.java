@@ -24,6 +24,7 @@ import org.geogit.repository.DepthSearch;
 import org.geogit.repository.SpatialOps;
 import org.geogit.storage.NodePathStorageOrder;
 import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.memory.ObjectIdMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -68,7 +69,7 @@ public class RevTreeBuilder {
 
     protected NodePathStorageOrder storageOrder = new NodePathStorageOrder();
 
-    private Map<ObjectId, RevTree> pendingWritesCache;
+    private ObjectIdMap<RevTree> pendingWritesCache;
 
     /**
      * Empty tree constructor, used to create trees from scratch
@@ -89,21 +90,21 @@ public class RevTreeBuilder {
         featureChanges = Maps.newTreeMap();
         deletes = Sets.newTreeSet();
         bucketTreesByBucket = Maps.newTreeMap();
-        pendingWritesCache = Maps.newTreeMap();
+        pendingWritesCache = new ObjectIdMap<RevTree>();
     }
 
     /**
      * Copy constructor with tree depth
      */
     public RevTreeBuilder(ObjectDatabase db, @Nullable final RevTree copy) {
-        this(db, copy, 0, new TreeMap<ObjectId, RevTree>());
+        this(db, copy, 0, new ObjectIdMap<RevTree>());
     }
 
     /**
      * Copy constructor
      */
     private RevTreeBuilder(final ObjectDatabase db, @Nullable final RevTree copy, final int depth,
-            final Map<ObjectId, RevTree> pendingWritesCache) {
+            final ObjectIdMap<RevTree> pendingWritesCache) {
 
         checkNotNull(db);
         checkNotNull(pendingWritesCache);
@@ -251,8 +252,7 @@ public class RevTreeBuilder {
                     .size(), (topLevelTree ? "writing top level tree" : "there are "
                     + pendingWritesCache.size() + " pending bucket writes"));
             Stopwatch sw2 = Stopwatch.createStarted();
-            db.putAll(pendingWritesCache.values().iterator());
-            pendingWritesCache.clear();
+            writePending(db, pendingWritesCache);
             LOGGER.debug("done in {}", sw2.stop());
         }
         this.initialSize = unnamedTree.size();
@@ -516,6 +516,88 @@ public class RevTreeBuilder {
         return namedTree;
     }
 
+    /**
+     * Builds the bucket tree at the given depth of a larger tree out of its current contents and a
+     * sequence of changes, where nodes with a {@link ObjectId#NULL NULL} object id are removed.
+     * <p>
+     * Meant to build the top level buckets of a tree independently of each other, for example in
+     * parallel, and then {@link #build(ObjectDatabase, Map) assemble} them. Unlike
+     * {@link #build()}, the returned tree and all its bucket trees are saved to the database.
+     * 
+     * @param db the database to load the current bucket trees from and save the new ones to
+     * @param bucketTree the current bucket tree, or {@link RevTree#EMPTY} if there's none
+     * @param depth the depth of the bucket tree, {@code 1} for a top level bucket
+     * @param changes the nodes to add or remove, all of them shall belong to this bucket
+     * @return the new bucket tree, or {@link RevTree#EMPTY} if no nodes are left
+     */
+    public static RevTree buildBucket(final ObjectDatabase db, final RevTree bucketTree,
+            final int depth, final Iterator<Node> changes) {
+        checkArgument(depth > 0, "a bucket tree can't be at depth 0");
+        RevTreeBuilder builder = new RevTreeBuilder(db, bucketTree, depth,
+                new ObjectIdMap<RevTree>());
+        while (changes.hasNext()) {
+            Node node = changes.next();
+            if (node.getObjectId().isNull()) {
+                builder.remove(node.getName());
+            } else {
+                builder.put(node);
+            }
+        }
+        RevTree tree = builder.build();
+        // bucket builders leave their bucket trees for the top level builder to save
+        if (!builder.pendingWritesCache.isEmpty()) {
+            writePending(db, builder.pendingWritesCache);
+        }
+        if (!tree.isEmpty()) {
+            db.put(tree);
+        }
+        return tree;
+    }
+
+    /**
+     * Saves and clears the pending bucket trees, in id order so that the backends insert them
+     * sequentially instead of in the hash order of the pending writes cache
+     */
+    private static void writePending(final ObjectDatabase db,
+            final ObjectIdMap<RevTree> pendingWritesCache) {
+        db.putAll(new TreeMap<ObjectId, RevTree>(pendingWritesCache).values().iterator());
+        pendingWritesCache.clear();
+    }
+
+    /**
+     * Assembles a tree out of its top level bucket trees, as built by
+     * {@link #buildBucket(ObjectDatabase, RevTree, int, Iterator)}, turning it into a leaf tree if
+     * it ends up with no more than {@link RevTree#NORMALIZED_SIZE_LIMIT} nodes.
+     * 
+     * @param db the database where the bucket trees are saved
+     * @param bucketTrees the depth 1 bucket trees by bucket index, empty ones are ignored
+     * @return the new tree, not saved to the object database
+     */
+    public static RevTree build(final ObjectDatabase db, final Map<Integer, RevTree> bucketTrees) {
+        Map<Integer, Bucket> buckets = Maps.newTreeMap();
+        long size = 0L;
+        int numTrees = 0;
+        for (Map.Entry<Integer, RevTree> entry : bucketTrees.entrySet()) {
+            RevTree bucketTree = entry.getValue();
+            if (bucketTree.isEmpty()) {
+                continue;
+            }
+            size += bucketTree.size();
+            numTrees += bucketTree.numTrees();
+            Envelope bounds = SpatialOps.boundsOf(bucketTree);
+            buckets.put(entry.getKey(), Bucket.create(bucketTree.getId(), bounds));
+        }
+        if (buckets.isEmpty()) {
+            return RevTree.EMPTY;
+        }
+        RevTree unnamedTree = RevTreeImpl.createNodeTree(ObjectId.NULL, size, numTrees, buckets);
+        if (size <= NORMALIZED_SIZE_LIMIT) {
+            return new RevTreeBuilder(db, unnamedTree).build();
+        }
+        ObjectId treeId = new HashObject().setObject(unnamedTree).call();
+        return RevTreeImpl.create(treeId, size, unnamedTree);
+    }
+
     /**
      * Deletes all nodes that represent subtrees
      * 
@@ -8,6 +8,7 @@ package org.geogit.api.plumbing;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -20,12 +21,14 @@ import org.geogit.api.Bucket;
 import org.geogit.api.Node;
 import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeature;
 import org.geogit.api.RevObject;
 import org.geogit.api.RevObject.TYPE;
 import org.geogit.api.RevTree;
 import org.geogit.api.plumbing.LsTreeOp.Strategy;
 import org.geogit.repository.StagingArea;
 import org.geogit.storage.BulkOpListener;
+import org.geogit.storage.DeltaCandidate;
 import org.geogit.storage.ObjectDatabase;
 
 import com.google.common.base.Function;
@@ -56,7 +59,8 @@ public class DeepMove extends AbstractGeoGitOp<ObjectId> {
 
     private ObjectDatabase odb;
 
-    
+    private Map<ObjectId, ObjectId> deltaBases;
+
     /**
      * @param toIndex if {@code true} moves the object from the repository's object database to the
      *        index database instead
@@ -98,6 +102,23 @@ public class DeepMove extends AbstractGeoGitOp<ObjectId> {
         return this;
     }
 
+    /**
+     * Sets the previous versions of the modified features among the {@link #setObjects(Supplier)
+     * objects to move}, so the destination database can store them as deltas.
+     * <p>
+     * The map may be filled as the nodes to move are iterated over, as long as the entry for a
+     * feature is added before its node is returned. Entries are removed as the features are moved.
+     * 
+     * @param deltaBases the ids of the previous versions of the modified features, keyed by the
+     *        ids of their new versions
+     * @return {@code this}
+     * @see DeltaCandidate
+     */
+    public DeepMove setDeltaBases(@Nullable Map<ObjectId, ObjectId> deltaBases) {
+        this.deltaBases = deltaBases;
+        return this;
+    }
+
     /**
      * Executes a deep move using the supplied {@link Node}.
      * 
@@ -214,8 +235,12 @@ public class DeepMove extends AbstractGeoGitOp<ObjectId> {
         try {
             final DeletingListener deletingListener = new DeletingListener(deletingService, from);
 
+            Iterator<RevObject> objects = from.getAll(ids);
+            if (deltaBases != null) {
+                objects = Iterators.transform(objects, asDeltaCandidates(deltaBases));
+            }
             // store objects into the target db and remove them from the origin db in one shot
-            to.putAll(from.getAll(ids), deletingListener);
+            to.putAll(objects, deletingListener);
             // in case there are some deletes pending cause the iterator finished and the listener
             // didn't fill its buffer
             deletingListener.deleteInserted();
@@ -232,6 +257,22 @@ public class DeepMove extends AbstractGeoGitOp<ObjectId> {
         }
     }
 
+    private static Function<RevObject, RevObject> asDeltaCandidates(
+            final Map<ObjectId, ObjectId> deltaBases) {
+        return new Function<RevObject, RevObject>() {
+            @Override
+            public RevObject apply(RevObject object) {
+                if (object instanceof RevFeature) {
+                    ObjectId baseId = deltaBases.remove(object.getId());
+                    if (baseId != null) {
+                        return new DeltaCandidate((RevFeature) object, baseId);
+                    }
+                }
+                return object;
+            }
+        };
+    }
+
     /**
      * Transfers the object referenced by {@code objectRef} from the given object database to the
      * given objectInserter as well as any child object if {@code objectRef} references a tree.
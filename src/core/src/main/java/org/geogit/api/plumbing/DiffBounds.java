@@ -10,6 +10,7 @@ import static com.google.common.base.Preconditions.checkArgument;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.annotation.Nullable;
 
@@ -25,6 +26,7 @@ import org.geogit.api.RevTree;
 import org.geogit.api.plumbing.diff.DiffSummary;
 import org.geogit.api.plumbing.diff.DiffTreeVisitor;
 import org.geogit.api.plumbing.diff.PathFilteringDiffConsumer;
+import org.geogit.storage.DiffSummaryCache;
 import org.geogit.storage.ObjectDatabase;
 import org.geotools.geometry.jts.JTS;
 import org.geotools.geometry.jts.ReferencedEnvelope;
@@ -41,15 +43,21 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
+import com.google.inject.Inject;
 import com.vividsolutions.jts.geom.Envelope;
 
 /**
  * Computes the bounds of the difference between the two trees instead of the actual diffs.
- * 
+ * <p>
+ * The bounds in the default CRS between trees of the repository are kept in the
+ * {@link DiffSummaryCache}, so computing the bounds of the same commits again doesn't walk the
+ * diff.
  */
 
 public class DiffBounds extends AbstractGeoGitOp<DiffSummary<BoundingBox, BoundingBox>> {
 
+    private final DiffSummaryCache cache;
+
     private String oldVersion;
 
     private String newVersion;
@@ -60,6 +68,13 @@ public class DiffBounds extends AbstractGeoGitOp<DiffSummary<BoundingBox, Boundi
 
     private CoordinateReferenceSystem crs;
 
+    private boolean parallel;
+
+    @Inject
+    public DiffBounds(DiffSummaryCache cache) {
+        this.cache = cache;
+    }
+
     public DiffBounds setOldVersion(String oldVersion) {
         this.oldVersion = oldVersion;
         this.pathFilters = ImmutableList.of();
@@ -94,6 +109,15 @@ public class DiffBounds extends AbstractGeoGitOp<DiffSummary<BoundingBox, Boundi
         return this;
     }
 
+    /**
+     * @param parallel whether to walk the diff using all the available processors
+     * @see DiffTreeVisitor#walk(DiffTreeVisitor.Consumer, ForkJoinPool)
+     */
+    public DiffBounds setParallel(boolean parallel) {
+        this.parallel = parallel;
+        return this;
+    }
+
     @Override
     protected DiffSummary<BoundingBox, BoundingBox> _call() {
         checkArgument(cached && oldVersion == null || !cached, String.format(
@@ -110,6 +134,18 @@ public class DiffBounds extends AbstractGeoGitOp<DiffSummary<BoundingBox, Boundi
         RevTree left = resolveTree(leftRefSpec);
         RevTree right = resolveTree(rightRefSpec);
 
+        // trees that only live in the index or working tree come and go, don't cache them
+        final boolean cacheable = this.crs == null && isCommitted(left) && isCommitted(right);
+        if (cacheable) {
+            Optional<DiffSummary<Envelope, Envelope>> cached = cache.getBounds(left.getId(),
+                    right.getId(), pathFilters);
+            if (cached.isPresent()) {
+                CoordinateReferenceSystem defaultCrs = resolveCrs();
+                return summary(new ReferencedEnvelope(cached.get().getLeft(), defaultCrs),
+                        new ReferencedEnvelope(cached.get().getRight(), defaultCrs));
+            }
+        }
+
         ObjectDatabase leftSource = resolveSafeDb(leftRefSpec);
         ObjectDatabase rightSource = resolveSafeDb(rightRefSpec);
         DiffTreeVisitor visitor = new DiffTreeVisitor(left, right, leftSource, rightSource);
@@ -119,11 +155,42 @@ public class DiffBounds extends AbstractGeoGitOp<DiffSummary<BoundingBox, Boundi
         if (!pathFilters.isEmpty()) {
             consumer = new PathFilteringDiffConsumer(pathFilters, walk);
         }
-        visitor.walk(consumer);
+        if (parallel) {
+            ForkJoinPool pool = new ForkJoinPool(platform().availableProcessors());
+            try {
+                visitor.walk(consumer, pool);
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            visitor.walk(consumer);
+        }
         DiffSummary<BoundingBox, BoundingBox> diffBounds = walk.getResult();
+        if (cacheable) {
+            cache.putBounds(left.getId(), right.getId(), pathFilters, new ReferencedEnvelope(
+                    diffBounds.getLeft()), new ReferencedEnvelope(diffBounds.getRight()));
+        }
         return diffBounds;
     }
 
+    private boolean isCommitted(RevTree tree) {
+        return tree.isEmpty() || objectDatabase().exists(tree.getId());
+    }
+
+    private static DiffSummary<BoundingBox, BoundingBox> summary(BoundingBox lbounds,
+            BoundingBox rbounds) {
+        BoundingBox merged;
+        if (lbounds.isEmpty()) {
+            merged = rbounds;
+        } else if (rbounds.isEmpty()) {
+            merged = lbounds;
+        } else {
+            merged = new ReferencedEnvelope(lbounds);
+            merged.include(rbounds);
+        }
+        return new DiffSummary<BoundingBox, BoundingBox>(lbounds, rbounds, merged);
+    }
+
     private CoordinateReferenceSystem resolveCrs() {
         if (this.crs != null) {
             return this.crs;
@@ -158,6 +225,11 @@ public class DiffBounds extends AbstractGeoGitOp<DiffSummary<BoundingBox, Boundi
         return stagingDatabase().getTree(id.get());
     }
 
+    /**
+     * Thread safe bounds computing consumer, {@link #tree} is not as it keeps track of the default
+     * metadata ids, but {@link DiffTreeVisitor#walk(DiffTreeVisitor.Consumer, ForkJoinPool)} never
+     * calls it concurrently.
+     */
     private static class BoundsWalk implements DiffTreeVisitor.Consumer {
 
         private DiffSummary<BoundingBox, BoundingBox> result;
@@ -181,7 +253,7 @@ public class DiffBounds extends AbstractGeoGitOp<DiffSummary<BoundingBox, Boundi
         public BoundsWalk(CoordinateReferenceSystem crs, ObjectDatabase source) {
             this.crs = crs;
             this.source = source;
-            this.transformsByMetadataId = Maps.newHashMap();
+            this.transformsByMetadataId = Maps.newConcurrentMap();
             leftEnv = new ReferencedEnvelope(this.crs);
             rightEnv = new ReferencedEnvelope(this.crs);
             leftHelper = new ReferencedEnvelope(this.crs);
@@ -190,11 +262,15 @@ public class DiffBounds extends AbstractGeoGitOp<DiffSummary<BoundingBox, Boundi
 
         @Override
         public void feature(@Nullable Node left, @Nullable Node right) {
+            ReferencedEnvelope leftHelper = new ReferencedEnvelope(this.crs);
+            ReferencedEnvelope rightHelper = new ReferencedEnvelope(this.crs);
             setEnv(left, leftHelper, md(left).or(currentDefaultLefMetadataId));
             setEnv(right, rightHelper, md(right).or(currentDefaultRightMetadataId));
             if (!leftHelper.equals(rightHelper)) {
-                leftEnv.expandToInclude(leftHelper);
-                rightEnv.expandToInclude(rightHelper);
+                synchronized (this) {
+                    leftEnv.expandToInclude(leftHelper);
+                    rightEnv.expandToInclude(rightHelper);
+                }
             }
         }
 
@@ -231,18 +307,22 @@ public class DiffBounds extends AbstractGeoGitOp<DiffSummary<BoundingBox, Boundi
         @Override
         public boolean bucket(final int bucketIndex, final int bucketDepth, @Nullable Bucket left,
                 @Nullable Bucket right) {
+            ReferencedEnvelope leftHelper = new ReferencedEnvelope(this.crs);
+            ReferencedEnvelope rightHelper = new ReferencedEnvelope(this.crs);
             setEnv(left, leftHelper, currentDefaultLefMetadataId);
             setEnv(right, rightHelper, currentDefaultRightMetadataId);
             if (leftHelper.isNull() && rightHelper.isNull()) {
                 return false;
             }
 
-            if (leftHelper.isNull()) {
-                rightEnv.expandToInclude(rightHelper);
-                return false;
-            } else if (rightHelper.isNull()) {
-                leftEnv.expandToInclude(leftHelper);
-                return false;
+            synchronized (this) {
+                if (leftHelper.isNull()) {
+                    rightEnv.expandToInclude(rightHelper);
+                    return false;
+                } else if (rightHelper.isNull()) {
+                    leftEnv.expandToInclude(leftHelper);
+                    return false;
+                }
             }
             return true;
         }
@@ -306,16 +386,7 @@ public class DiffBounds extends AbstractGeoGitOp<DiffSummary<BoundingBox, Boundi
             if (NodeRef.ROOT.equals(name)) {
                 BoundingBox lbounds = new ReferencedEnvelope(this.leftEnv);
                 BoundingBox rbounds = new ReferencedEnvelope(this.rightEnv);
-                BoundingBox merged;
-                if (lbounds.isEmpty()) {
-                    merged = rbounds;
-                } else if (rbounds.isEmpty()) {
-                    merged = lbounds;
-                } else {
-                    merged = new ReferencedEnvelope(lbounds);
-                    merged.include(rbounds);
-                }
-                this.result = new DiffSummary<BoundingBox, BoundingBox>(lbounds, rbounds, merged);
+                this.result = summary(lbounds, rbounds);
             }
         }
 
@@ -8,6 +8,7 @@ package org.geogit.api.plumbing;
 import static com.google.common.base.Preconditions.checkState;
 
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.annotation.Nullable;
 
@@ -19,25 +20,39 @@ import org.geogit.api.plumbing.diff.DiffObjectCount;
 import org.geogit.api.plumbing.diff.DiffTreeVisitor;
 import org.geogit.api.plumbing.diff.DiffTreeWalk;
 import org.geogit.api.plumbing.diff.PathFilteringDiffConsumer;
+import org.geogit.storage.DiffSummaryCache;
 import org.geogit.storage.StagingDatabase;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
+import com.google.inject.Inject;
 
 /**
  * A faster alternative to count the number of diffs between two trees than walking a
  * {@link DiffTreeWalk} iterator.
+ * <p>
+ * The counts between trees of the repository are kept in the {@link DiffSummaryCache}, so
+ * counting the changes of the same commits again doesn't walk the diff.
  * 
  * @see DiffCountConsumer
  */
 public class DiffCount extends AbstractGeoGitOp<DiffObjectCount> {
 
+    private final DiffSummaryCache cache;
+
     private final List<String> pathFilters = Lists.newLinkedList();
 
     private String oldRefSpec;
 
     private String newRefSpec;
 
+    private boolean parallel;
+
+    @Inject
+    public DiffCount(DiffSummaryCache cache) {
+        this.cache = cache;
+    }
+
     public DiffCount setOldVersion(@Nullable String refSpec) {
         this.oldRefSpec = refSpec;
         return this;
@@ -48,6 +63,15 @@ public class DiffCount extends AbstractGeoGitOp<DiffObjectCount> {
         return this;
     }
 
+    /**
+     * @param parallel whether to walk the diff using all the available processors
+     * @see DiffTreeVisitor#walk(DiffTreeVisitor.Consumer, ForkJoinPool)
+     */
+    public DiffCount setParallel(boolean parallel) {
+        this.parallel = parallel;
+        return this;
+    }
+
     /**
      * @param path the path filter to use during the diff operation
      * @return {@code this}
@@ -79,6 +103,16 @@ public class DiffCount extends AbstractGeoGitOp<DiffObjectCount> {
         final RevTree oldTree = getTree(oldRefSpec);
         final RevTree newTree = getTree(newRefSpec);
 
+        // trees that only live in the index or working tree come and go, don't cache them
+        final boolean cacheable = isCommitted(oldTree) && isCommitted(newTree);
+        if (cacheable) {
+            Optional<DiffObjectCount> cached = cache.getCount(oldTree.getId(), newTree.getId(),
+                    pathFilters);
+            if (cached.isPresent()) {
+                return cached.get();
+            }
+        }
+
         DiffObjectCount diffCount;
         StagingDatabase index = stagingDatabase();
         DiffTreeVisitor visitor = new DiffTreeVisitor(oldTree, newTree, index, index);
@@ -88,12 +122,28 @@ public class DiffCount extends AbstractGeoGitOp<DiffObjectCount> {
         if (!pathFilters.isEmpty()) {
             filter = new PathFilteringDiffConsumer(pathFilters, counter);
         }
-        visitor.walk(filter);
+        if (parallel) {
+            ForkJoinPool pool = new ForkJoinPool(platform().availableProcessors());
+            try {
+                visitor.walk(filter, pool);
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            visitor.walk(filter);
+        }
         diffCount = counter.get();
 
+        if (cacheable) {
+            cache.putCount(oldTree.getId(), newTree.getId(), pathFilters, diffCount);
+        }
         return diffCount;
     }
 
+    private boolean isCommitted(RevTree tree) {
+        return tree.isEmpty() || objectDatabase().exists(tree.getId());
+    }
+
     /**
      * @return the tree referenced by the old ref, or the head of the index.
      */
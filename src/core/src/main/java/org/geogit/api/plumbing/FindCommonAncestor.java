@@ -5,23 +5,24 @@
 
 package org.geogit.api.plumbing;
 
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
-import java.util.Set;
 
 import org.geogit.api.AbstractGeoGitOp;
 import org.geogit.api.ObjectId;
 import org.geogit.api.RevCommit;
+import org.geogit.storage.CommitGraph;
 import org.geogit.storage.GraphDatabase;
 import org.geogit.storage.GraphDatabase.Direction;
 import org.geogit.storage.GraphDatabase.GraphEdge;
 import org.geogit.storage.GraphDatabase.GraphNode;
+import org.geogit.storage.memory.ObjectIdSet;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.inject.Inject;
 
 /**
  * Finds the common {@link RevCommit commit} ancestor of two commits.
@@ -32,6 +33,18 @@ public class FindCommonAncestor extends AbstractGeoGitOp<Optional<ObjectId>> {
 
     private ObjectId right;
 
+    private CommitGraph commitGraph;
+
+    /**
+     * Constructs a new {@code FindCommonAncestor} using the specified {@link CommitGraph}.
+     * 
+     * @param commitGraph the commit graph to search when it has both commits
+     */
+    @Inject
+    public FindCommonAncestor(CommitGraph commitGraph) {
+        this.commitGraph = commitGraph;
+    }
+
     /**
      * @param left the left {@link ObjectId}
      */
@@ -90,7 +103,8 @@ public class FindCommonAncestor extends AbstractGeoGitOp<Optional<ObjectId>> {
     }
 
     /**
-     * Finds the lowest common ancestor of two commits.
+     * Finds the lowest common ancestor of two commits, from the {@link CommitGraph} if it has both
+     * commits, or by walking the {@link GraphDatabase} otherwise.
      * 
      * @param leftId the commit id of the left commit
      * @param rightId the commit id of the right commit
@@ -98,8 +112,11 @@ public class FindCommonAncestor extends AbstractGeoGitOp<Optional<ObjectId>> {
      *         {@link Optional#absent()} if a common ancestor could not be found.
      */
     public Optional<ObjectId> findLowestCommonAncestor(ObjectId leftId, ObjectId rightId) {
-        Set<GraphNode> leftSet = new HashSet<GraphNode>();
-        Set<GraphNode> rightSet = new HashSet<GraphNode>();
+        if (commitGraph.contains(leftId) && commitGraph.contains(rightId)) {
+            return commitGraph.findMergeBase(leftId, rightId);
+        }
+        ObjectIdSet leftSet = new ObjectIdSet();
+        ObjectIdSet rightSet = new ObjectIdSet();
 
         Queue<GraphNode> leftQueue = new LinkedList<GraphNode>();
         Queue<GraphNode> rightQueue = new LinkedList<GraphNode>();
@@ -147,10 +164,10 @@ public class FindCommonAncestor extends AbstractGeoGitOp<Optional<ObjectId>> {
      * @param theirSet other traversal's visited nodes
      * @return
      */
-    private boolean processCommit(GraphNode commit, Queue<GraphNode> myQueue, Set<GraphNode> mySet,
-            Queue<GraphNode> theirQueue, Set<GraphNode> theirSet) {
-        if (mySet.add(commit)) {
-            if (theirSet.contains(commit)) {
+    private boolean processCommit(GraphNode commit, Queue<GraphNode> myQueue, ObjectIdSet mySet,
+            Queue<GraphNode> theirQueue, ObjectIdSet theirSet) {
+        if (mySet.add(commit.getIdentifier())) {
+            if (theirSet.contains(commit.getIdentifier())) {
                 stopAncestryPath(commit, theirQueue, theirSet);
                 return true;
             }
@@ -176,20 +193,19 @@ public class FindCommonAncestor extends AbstractGeoGitOp<Optional<ObjectId>> {
      * @param theirSet the opposite visited nodes
      */
     private void stopAncestryPath(GraphNode commit, Queue<GraphNode> theirQueue,
-            Set<GraphNode> theirSet) {
+            ObjectIdSet theirSet) {
         Queue<GraphNode> ancestorQueue = new LinkedList<GraphNode>();
         ancestorQueue.add(commit);
-        Set<GraphNode> processed = new HashSet<GraphNode>();
+        ObjectIdSet processed = new ObjectIdSet();
         while (!ancestorQueue.isEmpty()) {
             GraphNode ancestor = ancestorQueue.poll();
             Iterator<GraphEdge> edges = ancestor.getEdges(Direction.OUT);
             while (edges.hasNext()) {
                 GraphEdge relationship = edges.next();
                 GraphNode parentNode = relationship.getToNode();
-                if (theirSet.contains(parentNode)) {
-                    if (!processed.contains(parentNode)) {
+                if (theirSet.contains(parentNode.getIdentifier())) {
+                    if (processed.add(parentNode.getIdentifier())) {
                         ancestorQueue.add(parentNode);
-                        processed.add(parentNode);
                     }
                 } else {
                     theirQueue.remove(parentNode);
@@ -206,8 +222,8 @@ public class FindCommonAncestor extends AbstractGeoGitOp<Optional<ObjectId>> {
      * @param leftSet the visited nodes of the left traversal
      * @param rightSet the visited nodes of the right traversal
      */
-    private void verifyAncestors(List<GraphNode> potentialCommonAncestors, Set<GraphNode> leftSet,
-            Set<GraphNode> rightSet) {
+    private void verifyAncestors(List<GraphNode> potentialCommonAncestors, ObjectIdSet leftSet,
+            ObjectIdSet rightSet) {
         Queue<GraphNode> ancestorQueue = new LinkedList<GraphNode>();
         List<GraphNode> falseAncestors = new LinkedList<GraphNode>();
         List<GraphNode> processed = new LinkedList<GraphNode>();
@@ -224,7 +240,8 @@ public class FindCommonAncestor extends AbstractGeoGitOp<Optional<ObjectId>> {
                     GraphEdge parent = edges.next();
                     GraphNode parentNode = parent.getToNode();
                     if (parentNode.getIdentifier() != ancestor.getIdentifier()) {
-                        if (leftSet.contains(parentNode) || rightSet.contains(parentNode)) {
+                        final ObjectId parentId = parentNode.getIdentifier();
+                        if (leftSet.contains(parentId) || rightSet.contains(parentId)) {
                             if (!processed.contains(parentNode)) {
                                 ancestorQueue.add(parentNode);
                                 processed.add(parentNode);
@@ -0,0 +1,91 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.api.plumbing;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.geogit.api.AbstractGeoGitOp;
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.api.Ref;
+import org.geogit.api.plumbing.LsTreeOp.Strategy;
+import org.geogit.repository.SpatialIndex;
+import org.geogit.storage.SpatialIndexDatabase;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Sets;
+import com.google.inject.Inject;
+
+/**
+ * Deletes the stored {@link SpatialIndex spatial indexes} of the trees that are not reachable from
+ * the current value of any ref, which pile up as the indexed feature type trees change.
+ * <p>
+ * Indexes used within the {@link #setRetentionPeriod(long) retention period} are kept even if
+ * their trees are not reachable from a ref anymore, since queries on past versions of a feature
+ * type or on detached commits would otherwise have to build them again.
+ *
+ * @see SpatialIndexDatabase#retainAll(Set, long)
+ */
+public class PruneSpatialIndexesOp extends AbstractGeoGitOp<Integer> {
+
+    /**
+     * Default time, in milliseconds, an index is kept for after its last use: a week
+     */
+    public static final long DEFAULT_RETENTION_PERIOD = TimeUnit.DAYS.toMillis(7);
+
+    private final SpatialIndexDatabase indexDb;
+
+    private long retentionPeriod = DEFAULT_RETENTION_PERIOD;
+
+    @Inject
+    public PruneSpatialIndexesOp(SpatialIndexDatabase indexDb) {
+        this.indexDb = indexDb;
+    }
+
+    /**
+     * @param retentionPeriod the time, in milliseconds, the indexes of unreachable trees are kept
+     *        for after their last use
+     * @return {@code this}
+     */
+    public PruneSpatialIndexesOp setRetentionPeriod(long retentionPeriod) {
+        checkArgument(retentionPeriod >= 0, "negative retention period: %s", retentionPeriod);
+        this.retentionPeriod = retentionPeriod;
+        return this;
+    }
+
+    /**
+     * @return the number of indexes deleted
+     */
+    @Override
+    protected Integer _call() {
+        Set<ObjectId> rootTrees = Sets.newHashSet();
+        for (Ref ref : command(ForEachRef.class).call()) {
+            if (ref.getObjectId().isNull()) {
+                continue;
+            }
+            Optional<ObjectId> rootTree = command(ResolveTreeish.class)
+                    .setTreeish(ref.getObjectId()).call();
+            if (rootTree.isPresent()) {
+                rootTrees.add(rootTree.get());
+            }
+        }
+        Set<ObjectId> trees = Sets.newHashSet(rootTrees);
+        for (ObjectId rootTree : rootTrees) {
+            Iterator<NodeRef> children = command(LsTreeOp.class)
+                    .setReference(rootTree.toString())
+                    .setStrategy(Strategy.DEPTHFIRST_ONLY_TREES).call();
+            while (children.hasNext()) {
+                trees.add(children.next().objectId());
+            }
+        }
+        final long usedAfter = platform().currentTimeMillis() - retentionPeriod;
+        return Integer.valueOf(indexDb.retainAll(trees, usedAfter));
+    }
+}
@@ -15,17 +15,32 @@ import org.geogit.api.RevCommit;
 import org.geogit.api.porcelain.BranchListOp;
 import org.geogit.api.porcelain.LogOp;
 import org.geogit.repository.Repository;
+import org.geogit.storage.CommitGraph;
 import org.geogit.storage.GraphDatabase;
+import org.geogit.storage.ObjectDatabase;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.inject.Inject;
 
 /**
- * Rebuilds the {@link GraphDatabase} and returns a list of {@link ObjectId}s that were found to be
- * missing or incomplete.
+ * Rebuilds the {@link GraphDatabase} and the {@link CommitGraph}, and returns a list of
+ * {@link ObjectId}s that were found to be missing or incomplete in the graph database.
  */
 public class RebuildGraphOp extends AbstractGeoGitOp<ImmutableList<ObjectId>> {
 
+    private CommitGraph commitGraph;
+
+    /**
+     * Constructs a new {@code RebuildGraphOp} using the specified {@link CommitGraph}.
+     * 
+     * @param commitGraph the commit graph to rebuild
+     */
+    @Inject
+    public RebuildGraphOp(CommitGraph commitGraph) {
+        this.commitGraph = commitGraph;
+    }
+
     /**
      * Executes the {@code RebuildGraphOp} operation.
      * 
@@ -42,6 +57,8 @@ public class RebuildGraphOp extends AbstractGeoGitOp<ImmutableList<ObjectId>> {
                 .call();
 
         GraphDatabase graphDb = repository.graphDatabase();
+        ObjectDatabase objectDb = repository.objectDatabase();
+        commitGraph.clear();
 
         for (Ref ref : branches) {
             Iterator<RevCommit> commits = command(LogOp.class).setUntil(ref.getObjectId()).call();
@@ -50,8 +67,10 @@ public class RebuildGraphOp extends AbstractGeoGitOp<ImmutableList<ObjectId>> {
                 if (graphDb.put(next.getId(), next.getParentIds())) {
                     updated.add(next.getId());
                 }
+                commitGraph.add(next, objectDb);
             }
         }
+        commitGraph.flush();
 
         return ImmutableList.copyOf(updated);
     }
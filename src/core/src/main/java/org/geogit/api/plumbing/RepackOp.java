@@ -0,0 +1,46 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.api.plumbing;
+
+import org.geogit.api.AbstractGeoGitOp;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.fs.FileObjectDatabase;
+
+import com.google.common.base.Preconditions;
+import com.google.inject.Inject;
+
+/**
+ * Folds the loose objects of a file based object database into pack files.
+ * 
+ * @see FileObjectDatabase#repack()
+ */
+public class RepackOp extends AbstractGeoGitOp<Long> {
+
+    private ObjectDatabase objectDb;
+
+    /**
+     * Construct a new {@code RepackOp} using the specified {@link ObjectDatabase}.
+     * 
+     * @param objectDb the (undecorated) repository object database
+     */
+    @Inject
+    public RepackOp(ObjectDatabase objectDb) {
+        this.objectDb = objectDb;
+    }
+
+    /**
+     * Executes the repack operation.
+     * 
+     * @return the number of objects moved to pack files
+     * @throws IllegalStateException if the object database does not support pack files
+     */
+    @Override
+    protected Long _call() {
+        Preconditions.checkState(objectDb instanceof FileObjectDatabase,
+                "Object database does not support pack files: %s", objectDb);
+        return Long.valueOf(((FileObjectDatabase) objectDb).repack());
+    }
+}
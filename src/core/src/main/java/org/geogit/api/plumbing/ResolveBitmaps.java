@@ -0,0 +1,31 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.api.plumbing;
+
+import org.geogit.api.AbstractGeoGitOp;
+import org.geogit.storage.ReachabilityBitmaps;
+
+import com.google.inject.Inject;
+
+/**
+ * Resolves the {@link ReachabilityBitmaps reachability bitmaps} of the repository, for code that
+ * is not created by the injector, like the packing of objects sent to a remote.
+ * 
+ * @see UpdateBitmapsOp
+ */
+public class ResolveBitmaps extends AbstractGeoGitOp<ReachabilityBitmaps> {
+
+    private ReachabilityBitmaps bitmaps;
+
+    @Inject
+    public ResolveBitmaps(ReachabilityBitmaps bitmaps) {
+        this.bitmaps = bitmaps;
+    }
+
+    @Override
+    protected ReachabilityBitmaps _call() {
+        return bitmaps;
+    }
+}
@@ -0,0 +1,123 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.api.plumbing;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import org.geogit.api.AbstractGeoGitOp;
+import org.geogit.api.RevTree;
+import org.geogit.repository.SpatialIndex;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.SpatialIndexDatabase;
+
+import com.google.common.base.Optional;
+import com.google.inject.Inject;
+
+/**
+ * Returns the {@link SpatialIndex spatial index} of a feature type tree, building and storing it
+ * if it doesn't exist yet.
+ * <p>
+ * Trees with less than {@link #setMinSize(long) minSize} features are not worth indexing, as a
+ * full scan is cheap enough, so no index is returned for them.
+ * <p>
+ * Indexes can also be {@link #setBuildInBackground(boolean) built in the background}, in which
+ * case no index is returned until it's built.
+ * <p>
+ * Indexes are not deleted here, as the tree may be one of a past or detached commit that's still
+ * being queried; the ones no longer in use are deleted by {@link PruneSpatialIndexesOp}.
+ *
+ * @see SpatialIndexDatabase
+ */
+public class ResolveSpatialIndex extends AbstractGeoGitOp<Optional<SpatialIndex>> {
+
+    /**
+     * Default minimum number of features for a tree to be indexed
+     */
+    public static final long DEFAULT_MIN_SIZE = 1000;
+
+    private final SpatialIndexDatabase indexDb;
+
+    private RevTree tree;
+
+    private long minSize = DEFAULT_MIN_SIZE;
+
+    private boolean build = true;
+
+    private boolean buildInBackground;
+
+    @Inject
+    public ResolveSpatialIndex(SpatialIndexDatabase indexDb) {
+        this.indexDb = indexDb;
+    }
+
+    /**
+     * @param tree the feature type tree to get the index for
+     * @return {@code this}
+     */
+    public ResolveSpatialIndex setTree(RevTree tree) {
+        this.tree = tree;
+        return this;
+    }
+
+    /**
+     * @param minSize the minimum number of features for the tree to be indexed
+     * @return {@code this}
+     */
+    public ResolveSpatialIndex setMinSize(long minSize) {
+        this.minSize = minSize;
+        return this;
+    }
+
+    /**
+     * @param build whether to build the index if it doesn't exist, defaults to {@code true}
+     * @return {@code this}
+     */
+    public ResolveSpatialIndex setBuild(boolean build) {
+        this.build = build;
+        return this;
+    }
+
+    /**
+     * @param buildInBackground whether to build the index on a background thread instead of
+     *        waiting for it, defaults to {@code false}
+     * @return {@code this}
+     */
+    public ResolveSpatialIndex setBuildInBackground(boolean buildInBackground) {
+        this.buildInBackground = buildInBackground;
+        return this;
+    }
+
+    /**
+     * @return the spatial index of the tree, or {@link Optional#absent() absent} if the tree is
+     *         too small to be indexed, or the index doesn't exist and {@code build == false} or
+     *         it's being built in the background
+     */
+    @Override
+    protected Optional<SpatialIndex> _call() {
+        checkState(tree != null, "tree not provided");
+        if (tree.size() < minSize) {
+            return Optional.absent();
+        }
+        Optional<SpatialIndex> index = indexDb.get(tree.getId());
+        if (!index.isPresent() && build) {
+            if (buildInBackground) {
+                final RevTree indexed = tree;
+                final ObjectDatabase db = stagingDatabase();
+                indexDb.buildInBackground(indexed.getId(), new Runnable() {
+                    @Override
+                    public void run() {
+                        indexDb.put(SpatialIndex.build(indexed, db));
+                    }
+                });
+            } else {
+                SpatialIndex built = SpatialIndex.build(tree, stagingDatabase());
+                indexDb.put(built);
+                index = Optional.of(built);
+            }
+        }
+        return index;
+    }
+}
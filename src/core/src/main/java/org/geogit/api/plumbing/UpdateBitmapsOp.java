@@ -0,0 +1,127 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.api.plumbing;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+
+import org.geogit.api.AbstractGeoGitOp;
+import org.geogit.api.ObjectId;
+import org.geogit.api.Ref;
+import org.geogit.api.porcelain.BranchListOp;
+import org.geogit.storage.GraphDatabase;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.ReachabilityBitmaps;
+import org.geogit.storage.memory.ObjectIdSet;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.inject.Inject;
+
+/**
+ * Adds {@link ReachabilityBitmaps reachability bitmaps} for the given branch tips, or all the
+ * local and remote branches if none is given, and for the commits of their history whose depth
+ * is a multiple of the {@link #setInterval(int) interval}.
+ * <p>
+ * The history of each tip is walked down to the commits that already have a bitmap, so running it
+ * after every change of a branch only computes the bitmaps of the new commits.
+ */
+public class UpdateBitmapsOp extends AbstractGeoGitOp<Integer> {
+
+    /**
+     * The default number of commits between two commits with a bitmap along a branch's history
+     */
+    public static final int DEFAULT_INTERVAL = 100;
+
+    private ReachabilityBitmaps bitmaps;
+
+    private List<ObjectId> tips = Lists.newArrayList();
+
+    private int interval = DEFAULT_INTERVAL;
+
+    /**
+     * Constructs a new {@code UpdateBitmapsOp} using the specified {@link ReachabilityBitmaps}.
+     *
+     * @param bitmaps the bitmaps to update
+     */
+    @Inject
+    public UpdateBitmapsOp(ReachabilityBitmaps bitmaps) {
+        this.bitmaps = bitmaps;
+    }
+
+    /**
+     * @param tip a commit to add a bitmap for, along with its history
+     * @return {@code this}
+     */
+    public UpdateBitmapsOp addTip(ObjectId tip) {
+        tips.add(tip);
+        return this;
+    }
+
+    /**
+     * @param interval the depth between two history commits that get a bitmap
+     * @return {@code this}
+     */
+    public UpdateBitmapsOp setInterval(int interval) {
+        Preconditions.checkArgument(interval > 0, "interval must be positive");
+        this.interval = interval;
+        return this;
+    }
+
+    /**
+     * Executes the {@code UpdateBitmapsOp} operation.
+     * 
+     * @return the number of bitmaps added
+     */
+    @Override
+    protected Integer _call() {
+        if (tips.isEmpty()) {
+            List<Ref> branches = command(BranchListOp.class).setLocal(true).setRemotes(true)
+                    .call();
+            for (Ref ref : branches) {
+                tips.add(ref.getObjectId());
+            }
+        }
+        final GraphDatabase graphDb = graphDatabase();
+        final ObjectDatabase objectDb = objectDatabase();
+
+        List<ObjectId> selected = Lists.newArrayList();
+        Set<ObjectId> visited = new ObjectIdSet();
+        Deque<ObjectId> toVisit = new ArrayDeque<ObjectId>();
+        for (ObjectId tip : tips) {
+            if (!tip.isNull() && visited.add(tip) && !bitmaps.contains(tip)) {
+                selected.add(tip);
+                toVisit.add(tip);
+            }
+        }
+        while (!toVisit.isEmpty()) {
+            ObjectId commit = toVisit.pop();
+            for (ObjectId parent : graphDb.getParents(commit)) {
+                if (!visited.add(parent) || bitmaps.contains(parent)
+                        || !objectDb.exists(parent)) {
+                    // already covered, or past the boundary of a shallow clone
+                    continue;
+                }
+                if (graphDb.getDepth(parent) % interval == 0) {
+                    selected.add(parent);
+                }
+                toVisit.push(parent);
+            }
+        }
+
+        int added = 0;
+        for (int i = 0; i < selected.size(); i++) {
+            getProgressListener().setProgress((i * 100.f) / selected.size());
+            if (bitmaps.add(selected.get(i), objectDb)) {
+                added++;
+            }
+        }
+        bitmaps.flush();
+        getProgressListener().complete();
+        return Integer.valueOf(added);
+    }
+}
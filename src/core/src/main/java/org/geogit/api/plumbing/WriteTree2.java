@@ -11,6 +11,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.SortedSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.Nullable;
 
@@ -29,6 +30,7 @@ import org.geogit.api.plumbing.diff.MutableTree;
 import org.geogit.api.plumbing.diff.TreeDifference;
 import org.geogit.api.porcelain.CommitOp;
 import org.geogit.repository.SpatialOps;
+import org.geogit.storage.FeatureDeltas;
 import org.geogit.storage.ObjectDatabase;
 import org.geogit.storage.StagingDatabase;
 import org.slf4j.Logger;
@@ -304,9 +306,13 @@ public class WriteTree2 extends AbstractGeoGitOp<ObjectId> {
                 .setFilter(strippedPathFilters);
 
         // move new blobs from the index to the repository (note: this could be parallelized)
+        Map<ObjectId, ObjectId> deltaBases = null;
+        if (deltasEnabled()) {
+            deltaBases = new ConcurrentHashMap<ObjectId, ObjectId>();
+        }
         Supplier<Iterator<Node>> nodesToMove = asNodeSupplierOfNewContents(diffs,
-                strippedPathFilters);
-        command(DeepMove.class).setObjects(nodesToMove).call();
+                strippedPathFilters, deltaBases);
+        command(DeepMove.class).setObjects(nodesToMove).setDeltaBases(deltaBases).call();
 
         final StagingDatabase stagingDatabase = stagingDatabase();
 
@@ -446,13 +452,28 @@ public class WriteTree2 extends AbstractGeoGitOp<ObjectId> {
      * 
      * @param strippedPathFilters
      */
+    private boolean deltasEnabled() {
+        return configDatabase().get(FeatureDeltas.DELTAS_ENABLED, Boolean.class)
+                .or(Boolean.FALSE).booleanValue();
+    }
+
+    /**
+     * @param deltaBases if not null, gets the ids of the previous versions of the modified
+     *        features, keyed by the ids of their new versions, as the nodes are iterated over
+     */
     private Supplier<Iterator<Node>> asNodeSupplierOfNewContents(
-            final Supplier<Iterator<DiffEntry>> supplier, final List<String> strippedPathFilters) {
+            final Supplier<Iterator<DiffEntry>> supplier, final List<String> strippedPathFilters,
+            @Nullable final Map<ObjectId, ObjectId> deltaBases) {
 
         final Function<DiffEntry, Node> newNodes = new Function<DiffEntry, Node>() {
             @Override
             public Node apply(DiffEntry diffEntry) {
-                return diffEntry.getNewObject().getNode();
+                final Node newNode = diffEntry.getNewObject().getNode();
+                if (deltaBases != null && diffEntry.isChange()
+                        && TYPE.FEATURE.equals(newNode.getType())) {
+                    deltaBases.put(newNode.getObjectId(), diffEntry.oldObjectId());
+                }
+                return newNode;
             }
         };
 
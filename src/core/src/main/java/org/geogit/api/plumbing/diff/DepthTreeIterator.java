@@ -19,6 +19,7 @@ import org.geogit.api.ObjectId;
 import org.geogit.api.RevObject.TYPE;
 import org.geogit.api.RevTree;
 import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.ReadAheadIterator;
 
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
@@ -280,27 +281,39 @@ public class DepthTreeIterator extends AbstractIterator<NodeRef> {
         }
     }
 
+    private static final Function<Bucket, ObjectId> BUCKET_ID = new Function<Bucket, ObjectId>() {
+        @Override
+        public ObjectId apply(Bucket bucket) {
+            return bucket.id();
+        }
+    };
+
     /**
-     * Returns all direct children of a buckets tree
+     * Returns all direct children of a buckets tree.
+     * <p>
+     * The bucket trees are fetched in batches through a {@link ReadAheadIterator} rather than one
+     * at a time.
      */
     private class Buckets extends AbstractIterator<Node> {
 
-        private Iterator<Bucket> buckets;
+        private Iterator<RevTree> bucketTrees;
 
         private Iterator<Node> bucketEntries;
 
         public Buckets(RevTree tree) {
             Preconditions.checkArgument(tree.buckets().isPresent());
-            buckets = Iterators.filter(tree.buckets().get().values().iterator(), boundsFilter);
+            Iterator<Bucket> buckets = Iterators.filter(tree.buckets().get().values().iterator(),
+                    boundsFilter);
+            bucketTrees = new ReadAheadIterator<RevTree>(source, Iterators.transform(buckets,
+                    BUCKET_ID), RevTree.class);
             bucketEntries = Iterators.emptyIterator();
         }
 
         @Override
         protected Node computeNext() {
             while (!bucketEntries.hasNext()) {
-                if (buckets.hasNext()) {
-                    Bucket nextBucket = buckets.next();
-                    bucketEntries = resolveBucketEntries(nextBucket.id());
+                if (bucketTrees.hasNext()) {
+                    bucketEntries = resolveBucketEntries(bucketTrees.next());
                 } else {
                     return endOfData();
                 }
@@ -309,11 +322,10 @@ public class DepthTreeIterator extends AbstractIterator<NodeRef> {
         }
 
         /**
-         * @param bucketId
-         * @return
+         * @param bucketTree the tree of the next bucket
+         * @return the entries to return for the bucket
          */
-        protected Iterator<Node> resolveBucketEntries(ObjectId bucketId) {
-            RevTree bucketTree = source.getTree(bucketId);
+        protected Iterator<Node> resolveBucketEntries(RevTree bucketTree) {
             if (bucketTree.buckets().isPresent()) {
                 return new Buckets(bucketTree);
             }
@@ -331,8 +343,7 @@ public class DepthTreeIterator extends AbstractIterator<NodeRef> {
         }
 
         @Override
-        protected Iterator<Node> resolveBucketEntries(ObjectId bucketId) {
-            RevTree bucketTree = source.getTree(bucketId);
+        protected Iterator<Node> resolveBucketEntries(RevTree bucketTree) {
             if (bucketTree.numTrees() == 0) {
                 return Iterators.emptyIterator();
             }
@@ -356,8 +367,7 @@ public class DepthTreeIterator extends AbstractIterator<NodeRef> {
         }
 
         @Override
-        protected Iterator<Node> resolveBucketEntries(ObjectId bucketId) {
-            RevTree bucketTree = source.getTree(bucketId);
+        protected Iterator<Node> resolveBucketEntries(RevTree bucketTree) {
             if (bucketTree.buckets().isPresent()) {
                 return new FeatureBuckets(bucketTree);
             }
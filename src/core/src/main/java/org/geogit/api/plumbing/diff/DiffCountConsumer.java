@@ -19,6 +19,9 @@ import org.geogit.storage.ObjectDatabase;
  * <p>
  * Use {@link DiffCountConsumer#get() consumer.get()} after {@link DiffTreeVisitor#walk(Consumer)
  * visitor.walk(consumer)} to get the resulting {@link DiffObjectCount}.
+ * <p>
+ * This consumer is thread safe and hence can be used with
+ * {@link DiffTreeVisitor#walk(Consumer, java.util.concurrent.ForkJoinPool) parallel walks}.
  */
 public class DiffCountConsumer implements DiffTreeVisitor.Consumer {
 
@@ -30,12 +33,12 @@ public class DiffCountConsumer implements DiffTreeVisitor.Consumer {
         this.db = db;
     }
 
-    public DiffObjectCount get() {
+    public synchronized DiffObjectCount get() {
         return count;
     }
 
     @Override
-    public void feature(Node left, Node right) {
+    public synchronized void feature(Node left, Node right) {
         if (left == null) {
             count.addedFeatures(1L);
         } else if (right == null) {
@@ -54,15 +57,19 @@ public class DiffCountConsumer implements DiffTreeVisitor.Consumer {
         }
         if (left == null || right == null) {
             addTreeFeatures(node.getObjectId(), left != null, right != null);
-            if (left == null) {
-                count.addedTrees(1);
-            } else {
-                count.removedTrees(1);
+            synchronized (this) {
+                if (left == null) {
+                    count.addedTrees(1);
+                } else {
+                    count.removedTrees(1);
+                }
             }
             return false;
         }
 
-        count.changedTrees(1);// the tree changed, or this method wouldn't have been called
+        synchronized (this) {
+            count.changedTrees(1);// the tree changed, or this method wouldn't have been called
+        }
         return true;
     }
 
@@ -79,12 +86,14 @@ public class DiffCountConsumer implements DiffTreeVisitor.Consumer {
     private boolean addTreeFeatures(ObjectId treeId, boolean leftPresent, boolean rightPresent) {
         RevTree tree = db.getTree(treeId);
         long size = tree.size();
-        if (leftPresent && rightPresent) {
-            count.changedFeatures(size);
-        } else if (leftPresent) {
-            count.removedFeatures(size);
-        } else {
-            count.addedFeatures(size);
+        synchronized (this) {
+            if (leftPresent && rightPresent) {
+                count.changedFeatures(size);
+            } else if (leftPresent) {
+                count.removedFeatures(size);
+            } else {
+                count.addedFeatures(size);
+            }
         }
 
         int numTrees = tree.numTrees();
@@ -14,6 +14,26 @@ public class DiffObjectCount {
 
     private int treesAdded, treesRemoved, treesChanged;
 
+    /**
+     * Creates a count with no changes.
+     */
+    public DiffObjectCount() {
+    }
+
+    /**
+     * Creates a count with the given numbers of changes, for instance to restore a count computed
+     * earlier.
+     */
+    public DiffObjectCount(long featuresAdded, long featuresRemoved, long featuresChanged,
+            int treesAdded, int treesRemoved, int treesChanged) {
+        this.featuresAdded = featuresAdded;
+        this.featuresRemoved = featuresRemoved;
+        this.featuresChanged = featuresChanged;
+        this.treesAdded = treesAdded;
+        this.treesRemoved = treesRemoved;
+        this.treesChanged = treesChanged;
+    }
+
     /**
      * Returns the total count of modified elements (i.e. sum of added, changed, and removed trees
      * and features)
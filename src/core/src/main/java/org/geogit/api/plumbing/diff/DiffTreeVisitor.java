@@ -10,11 +10,16 @@ import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.collect.Sets.newTreeSet;
 import static com.google.common.collect.Sets.union;
 
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
@@ -23,6 +28,7 @@ import org.geogit.api.Bucket;
 import org.geogit.api.Node;
 import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject;
 import org.geogit.api.RevObject.TYPE;
 import org.geogit.api.RevTree;
 import org.geogit.repository.SpatialOps;
@@ -34,6 +40,8 @@ import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimaps;
 import com.google.common.collect.PeekingIterator;
 import com.google.common.collect.Sets;
@@ -44,6 +52,9 @@ import com.vividsolutions.jts.geom.Envelope;
  * and emit diff events to a {@link Consumer}, which can choose to skip parts of the walk when it
  * had collected enough information for its purpose and don't need to go further down a given pair
  * of trees (either named or bucket).
+ * <p>
+ * {@link #walk(Consumer, ForkJoinPool)} performs the same walk in parallel, see its javadocs for
+ * the thread safety requirements it imposes on the consumer.
  */
 @ParametersAreNonnullByDefault
 public class DiffTreeVisitor {
@@ -58,8 +69,19 @@ public class DiffTreeVisitor {
 
     private final ObjectDatabase rightSource;
 
+    /**
+     * Whether to traverse the bucket pairs of feature-only trees as parallel fork/join tasks, only
+     * {@code true} for the visitor created by {@link #walk(Consumer, ForkJoinPool)}
+     */
+    private final boolean parallel;
+
     public DiffTreeVisitor(RevTree left, RevTree right, ObjectDatabase leftSource,
             ObjectDatabase rightSource) {
+        this(left, right, leftSource, rightSource, false);
+    }
+
+    private DiffTreeVisitor(RevTree left, RevTree right, ObjectDatabase leftSource,
+            ObjectDatabase rightSource, boolean parallel) {
 
         checkNotNull(left, "left");
         checkNotNull(right, "right");
@@ -70,6 +92,7 @@ public class DiffTreeVisitor {
         this.right = right;
         this.leftSource = leftSource;
         this.rightSource = rightSource;
+        this.parallel = parallel;
     }
 
     /**
@@ -113,6 +136,39 @@ public class DiffTreeVisitor {
         consumer.endTree(lnode, rnode);
     }
 
+    /**
+     * Parallel version of {@link #walk(Consumer)}.
+     * <p>
+     * Whenever the walk reaches two bucket trees that contain no tree nodes (i.e. their
+     * {@link RevTree#numTrees() numTrees()} is zero, like any large feature type tree), the bucket
+     * trees that differ are fetched from the object databases in two batched
+     * {@link ObjectDatabase#getAll(Iterable) getAll} calls and each pair is traversed as a separate
+     * fork/join task on {@code pool}.
+     * <p>
+     * Hence the {@code consumer} methods {@link Consumer#feature feature},
+     * {@link Consumer#bucket bucket} and {@link Consumer#endBucket endBucket} can be called
+     * concurrently and in no particular order for the contents of a given tree, and must be thread
+     * safe. {@link Consumer#tree tree} and {@link Consumer#endTree endTree} are never called
+     * concurrently with any other method, so the path being traversed can still be tracked on them.
+     * 
+     * @param consumer the thread safe callback object
+     * @param pool the fork/join pool where to run the walk
+     */
+    public final void walk(final Consumer consumer, final ForkJoinPool pool) {
+        checkNotNull(consumer, "consumer");
+        checkNotNull(pool, "pool");
+        final DiffTreeVisitor parallelVisitor = new DiffTreeVisitor(left, right, leftSource,
+                rightSource, true);
+        pool.invoke(new RecursiveAction() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void compute() {
+                parallelVisitor.walk(consumer);
+            }
+        });
+    }
+
     /**
      * When this method is called its guaranteed that either {@link Consumer#tree} returned
      * {@code true} (i.e. its a pair of trees pointed out by a Node), or {@link Consumer#bucket}
@@ -382,6 +438,11 @@ public class DiffTreeVisitor {
         ImmutableSortedMap<Integer, Bucket> rb = right.buckets().get();
         TreeSet<Integer> availableIndexes = newTreeSet(union(lb.keySet(), rb.keySet()));
 
+        if (parallel && left.numTrees() == 0 && right.numTrees() == 0) {
+            traverseBucketBucketParallel(consumer, lb, rb, availableIndexes, bucketDepth);
+            return;
+        }
+
         @Nullable
         Bucket lbucket;
         @Nullable
@@ -401,6 +462,115 @@ public class DiffTreeVisitor {
         }
     }
 
+    /**
+     * Parallel version of {@link #traverseBucketBucket(Consumer, RevTree, RevTree, int)} for bucket
+     * trees with no tree nodes, that asks the consumer which bucket pairs to traverse, fetches
+     * their trees in batch, and traverses each pair in its own fork/join task.
+     */
+    private void traverseBucketBucketParallel(final Consumer consumer,
+            final ImmutableSortedMap<Integer, Bucket> lb,
+            final ImmutableSortedMap<Integer, Bucket> rb, final SortedSet<Integer> indexes,
+            final int bucketDepth) {
+
+        List<Integer> traverse = Lists.newArrayListWithCapacity(indexes.size());
+        List<ObjectId> leftIds = Lists.newArrayListWithCapacity(indexes.size());
+        List<ObjectId> rightIds = Lists.newArrayListWithCapacity(indexes.size());
+        for (Integer index : indexes) {
+            Bucket lbucket = lb.get(index);
+            Bucket rbucket = rb.get(index);
+            if (Objects.equal(lbucket, rbucket)) {
+                continue;
+            }
+            if (consumer.bucket(index.intValue(), bucketDepth, lbucket, rbucket)) {
+                traverse.add(index);
+                if (lbucket != null) {
+                    leftIds.add(lbucket.id());
+                }
+                if (rbucket != null) {
+                    rightIds.add(rbucket.id());
+                }
+            } else {
+                consumer.endBucket(index.intValue(), bucketDepth, lbucket, rbucket);
+            }
+        }
+        if (traverse.isEmpty()) {
+            return;
+        }
+
+        final Map<ObjectId, RevTree> leftTrees = getTrees(leftSource, leftIds);
+        final Map<ObjectId, RevTree> rightTrees = getTrees(rightSource, rightIds);
+
+        List<BucketPairTask> tasks = Lists.newArrayListWithCapacity(traverse.size());
+        for (Integer index : traverse) {
+            Bucket lbucket = lb.get(index);
+            Bucket rbucket = rb.get(index);
+            RevTree ltree = lbucket == null ? RevTree.EMPTY : leftTrees.get(lbucket.id());
+            RevTree rtree = rbucket == null ? RevTree.EMPTY : rightTrees.get(rbucket.id());
+            tasks.add(new BucketPairTask(consumer, index.intValue(), bucketDepth, lbucket,
+                    rbucket, ltree, rtree));
+        }
+        ForkJoinTask.invokeAll(tasks);
+    }
+
+    /**
+     * Fetches the trees for the given ids with a single {@link ObjectDatabase#getAll(Iterable)}
+     * call
+     */
+    private static Map<ObjectId, RevTree> getTrees(ObjectDatabase source, List<ObjectId> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<ObjectId, RevTree> trees = Maps.newHashMap();
+        Iterator<RevObject> objects = source.getAll(ids);
+        while (objects.hasNext()) {
+            RevObject object = objects.next();
+            trees.put(object.getId(), (RevTree) object);
+        }
+        for (ObjectId id : ids) {
+            if (!trees.containsKey(id)) {
+                // let the database report the missing object
+                trees.put(id, source.getTree(id));
+            }
+        }
+        return trees;
+    }
+
+    private final class BucketPairTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Consumer consumer;
+
+        private final int bucketIndex;
+
+        private final int bucketDepth;
+
+        private final Bucket lbucket;
+
+        private final Bucket rbucket;
+
+        private final RevTree ltree;
+
+        private final RevTree rtree;
+
+        BucketPairTask(Consumer consumer, int bucketIndex, int bucketDepth,
+                @Nullable Bucket lbucket, @Nullable Bucket rbucket, RevTree ltree, RevTree rtree) {
+            this.consumer = consumer;
+            this.bucketIndex = bucketIndex;
+            this.bucketDepth = bucketDepth;
+            this.lbucket = lbucket;
+            this.rbucket = rbucket;
+            this.ltree = ltree;
+            this.rtree = rtree;
+        }
+
+        @Override
+        protected void compute() {
+            traverseTree(consumer, ltree, rtree, bucketDepth + 1);
+            consumer.endBucket(bucketIndex, bucketDepth, lbucket, rbucket);
+        }
+    }
+
     /**
      * Defines an interface to consume the events emitted by a diff-tree "depth first" traversal,
      * with the ability to be notified of changes to feature and tree nodes, as well as to buckets,
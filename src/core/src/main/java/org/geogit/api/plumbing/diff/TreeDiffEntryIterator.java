@@ -11,6 +11,7 @@ import static org.geogit.api.plumbing.diff.DiffEntry.ChangeType.ADDED;
 import static org.geogit.api.plumbing.diff.DiffEntry.ChangeType.REMOVED;
 
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
 import javax.annotation.Nullable;
@@ -25,6 +26,7 @@ import org.geogit.api.plumbing.diff.DepthTreeIterator.Strategy;
 import org.geogit.api.plumbing.diff.DiffEntry.ChangeType;
 import org.geogit.storage.NodeStorageOrder;
 import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.ReadAheadIterator;
 
 import com.google.common.base.Function;
 import com.google.common.base.Objects;
@@ -35,6 +37,7 @@ import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
 import com.google.common.collect.PeekingIterator;
 import com.google.common.collect.Sets;
@@ -305,6 +308,10 @@ class TreeDiffEntryIterator extends AbstractIterator<DiffEntry> {
 
     }
 
+    /**
+     * Compares two bucket trees bucket by bucket. The trees of the changed buckets of both sides
+     * are fetched in batches through a {@link ReadAheadIterator}, in the order they're compared.
+     */
     private class BucketBucketDiff extends AbstractIterator<DiffEntry> {
 
         /**
@@ -315,6 +322,12 @@ class TreeDiffEntryIterator extends AbstractIterator<DiffEntry> {
 
         private final Iterator<Integer> combinedBuckets;
 
+        /**
+         * The trees of the changed buckets, in bucket order and left before right, skipping the
+         * absent ones
+         */
+        private final Iterator<RevTree> changedBucketTrees;
+
         private Iterator<DiffEntry> currentBucketIterator;
 
         private NodeRef leftRef;
@@ -336,7 +349,25 @@ class TreeDiffEntryIterator extends AbstractIterator<DiffEntry> {
                 leftRightBuckets.put(bucket, Optional.fromNullable(left.get(bucket)));
                 leftRightBuckets.put(bucket, Optional.fromNullable(right.get(bucket)));
             }
-            this.combinedBuckets = leftRightBuckets.keySet().iterator();
+            // iterate the buckets in the same order their trees are read ahead, the multimap's key
+            // set is in hash order
+            this.combinedBuckets = buckets.iterator();
+
+            List<ObjectId> changedBucketIds = Lists.newArrayList();
+            for (Integer bucket : buckets) {
+                Bucket leftBucket = left.get(bucket);
+                Bucket rightBucket = right.get(bucket);
+                if (!Objects.equal(leftBucket, rightBucket)) {
+                    if (leftBucket != null) {
+                        changedBucketIds.add(leftBucket.id());
+                    }
+                    if (rightBucket != null) {
+                        changedBucketIds.add(rightBucket.id());
+                    }
+                }
+            }
+            this.changedBucketTrees = new ReadAheadIterator<RevTree>(objectDb,
+                    changedBucketIds.iterator(), RevTree.class);
         }
 
         @Override
@@ -370,7 +401,7 @@ class TreeDiffEntryIterator extends AbstractIterator<DiffEntry> {
         private RevTree resolveTree(Optional<Bucket> bucket) {
             RevTree bucketTree = RevTree.EMPTY;
             if (bucket.isPresent()) {
-                bucketTree = objectDb.getTree(bucket.get().id());
+                bucketTree = changedBucketTrees.next();
             }
             return bucketTree;
         }
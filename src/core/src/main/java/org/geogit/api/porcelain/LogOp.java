@@ -23,6 +23,7 @@ import org.geogit.api.plumbing.FindTreeChild;
 import org.geogit.api.plumbing.RevParse;
 import org.geogit.di.CanRunDuringConflict;
 import org.geogit.repository.Repository;
+import org.geogit.storage.CommitGraph;
 import org.geogit.storage.GraphDatabase;
 import org.geotools.util.Range;
 
@@ -30,10 +31,10 @@ import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.AbstractIterator;
-import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.inject.Inject;
 
 /**
  * Operation to query the commits logs.
@@ -56,7 +57,7 @@ public class LogOp extends AbstractGeoGitOp<Iterator<RevCommit>> {
     private static final Range<Long> ALWAYS = new Range<Long>(Long.class, 0L, true, Long.MAX_VALUE,
             true);
 
-    private Range<Long> timeRange;
+    private Range<Long> timeRange = ALWAYS;
 
     private Integer skip;
 
@@ -78,8 +79,16 @@ public class LogOp extends AbstractGeoGitOp<Iterator<RevCommit>> {
 
     private List<ObjectId> commits = Lists.newArrayList();
 
-    public LogOp() {
-        timeRange = ALWAYS;
+    private CommitGraph commitGraph;
+
+    /**
+     * Constructs a new {@code LogOp} using the specified {@link CommitGraph}.
+     * 
+     * @param commitGraph the commit graph used to walk the history in topological order
+     */
+    @Inject
+    public LogOp(CommitGraph commitGraph) {
+        this.commitGraph = commitGraph;
     }
 
     /**
@@ -257,7 +266,8 @@ public class LogOp extends AbstractGeoGitOp<Iterator<RevCommit>> {
                 commits.add(newestCommitId);
             }
             if (topo) {
-                history = new TopologicalHistoryIterator(commits, repository(), graphDatabase());
+                history = new TopologicalHistoryIterator(commits, repository(), graphDatabase(),
+                        commitGraph);
             } else {
                 history = new ChronologicalHistoryIterator(commits, repository());
             }
@@ -352,16 +362,21 @@ public class LogOp extends AbstractGeoGitOp<Iterator<RevCommit>> {
 
         private GraphDatabase graphDb;
 
+        private CommitGraph commitGraph;
+
         /**
          * Constructs a new {@code LinearHistoryIterator} with the given parameters.
          * 
          * @param tipsList the list of tips to start computing history from
          * @param repo the repository where the commits are stored.
          * @param graphDb
+         * @param commitGraph the commit graph, used instead of the repository and the graph
+         *        database for the commits it has
          */
         public TopologicalHistoryIterator(final List<ObjectId> tipsList, final Repository repo,
-                GraphDatabase graphDb) {
+                GraphDatabase graphDb, CommitGraph commitGraph) {
             this.graphDb = graphDb;
+            this.commitGraph = commitGraph;
             tips = new Stack<RevCommit>();
             stopPoints = Lists.newArrayList();
             for (ObjectId tip : tipsList) {
@@ -388,7 +403,7 @@ public class LogOp extends AbstractGeoGitOp<Iterator<RevCommit>> {
             Optional<ObjectId> parent = Optional.absent();
             int index = 0;
             for (ObjectId parentId : lastCommit.getParentIds()) {
-                if (repo.commitExists(parentId)) {
+                if (commitExists(parentId)) {
                     parent = Optional.of(parentId);
                     break;
                 }
@@ -404,20 +419,31 @@ public class LogOp extends AbstractGeoGitOp<Iterator<RevCommit>> {
             } else {
                 List<ObjectId> parents = lastCommit.getParentIds();
                 for (int i = index + 1; i < parents.size(); i++) {
-                    if (repo.commitExists(parents.get(i))) {
+                    if (commitExists(parents.get(i))) {
                         final RevCommit commit = repo.getCommit(parents.get(i));
                         tips.push(commit);
                     }
                 }
                 lastCommit = repo.getCommit(parent.get());
-                ImmutableList<ObjectId> children = this.graphDb.getChildren(parent.get());
-                if (children.size() > 1) {
+                if (childCount(parent.get()) > 1) {
                     stopPoints.add(parent.get());
                 }
             }
 
             return lastCommit;
         }
+
+        private boolean commitExists(ObjectId commitId) {
+            return commitGraph.contains(commitId) || repo.commitExists(commitId);
+        }
+
+        private int childCount(ObjectId commitId) {
+            Optional<Integer> childCount = commitGraph.getChildCount(commitId);
+            if (childCount.isPresent()) {
+                return childCount.get().intValue();
+            }
+            return this.graphDb.getChildren(commitId).size();
+        }
     }
 
     /**
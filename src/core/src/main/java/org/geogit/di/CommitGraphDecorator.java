@@ -0,0 +1,137 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.di;
+
+import org.geogit.api.ObjectId;
+import org.geogit.repository.RepositoryConnectionException;
+import org.geogit.storage.CommitGraph;
+import org.geogit.storage.GraphDatabase;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.inject.Provider;
+
+/**
+ * Decorates the {@link GraphDatabase} to answer ancestry queries for commits in the
+ * {@link CommitGraph commit graph} from it, instead of walking the graph database.
+ */
+class CommitGraphDecorator implements Decorator {
+
+    private Provider<CommitGraph> commitGraph;
+
+    public CommitGraphDecorator(Provider<CommitGraph> commitGraph) {
+        this.commitGraph = commitGraph;
+    }
+
+    @Override
+    public boolean canDecorate(Object subject) {
+        return subject instanceof GraphDatabase;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <I> I decorate(I subject) {
+        return (I) new CommitGraphDatabase(commitGraph, (GraphDatabase) subject);
+    }
+
+    private static class CommitGraphDatabase implements GraphDatabase {
+
+        private final Provider<CommitGraph> commitGraph;
+
+        private final GraphDatabase delegate;
+
+        public CommitGraphDatabase(Provider<CommitGraph> commitGraph, GraphDatabase delegate) {
+            this.commitGraph = commitGraph;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void open() {
+            delegate.open();
+        }
+
+        @Override
+        public void configure() throws RepositoryConnectionException {
+            delegate.configure();
+        }
+
+        @Override
+        public void checkConfig() throws RepositoryConnectionException {
+            delegate.checkConfig();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return delegate.isOpen();
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+        }
+
+        @Override
+        public boolean exists(ObjectId commitId) {
+            return delegate.exists(commitId);
+        }
+
+        @Override
+        public ImmutableList<ObjectId> getParents(ObjectId commitId)
+                throws IllegalArgumentException {
+            Optional<ImmutableList<ObjectId>> parents = commitGraph.get().getParents(commitId);
+            if (parents.isPresent()) {
+                return parents.get();
+            }
+            return delegate.getParents(commitId);
+        }
+
+        @Override
+        public ImmutableList<ObjectId> getChildren(ObjectId commitId)
+                throws IllegalArgumentException {
+            return delegate.getChildren(commitId);
+        }
+
+        @Override
+        public boolean put(ObjectId commitId, ImmutableList<ObjectId> parentIds) {
+            return delegate.put(commitId, parentIds);
+        }
+
+        @Override
+        public void map(ObjectId mapped, ObjectId original) {
+            delegate.map(mapped, original);
+        }
+
+        @Override
+        public ObjectId getMapping(ObjectId commitId) {
+            return delegate.getMapping(commitId);
+        }
+
+        @Override
+        public int getDepth(ObjectId commitId) {
+            Optional<Integer> depth = commitGraph.get().getDepth(commitId);
+            if (depth.isPresent()) {
+                return depth.get().intValue();
+            }
+            return delegate.getDepth(commitId);
+        }
+
+        @Override
+        public void setProperty(ObjectId commitId, String propertyName, String propertyValue) {
+            delegate.setProperty(commitId, propertyName, propertyValue);
+        }
+
+        @Override
+        public GraphNode getNode(ObjectId id) {
+            return delegate.getNode(id);
+        }
+
+        @Override
+        public void truncate() {
+            delegate.truncate();
+            commitGraph.get().clear();
+        }
+    }
+}
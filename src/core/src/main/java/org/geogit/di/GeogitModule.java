@@ -13,14 +13,18 @@ import org.geogit.repository.Index;
 import org.geogit.repository.Repository;
 import org.geogit.repository.StagingArea;
 import org.geogit.repository.WorkingTree;
+import org.geogit.storage.CommitGraph;
 import org.geogit.storage.ConfigDatabase;
 import org.geogit.storage.DeduplicationService;
+import org.geogit.storage.DiffSummaryCache;
 import org.geogit.storage.GraphDatabase;
 import org.geogit.storage.ObjectDatabase;
 import org.geogit.storage.ObjectSerializingFactory;
+import org.geogit.storage.ReachabilityBitmaps;
 import org.geogit.storage.RefDatabase;
+import org.geogit.storage.SpatialIndexDatabase;
 import org.geogit.storage.StagingDatabase;
-import org.geogit.storage.datastream.DataStreamSerializationFactory;
+import org.geogit.storage.datastream.DataStreamSerializationFactoryV2;
 import org.geogit.storage.fs.FileObjectDatabase;
 import org.geogit.storage.fs.FileRefDatabase;
 import org.geogit.storage.fs.IniFileConfigDatabase;
@@ -48,6 +52,7 @@ import com.google.inject.multibindings.Multibinder;
  * @see GraphDatabase
  * @see ObjectSerializingFactory
  * @see DeduplicationService
+ * @see SpatialIndexDatabase
  */
 
 public class GeogitModule extends AbstractModule {
@@ -72,15 +77,20 @@ public class GeogitModule extends AbstractModule {
         bind(StagingDatabase.class).to(HeapStagingDatabase.class).in(Scopes.SINGLETON);
         bind(WorkingTree.class).in(Scopes.SINGLETON);
         bind(GraphDatabase.class).to(HeapGraphDatabase.class).in(Scopes.SINGLETON);
+        bind(CommitGraph.class).in(Scopes.SINGLETON);
+        bind(ReachabilityBitmaps.class).in(Scopes.SINGLETON);
+        bind(DiffSummaryCache.class).in(Scopes.SINGLETON);
 
         bind(ObjectDatabase.class).to(FileObjectDatabase.class).in(Scopes.SINGLETON);
         bind(RefDatabase.class).to(FileRefDatabase.class).in(Scopes.SINGLETON);
 
-        bind(ObjectSerializingFactory.class).to(DataStreamSerializationFactory.class).in(
+        bind(ObjectSerializingFactory.class).to(DataStreamSerializationFactoryV2.class).in(
                 Scopes.SINGLETON);
 
         bind(DeduplicationService.class).to(HeapDeduplicationService.class).in(Scopes.SINGLETON);
 
+        bind(SpatialIndexDatabase.class).in(Scopes.SINGLETON);
+
         bindCommitGraphInterceptor();
 
         bindConflictCheckingInterceptor();
@@ -95,9 +105,11 @@ public class GeogitModule extends AbstractModule {
     private void bindCommitGraphInterceptor() {
 
         ObjectDatabasePutInterceptor commitGraphUpdater = new ObjectDatabasePutInterceptor(
-                getProvider(GraphDatabase.class));
+                getProvider(GraphDatabase.class), getProvider(CommitGraph.class));
 
         bindDecorator(binder(), commitGraphUpdater);
+
+        bindDecorator(binder(), new CommitGraphDecorator(getProvider(CommitGraph.class)));
     }
 
     public static void bindDecorator(Binder binder, Decorator decorator) {
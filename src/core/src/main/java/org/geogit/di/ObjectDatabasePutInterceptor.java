@@ -12,6 +12,7 @@ import org.geogit.api.ObjectId;
 import org.geogit.api.RevCommit;
 import org.geogit.api.RevObject;
 import org.geogit.storage.BulkOpListener;
+import org.geogit.storage.CommitGraph;
 import org.geogit.storage.ForwardingObjectDatabase;
 import org.geogit.storage.GraphDatabase;
 import org.geogit.storage.ObjectDatabase;
@@ -26,14 +27,18 @@ import com.google.inject.util.Providers;
 
 /**
  * Method interceptor for {@link ObjectDatabase#put(RevObject)} that adds new commits to the graph
- * database.
+ * database and the {@link CommitGraph commit graph}.
  */
 class ObjectDatabasePutInterceptor implements Decorator {
 
     private Provider<GraphDatabase> graphDb;
 
-    public ObjectDatabasePutInterceptor(Provider<GraphDatabase> graphDb) {
+    private Provider<CommitGraph> commitGraph;
+
+    public ObjectDatabasePutInterceptor(Provider<GraphDatabase> graphDb,
+            Provider<CommitGraph> commitGraph) {
         this.graphDb = graphDb;
+        this.commitGraph = commitGraph;
     }
 
     @Override
@@ -45,16 +50,20 @@ class ObjectDatabasePutInterceptor implements Decorator {
 
     @Override
     public ObjectDatabase decorate(Object subject) {
-        return new GraphUpdatingObjectDatabase(graphDb, (ObjectDatabase) subject);
+        return new GraphUpdatingObjectDatabase(graphDb, commitGraph, (ObjectDatabase) subject);
     }
 
     private static class GraphUpdatingObjectDatabase extends ForwardingObjectDatabase {
 
         private Provider<GraphDatabase> graphDb;
 
-        public GraphUpdatingObjectDatabase(Provider<GraphDatabase> graphDb, ObjectDatabase subject) {
+        private Provider<CommitGraph> commitGraph;
+
+        public GraphUpdatingObjectDatabase(Provider<GraphDatabase> graphDb,
+                Provider<CommitGraph> commitGraph, ObjectDatabase subject) {
             super(Providers.of(subject));
             this.graphDb = graphDb;
+            this.commitGraph = commitGraph;
         }
 
         @Override
@@ -62,9 +71,14 @@ class ObjectDatabasePutInterceptor implements Decorator {
 
             final boolean inserted = super.put(object);
 
-            if (inserted && RevObject.TYPE.COMMIT.equals(object.getType())) {
+            if (RevObject.TYPE.COMMIT.equals(object.getType())) {
                 RevCommit commit = (RevCommit) object;
-                graphDb.get().put(commit.getId(), commit.getParentIds());
+                if (inserted) {
+                    graphDb.get().put(commit.getId(), commit.getParentIds());
+                }
+                CommitGraph graph = commitGraph.get();
+                graph.add(commit, this);
+                graph.flush();
             }
             return inserted;
         }
@@ -84,6 +98,8 @@ class ObjectDatabasePutInterceptor implements Decorator {
 
                         private final GraphDatabase graphDatabase = graphDb.get();
 
+                        private final CommitGraph graph = commitGraph.get();
+
                         @Override
                         public RevObject apply(RevObject input) {
                             if (input instanceof RevCommit) {
@@ -91,6 +107,7 @@ class ObjectDatabasePutInterceptor implements Decorator {
                                 ObjectId commitId = commit.getId();
                                 ImmutableList<ObjectId> parentIds = commit.getParentIds();
                                 graphDatabase.put(commitId, parentIds);
+                                graph.add(commit, GraphUpdatingObjectDatabase.this);
 
                                 // addedCommits.add((RevCommit) input);
                             }
@@ -100,6 +117,8 @@ class ObjectDatabasePutInterceptor implements Decorator {
 
             super.putAll(collectingIterator, listener);
 
+            commitGraph.get().flush();
+
 //            if (!addedCommits.isEmpty()) {
 //                GraphDatabase graphDatabase = graphDb.get();
 //                for (RevCommit commit : addedCommits) {
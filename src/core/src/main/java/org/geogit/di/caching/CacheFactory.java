@@ -16,6 +16,7 @@ import org.geogit.api.ObjectId;
 import org.geogit.api.RevObject;
 import org.geogit.api.porcelain.ConfigException;
 import org.geogit.storage.ConfigDatabase;
+import org.geogit.storage.datastream.DataStreamSerializationFactoryV2;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,6 +28,16 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 import com.google.inject.Provider;
 
+/**
+ * Creates the {@link RevObject} cache for a given object database, as configured by the
+ * {@code <prefix>.*} config keys.
+ * <p>
+ * {@code maxSize} is the max number of decoded objects kept on the heap in any case. By
+ * default (i.e. {@code concurrencyLevel == 0}) a {@link TieredObjectCache} is created, spilling
+ * the objects evicted from the heap to up to {@code maxBytes} of serialized objects off the heap,
+ * stored in {@code segmentSize} chunks of direct memory. Otherwise a Guava cache bounded by
+ * {@code maxSize} entries is created.
+ */
 abstract class CacheFactory {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(CacheFactory.class);
@@ -49,6 +60,14 @@ abstract class CacheFactory {
         return cache;
     }
 
+    /**
+     * @return the statistics of the cache, all zero if it hasn't been created yet
+     */
+    public CacheStats stats() {
+        Cache<ObjectId, RevObject> cache = this.cache;
+        return cache == null ? NO_CACHE.stats() : cache.stats();
+    }
+
     protected synchronized void createCache() {
         if (cache != null) {
             return;
@@ -60,8 +79,13 @@ abstract class CacheFactory {
         final int maxSize = getConfig("maxSize", 50 * 1000);
         final int concurrencyLevel = getConfig("concurrencyLevel", 0);
         if (concurrencyLevel == 0) {
-            this.cache = new SimpleCache<ObjectId, RevObject>(maxSize);
-            LOGGER.debug("Cache '{}' configured with maxSize: {}", configKeywordPrefix, maxSize);
+            final long maxBytes = getConfig("maxBytes", Long.valueOf(64 * 1024 * 1024));
+            final int segmentSize = getConfig("segmentSize", 4 * 1024 * 1024);
+            OffHeapStore offHeap = new OffHeapStore(maxBytes, segmentSize);
+            this.cache = new TieredObjectCache(maxSize, offHeap,
+                    DataStreamSerializationFactoryV2.INSTANCE);
+            LOGGER.debug("Cache '{}' configured with maxSize: {}, maxBytes: {}, segmentSize: {}",
+                    configKeywordPrefix, maxSize, maxBytes, segmentSize);
             return;
         }
 
@@ -72,6 +96,7 @@ abstract class CacheFactory {
         cacheBuilder.expireAfterAccess(expireSeconds, TimeUnit.SECONDS);
         cacheBuilder.initialCapacity(initialCapacity);
         cacheBuilder.concurrencyLevel(concurrencyLevel);
+        cacheBuilder.recordStats();
 
         try {
             this.cache = cacheBuilder.build();
@@ -20,6 +20,7 @@ import com.google.inject.Scopes;
  * {@link ObjectDatabase}, and {@link StagingDatabase}.
  * 
  * @see CacheFactory
+ * @see ObjectCaches
  * @see ObjectDatabaseCacheInterceptor
  * @see ObjectDatabaseDeleteCacheInterceptor
  * @see ObjectDatabaseDeleteAllCacheInterceptor
@@ -35,6 +36,7 @@ public class CachingModule extends AbstractModule {
 
         bind(ObjectDatabaseCacheFactory.class).in(Scopes.SINGLETON);
         bind(StagingDatabaseCacheFactory.class).in(Scopes.SINGLETON);
+        bind(ObjectCaches.class).in(Scopes.SINGLETON);
 
         Decorator objectCachingDecorator = ObjectDatabaseCacheInterceptor
                 .objects(getProvider(ObjectDatabaseCacheFactory.class));
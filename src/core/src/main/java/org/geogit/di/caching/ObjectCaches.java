@@ -0,0 +1,41 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.di.caching;
+
+import com.google.common.cache.CacheStats;
+import com.google.inject.Inject;
+
+/**
+ * Gives access to the statistics of the object and staging database caches configured by
+ * {@link CachingModule}, for monitoring purposes.
+ * <p>
+ * Without {@link CachingModule} no caches are created and all the statistics are zero.
+ */
+public class ObjectCaches {
+
+    private final CacheFactory objects;
+
+    private final CacheFactory staging;
+
+    @Inject
+    ObjectCaches(ObjectDatabaseCacheFactory objects, StagingDatabaseCacheFactory staging) {
+        this.objects = objects;
+        this.staging = staging;
+    }
+
+    /**
+     * @return the statistics of the object database cache
+     */
+    public CacheStats objectDatabaseStats() {
+        return objects.stats();
+    }
+
+    /**
+     * @return the statistics of the staging database cache
+     */
+    public CacheStats stagingDatabaseStats() {
+        return staging.stats();
+    }
+}
@@ -5,7 +5,10 @@
 
 package org.geogit.di.caching;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 import org.geogit.api.ObjectId;
 import org.geogit.api.RevFeatureType;
@@ -18,7 +21,9 @@ import org.geogit.storage.ForwardingStagingDatabase;
 import org.geogit.storage.ObjectDatabase;
 import org.geogit.storage.StagingDatabase;
 
+import com.google.common.base.Function;
 import com.google.common.cache.Cache;
+import com.google.common.collect.Iterators;
 import com.google.inject.Provider;
 import com.google.inject.util.Providers;
 
@@ -88,6 +93,16 @@ class ObjectDatabaseCacheInterceptor {
             return cache.get(id, type, super.subject.get());
         }
 
+        @Override
+        public Iterator<RevObject> getAll(Iterable<ObjectId> ids) {
+            return getAll(ids, BulkOpListener.NOOP_LISTENER);
+        }
+
+        @Override
+        public Iterator<RevObject> getAll(Iterable<ObjectId> ids, BulkOpListener listener) {
+            return cache.getAll(ids, listener, super.subject.get());
+        }
+
         @Override
         public boolean delete(ObjectId objectId) {
             return cache.delete(objectId, super.subject.get());
@@ -126,6 +141,16 @@ class ObjectDatabaseCacheInterceptor {
             return cache.get(id, type, super.subject.get());
         }
 
+        @Override
+        public Iterator<RevObject> getAll(Iterable<ObjectId> ids) {
+            return getAll(ids, BulkOpListener.NOOP_LISTENER);
+        }
+
+        @Override
+        public Iterator<RevObject> getAll(Iterable<ObjectId> ids, BulkOpListener listener) {
+            return cache.getAll(ids, listener, super.subject.get());
+        }
+
         @Override
         public boolean delete(ObjectId objectId) {
             return cache.delete(objectId, super.subject.get());
@@ -143,6 +168,9 @@ class ObjectDatabaseCacheInterceptor {
     }
 
     private static class CacheHelper {
+
+        private static final int GET_ALL_BATCH_SIZE = 1000;
+
         private Provider<? extends CacheFactory> cacheProvider;
 
         public CacheHelper(final Provider<? extends CacheFactory> cacheProvider) {
@@ -180,14 +208,53 @@ class ObjectDatabaseCacheInterceptor {
             return type.cast(object);
         }
 
-        // public Iterator<RevObject> getAll(final Iterable<ObjectId> ids) {
-        //
-        // }
-        //
-        // public Iterator<RevObject> getAll(final Iterable<ObjectId> ids, BulkOpListener listener)
-        // {
-        //
-        // }
+        /**
+         * Serves the cached objects from the cache and reads the rest from the database in batches
+         * of {@link #GET_ALL_BATCH_SIZE}, caching the cacheable ones
+         */
+        public Iterator<RevObject> getAll(final Iterable<ObjectId> ids,
+                final BulkOpListener listener, final ObjectDatabase db) {
+
+            final Cache<ObjectId, RevObject> cache = cacheProvider.get().get();
+
+            final Function<RevObject, RevObject> cacheMisses;
+            cacheMisses = new Function<RevObject, RevObject>() {
+                @Override
+                public RevObject apply(RevObject object) {
+                    if (isCacheable(object)) {
+                        cache.put(object.getId(), object);
+                    }
+                    return object;
+                }
+            };
+
+            Iterator<List<ObjectId>> batches = Iterators.partition(ids.iterator(),
+                    GET_ALL_BATCH_SIZE);
+
+            return Iterators.concat(Iterators.transform(batches,
+                    new Function<List<ObjectId>, Iterator<RevObject>>() {
+                        @Override
+                        public Iterator<RevObject> apply(List<ObjectId> batch) {
+                            final Map<ObjectId, RevObject> hits = cache.getAllPresent(batch);
+                            for (ObjectId id : hits.keySet()) {
+                                listener.found(id, null);
+                            }
+                            if (hits.size() == batch.size()) {
+                                return hits.values().iterator();
+                            }
+                            List<ObjectId> misses = new ArrayList<ObjectId>(batch.size()
+                                    - hits.size());
+                            for (ObjectId id : batch) {
+                                if (!hits.containsKey(id)) {
+                                    misses.add(id);
+                                }
+                            }
+                            Iterator<RevObject> read = Iterators.transform(
+                                    db.getAll(misses, listener), cacheMisses);
+                            return Iterators.concat(hits.values().iterator(), read);
+                        }
+                    }));
+        }
 
         public boolean delete(ObjectId objectId, ObjectDatabase db) {
             boolean deleted = db.delete(objectId);
@@ -0,0 +1,226 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.di.caching;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.ObjectId;
+
+import com.google.common.collect.Maps;
+
+/**
+ * A byte bounded store of serialized objects kept outside the java heap.
+ * <p>
+ * Storage is a ring of fixed size direct {@link ByteBuffer} segments that are allocated lazily.
+ * Values are appended to the current segment; when all the segments are full the oldest one is
+ * recycled as a whole and the entries it held are evicted. This bounds the store to
+ * {@code maxBytes} regardless of the object sizes, and avoids any per entry off-heap allocation.
+ * <p>
+ * Only the small per entry {@link Location} objects, and the ids of the entries written to each
+ * segment so recycling a segment only visits its own entries, live on the heap.
+ */
+class OffHeapStore {
+
+    private static final class Location {
+        final int segment;
+
+        final long generation;
+
+        final int offset;
+
+        final int length;
+
+        Location(int segment, long generation, int offset, int length) {
+            this.segment = segment;
+            this.generation = generation;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private final int segmentSize;
+
+    private final ByteBuffer[] segments;
+
+    /**
+     * How many times each segment has been (re)used, to tell stale locations apart
+     */
+    private final long[] generations;
+
+    /**
+     * The ids of the entries written to each segment since it was last recycled, some of which
+     * may have been removed or written again to another segment since
+     */
+    private final List<List<ObjectId>> segmentIds;
+
+    private final ConcurrentMap<ObjectId, Location> index = Maps.newConcurrentMap();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    private int currentSegment = -1;
+
+    private long usedBytes;
+
+    /**
+     * @param maxBytes the max number of bytes to hold
+     * @param segmentSize the size of each off-heap segment, and hence the max size of a value
+     */
+    public OffHeapStore(final long maxBytes, final int segmentSize) {
+        checkArgument(segmentSize > 0, "segmentSize shall be > 0");
+        checkArgument(maxBytes >= segmentSize, "maxBytes shall be >= segmentSize");
+        this.segmentSize = segmentSize;
+        final int numSegments = (int) Math.min(Integer.MAX_VALUE, maxBytes / segmentSize);
+        this.segments = new ByteBuffer[numSegments];
+        this.generations = new long[numSegments];
+        this.segmentIds = new ArrayList<List<ObjectId>>(numSegments);
+        for (int i = 0; i < numSegments; i++) {
+            segmentIds.add(new ArrayList<ObjectId>());
+        }
+    }
+
+    /**
+     * @return the serialized value, or {@code null} if not present
+     */
+    @Nullable
+    public byte[] get(final ObjectId id) {
+        final Location loc = index.get(id);
+        if (loc == null) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            if (generations[loc.segment] != loc.generation) {
+                // segment recycled since the location was stored, unless the id was put again
+                index.remove(id, loc);
+                return null;
+            }
+            ByteBuffer buff = segments[loc.segment].duplicate();
+            buff.position(loc.offset);
+            byte[] value = new byte[loc.length];
+            buff.get(value);
+            return value;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stores the value, unless it's larger than the segment size
+     *
+     * @return whether the value was stored
+     */
+    public boolean put(final ObjectId id, final byte[] value) {
+        if (value.length > segmentSize) {
+            return false;
+        }
+        lock.writeLock().lock();
+        try {
+            if (index.containsKey(id)) {
+                return true;
+            }
+            ByteBuffer segment = currentSegment == -1 ? null : segments[currentSegment];
+            if (segment == null || segment.remaining() < value.length) {
+                segment = nextSegment();
+            }
+            final int offset = segment.position();
+            segment.put(value);
+            usedBytes += value.length;
+            index.put(id, new Location(currentSegment, generations[currentSegment], offset,
+                    value.length));
+            segmentIds.get(currentSegment).add(id);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Moves to the next segment in the ring, allocating it if needed or evicting its contents
+     * otherwise. Must be called while holding the write lock.
+     */
+    private ByteBuffer nextSegment() {
+        currentSegment = (currentSegment + 1) % segments.length;
+        ByteBuffer segment = segments[currentSegment];
+        if (segment == null) {
+            segment = ByteBuffer.allocateDirect(segmentSize);
+            segments[currentSegment] = segment;
+        } else {
+            final int recycled = currentSegment;
+            final long generation = generations[recycled];
+            final List<ObjectId> ids = segmentIds.get(recycled);
+            for (ObjectId id : ids) {
+                Location loc = index.get(id);
+                if (loc != null && loc.segment == recycled && loc.generation == generation) {
+                    if (index.remove(id, loc)) {
+                        evictionCount.incrementAndGet();
+                    }
+                }
+            }
+            ids.clear();
+            usedBytes -= segment.position();
+            segment.clear();
+        }
+        generations[currentSegment]++;
+        return segment;
+    }
+
+    public void remove(final ObjectId id) {
+        index.remove(id);
+    }
+
+    /**
+     * Discards all the entries, keeping the already allocated segments for reuse
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            index.clear();
+            for (int i = 0; i < segments.length; i++) {
+                if (segments[i] != null) {
+                    segments[i].clear();
+                    generations[i]++;
+                }
+                segmentIds.get(i).clear();
+            }
+            currentSegment = -1;
+            usedBytes = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * @return the number of bytes held by the segments, including the ones of removed entries not
+     *         yet reclaimed
+     */
+    public long usedBytes() {
+        lock.readLock().lock();
+        try {
+            return usedBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long evictionCount() {
+        return evictionCount.get();
+    }
+}
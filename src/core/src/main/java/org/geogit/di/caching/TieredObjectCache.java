@@ -0,0 +1,174 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.di.caching;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject;
+import org.geogit.storage.ObjectReader;
+import org.geogit.storage.ObjectSerializingFactory;
+import org.geogit.storage.ObjectWriter;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.AbstractCache;
+import com.google.common.cache.CacheStats;
+
+/**
+ * A {@link RevObject} cache with a small, entry count bounded tier of decoded objects on the
+ * heap, backed by a byte bounded {@link OffHeapStore} of serialized objects.
+ * <p>
+ * Objects are {@link #put} on the heap tier only, and serialized to the off-heap tier when the
+ * heap tier evicts them. A miss on the heap tier that hits the off-heap tier decodes the object
+ * and promotes it back to the heap tier. This way a few huge trees can't blow the heap, lots of
+ * small objects are not evicted just because the cache holds a given number of entries, and
+ * objects that are used while they are recent are never serialized.
+ */
+class TieredObjectCache extends AbstractCache<ObjectId, RevObject> {
+
+    /**
+     * The heap tier, spilling the least recently used objects to the off-heap tier
+     */
+    private class LRU extends LinkedHashMap<ObjectId, RevObject> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxEntries;
+
+        public LRU(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ObjectId, RevObject> eldest) {
+            if (size() > maxEntries) {
+                offHeap.put(eldest.getKey(), encode(eldest.getValue()));
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private final Map<ObjectId, RevObject> heap;
+
+    private final OffHeapStore offHeap;
+
+    private final ObjectSerializingFactory serializer;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong decodeCount = new AtomicLong();
+
+    private final AtomicLong totalDecodeTime = new AtomicLong();
+
+    /**
+     * @param heapMaxEntries max number of decoded objects to keep on the heap
+     * @param offHeap the store for serialized objects
+     * @param serializer the serialization format for the off-heap tier
+     */
+    public TieredObjectCache(final int heapMaxEntries, final OffHeapStore offHeap,
+            final ObjectSerializingFactory serializer) {
+        this.offHeap = offHeap;
+        this.heap = Collections.synchronizedMap(new LRU(heapMaxEntries));
+        this.serializer = serializer;
+    }
+
+    @Override
+    public @Nullable
+    RevObject getIfPresent(Object key) {
+        if (!(key instanceof ObjectId)) {
+            return null;
+        }
+        final ObjectId id = (ObjectId) key;
+        RevObject object = heap.get(id);
+        if (object == null) {
+            byte[] serialized = offHeap.get(id);
+            if (serialized != null) {
+                object = decode(id, serialized);
+                // held by one tier at a time, it's serialized again if evicted from the heap
+                offHeap.remove(id);
+                heap.put(id, object);
+            }
+        }
+        if (object == null) {
+            missCount.incrementAndGet();
+        } else {
+            hitCount.incrementAndGet();
+        }
+        return object;
+    }
+
+    @Override
+    public void put(ObjectId key, RevObject value) {
+        heap.put(key, value);
+    }
+
+    @Override
+    public void invalidate(Object key) {
+        if (key instanceof ObjectId) {
+            heap.remove(key);
+            offHeap.remove((ObjectId) key);
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        heap.clear();
+        offHeap.clear();
+    }
+
+    @Override
+    public long size() {
+        return heap.size() + offHeap.size();
+    }
+
+    /**
+     * @return the hit and miss counts of the cache as a whole, where evictions are the off-heap
+     *         evictions (objects spilled from the heap tier are not evicted) and load stats
+     *         account for decoding off-heap objects
+     */
+    @Override
+    public CacheStats stats() {
+        return new CacheStats(hitCount.get(), missCount.get(), decodeCount.get(), 0,
+                totalDecodeTime.get(), offHeap.evictionCount());
+    }
+
+    /**
+     * @return the number of bytes used off-heap
+     */
+    public long offHeapBytes() {
+        return offHeap.usedBytes();
+    }
+
+    private byte[] encode(RevObject object) {
+        ObjectWriter<RevObject> writer = serializer.createObjectWriter(object.getType());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            writer.write(object, out);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        return out.toByteArray();
+    }
+
+    private RevObject decode(ObjectId id, byte[] serialized) {
+        final long start = System.nanoTime();
+        ObjectReader<RevObject> reader = serializer.createObjectReader();
+        RevObject object = reader.read(id, new ByteArrayInputStream(serialized));
+        decodeCount.incrementAndGet();
+        totalDecodeTime.addAndGet(System.nanoTime() - start);
+        return object;
+    }
+}
@@ -4,14 +4,19 @@
  */
 package org.geogit.remote;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 
@@ -26,7 +31,9 @@ import org.geogit.storage.Deduplicator;
 import org.geogit.storage.ObjectDatabase;
 import org.geogit.storage.ObjectReader;
 import org.geogit.storage.ObjectSerializingFactory;
+import org.geogit.storage.ReachabilityBitmaps;
 import org.geogit.storage.datastream.DataStreamSerializationFactory;
+import org.geogit.storage.memory.ObjectIdMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,6 +45,8 @@ import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterators;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 
 public final class BinaryPackedObjects {
 
@@ -53,10 +62,51 @@ public final class BinaryPackedObjects {
      */
     private final int CAP = 100;
 
+    private static final int FETCH_BATCH_SIZE = 1000;
+
+    /**
+     * How the objects to send are computed, part of the id of a pack's traversal
+     */
+    private static final byte MODE_CONTENTS = 0;
+
+    private static final byte MODE_COMMITS = 1;
+
+    private static final byte MODE_BITMAPS = 2;
+
     private final ObjectDatabase database;
 
+    private final int packBlockSize;
+
+    @Nullable
+    private final ReachabilityBitmaps bitmaps;
+
     public BinaryPackedObjects(ObjectDatabase database) {
+        this(database, null);
+    }
+
+    /**
+     * @param bitmaps the reachability bitmaps to compute the objects to send with, if they
+     *        have been built for the repository
+     */
+    public BinaryPackedObjects(ObjectDatabase database, @Nullable ReachabilityBitmaps bitmaps) {
+        this(database, bitmaps, PackProtocol.DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param packBlockSize the uncompressed size, in bytes, of the blocks of version 2 packs
+     */
+    BinaryPackedObjects(ObjectDatabase database, int packBlockSize) {
+        this(database, null, packBlockSize);
+    }
+
+    /**
+     * @param packBlockSize the uncompressed size, in bytes, of the blocks of version 2 packs
+     */
+    BinaryPackedObjects(ObjectDatabase database, @Nullable ReachabilityBitmaps bitmaps,
+            int packBlockSize) {
         this.database = database;
+        this.bitmaps = bitmaps;
+        this.packBlockSize = packBlockSize;
         this.factory = new DataStreamSerializationFactory();
         this.objectReader = factory.createObjectReader();
     }
@@ -68,26 +118,9 @@ public final class BinaryPackedObjects {
 
     public void write(Supplier<OutputStream> outputSupplier, List<ObjectId> want, List<ObjectId> have,
             Set<ObjectId> sent, Callback callback, boolean traverseCommits, Deduplicator deduplicator) throws IOException {
-        LOGGER.info("checking the {} wanted ids exist...", want.size());
-        for (ObjectId i : want) {
-            if (!database.exists(i)) {
-                throw new NoSuchElementException("Wanted id: " + i + " is not known");
-            }
-        }
-
-        LOGGER.info("scanning for previsit list...");
-
-        ImmutableList<ObjectId> needsPrevisit = traverseCommits ? scanForPrevisitList(want, have, deduplicator)
-                : ImmutableList.copyOf(have);
-        deduplicator.reset();
-        ImmutableList<ObjectId> previsitResults = reachableContentIds(needsPrevisit, deduplicator);
-        deduplicator.reset();
-
-        LOGGER.info("obtaining post order iterator on range...");
-
+        Iterator<RevObject> objects = objectsToSend(want, have, traverseCommits,
+                deduplicator).objects;
         int commitsSent = 0;
-        Iterator<RevObject> objects = PostOrderIterator.range(want, new ArrayList<ObjectId>(
-                previsitResults), database, traverseCommits, deduplicator);
         int count = 0;
         
         
@@ -110,6 +143,213 @@ public final class BinaryPackedObjects {
         LOGGER.info(String.format("WRITTEN %,d objects", count));
     }
 
+    /**
+     * Writes the objects reachable from {@code want} and not from {@code have} as a version 2
+     * pack, as described in {@link PackProtocol}.
+     * 
+     * @param resumeFrom the number of objects to skip, as the receiving end already got them from
+     *        an interrupted pack for the same {@code want} and {@code have} lists
+     * @param traversal the traversal of the interrupted pack, the pack starts over if the objects
+     *        are not sent in the same order anymore
+     * @return the number of objects written
+     */
+    public long writePack(OutputStream out, List<ObjectId> want, List<ObjectId> have,
+            long resumeFrom, long traversal, Deduplicator deduplicator) throws IOException {
+        return writePack(out, want, have, resumeFrom, traversal, DEFAULT_CALLBACK, false,
+                deduplicator);
+    }
+
+    /**
+     * Writes the objects reachable from {@code want} and not from {@code have} as a version 2
+     * pack, calling back for each object written.
+     * 
+     * @param resumeFrom the number of objects to skip, as the receiving end already got them from
+     *        an interrupted pack for the same {@code want} and {@code have} lists
+     * @param traversal the traversal of the interrupted pack, the pack starts over if the objects
+     *        are not sent in the same order anymore
+     * @return the number of objects written
+     * @see PackProtocol
+     */
+    public long writePack(OutputStream out, List<ObjectId> want, List<ObjectId> have,
+            long resumeFrom, long traversal, Callback callback, boolean traverseCommits,
+            Deduplicator deduplicator) throws IOException {
+        checkArgument(resumeFrom >= 0, "negative resume offset: %s", resumeFrom);
+        if (want.isEmpty()) {
+            new PackProtocol.BlockWriter(out, packBlockSize, 0L, 0L).finish();
+            return 0;
+        }
+        Traversal toSend = objectsToSend(want, have, traverseCommits, deduplicator);
+        long start = resumeFrom;
+        if (start > 0 && traversal != toSend.id) {
+            // the offset was counted in another order, a start of zero tells the client
+            LOGGER.info(String.format("can't resume pack after %,d objects, objects are not "
+                    + "sent in the same order anymore, starting over", start));
+            start = 0;
+        }
+        PackProtocol.BlockWriter writer = new PackProtocol.BlockWriter(out, packBlockSize,
+                toSend.id, start);
+        Iterator<RevObject> objects = toSend.objects;
+        if (start > 0) {
+            // the traversal order is deterministic, skip what the client already saved
+            long skipped = 0;
+            while (skipped < start && objects.hasNext()) {
+                objects.next();
+                skipped++;
+            }
+            LOGGER.info(String.format("resuming pack after %,d objects", skipped));
+        }
+        long count = 0;
+        final OutputStream blockOut = writer.objectStream();
+        try {
+            while (objects.hasNext()) {
+                RevObject object = objects.next();
+                blockOut.write(object.getId().getRawValue());
+                factory.createObjectWriter(object.getType()).write(object, blockOut);
+                writer.objectWritten();
+                count++;
+                callback.callback(Suppliers.ofInstance(object));
+            }
+            writer.finish();
+        } catch (IOException e) {
+            LOGGER.warn(String.format("writing of pack failed after %,d objects", count));
+            throw e;
+        }
+        LOGGER.info(String.format("WRITTEN %,d objects in pack", count));
+        return count;
+    }
+
+    /**
+     * The objects to send for a request, and the id of the order they are sent in
+     */
+    private static final class Traversal {
+
+        final long id;
+
+        final Iterator<RevObject> objects;
+
+        Traversal(long id, Iterator<RevObject> objects) {
+            this.id = id;
+            this.objects = objects;
+        }
+    }
+
+    /**
+     * Identifies a traversal by how it's computed and from what, so a request can only be resumed
+     * if its objects are sent in the same order as in the interrupted one
+     */
+    private static long traversalId(List<ObjectId> want, List<ObjectId> have, byte mode,
+            long bitmapsGeneration) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        hasher.putByte(mode);
+        hasher.putLong(bitmapsGeneration);
+        hasher.putInt(want.size());
+        for (ObjectId id : want) {
+            hasher.putBytes(id.getRawValue());
+        }
+        hasher.putInt(have.size());
+        for (ObjectId id : have) {
+            hasher.putBytes(id.getRawValue());
+        }
+        long id = hasher.hash().asLong();
+        // zero is what requests that don't resume anything send
+        return id == 0L ? 1L : id;
+    }
+
+    private Traversal objectsToSend(List<ObjectId> want, List<ObjectId> have,
+            boolean traverseCommits, Deduplicator deduplicator) {
+        LOGGER.info("checking the {} wanted ids exist...", want.size());
+        for (ObjectId i : want) {
+            if (!database.exists(i)) {
+                throw new NoSuchElementException("Wanted id: " + i + " is not known");
+            }
+        }
+
+        if (!traverseCommits && bitmaps != null) {
+            ReachabilityBitmaps.Snapshot snapshot = bitmaps.snapshot();
+            List<ObjectId> covered = new ArrayList<ObjectId>();
+            List<ObjectId> uncovered = new ArrayList<ObjectId>();
+            for (ObjectId id : want) {
+                (snapshot.contains(id) ? covered : uncovered).add(id);
+            }
+            if (!covered.isEmpty()) {
+                LOGGER.info("computing the objects to send from the reachability bitmaps...");
+                BitSet toSend = snapshot.difference(covered, have, database);
+                LOGGER.info(String.format("%,d objects to send", toSend.cardinality()));
+                Iterator<RevObject> objects = fetchInOrder(snapshot.objects(toSend));
+                if (!uncovered.isEmpty()) {
+                    // the other wants are walked, skipping what's sent for the covered ones
+                    List<ObjectId> sent = new ArrayList<ObjectId>(have);
+                    sent.addAll(covered);
+                    objects = Iterators.concat(objects,
+                            traverseContents(uncovered, sent, deduplicator));
+                }
+                return new Traversal(traversalId(want, have, MODE_BITMAPS, snapshot.generation()),
+                        objects);
+            }
+        }
+
+        if (!traverseCommits) {
+            return new Traversal(traversalId(want, have, MODE_CONTENTS, 0L), traverseContents(
+                    want, have, deduplicator));
+        }
+
+        LOGGER.info("scanning for previsit list...");
+
+        ImmutableList<ObjectId> needsPrevisit = scanForPrevisitList(want, have, deduplicator);
+        deduplicator.reset();
+        ImmutableList<ObjectId> previsitResults = reachableContentIds(needsPrevisit, deduplicator);
+        deduplicator.reset();
+
+        LOGGER.info("obtaining post order iterator on range...");
+
+        return new Traversal(traversalId(want, have, MODE_COMMITS, 0L), PostOrderIterator.range(
+                want, new ArrayList<ObjectId>(previsitResults), database, true, deduplicator));
+    }
+
+    /**
+     * Walks the wanted objects and the contents of their trees, skipping the contents of the
+     * {@code have} ones
+     */
+    private Iterator<RevObject> traverseContents(List<ObjectId> want, List<ObjectId> have,
+            Deduplicator deduplicator) {
+        LOGGER.info("scanning the contents of {} objects the other end has...", have.size());
+        deduplicator.reset();
+        ImmutableList<ObjectId> previsitResults = reachableContentIds(ImmutableList.copyOf(have),
+                deduplicator);
+        deduplicator.reset();
+
+        LOGGER.info("obtaining post order iterator on range...");
+
+        return PostOrderIterator.range(want, new ArrayList<ObjectId>(previsitResults), database,
+                false, deduplicator);
+    }
+
+    /**
+     * Fetches the objects in batches, returning them in the order of the given ids
+     */
+    private Iterator<RevObject> fetchInOrder(Iterator<ObjectId> ids) {
+        return Iterators.concat(Iterators.transform(Iterators.partition(ids, FETCH_BATCH_SIZE),
+                new Function<List<ObjectId>, Iterator<RevObject>>() {
+                    @Override
+                    public Iterator<RevObject> apply(List<ObjectId> batch) {
+                        Map<ObjectId, RevObject> fetched = new ObjectIdMap<RevObject>(batch.size());
+                        Iterator<RevObject> it = database.getAll(batch);
+                        while (it.hasNext()) {
+                            RevObject object = it.next();
+                            fetched.put(object.getId(), object);
+                        }
+                        List<RevObject> objects = new ArrayList<RevObject>(fetched.size());
+                        for (ObjectId id : batch) {
+                            RevObject object = fetched.get(id);
+                            if (object != null) {
+                                objects.add(object);
+                            }
+                        }
+                        return objects.iterator();
+                    }
+                }));
+    }
+
     /**
      * Find commits which should be previsited to avoid resending objects that are already on the
      * receiving end. A commit should be previsited if:
@@ -162,7 +402,65 @@ public final class BinaryPackedObjects {
     public void ingest(final InputStream in, final Callback callback) {
         Iterator<RevObject> objects = streamToObjects(in);
 
-        BulkOpListener listener = new BulkOpListener() {
+        BulkOpListener listener = callbackListener(callback);
+
+        database.putAll(objects, listener);
+    }
+
+
+    /**
+     * Saves the objects of a version 2 pack, block by block.
+     * 
+     * @return the number of objects in the pack
+     * @throws PackProtocol.TruncatedPackException if the pack is cut short, with the number of
+     *         objects saved so far
+     */
+    public long ingestPack(final InputStream in) throws IOException {
+        return ingestPack(in, DEFAULT_CALLBACK);
+    }
+
+    /**
+     * Saves the objects of a version 2 pack, block by block, calling back for each object
+     * inserted.
+     * 
+     * @return the number of objects in the pack
+     * @throws PackProtocol.TruncatedPackException if the pack is cut short, with the number of
+     *         objects saved so far
+     */
+    public long ingestPack(final InputStream in, final Callback callback) throws IOException {
+        return ingestPack(in, 0L, 0L, callback);
+    }
+
+    /**
+     * Saves the objects of a version 2 pack written with the given resume offset and traversal.
+     * 
+     * @return the number of objects received in this and the previous, interrupted, packs; or in
+     *         this pack only, if the sender had to start over
+     * @throws PackProtocol.TruncatedPackException if the pack is cut short, with the number of
+     *         objects saved so far counting the ones of the previous packs, and the traversal to
+     *         resume
+     * @see #writePack(OutputStream, List, List, long, long, Deduplicator)
+     */
+    public long ingestPack(final InputStream in, final long resumeFrom, final long traversal,
+            final Callback callback) throws IOException {
+        BulkOpListener listener = callbackListener(callback);
+        PackProtocol.BlockReader reader = new PackProtocol.BlockReader(in, resumeFrom, traversal);
+        PackProtocol.Block block;
+        while ((block = reader.next()) != null) {
+            InputStream blockIn = new ByteArrayInputStream(block.contents);
+            List<RevObject> objects = new ArrayList<RevObject>(block.objectCount);
+            for (int i = 0; i < block.objectCount; i++) {
+                ObjectId id = readObjectId(blockIn);
+                objects.add(objectReader.read(id, blockIn));
+            }
+            database.putAll(objects.iterator(), listener);
+            reader.saved(block);
+        }
+        return reader.checkpoint();
+    }
+
+    private BulkOpListener callbackListener(final Callback callback) {
+        return new BulkOpListener() {
             @Override
             public void inserted(final ObjectId objectId, @Nullable Integer storageSizeBytes) {
                 callback.callback(new Supplier<RevObject>() {
@@ -173,10 +471,7 @@ public final class BinaryPackedObjects {
                 });
             }
         };
-        
-        database.putAll(objects, listener);
     }
-
     
     private Iterator<RevObject> streamToObjects(final InputStream in) {
         return new AbstractIterator<RevObject>() {
@@ -37,6 +37,7 @@ import com.google.common.base.Suppliers;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Closeables;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
@@ -54,6 +55,16 @@ class HttpRemoteRepo extends AbstractRemoteRepo {
 
     final private DeduplicationService deduplicationService;
 
+    /**
+     * Number of times a fetch is retried after the connection fails without any progress
+     */
+    private static final int MAX_FETCH_RETRIES = 3;
+
+    /**
+     * Whether the remote speaks the version 2 pack protocol, found out on first use
+     */
+    private Boolean packV2Supported;
+
     /**
      * Constructs a new {@code HttpRemoteRepo} with the given parameters.
      * 
@@ -264,9 +275,15 @@ class HttpRemoteRepo extends AbstractRemoteRepo {
                 ImmutableList<ObjectId> have = ImmutableList.copyOf(roots);
                 final boolean traverseCommits = false;
                 
-                Supplier<OutputStream> outputSupplier = getMemoizedOutputSupplier();
-                packer.write(outputSupplier, toSend, have, sent, callback, traverseCommits,
-                        deduplicator);
+                final boolean packV2 = supportsPackV2();
+                Supplier<OutputStream> outputSupplier = getMemoizedOutputSupplier(packV2);
+                if (packV2) {
+                    packer.writePack(outputSupplier.get(), toSend, have, 0L, 0L, callback,
+                            traverseCommits, deduplicator);
+                } else {
+                    packer.write(outputSupplier, toSend, have, sent, callback, traverseCommits,
+                            deduplicator);
+                }
                 OutputStream out = outputSupplier.get();
                 out.flush();
                 out.close();
@@ -276,7 +293,7 @@ class HttpRemoteRepo extends AbstractRemoteRepo {
         }
     }
 
-    private Supplier<OutputStream> getMemoizedOutputSupplier() {
+    private Supplier<OutputStream> getMemoizedOutputSupplier(final boolean packV2) {
         Supplier<OutputStream> outputSupplier = Suppliers.memoize(new Supplier<OutputStream>() {
 
             @Override
@@ -292,6 +309,9 @@ class HttpRemoteRepo extends AbstractRemoteRepo {
                     connection.setRequestMethod("POST");
                     connection.setChunkedStreamingMode(4096);
                     connection.setRequestProperty("content-length", "-1");
+                    if (packV2) {
+                        connection.setRequestProperty("Content-Type", PackProtocol.MEDIA_TYPE);
+                    }
 
                     OutputStream out = connection.getOutputStream();
                     System.err.println("connected.");
@@ -333,6 +353,10 @@ class HttpRemoteRepo extends AbstractRemoteRepo {
      * @param have a list of ObjectIds that are in common with the remote repository
      */
     private void fetchMoreData(final List<ObjectId> want, final Set<ObjectId> have) {
+        if (supportsPackV2()) {
+            fetchPack(want, have);
+            return;
+        }
         final JsonObject message = createFetchMessage(want, have);
         final URL resourceURL;
         try {
@@ -365,7 +389,64 @@ class HttpRemoteRepo extends AbstractRemoteRepo {
         }
 
         BinaryPackedObjects unpacker = new BinaryPackedObjects(localRepository.objectDatabase());
-        BinaryPackedObjects.Callback callback = new BinaryPackedObjects.Callback() {
+        unpacker.ingest(in, fetchCallback(want, have));
+    }
+
+    /**
+     * Fetches the wanted objects as a single version 2 pack, resuming from the last checkpoint
+     * received if the connection fails midway.
+     * 
+     * @see PackProtocol
+     */
+    private void fetchPack(final List<ObjectId> want, final Set<ObjectId> have) {
+        // the callback updates want and have, but resuming needs the original request
+        final ImmutableList<ObjectId> wantIds = ImmutableList.copyOf(want);
+        final ImmutableList<ObjectId> haveIds = ImmutableList.copyOf(have);
+        final BinaryPackedObjects unpacker = new BinaryPackedObjects(
+                localRepository.objectDatabase());
+        final BinaryPackedObjects.Callback callback = fetchCallback(want, have);
+
+        long resumeFrom = 0;
+        long traversal = 0;
+        int failures = 0;
+        while (true) {
+            HttpURLConnection connection = null;
+            try {
+                connection = openPackConnection("/repo/batchobjects");
+                OutputStream out = connection.getOutputStream();
+                PackProtocol.writeRequest(out, wantIds, haveIds, resumeFrom, traversal);
+                out.close();
+
+                InputStream in = connection.getInputStream();
+                try {
+                    unpacker.ingestPack(in, resumeFrom, traversal, callback);
+                } finally {
+                    Closeables.closeQuietly(in);
+                }
+                return;
+            } catch (IOException e) {
+                if (e instanceof PackProtocol.TruncatedPackException) {
+                    PackProtocol.TruncatedPackException truncated;
+                    truncated = (PackProtocol.TruncatedPackException) e;
+                    if (truncated.getCheckpoint() > resumeFrom) {
+                        failures = 0;
+                    }
+                    // the server may have started over in another traversal, resume that one
+                    resumeFrom = truncated.getCheckpoint();
+                    traversal = truncated.getTraversal();
+                }
+                if (++failures > MAX_FETCH_RETRIES) {
+                    throw Throwables.propagate(e);
+                }
+            } finally {
+                HttpUtils.consumeErrStreamAndCloseConnection(connection);
+            }
+        }
+    }
+
+    private BinaryPackedObjects.Callback fetchCallback(final List<ObjectId> want,
+            final Set<ObjectId> have) {
+        return new BinaryPackedObjects.Callback() {
             @Override
             public void callback(Supplier<RevObject> supplier) {
                 RevObject object = supplier.get();
@@ -382,7 +463,47 @@ class HttpRemoteRepo extends AbstractRemoteRepo {
                 }
             }
         };
-        unpacker.ingest(in, callback);
+    }
+
+    private HttpURLConnection openPackConnection(String resource) throws IOException {
+        URL resourceURL = new URL(repositoryURL.toString() + resource);
+        HttpURLConnection connection = (HttpURLConnection) resourceURL.openConnection();
+        connection.setDoOutput(true);
+        connection.setDoInput(true);
+        connection.setUseCaches(false);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", PackProtocol.MEDIA_TYPE);
+        return connection;
+    }
+
+    /**
+     * @return whether the remote answers a version 2 pack request with a version 2 pack, older
+     *         servers only understand the JSON requests and per object streams of version 1
+     */
+    private boolean supportsPackV2() {
+        if (packV2Supported == null) {
+            boolean supported = false;
+            HttpURLConnection connection = null;
+            try {
+                connection = openPackConnection("/repo/batchobjects");
+                OutputStream out = connection.getOutputStream();
+                PackProtocol.writeRequest(out, ImmutableList.<ObjectId> of(),
+                        ImmutableList.<ObjectId> of(), 0L, 0L);
+                out.close();
+                String contentType = connection.getContentType();
+                if (connection.getResponseCode() == HttpURLConnection.HTTP_OK
+                        && contentType != null && contentType.startsWith(PackProtocol.MEDIA_TYPE)) {
+                    HttpUtils.consumeAndCloseStream(connection.getInputStream());
+                    supported = true;
+                }
+            } catch (IOException e) {
+                supported = false;
+            } finally {
+                HttpUtils.consumeErrStreamAndCloseConnection(connection);
+            }
+            packV2Supported = Boolean.valueOf(supported);
+        }
+        return packV2Supported.booleanValue();
     }
 
     private JsonObject createFetchMessage(List<ObjectId> want, Set<ObjectId> have) {
@@ -0,0 +1,414 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.remote;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.geogit.api.ObjectId;
+
+import com.google.common.collect.ImmutableList;
+import com.ning.compress.lzf.LZFDecoder;
+import com.ning.compress.lzf.LZFEncoder;
+
+/**
+ * Wire format of the version 2 pack protocol used to transfer objects over HTTP.
+ * <p>
+ * A fetch request is a binary message with the ids of the wanted and common objects, and the
+ * number of objects to skip and the traversal they were counted in when resuming an interrupted
+ * transfer:
+ *
+ * <pre>
+ * <code>
+ * request    = magic version resumeFrom traversal wantCount *id haveCount *id
+ * magic      = int ("GGP2")
+ * version    = byte (2)
+ * resumeFrom = long
+ * traversal  = long (0 when not resuming)
+ * wantCount  = int
+ * haveCount  = int
+ * id         = 20 bytes
+ * </code>
+ * </pre>
+ *
+ * A pack, the response to a fetch or the body of a push, is a sequence of LZF compressed blocks of
+ * objects ended by an end frame:
+ *
+ * <pre>
+ * <code>
+ * pack       = magic version traversal start *block end
+ * start      = long (number of objects skipped)
+ * block      = BLOCK objectCount checkpoint compressedSize compressedBytes
+ * end        = END total
+ * BLOCK      = byte (1)
+ * END        = byte (0)
+ * objectCount= int
+ * checkpoint = long (number of objects sent so far, including this block)
+ * total      = long
+ * </code>
+ * </pre>
+ *
+ * The uncompressed contents of a block are the id and serialized form of each of its objects. The
+ * stream is only flushed after each block, and each block is a checkpoint: the receiver saves the
+ * objects of a block before reading the next one, so when the transfer fails it can ask the sender
+ * to resume after the last checkpoint it got.
+ * <p>
+ * The {@code traversal} of a pack identifies the order its objects are sent in: how they were
+ * computed, from what want and have lists and, when reachability bitmaps were used, which
+ * generation of them. The offset of a resumed request only makes sense in the traversal it was
+ * counted in, so when the sender can't reproduce it, for example because bitmaps were built in the
+ * meantime, it ignores the offset and starts over, with a {@code start} of zero that tells the
+ * receiver to count its checkpoints from the beginning again.
+ */
+public final class PackProtocol {
+
+    /**
+     * The media type of the requests and packs of this protocol
+     */
+    public static final String MEDIA_TYPE = "application/x-geogit-pack2";
+
+    static final int MAGIC = 0x47475032;
+
+    static final byte VERSION = 2;
+
+    static final byte FRAME_END = 0;
+
+    static final byte FRAME_BLOCK = 1;
+
+    /**
+     * Default uncompressed size, in bytes, after which a block is written out
+     */
+    static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+
+    private PackProtocol() {
+        // utility class
+    }
+
+    /**
+     * A decoded fetch request
+     */
+    public static final class Request {
+
+        private final ImmutableList<ObjectId> want;
+
+        private final ImmutableList<ObjectId> have;
+
+        private final long resumeFrom;
+
+        private final long traversal;
+
+        Request(List<ObjectId> want, List<ObjectId> have, long resumeFrom, long traversal) {
+            this.want = ImmutableList.copyOf(want);
+            this.have = ImmutableList.copyOf(have);
+            this.resumeFrom = resumeFrom;
+            this.traversal = traversal;
+        }
+
+        public ImmutableList<ObjectId> getWant() {
+            return want;
+        }
+
+        public ImmutableList<ObjectId> getHave() {
+            return have;
+        }
+
+        /**
+         * @return the number of objects the client already got from a previous request for the
+         *         same want and have lists
+         */
+        public long getResumeFrom() {
+            return resumeFrom;
+        }
+
+        /**
+         * @return the traversal of the interrupted pack {@link #getResumeFrom() resumeFrom} was
+         *         counted in
+         */
+        public long getTraversal() {
+            return traversal;
+        }
+    }
+
+    /**
+     * Thrown when a pack ends before its end frame, either because the stream was cut short or
+     * failed to be read.
+     */
+    public static class TruncatedPackException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long checkpoint;
+
+        private final long traversal;
+
+        TruncatedPackException(long checkpoint, long traversal, IOException cause) {
+            super("Pack stream truncated after " + checkpoint + " objects: " + cause.getMessage(),
+                    cause);
+            this.checkpoint = checkpoint;
+            this.traversal = traversal;
+        }
+
+        /**
+         * @return the number of objects, counted from the start of the pack, that were received
+         *         and saved before the stream failed
+         */
+        public long getCheckpoint() {
+            return checkpoint;
+        }
+
+        /**
+         * @return the traversal the checkpoint was counted in, to send along with it when resuming
+         */
+        public long getTraversal() {
+            return traversal;
+        }
+    }
+
+    /**
+     * Writes a fetch request to {@code out}, without closing it.
+     * 
+     * @param traversal the traversal of the interrupted pack {@code resumeFrom} was counted in, as
+     *        reported by {@link TruncatedPackException#getTraversal()}
+     */
+    public static void writeRequest(OutputStream out, List<ObjectId> want,
+            Collection<ObjectId> have, long resumeFrom, long traversal) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        writeHeader(data);
+        data.writeLong(resumeFrom);
+        data.writeLong(traversal);
+        writeIds(data, want);
+        writeIds(data, have);
+        data.flush();
+    }
+
+    /**
+     * Reads a fetch request as written by {@link #writeRequest}
+     */
+    public static Request readRequest(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        readHeader(data);
+        final long resumeFrom = data.readLong();
+        final long traversal = data.readLong();
+        List<ObjectId> want = readIds(data);
+        List<ObjectId> have = readIds(data);
+        return new Request(want, have, resumeFrom, traversal);
+    }
+
+    static void writeHeader(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+    }
+
+    static void readHeader(DataInputStream in) throws IOException {
+        final int magic = in.readInt();
+        final byte version = in.readByte();
+        if (magic != MAGIC || version != VERSION) {
+            throw new IOException("Not a version " + VERSION + " pack stream");
+        }
+    }
+
+    private static void writeIds(DataOutputStream out, Collection<ObjectId> ids)
+            throws IOException {
+        out.writeInt(ids.size());
+        for (ObjectId id : ids) {
+            out.write(id.getRawValue());
+        }
+    }
+
+    private static List<ObjectId> readIds(DataInputStream in) throws IOException {
+        final int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Invalid id count: " + count);
+        }
+        List<ObjectId> ids = new ArrayList<ObjectId>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) {
+            byte[] raw = new byte[ObjectId.NUM_BYTES];
+            in.readFully(raw);
+            ids.add(ObjectId.createNoClone(raw));
+        }
+        return ids;
+    }
+
+    /**
+     * Buffers the serialized objects of a pack and writes them out as compressed blocks.
+     */
+    static class BlockWriter {
+
+        private final DataOutputStream out;
+
+        private final int blockSize;
+
+        private final ByteArrayOutputStream block;
+
+        private int blockObjects;
+
+        private long checkpoint;
+
+        /**
+         * @param traversal identifies the order the objects are written in
+         * @param checkpoint the number of objects already sent in previous packs of the same
+         *        traversal
+         */
+        BlockWriter(OutputStream out, int blockSize, long traversal, long checkpoint)
+                throws IOException {
+            this.out = new DataOutputStream(out);
+            this.blockSize = blockSize;
+            this.block = new ByteArrayOutputStream(blockSize + blockSize / 4);
+            this.checkpoint = checkpoint;
+            writeHeader(this.out);
+            this.out.writeLong(traversal);
+            this.out.writeLong(checkpoint);
+        }
+
+        /**
+         * @return the stream to write the next object to, followed by a call to
+         *         {@link #objectWritten()}
+         */
+        OutputStream objectStream() {
+            return block;
+        }
+
+        void objectWritten() throws IOException {
+            blockObjects++;
+            if (block.size() >= blockSize) {
+                writeBlock();
+            }
+        }
+
+        private void writeBlock() throws IOException {
+            if (blockObjects == 0) {
+                return;
+            }
+            checkpoint += blockObjects;
+            byte[] compressed = LZFEncoder.encode(block.toByteArray());
+            out.writeByte(FRAME_BLOCK);
+            out.writeInt(blockObjects);
+            out.writeLong(checkpoint);
+            out.writeInt(compressed.length);
+            out.write(compressed);
+            out.flush();
+            block.reset();
+            blockObjects = 0;
+        }
+
+        /**
+         * Writes out the pending objects and the end frame
+         */
+        void finish() throws IOException {
+            writeBlock();
+            out.writeByte(FRAME_END);
+            out.writeLong(checkpoint);
+            out.flush();
+        }
+    }
+
+    /**
+     * A decoded block of objects
+     */
+    static class Block {
+
+        final int objectCount;
+
+        final long checkpoint;
+
+        final byte[] contents;
+
+        Block(int objectCount, long checkpoint, byte[] contents) {
+            this.objectCount = objectCount;
+            this.checkpoint = checkpoint;
+            this.contents = contents;
+        }
+    }
+
+    /**
+     * Reads the blocks of a pack
+     */
+    static class BlockReader {
+
+        private final DataInputStream in;
+
+        private long checkpoint;
+
+        private long traversal;
+
+        private boolean headerRead;
+
+        /**
+         * @param checkpoint the number of objects already received in previous packs
+         * @param traversal the traversal {@code checkpoint} was counted in
+         */
+        BlockReader(InputStream in, long checkpoint, long traversal) {
+            this.in = new DataInputStream(in);
+            this.checkpoint = checkpoint;
+            this.traversal = traversal;
+        }
+
+        /**
+         * @return the next block, or {@code null} at the end of the pack
+         * @throws TruncatedPackException if the pack couldn't be read up to its end frame
+         */
+        Block next() throws IOException {
+            try {
+                if (!headerRead) {
+                    readHeader(in);
+                    final long packTraversal = in.readLong();
+                    final long start = in.readLong();
+                    if (start != checkpoint && start != 0) {
+                        throw new IOException("Asked to resume after " + checkpoint
+                                + " objects, pack starts after " + start);
+                    }
+                    // a start of zero on a resumed request means the sender started over
+                    this.traversal = packTraversal;
+                    this.checkpoint = start;
+                    headerRead = true;
+                }
+                final byte frame = in.readByte();
+                if (frame == FRAME_END) {
+                    final long total = in.readLong();
+                    if (total != checkpoint) {
+                        throw new IOException("Expected " + total + " objects, got " + checkpoint);
+                    }
+                    return null;
+                }
+                if (frame != FRAME_BLOCK) {
+                    throw new IOException("Unknown pack frame: " + frame);
+                }
+                final int objectCount = in.readInt();
+                final long blockCheckpoint = in.readLong();
+                final int size = in.readInt();
+                byte[] compressed = new byte[size];
+                in.readFully(compressed);
+                byte[] contents = LZFDecoder.decode(compressed);
+                return new Block(objectCount, blockCheckpoint, contents);
+            } catch (TruncatedPackException e) {
+                throw e;
+            } catch (IOException e) {
+                throw new TruncatedPackException(checkpoint, traversal, e);
+            }
+        }
+
+        /**
+         * Marks the objects of the last block returned by {@link #next()} as saved
+         */
+        void saved(Block block) {
+            this.checkpoint = block.checkpoint;
+        }
+
+        long checkpoint() {
+            return checkpoint;
+        }
+
+        long traversal() {
+            return traversal;
+        }
+    }
+}
@@ -0,0 +1,289 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.repository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.ProgressListener;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevFeatureBuilder;
+import org.geogit.api.RevObject;
+import org.geogit.storage.BulkOpListener;
+import org.geogit.storage.BulkOpListener.CountingListener;
+import org.geogit.storage.StagingDatabase;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+import org.geotools.factory.Hints;
+import org.geotools.feature.FeatureIterator;
+import org.opengis.feature.Feature;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequenceFactory;
+
+/**
+ * Imports the features of a {@link FeatureSource} into the staging database as a two stage
+ * pipeline:
+ * <ul>
+ * <li>{@code readers} tasks fetch the features, each one its own partition of the source when it
+ * supports offsets (i.e. ranges of its natural, usually primary key, order), and hand them over in
+ * batches of {@link #BATCH_SIZE} features through a bounded queue;
+ * <li>{@code builders} tasks take the batches, build and hash the {@link RevFeature}s, add their
+ * nodes to the tree builder, and save each batch to the staging database with a single
+ * {@link StagingDatabase#putAll putAll} call.
+ * </ul>
+ * Readers block when the queue is full, so no more than {@code (2 * builders + readers)} batches
+ * are held in memory whatever the size of the source, and reading and hashing proceed
+ * concurrently even for sources that can only be read sequentially.
+ */
+class FeatureImportPipeline {
+
+    static final int BATCH_SIZE = 1000;
+
+    /**
+     * Marks the end of the batches for a builder task
+     */
+    private static final List<Feature> END = Collections.emptyList();
+
+    private static final long POLL_MILLIS = 100;
+
+    private final StagingDatabase indexDatabase;
+
+    private final RevTreeBuilder2 treeBuilder;
+
+    private final ExecutorService executor;
+
+    private final BlockingQueue<List<Feature>> queue;
+
+    private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    private final int builders;
+
+    private final BulkOpListener progressListener;
+
+    /**
+     * @param executor the executor to run the tasks on, with at least {@code readers + builders}
+     *        threads available
+     * @param builders the number of tasks building and saving features
+     * @param collectionSize the number of features to import, if known, to report progress
+     */
+    FeatureImportPipeline(StagingDatabase indexDatabase, RevTreeBuilder2 treeBuilder,
+            ExecutorService executor, int builders, final ProgressListener listener,
+            final @Nullable Long collectionSize) {
+        this.indexDatabase = indexDatabase;
+        this.treeBuilder = treeBuilder;
+        this.executor = executor;
+        this.builders = builders;
+        this.queue = new ArrayBlockingQueue<List<Feature>>(2 * builders);
+        if (collectionSize == null) {
+            this.progressListener = BulkOpListener.NOOP_LISTENER;
+        } else {
+            final long total = collectionSize.longValue();
+            this.progressListener = new BulkOpListener() {
+                long inserted = 0;
+
+                @Override
+                public synchronized void inserted(ObjectId object,
+                        @Nullable Integer storageSizeBytes) {
+                    listener.setProgress((float) (++inserted * 100) / total);
+                }
+            };
+        }
+    }
+
+    /**
+     * Runs the pipeline to completion.
+     *
+     * @param source the source to import features from
+     * @param baseQuery the query to fetch the features with
+     * @param readers the number of partitions to read {@code source} in, ignored unless
+     *        {@code collectionSize} is known and the source supports offsets
+     * @param collectionSize the number of features in the source, if known
+     * @return the number of features inserted in the staging database
+     */
+    @SuppressWarnings("rawtypes")
+    public long run(final FeatureSource source, final Query baseQuery, int readers,
+            final @Nullable Long collectionSize) {
+
+        if (collectionSize == null || !source.getQueryCapabilities().isOffsetSupported()) {
+            readers = 1;
+        }
+
+        List<Future<?>> readTasks = Lists.newArrayList();
+        List<Future<Integer>> buildTasks = Lists.newArrayList();
+        for (int i = 0; i < builders; i++) {
+            buildTasks.add(executor.submit(new BuildTask()));
+        }
+        final long partitionSize = readers == 1 ? 0 : collectionSize.longValue() / readers;
+        for (int i = 0; i < readers; i++) {
+            Integer offset = readers == 1 ? null : Integer.valueOf((int) (i * partitionSize));
+            // let the last partition take any remaining feature
+            Integer limit = readers == 1 || i == readers - 1 ? null : Integer
+                    .valueOf((int) partitionSize);
+            readTasks.add(executor.submit(new ReadTask(source, baseQuery, offset, limit)));
+        }
+
+        try {
+            for (Future<?> f : readTasks) {
+                f.get();
+            }
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            for (int i = 0; i < builders; i++) {
+                if (!offer(END)) {
+                    break;
+                }
+            }
+        }
+
+        long inserted = 0;
+        try {
+            for (Future<Integer> f : buildTasks) {
+                inserted += f.get().longValue();
+            }
+        } catch (Exception e) {
+            fail(e);
+        }
+
+        Throwable error = failure.get();
+        if (error != null) {
+            throw Throwables.propagate(Throwables.getRootCause(error));
+        }
+        return inserted;
+    }
+
+    private void fail(Throwable e) {
+        failure.compareAndSet(null, e);
+    }
+
+    private boolean failed() {
+        return failure.get() != null;
+    }
+
+    /**
+     * Puts the batch on the queue, waiting for space, unless the pipeline fails meanwhile
+     *
+     * @return whether the batch was queued
+     */
+    private boolean offer(List<Feature> batch) {
+        try {
+            while (!failed()) {
+                if (queue.offer(batch, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            fail(e);
+        }
+        return false;
+    }
+
+    /**
+     * @return the next batch, or {@link #END} if there are no more batches or the pipeline failed
+     */
+    private List<Feature> poll() {
+        try {
+            while (!failed()) {
+                List<Feature> batch = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (batch != null) {
+                    return batch;
+                }
+            }
+        } catch (InterruptedException e) {
+            fail(e);
+        }
+        return END;
+    }
+
+    private class ReadTask implements Callable<Void> {
+
+        @SuppressWarnings("rawtypes")
+        private final FeatureSource source;
+
+        private final Query query;
+
+        @SuppressWarnings("rawtypes")
+        ReadTask(FeatureSource source, Query baseQuery, @Nullable Integer offset,
+                @Nullable Integer limit) {
+            this.source = source;
+            this.query = new Query(baseQuery);
+            Hints hints = new Hints(Hints.JTS_COORDINATE_SEQUENCE_FACTORY,
+                    new PackedCoordinateSequenceFactory());
+            if (baseQuery.getHints() != null) {
+                hints.add(baseQuery.getHints());
+            }
+            this.query.setHints(hints);
+            this.query.setStartIndex(offset);
+            if (limit != null && limit.intValue() > 0) {
+                this.query.setMaxFeatures(limit.intValue());
+            }
+        }
+
+        @Override
+        public Void call() throws Exception {
+            FeatureIterator<?> features = source.getFeatures(query).features();
+            try {
+                List<Feature> batch = new ArrayList<Feature>(BATCH_SIZE);
+                while (features.hasNext()) {
+                    batch.add(features.next());
+                    if (batch.size() == BATCH_SIZE) {
+                        if (!offer(batch)) {
+                            return null;
+                        }
+                        batch = new ArrayList<Feature>(BATCH_SIZE);
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    offer(batch);
+                }
+            } catch (Throwable e) {
+                fail(e);
+                throw e;
+            } finally {
+                features.close();
+            }
+            return null;
+        }
+    }
+
+    private class BuildTask implements Callable<Integer> {
+
+        @Override
+        public Integer call() throws Exception {
+            CountingListener counter = BulkOpListener.newCountingListener();
+            BulkOpListener listener = BulkOpListener.composite(progressListener, counter);
+            try {
+                List<Feature> batch;
+                while ((batch = poll()) != END) {
+                    List<RevObject> objects = new ArrayList<RevObject>(batch.size());
+                    for (Feature feature : batch) {
+                        final RevFeature revFeature = RevFeatureBuilder.build(feature);
+                        treeBuilder.putFeature(revFeature.getId(), feature.getIdentifier()
+                                .getID(), feature.getBounds(), feature.getType());
+                        objects.add(revFeature);
+                    }
+                    indexDatabase.putAll(objects.iterator(), listener);
+                }
+            } catch (Throwable e) {
+                fail(e);
+                throw e;
+            }
+            return Integer.valueOf(counter.inserted());
+        }
+    }
+}
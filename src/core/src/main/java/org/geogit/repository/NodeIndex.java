@@ -6,8 +6,8 @@ package org.geogit.repository;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.DataOutput;
 import java.io.DataOutputStream;
@@ -16,7 +16,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
@@ -26,123 +26,214 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 
+import javax.annotation.Nullable;
+
 import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
 import org.geogit.storage.NodeStorageOrder;
-import org.geogit.storage.datastream.FormatCommon;
 
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.PeekingIterator;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Closeables;
-
+import com.google.common.io.CountingOutputStream;
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Sorts the nodes added to it in {@link NodeStorageOrder storage order}, spilling them to
+ * temporary files in sorted partitions of a given size.
+ * <p>
+ * Since the storage order sorts nodes by their top level bucket first, each partition file
+ * records where each top level bucket starts, so that the nodes of every top level bucket can be
+ * {@link #nodes(int) merged} independently of the others, for example to build those buckets in
+ * parallel.
+ */
 class NodeIndex implements Closeable {
 
-    private static final int PARTITION_SIZE = 500 * 1000;
+    static final int DEFAULT_PARTITION_SIZE = 500 * 1000;
+
+    private static final NodeStorageOrder ORDER = new NodeStorageOrder();
+
+    /**
+     * A sorted partition spilled to disk, along with the offsets where each top level bucket
+     * starts, and the file length at {@code bucketOffsets[RevTree.MAX_BUCKETS]}
+     */
+    private static final class IndexFile {
+
+        final File file;
+
+        final long[] bucketOffsets;
+
+        IndexFile(File file, long[] bucketOffsets) {
+            this.file = file;
+            this.bucketOffsets = bucketOffsets;
+        }
+    }
 
     private static final class IndexPartition {
 
-        List<Node> cache = new ArrayList<Node>(PARTITION_SIZE);
+        List<Node> cache;
+
+        IndexPartition(int partitionSize) {
+            cache = new ArrayList<Node>(partitionSize);
+        }
 
         public void add(Node node) {
             cache.add(node);
         }
 
         public List<Node> getSortedNodes() {
-            Collections.sort(cache, new NodeStorageOrder());
+            Collections.sort(cache, ORDER);
             return cache;
         }
 
-        public File flush() {
+        public IndexFile flush(@Nullable File tempDir) {
             List<Node> cache = getSortedNodes();
             final File file;
+            final long[] offsets = new long[RevTree.MAX_BUCKETS + 1];
             try {
-                file = File.createTempFile("geogitNodes", ".idx");
+                file = File.createTempFile("geogitNodes", ".idx", tempDir);
                 file.deleteOnExit();
-                // System.err.println("Created index file " + file.getAbsolutePath());
-                FastByteArrayOutputStream buf = new FastByteArrayOutputStream();
-                OutputStream fileOut = new BufferedOutputStream(new FileOutputStream(file),
-                        1024 * 1024);
+                CountingOutputStream counting = new CountingOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(file), 1024 * 1024));
+                DataOutputStream out = new DataOutputStream(counting);
                 try {
+                    int bucket = 0;
                     for (Node node : cache) {
-                        buf.reset();
-                        DataOutput out = new DataOutputStream(buf);
-                        try {
-                            FormatCommon.writeNode(node, out);
-                        } catch (IOException e) {
-                            throw Throwables.propagate(e);
+                        final int nodeBucket = ORDER.bucket(node, 0).intValue();
+                        while (bucket < nodeBucket) {
+                            offsets[++bucket] = counting.getCount();
                         }
-                        int size = buf.size();
-                        fileOut.write(buf.bytes(), 0, size);
+                        writeNode(node, out);
+                    }
+                    while (bucket < RevTree.MAX_BUCKETS) {
+                        offsets[++bucket] = counting.getCount();
                     }
                 } finally {
                     cache.clear();
-                    fileOut.close();
+                    out.close();
                 }
             } catch (Exception e) {
                 throw Throwables.propagate(e);
             }
-            return file;
+            return new IndexFile(file, offsets);
         }
     }
 
+    private final int partitionSize;
+
+    @Nullable
+    private final File tempDir;
+
     private IndexPartition currPartition;
 
-    private List<Future<File>> indexFiles = new LinkedList<Future<File>>();
+    private List<Future<IndexFile>> indexFiles = new LinkedList<Future<IndexFile>>();
 
-    private List<CompositeNodeIterator> openIterators = new LinkedList<CompositeNodeIterator>();
+    private List<IndexIterator> openIterators = new LinkedList<IndexIterator>();
 
     private ExecutorService executorService;
 
+    private long size;
+
+    /**
+     * The flushed partitions and the sorted unflushed nodes, once {@link #nodes(int)} is called
+     */
+    private List<IndexFile> files;
+
+    private List<Node> unflushed;
+
+    /**
+     * The index in {@link #unflushed} where each top level bucket starts
+     */
+    private int[] unflushedOffsets;
+
     public NodeIndex(ExecutorService executorService) {
+        this(executorService, DEFAULT_PARTITION_SIZE, null);
+    }
+
+    /**
+     * @param executorService where to sort and flush full partitions
+     * @param partitionSize the number of nodes to sort in memory before flushing them to a
+     *        temporary file
+     * @param tempDir the directory for the temporary files, or {@code null} for the default
+     *        temporary directory
+     */
+    public NodeIndex(ExecutorService executorService, int partitionSize, @Nullable File tempDir) {
+        Preconditions.checkArgument(partitionSize > 0, "partitionSize must be positive");
         this.executorService = executorService;
-        this.currPartition = new IndexPartition();
+        this.partitionSize = partitionSize;
+        this.tempDir = tempDir;
+        this.currPartition = new IndexPartition(partitionSize);
     }
 
     public void close() {
         try {
-            for (CompositeNodeIterator it : openIterators) {
-                it.close();
+            synchronized (openIterators) {
+                for (IndexIterator it : openIterators) {
+                    it.close();
+                }
             }
-            for (Future<File> ff : indexFiles) {
+            for (Future<IndexFile> ff : indexFiles) {
                 try {
-                    File file = ff.get();
+                    File file = ff.get().file;
                     file.delete();
                 } catch (Exception e) {
                     e.printStackTrace();
                 }
             }
         } finally {
-            openIterators.clear();
+            synchronized (openIterators) {
+                openIterators.clear();
+            }
             indexFiles.clear();
         }
     }
 
     public synchronized void add(Node node) {
         currPartition.add(node);
-        if (currPartition.cache.size() == PARTITION_SIZE) {
+        size++;
+        if (currPartition.cache.size() == partitionSize) {
             flush(currPartition);
-            currPartition = new IndexPartition();
+            currPartition = new IndexPartition(partitionSize);
         }
     }
 
+    /**
+     * @return the number of nodes added, including any repeated ones
+     */
+    public synchronized long size() {
+        return size;
+    }
+
     private void flush(final IndexPartition ip) {
-        indexFiles.add(executorService.submit(new Callable<File>() {
+        indexFiles.add(executorService.submit(new Callable<IndexFile>() {
 
             @Override
-            public File call() throws Exception {
-                return ip.flush();
+            public IndexFile call() throws Exception {
+                return ip.flush(tempDir);
             }
         }));
 
     }
 
-    public Iterator<Node> nodes() {
-        List<File> files = new ArrayList<File>(indexFiles.size());
+    /**
+     * Waits for the partitions being flushed, and sorts the unflushed nodes, the first time it's
+     * called
+     */
+    private synchronized void seal() {
+        if (files != null) {
+            return;
+        }
+        List<IndexFile> files = new ArrayList<IndexFile>(indexFiles.size());
         try {
-            for (Future<File> ff : indexFiles) {
+            for (Future<IndexFile> ff : indexFiles) {
                 files.add(ff.get());
             }
         } catch (Exception e) {
@@ -150,38 +241,77 @@ class NodeIndex implements Closeable {
             throw Throwables.propagate(Throwables.getRootCause(e));
         }
 
-        List<Node> unflushed = Lists.newArrayList(currPartition.getSortedNodes());
+        unflushed = Lists.newArrayList(currPartition.getSortedNodes());
         currPartition.cache.clear();
-        return new CompositeNodeIterator(files, unflushed);
+        unflushedOffsets = new int[RevTree.MAX_BUCKETS + 1];
+        int bucket = 0;
+        for (int i = 0; i < unflushed.size(); i++) {
+            final int nodeBucket = ORDER.bucket(unflushed.get(i), 0).intValue();
+            while (bucket < nodeBucket) {
+                unflushedOffsets[++bucket] = i;
+            }
+        }
+        while (bucket < RevTree.MAX_BUCKETS) {
+            unflushedOffsets[++bucket] = unflushed.size();
+        }
+        this.files = files;
     }
 
-    private static class CompositeNodeIterator extends AbstractIterator<Node> {
-
-        private NodeStorageOrder order = new NodeStorageOrder();
-
-        private ArrayList<PeekingIterator<Node>> iterators;
-
-        private List<IndexIterator> openIterators;
-
-        public CompositeNodeIterator(List<File> files, List<Node> unflushedAndSorted) {
+    /**
+     * @return all the nodes added, in storage order
+     */
+    public Iterator<Node> nodes() {
+        seal();
+        List<Iterator<Node>> buckets = Lists.newArrayListWithCapacity(RevTree.MAX_BUCKETS);
+        for (int bucket = 0; bucket < RevTree.MAX_BUCKETS; bucket++) {
+            buckets.add(nodes(bucket));
+        }
+        return Iterators.concat(buckets.iterator());
+    }
 
-            openIterators = new ArrayList<IndexIterator>();
-            iterators = new ArrayList<PeekingIterator<Node>>();
-            for (File f : files) {
-                IndexIterator iterator = new IndexIterator(f);
-                openIterators.add(iterator);
-                iterators.add(Iterators.peekingIterator(iterator));
-            }
-            if (!unflushedAndSorted.isEmpty()) {
-                iterators.add(Iterators.peekingIterator(unflushedAndSorted.iterator()));
+    /**
+     * Returns the nodes added that fall on the given top level bucket, in storage order. Can be
+     * called concurrently for different buckets.
+     *
+     * @param bucket the top level bucket index, between zero and {@link RevTree#MAX_BUCKETS} minus
+     *        one
+     */
+    public Iterator<Node> nodes(final int bucket) {
+        Preconditions.checkElementIndex(bucket, RevTree.MAX_BUCKETS);
+        seal();
+        List<Iterator<Node>> iterators = new ArrayList<Iterator<Node>>(files.size() + 1);
+        for (IndexFile f : files) {
+            long start = f.bucketOffsets[bucket];
+            long end = f.bucketOffsets[bucket + 1];
+            if (start < end) {
+                IndexIterator iterator = new IndexIterator(f.file, start, end - start);
+                synchronized (openIterators) {
+                    openIterators.add(iterator);
+                }
+                iterators.add(iterator);
             }
         }
+        List<Node> unflushedBucket = unflushed.subList(unflushedOffsets[bucket],
+                unflushedOffsets[bucket + 1]);
+        if (!unflushedBucket.isEmpty()) {
+            iterators.add(unflushedBucket.iterator());
+        }
+        return new CompositeNodeIterator(iterators);
+    }
 
-        public void close() {
-            for (IndexIterator it : openIterators) {
-                it.close();
+    /**
+     * Merges sorted node iterators, returning equal nodes in the order of the iterators they come
+     * from
+     */
+    private static class CompositeNodeIterator extends AbstractIterator<Node> {
+
+        private ArrayList<PeekingIterator<Node>> iterators;
+
+        public CompositeNodeIterator(List<Iterator<Node>> sortedIterators) {
+            iterators = new ArrayList<PeekingIterator<Node>>(sortedIterators.size());
+            for (Iterator<Node> it : sortedIterators) {
+                iterators.add(Iterators.peekingIterator(it));
             }
-            openIterators.clear();
         }
 
         @Override
@@ -194,7 +324,7 @@ class NodeIndex implements Closeable {
                     continue;
                 }
                 Node peek = it.peek();
-                if (lowest == null || peek == order.min(lowest, peek)) {
+                if (lowest == null || peek == ORDER.min(lowest, peek)) {
                     lowest = peek;
                     idx = i;
                 }
@@ -208,14 +338,14 @@ class NodeIndex implements Closeable {
 
         private DataInputStream in;
 
-        public IndexIterator(File file) {
+        public IndexIterator(File file, long offset, long length) {
             Preconditions.checkArgument(file.exists(), "file %s does not exist", file);
             try {
-                if (this.in == null) {
-                    this.in = new DataInputStream(new BufferedInputStream(
-                            new FileInputStream(file), 16 * 1024));
-                }
-
+                FileInputStream fileIn = new FileInputStream(file);
+                fileIn.getChannel().position(offset);
+                InputStream range = ByteStreams.limit(
+                        new BufferedInputStream(fileIn, 16 * 1024), length);
+                this.in = new DataInputStream(range);
             } catch (IOException e) {
                 throw Throwables.propagate(e);
             }
@@ -228,7 +358,7 @@ class NodeIndex implements Closeable {
         @Override
         protected Node computeNext() {
             try {
-                Node node = FormatCommon.readNode(in);
+                Node node = readNode(in);
                 return node;
             } catch (EOFException eof) {
                 Closeables.closeQuietly(in);
@@ -241,19 +371,70 @@ class NodeIndex implements Closeable {
 
     }
 
-    private static class FastByteArrayOutputStream extends ByteArrayOutputStream {
+    private static final int TREE = 0x01;
 
-        public FastByteArrayOutputStream() {
-            super(16 * 1024);
-        }
+    private static final int METADATA = 0x02;
 
-        public int size() {
-            return super.count;
-        }
+    private static final int POINT = 0x04;
+
+    private static final int RECTANGLE = 0x08;
+
+    /**
+     * Writes a node in a compact form only meant for the temporary files: metadata ids are only
+     * written when present, and bounds as the floats nodes hold them in.
+     */
+    static void writeNode(Node node, DataOutput out) throws IOException {
+        final Optional<ObjectId> metadataId = node.getMetadataId();
+        final Envelope bounds = new Envelope();
+        node.expand(bounds);
 
-        public byte[] bytes() {
-            return super.buf;
+        int flags = TYPE.TREE.equals(node.getType()) ? TREE : 0;
+        if (metadataId.isPresent() && !metadataId.get().isNull()) {
+            flags |= METADATA;
+        }
+        if (!bounds.isNull()) {
+            flags |= bounds.getWidth() == 0D && bounds.getHeight() == 0D ? POINT : RECTANGLE;
+        }
+        out.writeByte(flags);
+        out.writeUTF(node.getName());
+        out.write(node.getObjectId().getRawValue());
+        if ((flags & METADATA) != 0) {
+            out.write(metadataId.get().getRawValue());
+        }
+        if (!bounds.isNull()) {
+            out.writeFloat((float) bounds.getMinX());
+            out.writeFloat((float) bounds.getMinY());
+            if ((flags & RECTANGLE) != 0) {
+                out.writeFloat((float) bounds.getMaxX());
+                out.writeFloat((float) bounds.getMaxY());
+            }
         }
     }
 
+    static Node readNode(DataInput in) throws IOException {
+        final int flags = in.readUnsignedByte();
+        final String name = in.readUTF();
+        final byte[] objectId = new byte[ObjectId.NUM_BYTES];
+        in.readFully(objectId);
+        ObjectId metadataId = ObjectId.NULL;
+        if ((flags & METADATA) != 0) {
+            byte[] raw = new byte[ObjectId.NUM_BYTES];
+            in.readFully(raw);
+            metadataId = ObjectId.createNoClone(raw);
+        }
+        Envelope bounds = null;
+        if ((flags & POINT) != 0) {
+            float x = in.readFloat();
+            float y = in.readFloat();
+            bounds = new Envelope(x, x, y, y);
+        } else if ((flags & RECTANGLE) != 0) {
+            float minX = in.readFloat();
+            float minY = in.readFloat();
+            float maxX = in.readFloat();
+            float maxY = in.readFloat();
+            bounds = new Envelope(minX, maxX, minY, maxY);
+        }
+        final TYPE type = (flags & TREE) != 0 ? TYPE.TREE : TYPE.FEATURE;
+        return Node.create(name, ObjectId.createNoClone(objectId), metadataId, type, bounds);
+    }
 }
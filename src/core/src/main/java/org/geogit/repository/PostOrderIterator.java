@@ -5,7 +5,6 @@
 package org.geogit.repository;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -20,6 +19,9 @@ import org.geogit.api.RevTag;
 import org.geogit.api.RevTree;
 import org.geogit.storage.Deduplicator;
 import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.memory.HeapDeduplicator;
+import org.geogit.storage.memory.ObjectIdMap;
+import org.geogit.storage.memory.ObjectIdSet;
 
 import com.google.common.collect.AbstractIterator;
 
@@ -98,6 +100,14 @@ public class PostOrderIterator extends AbstractIterator<RevObject> {
      */
     private final Successors successors;
 
+    /**
+     * The objects already fetched for the ids in {@link #toVisit}, so each list of successors is
+     * read from the database in one {@link ObjectDatabase#getAll(Iterable) batch}. Objects are
+     * dropped once enqueued, unless they have no successors and hence are visited right away, so
+     * only the ids of the objects whose successors are being visited are held, not the objects
+     */
+    private final ObjectIdMap<RevObject> fetched = new ObjectIdMap<RevObject>();
+
     /**
      * The single, private constructor for PostOrderIterator. Generally it will be more convenient
      * to use static factory methods which properly prepare a Successors capturing the traversal
@@ -132,18 +142,27 @@ public class PostOrderIterator extends AbstractIterator<RevObject> {
                     // We're building up a list of objects to visit, so add all the reachable
                     // objects from here to the front of the toVisit stack
                     final ObjectId id = currentList.get(0);
-                    final RevObject object = database.get(id);
+                    RevObject object = fetched.remove(id);
+                    if (object == null) {
+                        object = database.get(id);
+                    }
                     final List<ObjectId> next = new ArrayList<ObjectId>();
                     successors.findSuccessors(object, next);
+                    if (next.isEmpty()) {
+                        fetched.put(id, object);
+                    } else {
+                        prefetch(next);
+                    }
                     toVisit.add(0, next);
                 } else {
                     // We just visited a node, so switch back to enqueuing mode in order to make
                     // sure the successors of the next one at this depth are visited.
                     enqueue = true;
                     final ObjectId id = currentList.remove(0);
+                    final RevObject object = fetched.remove(id);
 
                     if (successors.previsit(id)) {
-                        return database.get(id);
+                        return object == null ? database.get(id) : object;
                     }
                 }
             }
@@ -152,6 +171,17 @@ public class PostOrderIterator extends AbstractIterator<RevObject> {
         return endOfData();
     }
 
+    private void prefetch(final List<ObjectId> ids) {
+        if (ids.size() < 2) {
+            return;
+        }
+        Iterator<RevObject> objects = database.getAll(ids);
+        while (objects.hasNext()) {
+            RevObject object = objects.next();
+            fetched.put(object.getId(), object);
+        }
+    }
+
     /**
      * The Successors interface defines a pluggable strategy for finding successors of (nodes
      * reachable from) a GeoGit history object. We follow a combinatorial approach in defining
@@ -234,7 +264,7 @@ public class PostOrderIterator extends AbstractIterator<RevObject> {
             if (object instanceof RevTree) {
                 final RevTree tree = (RevTree) object;
                 if (tree.features().isPresent()) {
-                    final Set<ObjectId> seen = new HashSet<ObjectId>();
+                    final Set<ObjectId> seen = new ObjectIdSet();
                     for (Node n : tree.features().get()) {
                         if (n.getMetadataId().isPresent()) {
                             if (seen.add(n.getMetadataId().get())) {
@@ -263,7 +293,7 @@ public class PostOrderIterator extends AbstractIterator<RevObject> {
             if (object instanceof RevTree) {
                 final RevTree tree = (RevTree) object;
                 if (tree.trees().isPresent()) {
-                    final Set<ObjectId> seen = new HashSet<ObjectId>();
+                    final Set<ObjectId> seen = new ObjectIdSet();
                     for (Node n : tree.trees().get()) {
                         if (n.getMetadataId().isPresent()) {
                             if (seen.add(n.getMetadataId().get())) {
@@ -342,7 +372,7 @@ public class PostOrderIterator extends AbstractIterator<RevObject> {
      *         repetitions.
      */
     private final static Successors unique(final Successors delegate) {
-        return uniqueWithDeduplicator(delegate, new org.geogit.storage.memory.HeapDeduplicator());
+        return uniqueWithDeduplicator(delegate, new HeapDeduplicator());
     }
     
     private final static Successors uniqueWithDeduplicator(final Successors delegate, final Deduplicator deduplicator) {
@@ -371,7 +401,7 @@ public class PostOrderIterator extends AbstractIterator<RevObject> {
      * @return a Successors policy for visiting the same nodes as the original policy, but with
      */
     private final static Successors blacklist(final Successors delegate, final List<ObjectId> base) {
-        final Set<ObjectId> baseSet = new HashSet<ObjectId>(base);
+        final Set<ObjectId> baseSet = new ObjectIdSet(base);
         return new Successors() {
             public void findSuccessors(final RevObject object, final List<ObjectId> successors) {
                 if (!baseSet.contains(object.getId())) {
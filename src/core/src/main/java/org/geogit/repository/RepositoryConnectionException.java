@@ -4,6 +4,8 @@
  */
 package org.geogit.repository;
 
+import java.util.Arrays;
+
 import org.geogit.storage.ConfigDatabase;
 
 import com.google.common.base.Optional;
@@ -57,5 +59,23 @@ public class RepositoryConnectionException extends Exception {
                         + storageVersion.orNull());
             }
         }
+
+        /**
+         * Like {@link #verify}, but also accepts a database of one of the given older versions of
+         * the format, which this version can read but which can't read what this version writes,
+         * and records it as being of the current version so older versions refuse to open it
+         * from then on.
+         */
+        public void verifyOrUpgrade(ConfigDatabase configDB, String formatName, String version,
+                String... upgradableVersions) throws RepositoryConnectionException {
+            Optional<String> storageName = configDB.get("storage." + key);
+            Optional<String> storageVersion = configDB.get(formatName + ".version");
+            if (storageName.isPresent() && formatName.equals(storageName.get())
+                    && storageVersion.isPresent()
+                    && Arrays.asList(upgradableVersions).contains(storageVersion.get())) {
+                configDB.put(formatName + ".version", version);
+            }
+            verify(configDB, formatName, version);
+        }
     }
 }
@@ -4,20 +4,31 @@
  */
 package org.geogit.repository;
 
+import static org.geogit.api.RevTree.NORMALIZED_SIZE_LIMIT;
+
+import java.io.File;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import javax.annotation.Nullable;
 
+import org.geogit.api.Bucket;
+import org.geogit.api.Context;
 import org.geogit.api.Node;
 import org.geogit.api.ObjectId;
 import org.geogit.api.RevFeatureType;
 import org.geogit.api.RevObject.TYPE;
 import org.geogit.api.RevTree;
 import org.geogit.api.RevTreeBuilder;
+import org.geogit.storage.ConfigDatabase;
+import org.geogit.storage.NodeStorageOrder;
 import org.geogit.storage.ObjectDatabase;
 import org.opengis.feature.type.FeatureType;
 import org.opengis.feature.type.Name;
@@ -25,18 +36,51 @@ import org.opengis.geometry.BoundingBox;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
 import com.vividsolutions.jts.geom.Envelope;
 
+/**
+ * Builds a tree out of a potentially very large number of nodes, sorting them through a
+ * {@link NodeIndex} that spills them to disk in partitions.
+ * <p>
+ * When the resulting tree is large enough to have buckets, each of its top level buckets is built
+ * independently on a fork/join pool, so the heap used is bounded by the
+ * {@link #PARTITION_SIZE_CONFIG_KEY partition size} plus the nodes each
+ * {@link RevTreeBuilder bucket builder} holds before normalizing, times the parallelism.
+ */
 class RevTreeBuilder2 {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(RevTreeBuilder2.class);
 
+    /**
+     * Integer config key for the number of nodes sorted in memory before spilling them to a
+     * temporary file, defaults to {@link NodeIndex#DEFAULT_PARTITION_SIZE}
+     */
+    static final String PARTITION_SIZE_CONFIG_KEY = "treebuilder.partitionsize";
+
+    /**
+     * Config key for the directory where to create the temporary files of sorted nodes, defaults
+     * to the system's temporary directory
+     */
+    static final String TEMP_DIR_CONFIG_KEY = "treebuilder.tempdir";
+
     private NodeIndex nodeIndex;
 
+    private final int partitionSize;
+
+    @Nullable
+    private final File tempDir;
+
+    private final int parallelism;
+
     private final ObjectDatabase db;
 
     private final RevTree original;
@@ -52,11 +96,46 @@ class RevTreeBuilder2 {
      */
     public RevTreeBuilder2(final ObjectDatabase db, @Nullable final RevTree origTree,
             final ObjectId defaultMetadataId, final ExecutorService executorService) {
+        this(db, origTree, defaultMetadataId, executorService, NodeIndex.DEFAULT_PARTITION_SIZE,
+                null, Runtime.getRuntime().availableProcessors());
+    }
 
+    /**
+     * Copy constructor
+     * 
+     * @param partitionSize the number of nodes to sort in memory before spilling them to disk
+     * @param tempDir where to create the temporary files, or {@code null} for the default
+     *        temporary directory
+     * @param parallelism the number of top level buckets to build at the same time
+     */
+    public RevTreeBuilder2(final ObjectDatabase db, @Nullable final RevTree origTree,
+            final ObjectId defaultMetadataId, final ExecutorService executorService,
+            final int partitionSize, @Nullable final File tempDir, final int parallelism) {
+        Preconditions.checkArgument(partitionSize > 0, "partitionSize must be positive");
+        Preconditions.checkArgument(parallelism > 0, "parallelism must be positive");
         this.db = db;
         this.original = origTree;
         this.executorService = executorService;
         this.defaultMetadataId = defaultMetadataId;
+        this.partitionSize = partitionSize;
+        this.tempDir = tempDir;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Creates a builder configured after the {@link #PARTITION_SIZE_CONFIG_KEY} and
+     * {@link #TEMP_DIR_CONFIG_KEY} config keys, with as much parallelism as available processors
+     */
+    static RevTreeBuilder2 create(final Context context, final ObjectDatabase db,
+            @Nullable final RevTree origTree, final ObjectId defaultMetadataId,
+            final ExecutorService executorService) {
+        final ConfigDatabase config = context.configDatabase();
+        final int partitionSize = config.get(PARTITION_SIZE_CONFIG_KEY, Integer.class)
+                .or(Integer.valueOf(NodeIndex.DEFAULT_PARTITION_SIZE)).intValue();
+        final Optional<String> tempDir = config.get(TEMP_DIR_CONFIG_KEY);
+        final int parallelism = context.platform().availableProcessors();
+        return new RevTreeBuilder2(db, origTree, defaultMetadataId, executorService,
+                partitionSize, tempDir.isPresent() ? new File(tempDir.get()) : null, parallelism);
     }
 
     public ObjectId getDefaultMetadataId() {
@@ -78,7 +157,7 @@ class RevTreeBuilder2 {
     public synchronized RevTreeBuilder2 put(final Node node) {
         Preconditions.checkNotNull(node, "node can't be null");
         if (this.nodeIndex == null) {
-            this.nodeIndex = new NodeIndex(executorService);
+            this.nodeIndex = new NodeIndex(executorService, partitionSize, tempDir);
         }
         nodeIndex.add(node);
         return this;
@@ -97,30 +176,92 @@ class RevTreeBuilder2 {
         }
 
         Stopwatch sw = Stopwatch.createStarted();
-        RevTreeBuilder builder;
+        RevTree namedTree;
         try {
-            builder = new RevTreeBuilder(db, original);
-            Iterator<Node> nodes = nodeIndex.nodes();
-            while (nodes.hasNext()) {
-                Node node = nodes.next();
-                if (node.getObjectId().isNull()) {
-                    builder.remove(node.getName());
-                } else {
-                    builder.put(node);
-                }
+            final long originalSize = original == null ? 0L : original.size();
+            final boolean hasBuckets = original != null && original.buckets().isPresent();
+            if (parallelism > 1
+                    && (hasBuckets || originalSize + nodeIndex.size() > NORMALIZED_SIZE_LIMIT)) {
+                namedTree = buildBuckets();
+            } else {
+                namedTree = buildSequentially();
             }
         } finally {
             nodeIndex.close();
         }
-        LOGGER.debug("Index traversed in {}", sw.stop());
-        sw.reset().start();
-
-        RevTree namedTree = builder.build();
         saveExtraFeatureTypes();
-        LOGGER.debug("RevTreeBuilder.build() in {}", sw.stop());
+        LOGGER.debug("RevTreeBuilder2.build() in {}", sw.stop());
         return namedTree;
     }
 
+    private RevTree buildSequentially() {
+        RevTreeBuilder builder = new RevTreeBuilder(db, original);
+        Iterator<Node> nodes = nodeIndex.nodes();
+        while (nodes.hasNext()) {
+            Node node = nodes.next();
+            if (node.getObjectId().isNull()) {
+                builder.remove(node.getName());
+            } else {
+                builder.put(node);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Builds each top level bucket out of its current tree, if any, and the index nodes that fall
+     * on it, as a separate fork/join task
+     */
+    private RevTree buildBuckets() {
+        final Map<Integer, RevTree> originalBuckets = Maps.newHashMap();
+        final Multimap<Integer, Node> originalNodes = ArrayListMultimap.create();
+        if (original != null && original.buckets().isPresent()) {
+            for (Map.Entry<Integer, Bucket> e : original.buckets().get().entrySet()) {
+                originalBuckets.put(e.getKey(), db.getTree(e.getValue().id()));
+            }
+        } else if (original != null) {
+            // a leaf tree about to be split in buckets
+            NodeStorageOrder order = new NodeStorageOrder();
+            Iterator<Node> children = original.children();
+            while (children.hasNext()) {
+                Node node = children.next();
+                originalNodes.put(order.bucket(node, 0), node);
+            }
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<ForkJoinTask<RevTree>> tasks = Lists.newArrayList();
+            for (int i = 0; i < RevTree.MAX_BUCKETS; i++) {
+                final Integer bucketIndex = Integer.valueOf(i);
+                tasks.add(pool.submit(new Callable<RevTree>() {
+                    @Override
+                    public RevTree call() {
+                        RevTree bucketTree = originalBuckets.get(bucketIndex);
+                        Iterator<Node> changes = Iterators.concat(originalNodes.get(bucketIndex)
+                                .iterator(), nodeIndex.nodes(bucketIndex.intValue()));
+                        if (!changes.hasNext()) {
+                            return bucketTree == null ? RevTree.EMPTY : bucketTree;
+                        }
+                        return RevTreeBuilder.buildBucket(db, bucketTree == null ? RevTree.EMPTY
+                                : bucketTree, 1, changes);
+                    }
+                }));
+            }
+            Map<Integer, RevTree> bucketTrees = Maps.newTreeMap();
+            for (int i = 0; i < tasks.size(); i++) {
+                bucketTrees.put(Integer.valueOf(i), tasks.get(i).get());
+            }
+            return RevTreeBuilder.build(db, bucketTrees);
+        } catch (InterruptedException e) {
+            throw Throwables.propagate(e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(Throwables.getRootCause(e));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
     private void saveExtraFeatureTypes() {
         Collection<RevFeatureType> types = revFeatureTypes.values();
         List<RevFeatureType> nonDefaults = Lists.newLinkedList();
@@ -0,0 +1,176 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.repository;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.geogit.api.Node;
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.plumbing.diff.DepthTreeIterator;
+import org.geogit.api.plumbing.diff.DepthTreeIterator.Strategy;
+import org.geogit.storage.NodeStorageOrder;
+import org.geogit.storage.ObjectDatabase;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+/**
+ * An immutable, STR packed R-tree of the bounds of the feature {@link Node nodes} of a feature
+ * type tree.
+ * <p>
+ * The feature nodes of a tree are spread over its buckets by name hash, so the bucket bounds
+ * overlap heavily and a small bounding box query touches nearly every bucket. A spatial index
+ * answers those queries by walking the R-tree instead, which is logarithmic in the number of
+ * features.
+ * <p>
+ * Since trees are immutable, an index built for a tree is valid for as long as the tree exists,
+ * and it's identified by the {@link #getTreeId() tree id}. Features with no bounds are not
+ * indexed, as they never match a bounds query.
+ *
+ * @see org.geogit.storage.SpatialIndexDatabase
+ */
+public final class SpatialIndex {
+
+    private static final int MAGIC = 0x47475349;// GGSI
+
+    private static final int VERSION = 1;
+
+    private static final int NODE_CAPACITY = 16;
+
+    private final ObjectId treeId;
+
+    private final List<Node> nodes;
+
+    private final STRtree index;
+
+    private SpatialIndex(final ObjectId treeId, final List<Node> nodes) {
+        this.treeId = treeId;
+        this.nodes = nodes;
+        this.index = new STRtree(NODE_CAPACITY);
+        for (Node node : nodes) {
+            index.insert(bounds(node), node);
+        }
+        index.build();
+    }
+
+    private static Envelope bounds(Node node) {
+        Envelope env = new Envelope();
+        node.expand(env);
+        return env;
+    }
+
+    /**
+     * Builds the index for the feature nodes of the given tree, including the ones in its buckets
+     */
+    public static SpatialIndex build(final RevTree tree, final ObjectDatabase db) {
+        checkNotNull(tree);
+        checkNotNull(db);
+        Iterator<NodeRef> refs = new DepthTreeIterator("", ObjectId.NULL, tree, db,
+                Strategy.FEATURES_ONLY);
+        List<Node> nodes = new ArrayList<Node>();
+        while (refs.hasNext()) {
+            Node node = refs.next().getNode();
+            if (!bounds(node).isNull()) {
+                nodes.add(node);
+            }
+        }
+        return new SpatialIndex(tree.getId(), nodes);
+    }
+
+    /**
+     * @return the id of the tree this index was built for
+     */
+    public ObjectId getTreeId() {
+        return treeId;
+    }
+
+    /**
+     * @return the number of indexed nodes
+     */
+    public int size() {
+        return nodes.size();
+    }
+
+    /**
+     * @return the feature nodes whose bounds intersect the given envelope, in
+     *         {@link NodeStorageOrder storage order}
+     */
+    public List<Node> query(final Envelope bounds) {
+        @SuppressWarnings("unchecked")
+        List<Node> candidates = index.query(bounds);
+        List<Node> matches = new ArrayList<Node>(candidates.size());
+        for (Node node : candidates) {
+            if (node.intersects(bounds)) {
+                matches.add(node);
+            }
+        }
+        Collections.sort(matches, new NodeStorageOrder());
+        return matches;
+    }
+
+    public void write(final DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.write(treeId.getRawValue());
+        out.writeInt(nodes.size());
+        Envelope env = new Envelope();
+        for (Node node : nodes) {
+            out.writeUTF(node.getName());
+            out.write(node.getObjectId().getRawValue());
+            out.write(node.getMetadataId().or(ObjectId.NULL).getRawValue());
+            env.setToNull();
+            node.expand(env);
+            out.writeDouble(env.getMinX());
+            out.writeDouble(env.getMaxX());
+            out.writeDouble(env.getMinY());
+            out.writeDouble(env.getMaxY());
+        }
+    }
+
+    public static SpatialIndex read(final DataInput in) throws IOException {
+        checkArgument(in.readInt() == MAGIC, "Not a spatial index");
+        final int version = in.readInt();
+        checkArgument(version == VERSION, "Unsupported spatial index version: %s", version);
+        final ObjectId treeId = readId(in);
+        final int size = in.readInt();
+        List<Node> nodes = new ArrayList<Node>(size);
+        for (int i = 0; i < size; i++) {
+            String name = in.readUTF();
+            ObjectId objectId = readId(in);
+            ObjectId metadataId = readId(in);
+            double minx = in.readDouble();
+            double maxx = in.readDouble();
+            double miny = in.readDouble();
+            double maxy = in.readDouble();
+            Envelope bounds = new Envelope(minx, maxx, miny, maxy);
+            nodes.add(Node.create(name, objectId, metadataId, TYPE.FEATURE, bounds));
+        }
+        return new SpatialIndex(treeId, nodes);
+    }
+
+    private static ObjectId readId(DataInput in) throws IOException {
+        byte[] raw = new byte[ObjectId.NUM_BYTES];
+        in.readFully(raw);
+        return ObjectId.createNoClone(raw);
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder(getClass().getSimpleName()).append('[').append(treeId)
+                .append(", size: ").append(nodes.size()).append(']').toString();
+    }
+}
@@ -13,9 +13,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.TreeSet;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nullable;
 
@@ -24,7 +27,6 @@ import org.geogit.api.FeatureBuilder;
 import org.geogit.api.Node;
 import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
-import org.geogit.api.Platform;
 import org.geogit.api.ProgressListener;
 import org.geogit.api.Ref;
 import org.geogit.api.RevFeature;
@@ -53,16 +55,11 @@ import org.geogit.storage.BulkOpListener.CountingListener;
 import org.geogit.storage.StagingDatabase;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.Query;
-import org.geotools.data.store.FeatureIteratorIterator;
-import org.geotools.factory.Hints;
-import org.geotools.feature.FeatureCollection;
-import org.geotools.feature.FeatureIterator;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.opengis.feature.Feature;
 import org.opengis.feature.type.FeatureType;
 import org.opengis.feature.type.Name;
 import org.opengis.filter.Filter;
-import org.opengis.geometry.BoundingBox;
 
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
@@ -78,9 +75,7 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.UnmodifiableIterator;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
-import com.vividsolutions.jts.geom.CoordinateSequenceFactory;
 import com.vividsolutions.jts.geom.Envelope;
-import com.vividsolutions.jts.geom.impl.PackedCoordinateSequenceFactory;
 
 /**
  * A working tree is the collection of Features for a single FeatureType in GeoServer that has a
@@ -434,6 +429,19 @@ public class WorkingTree {
         return featureRef.get().getNode();
     }
 
+    /**
+     * Inserts all the features of {@code source} into the tree at {@code treePath}, creating it if
+     * needed, and updates the WORK_HEAD ref.
+     * <p>
+     * Features are read, built, and saved to the staging database concurrently by a
+     * {@link FeatureImportPipeline}, reading partitions of the source in parallel when it supports
+     * offsets.
+     * 
+     * @param treePath the path of the tree to insert the features into
+     * @param source the source of the features to insert
+     * @param query the query to get the features with
+     * @param listener a {@link ProgressListener} for the current process
+     */
     public void insert(final String treePath,
             @SuppressWarnings("rawtypes") final FeatureSource source, final Query query,
             ProgressListener listener) {
@@ -451,40 +459,30 @@ public class WorkingTree {
             throw Throwables.propagate(e);
         }
 
-        final int nFetchThreads;
-        {
-            // maxFeatures is assumed to be supported by all data sources, so supportsPaging depends
-            // only on offset being supported
-            boolean supportsPaging = source.getQueryCapabilities().isOffsetSupported();
-            if (supportsPaging) {
-                Platform platform = context.platform();
-                int availableProcessors = platform.availableProcessors();
-                nFetchThreads = Math.max(2, availableProcessors / 2);
-            } else {
-                nFetchThreads = 1;
-            }
-        }
+        final int availableProcessors = context.platform().availableProcessors();
+        // maxFeatures is assumed to be supported by all data sources, so partitioned reads depend
+        // only on offset being supported; this is checked by the pipeline
+        final int nFetchThreads = Math.max(2, availableProcessors / 2);
+        final int nBuildThreads = Math.max(2, availableProcessors);
 
-        final ExecutorService executorService = Executors.newFixedThreadPool(2 + nFetchThreads,
-                new ThreadFactoryBuilder().setNameFormat("WorkingTree-tree-builder-%d").build());
+        final ExecutorService executorService = Executors.newFixedThreadPool(2 + nFetchThreads
+                + nBuildThreads, new ThreadFactoryBuilder()
+                .setNameFormat("WorkingTree-tree-builder-%d").build());
 
         listener.started();
 
         Stopwatch sw = Stopwatch.createStarted();
 
         final RevTree origTree = indexDatabase.getTree(treeRef.objectId());
-        RevTreeBuilder2 builder = new RevTreeBuilder2(indexDatabase, origTree,
+        RevTreeBuilder2 builder = RevTreeBuilder2.create(context, indexDatabase, origTree,
                 treeRef.getMetadataId(), executorService);
 
-        List<Future<Integer>> insertBlobsFuture = insertBlobs(source, query, executorService,
-                listener, collectionSize, nFetchThreads, builder);
+        FeatureImportPipeline pipeline = new FeatureImportPipeline(indexDatabase, builder,
+                executorService, nBuildThreads, listener, collectionSize);
 
         RevTree newFeatureTree;
         try {
-            long insertedCount = 0;
-            for (Future<Integer> f : insertBlobsFuture) {
-                insertedCount += f.get().longValue();
-            }
+            final long insertedCount = pipeline.run(source, query, nFetchThreads, collectionSize);
             sw.stop();
             listener.setDescription(insertedCount + " distinct features inserted in " + sw);
 
@@ -528,110 +526,6 @@ public class WorkingTree {
         return treeRef;
     }
 
-    @SuppressWarnings("rawtypes")
-    private List<Future<Integer>> insertBlobs(final FeatureSource source, final Query baseQuery,
-            final ExecutorService executorService, final ProgressListener listener,
-            final @Nullable Long collectionSize, int nTasks, RevTreeBuilder2 builder) {
-
-        int partitionSize = 0;
-        BulkOpListener bulkOpListener;
-        if (collectionSize == null) {
-            nTasks = 1;
-            partitionSize = Integer.MAX_VALUE;
-            bulkOpListener = BulkOpListener.NOOP_LISTENER;
-        } else {
-            final int total = collectionSize.intValue();
-            partitionSize = total / nTasks;
-            bulkOpListener = new BulkOpListener() {
-                int inserted = 0;
-
-                @Override
-                public synchronized void inserted(ObjectId object,
-                        @Nullable Integer storageSizeBytes) {
-                    listener.setProgress((float) (++inserted * 100) / total);
-                }
-            };
-        }
-
-        List<Future<Integer>> results = Lists.newArrayList();
-        for (int i = 0; i < nTasks; i++) {
-            Integer offset = nTasks == 1 ? null : i * partitionSize;
-            Integer limit = nTasks == 1 ? null : partitionSize;
-            if (i == nTasks - 1) {
-                limit = null;// let the last task take any remaining
-                             // feature
-            }
-            results.add(executorService.submit(new BlobInsertTask(source, offset, limit,
-                    bulkOpListener, builder)));
-        }
-        return results;
-    }
-
-    private final class BlobInsertTask implements Callable<Integer> {
-
-        private final BulkOpListener listener;
-
-        @SuppressWarnings("rawtypes")
-        private FeatureSource source;
-
-        private Integer offset;
-
-        private Integer limit;
-
-        private RevTreeBuilder2 builder;
-
-        private BlobInsertTask(@SuppressWarnings("rawtypes") FeatureSource source,
-                @Nullable Integer offset, @Nullable Integer limit, BulkOpListener listener,
-                RevTreeBuilder2 builder) {
-            this.source = source;
-            this.offset = offset;
-            this.limit = limit;
-            this.listener = listener;
-            this.builder = builder;
-        }
-
-        @SuppressWarnings({ "rawtypes", "unchecked" })
-        @Override
-        public Integer call() throws Exception {
-
-            final Query query = new Query();
-            CoordinateSequenceFactory coordSeq = new PackedCoordinateSequenceFactory();
-            query.getHints().add(new Hints(Hints.JTS_COORDINATE_SEQUENCE_FACTORY, coordSeq));
-            query.setStartIndex(offset);
-            if (limit != null && limit.intValue() > 0) {
-                query.setMaxFeatures(limit);
-            }
-            FeatureCollection collection = source.getFeatures(query);
-            FeatureIterator features = collection.features();
-            Iterator<Feature> fiterator = new FeatureIteratorIterator<Feature>(features);
-
-            Iterator<RevObject> objects = Iterators.transform(fiterator,
-                    new Function<Feature, RevObject>() {
-                        @Override
-                        public RevFeature apply(final Feature feature) {
-                            final RevFeature revFeature = RevFeatureBuilder.build(feature);
-
-                            ObjectId id = revFeature.getId();
-                            String name = feature.getIdentifier().getID();
-                            BoundingBox bounds = feature.getBounds();
-                            FeatureType type = feature.getType();
-
-                            builder.putFeature(id, name, bounds, type);
-                            return revFeature;
-                        }
-
-                    });
-
-            CountingListener countingListener = BulkOpListener.newCountingListener();
-            try {
-                indexDatabase.putAll(objects, BulkOpListener.composite(listener, countingListener));
-            } finally {
-                features.close();
-            }
-            return countingListener.inserted();
-        }
-    }
-
     /**
      * Inserts a collection of features into the working tree and updates the WORK_HEAD ref.
      * 
@@ -757,6 +651,117 @@ public class WorkingTree {
         }
     }
 
+    /**
+     * Inserts the given batches of features into the working tree, using the
+     * {@code treePathResolver} function to determine to which tree each feature is added, and
+     * updates the WORK_HEAD ref.
+     * <p>
+     * Unlike {@link #insert(Function, Iterator, ProgressListener, List, Integer)}, batches are
+     * taken from {@code batches} on the calling thread but their features are built, hashed and
+     * saved to the staging database concurrently, so the order in which features are inserted is
+     * unspecified. Hence the same feature should not be both inserted and deleted through a
+     * {@link FeatureToDelete} in the same call.
+     *
+     * @param treePathResolver a function that determines the path of the tree where each feature
+     *        node is stored
+     * @param batches the batches of features to insert, possibly of different schema and targetted
+     *        to different tree paths
+     * @param listener a progress listener, notified of the number of features inserted so far
+     * @return the total number of inserted features
+     */
+    public long insertBatches(final Function<Feature, String> treePathResolver,
+            final Iterator<? extends List<? extends Feature>> batches,
+            final ProgressListener listener) {
+
+        final int availableProcessors = context.platform().availableProcessors();
+        final int nBuildThreads = Math.max(2, availableProcessors);
+        final int nTreeThreads = Math.max(2, availableProcessors / 2);
+        final ExecutorService treeBuildingService = Executors.newFixedThreadPool(nTreeThreads,
+                new ThreadFactoryBuilder().setNameFormat("WorkingTree-tree-builder-%d").build());
+        final ExecutorService featureBuildingService = Executors.newFixedThreadPool(
+                nBuildThreads,
+                new ThreadFactoryBuilder().setNameFormat("WorkingTree-feature-builder-%d").build());
+
+        final WorkingTreeInsertHelper insertHelper = new WorkingTreeInsertHelper(indexDatabase,
+                context, getTree(), treePathResolver, treeBuildingService);
+
+        final CountingListener countingListener = BulkOpListener.newCountingListener();
+        final AtomicLong count = new AtomicLong();
+        // bounds the number of batches held in memory to the ones being built plus as many queued
+        final Semaphore permits = new Semaphore(2 * nBuildThreads);
+        final List<Future<?>> pending = Lists.newLinkedList();
+        try {
+            listener.started();
+            while (batches.hasNext()) {
+                final List<? extends Feature> batch = batches.next();
+                permits.acquire();
+                pending.add(featureBuildingService.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        try {
+                            List<RevObject> objects = Lists.newArrayListWithCapacity(batch.size());
+                            for (Feature feature : batch) {
+                                if (feature instanceof FeatureToDelete) {
+                                    insertHelper.remove((FeatureToDelete) feature);
+                                } else {
+                                    RevFeature revFeature = RevFeatureBuilder.build(feature);
+                                    insertHelper.put(revFeature.getId(), feature);
+                                    objects.add(revFeature);
+                                }
+                            }
+                            indexDatabase.putAll(objects.iterator(), countingListener);
+                            listener.setProgress(count.addAndGet(objects.size()));
+                        } finally {
+                            permits.release();
+                        }
+                        return null;
+                    }
+                }));
+                // surface failures early rather than consuming the whole input
+                for (Iterator<Future<?>> it = pending.iterator(); it.hasNext();) {
+                    Future<?> future = it.next();
+                    if (future.isDone()) {
+                        future.get();
+                        it.remove();
+                    }
+                }
+            }
+            for (Future<?> future : pending) {
+                future.get();
+            }
+
+            listener.setDescription("Building trees for "
+                    + new TreeSet<String>(insertHelper.getTreeNames()));
+            Stopwatch sw = Stopwatch.createStarted();
+
+            Map<NodeRef, RevTree> trees = insertHelper.buildTrees();
+
+            listener.setDescription(String.format("Trees built in %s", sw.stop()));
+
+            for (Map.Entry<NodeRef, RevTree> treeEntry : trees.entrySet()) {
+                NodeRef treeRef = treeEntry.getKey();
+                RevTree newFeatureTree = treeEntry.getValue();
+
+                String treePath = treeRef.path();
+
+                ObjectId newRootTree = context.command(WriteBack.class)
+                        .setAncestor(getTreeSupplier()).setChildPath(treePath)
+                        .setMetadataId(treeRef.getMetadataId()).setToIndex(true)
+                        .setTree(newFeatureTree).call();
+                updateWorkHead(newRootTree);
+            }
+            listener.complete();
+            return countingListener.inserted() + countingListener.found();
+        } catch (InterruptedException e) {
+            throw Throwables.propagate(e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(Throwables.getRootCause(e));
+        } finally {
+            featureBuildingService.shutdownNow();
+            treeBuildingService.shutdownNow();
+        }
+    }
+
     /**
      * Updates a collection of features in the working tree and updates the WORK_HEAD ref.
      * 
@@ -57,7 +57,7 @@ class WorkingTreeInsertHelper {
         this.executorService = executorService;
     }
 
-    public List<String> getTreeNames() {
+    public synchronized List<String> getTreeNames() {
         return new ArrayList<String>(treeBuilders.keySet());
     }
 
@@ -80,7 +80,7 @@ class WorkingTreeInsertHelper {
         treeBuilder.removeFeature(fid);
     }
 
-    private RevTreeBuilder2 getTreeBuilder(final Feature feature) {
+    private synchronized RevTreeBuilder2 getTreeBuilder(final Feature feature) {
 
         final String treePath = treePathResolver.apply(feature);
         RevTreeBuilder2 builder = treeBuilders.get(treePath);
@@ -122,7 +122,8 @@ class WorkingTreeInsertHelper {
         ObjectId defaultMetadataId = treeRef.getMetadataId();
 
         RevTreeBuilder2 builder;
-        builder = new RevTreeBuilder2(indexDatabase, origTree, defaultMetadataId, executorService);
+        builder = RevTreeBuilder2.create(context, indexDatabase, origTree, defaultMetadataId,
+                executorService);
         return builder;
     }
 
@@ -4,10 +4,12 @@
  */
 package org.geogit.storage;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.util.Iterator;
 import java.util.List;
 
@@ -24,12 +26,17 @@ import org.geogit.api.RevTree;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Closeables;
 import com.ning.compress.lzf.LZFInputStream;
 import com.ning.compress.lzf.LZFOutputStream;
 
 /**
  * Provides a base implementation for different representations of the {@link ObjectDatabase}.
+ * <p>
+ * Objects are stored LZF compressed, except {@link DeltaCandidate delta candidates} which may be
+ * stored as a delta against their base version, see {@link FeatureDeltas}. Subclasses that read
+ * stored objects directly shall do so through {@link #uncompress(InputStream)}.
  * 
  * @see ObjectDatabase
  */
@@ -182,13 +189,86 @@ public abstract class AbstractObjectDatabase implements ObjectDatabase {
         if (null == in) {
             return null;
         }
+        return uncompress(in);
+    }
+
+    /**
+     * Turns the stored form of an object, as written by {@link #writeObject}, back into its
+     * serialized form, applying the delta chain if the object is stored as a delta.
+     * 
+     * @param raw the stored form of an object, as returned by {@link #getRawInternal}
+     * @return the serialized form of the object, to be read with an {@link ObjectReader}
+     */
+    protected InputStream uncompress(final InputStream raw) {
         try {
+            PushbackInputStream in = new PushbackInputStream(raw, FeatureDeltas.MAGIC.length);
+            byte[] magic = new byte[FeatureDeltas.MAGIC.length];
+            int read = ByteStreams.read(in, magic, 0, magic.length);
+            if (FeatureDeltas.isDelta(magic, read)) {
+                try {
+                    return new ByteArrayInputStream(readDelta(in).serialized);
+                } finally {
+                    Closeables.closeQuietly(in);
+                }
+            }
+            in.unread(magic, 0, read);
             return new LZFInputStream(in);
         } catch (IOException e) {
             throw Throwables.propagate(e);
         }
     }
 
+    /**
+     * The serialized form of an object and the length of the delta chain it was rebuilt from
+     */
+    private static class Serialized {
+
+        final byte[] serialized;
+
+        final int depth;
+
+        Serialized(byte[] serialized, int depth) {
+            this.serialized = serialized;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * Reads a delta record, past its magic bytes, and applies it to its base
+     */
+    private Serialized readDelta(InputStream in) throws IOException {
+        final int depth = in.read();
+        byte[] rawBaseId = new byte[ObjectId.NUM_BYTES];
+        ByteStreams.readFully(in, rawBaseId);
+        final byte[] delta = ByteStreams.toByteArray(new LZFInputStream(in));
+
+        final ObjectId baseId = ObjectId.createNoClone(rawBaseId);
+        final InputStream base = getRawInternal(baseId, false);
+        Preconditions.checkState(base != null, "Base %s of delta encoded object not found",
+                baseId);
+        final byte[] serializedBase;
+        try {
+            serializedBase = ByteStreams.toByteArray(uncompress(base));
+        } finally {
+            Closeables.closeQuietly(base);
+        }
+        return new Serialized(FeatureDeltas.patch(serializedBase, delta), depth);
+    }
+
+    /**
+     * @return the serialized form of the given stored object and its delta chain length
+     */
+    private Serialized readSerialized(InputStream raw) throws IOException {
+        PushbackInputStream in = new PushbackInputStream(raw, FeatureDeltas.MAGIC.length);
+        byte[] magic = new byte[FeatureDeltas.MAGIC.length];
+        int read = ByteStreams.read(in, magic, 0, magic.length);
+        if (FeatureDeltas.isDelta(magic, read)) {
+            return readDelta(in);
+        }
+        in.unread(magic, 0, read);
+        return new Serialized(ByteStreams.toByteArray(new LZFInputStream(in)), 0);
+    }
+
     protected abstract InputStream getRawInternal(ObjectId id, boolean failIfNotFound)
             throws IllegalArgumentException;
 
@@ -230,7 +310,19 @@ public abstract class AbstractObjectDatabase implements ObjectDatabase {
         }
     }
 
+    /**
+     * Writes the stored form of an object: its LZF compressed serialized form, or a delta record
+     * for {@link DeltaCandidate delta candidates} when the delta is worth it, see
+     * {@link #writeDelta}.
+     */
     protected void writeObject(RevObject object, OutputStream target) {
+        if (object instanceof DeltaCandidate) {
+            DeltaCandidate candidate = (DeltaCandidate) object;
+            if (writeDelta(candidate, target)) {
+                return;
+            }
+            object = candidate.getFeature();
+        }
 
         ObjectWriter<RevObject> writer = serializationFactory.createObjectWriter(object.getType());
         LZFOutputStream cOut = new LZFOutputStream(target);
@@ -250,6 +342,47 @@ public abstract class AbstractObjectDatabase implements ObjectDatabase {
         // System.err.printf("%d,%s,%s\n", size, object.getId(), object.getType());
     }
 
+    /**
+     * Writes the feature as a delta against its base if the base is in this database, the delta
+     * chain would not exceed {@link FeatureDeltas#MAX_CHAIN_LENGTH}, and the delta is less than
+     * half the size of the feature.
+     * 
+     * @return whether the delta was written
+     */
+    private boolean writeDelta(DeltaCandidate candidate, OutputStream target) {
+        final ObjectId baseId = candidate.getBaseId();
+        final InputStream baseRaw = getRawInternal(baseId, false);
+        if (baseRaw == null) {
+            return false;
+        }
+        final Serialized base;
+        try {
+            base = readSerialized(baseRaw);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        } finally {
+            Closeables.closeQuietly(baseRaw);
+        }
+        if (base.depth >= FeatureDeltas.MAX_CHAIN_LENGTH) {
+            return false;
+        }
+
+        RevFeature feature = candidate.getFeature();
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        try {
+            serializationFactory.createObjectWriter(TYPE.FEATURE).write(feature, serialized);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        final byte[] featureBytes = serialized.toByteArray();
+        final byte[] delta = FeatureDeltas.diff(base.serialized, featureBytes);
+        if (delta.length > featureBytes.length / 2) {
+            return false;
+        }
+        FeatureDeltas.writeRecord(base.depth + 1, baseId, delta, target);
+        return true;
+    }
+
     /**
      * Stores the raw data for the given id <em>only if it does not exist</em> already, and returns
      * whether the object was actually inserted.
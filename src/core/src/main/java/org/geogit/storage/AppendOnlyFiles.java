@@ -0,0 +1,130 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+/**
+ * The files of an index of the repository directory that is extended by appending to them, like
+ * the {@link CommitGraph}, the {@link ReachabilityBitmaps} and the {@link DiffSummaryCache}, and
+ * shared by all the processes using the repository.
+ * <p>
+ * Records in such files may be referred to by position, so a process can only append the records it
+ * added if the files are still the way it loaded them: otherwise another process appended its own
+ * records at the positions this one assigned, or rebuilt the files. To check that, the length of
+ * each file is tracked as it's loaded and appended to, and files are only read and written while
+ * holding an exclusive lock on a lock file, as reading also drops the partially written end a
+ * crashed writer may have left.
+ */
+class AppendOnlyFiles {
+
+    /**
+     * An operation on the files, run while holding the lock
+     */
+    interface Action {
+
+        void run() throws IOException;
+    }
+
+    private final File directory;
+
+    private final File lockFile;
+
+    private final Map<String, Long> lengths = Maps.newHashMap();
+
+    /**
+     * @param directory the directory of the files
+     * @param lockFileName the name of the lock file, in the same directory
+     */
+    AppendOnlyFiles(File directory, String lockFileName) {
+        this.directory = directory;
+        this.lockFile = new File(directory, lockFileName);
+    }
+
+    /**
+     * @return the file of the given name
+     */
+    File file(String fileName) {
+        return new File(directory, fileName);
+    }
+
+    /**
+     * Runs the given action while holding the lock, that also excludes the other instances of this
+     * process, since file locks are held on behalf of the whole process.
+     */
+    void locked(Action action) throws IOException {
+        synchronized (lockFile.getCanonicalPath().intern()) {
+            RandomAccessFile raf = new RandomAccessFile(lockFile, "rw");
+            try {
+                raf.getChannel().lock();
+                // the lock is released along with the channel
+                action.run();
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    /**
+     * Records the length of the file as it was loaded.
+     */
+    void loaded(String fileName, long length) {
+        lengths.put(fileName, Long.valueOf(length));
+    }
+
+    /**
+     * @return the length of the file as it was loaded, plus what was appended to it since
+     */
+    long length(String fileName) {
+        Long length = lengths.get(fileName);
+        Preconditions.checkState(length != null, "%s was not loaded", fileName);
+        return length.longValue();
+    }
+
+    /**
+     * @return whether none of the files changed since they were loaded, but for what was appended
+     *         through this instance
+     */
+    boolean isCurrent() {
+        for (Map.Entry<String, Long> entry : lengths.entrySet()) {
+            if (file(entry.getKey()).length() != entry.getValue().longValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Appends the given data to the file. Must be called while holding the lock, and only if the
+     * files are {@link #isCurrent() current}.
+     */
+    void append(String fileName, byte[] data, int offset, int length) throws IOException {
+        final long position = length(fileName);
+        RandomAccessFile raf = new RandomAccessFile(file(fileName), "rw");
+        try {
+            raf.seek(position);
+            raf.write(data, offset, length);
+        } finally {
+            raf.close();
+        }
+        lengths.put(fileName, Long.valueOf(position + length));
+    }
+
+    /**
+     * Deletes the files. Must be called while holding the lock.
+     */
+    void delete(String... fileNames) {
+        for (String fileName : fileNames) {
+            file(fileName).delete();
+            lengths.remove(fileName);
+        }
+    }
+}
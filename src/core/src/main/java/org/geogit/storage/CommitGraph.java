@@ -0,0 +1,758 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.Platform;
+import org.geogit.api.RevCommit;
+import org.geogit.storage.memory.ObjectIdMap;
+import org.geogit.storage.memory.ObjectIdSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.inject.Inject;
+
+/**
+ * A compact index of the commit graph, kept in the {@code commit-graph} file of the repository
+ * directory so ancestry queries run against arrays instead of looking up each commit in the
+ * {@link GraphDatabase}.
+ * <p>
+ * Each commit gets a fixed size record holding its id, commit timestamp, generation number,
+ * depth, and the record indices of its parents. A commit is only added once all its parents are
+ * in the graph, so records are in topological order and the file is extended by appending; a
+ * commit whose parents are not known yet waits in memory until they are added. The file is
+ * memory mapped when loaded, and records appended afterwards are kept in a heap buffer.
+ * <p>
+ * The generation number of a commit is one more than the highest generation of its parents, so a
+ * commit can't be an ancestor of a commit of a lower or equal generation. Walking the graph in
+ * decreasing generation order visits all the descendants of a commit before the commit itself,
+ * which lets {@link #findMergeBase} and {@link #countAheadBehind} stop as soon as the remaining
+ * commits can't change the result.
+ * <p>
+ * The file layout is:
+ *
+ * <pre>
+ * <code>
+ * commit-graph = "GGCG" version flags *record
+ * record       = id[20] timestamp[8] generation[4] depth[4] parent1[4] parent2[4]
+ * </code>
+ * </pre>
+ *
+ * Where a missing parent is {@code -1}, and a {@code parent2} below {@code -1} points to the
+ * {@code commit-graph-edges} file, that holds the count and indices of all the parents but the
+ * first of octopus merges, at offset {@code -parent2 - 2}.
+ * <p>
+ * Commits that are not in the graph (for example the boundary commits of a shallow clone, and
+ * their descendants) are reported as such, and callers fall back to the {@link GraphDatabase}.
+ * Once a commit has been left out that way the graph is flagged as incomplete, and the number of
+ * children of the commits in it is no longer known.
+ * <p>
+ * The files are shared with the other processes using the repository through
+ * {@link AppendOnlyFiles}. If another process changed them since they were loaded, they are
+ * loaded again before flushing, and the commits added since the last flush are added again on
+ * top of them.
+ */
+public class CommitGraph {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CommitGraph.class);
+
+    static final String FILE_NAME = "commit-graph";
+
+    static final String EDGES_FILE_NAME = "commit-graph-edges";
+
+    private static final String LOCK_FILE_NAME = "commit-graph.lock";
+
+    private static final byte[] MAGIC = { 'G', 'G', 'C', 'G' };
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 12;
+
+    private static final int FLAGS = 8;
+
+    private static final int FLAG_INCOMPLETE = 1;
+
+    static final int RECORD_SIZE = 44;
+
+    private static final int TIMESTAMP = 20;
+
+    private static final int GENERATION = 28;
+
+    private static final int DEPTH = 32;
+
+    private static final int PARENT1 = 36;
+
+    private static final int PARENT2 = 40;
+
+    private static final int NO_PARENT = -1;
+
+    private static final byte LEFT = 1, RIGHT = 2, QUEUED = 4;
+
+    private static final int[] NO_PARENTS = new int[0];
+
+    private static class PendingCommit {
+
+        final ObjectId id;
+
+        final ImmutableList<ObjectId> parents;
+
+        final long timestamp;
+
+        int missingParents;
+
+        PendingCommit(ObjectId id, ImmutableList<ObjectId> parents, long timestamp) {
+            this.id = id;
+            this.parents = parents;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private final RepositoryDirectory directory;
+
+    private AppendOnlyFiles files;
+
+    private boolean loaded;
+
+    private boolean incomplete;
+
+    private ByteBuffer mapped;
+
+    private int mappedCount;
+
+    private ByteBuffer tail;
+
+    private int tailCount;
+
+    private int flushedTailCount;
+
+    private int[] edges;
+
+    private int edgesSize;
+
+    private int flushedEdgesSize;
+
+    private int[] childCounts;
+
+    private ObjectIdMap<Integer> index;
+
+    private Map<ObjectId, List<PendingCommit>> waiting;
+
+    private ObjectIdSet pending;
+
+    /**
+     * Creates a commit graph for the repository of the given platform.
+     */
+    @Inject
+    public CommitGraph(Platform platform) {
+        this.directory = new RepositoryDirectory(platform);
+    }
+
+    /**
+     * Creates a commit graph stored in the given directory, or kept in memory only if it's
+     * {@code null}.
+     */
+    CommitGraph(File directory) {
+        this.directory = new RepositoryDirectory(directory);
+        load();
+    }
+
+    private void ensureLoaded() {
+        if (!loaded && directory.resolve()) {
+            load();
+        }
+    }
+
+    private void load() {
+        if (directory.get() == null) {
+            read();
+        } else {
+            try {
+                files().locked(new AppendOnlyFiles.Action() {
+                    @Override
+                    public void run() throws IOException {
+                        read();
+                    }
+                });
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+        loaded = true;
+    }
+
+    private AppendOnlyFiles files() {
+        if (files == null) {
+            files = new AppendOnlyFiles(directory.get(), LOCK_FILE_NAME);
+        }
+        return files;
+    }
+
+    /**
+     * Reads the graph files, or sets up an empty graph if kept in memory only. Must be called
+     * while holding the lock of the files.
+     */
+    private void read() {
+        mapped = ByteBuffer.allocate(0);
+        mappedCount = 0;
+        tail = ByteBuffer.allocate(64 * RECORD_SIZE);
+        tailCount = flushedTailCount = 0;
+        edges = new int[16];
+        edgesSize = flushedEdgesSize = 0;
+        index = new ObjectIdMap<Integer>();
+        waiting = Maps.newHashMap();
+        pending = new ObjectIdSet();
+        incomplete = false;
+        if (directory.get() != null) {
+            try {
+                loadRecords(directory.file(FILE_NAME));
+                loadEdges(directory.file(EDGES_FILE_NAME));
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+        childCounts = new int[Math.max(16, mappedCount)];
+        for (int i = 0; i < mappedCount; i++) {
+            index.put(id(i), Integer.valueOf(i));
+            for (int parent : parents(i)) {
+                childCounts[parent]++;
+            }
+        }
+    }
+
+    private void loadRecords(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            if (raf.length() < HEADER_SIZE) {
+                raf.setLength(0);
+            } else {
+                raf.readFully(magic);
+                if (!Arrays.equals(MAGIC, magic) || raf.readInt() != VERSION) {
+                    LOGGER.warn("Unrecognized commit graph file {}, rebuilding it", file);
+                    raf.setLength(0);
+                }
+            }
+            if (raf.length() == 0) {
+                raf.write(MAGIC);
+                raf.writeInt(VERSION);
+                raf.writeInt(0);
+            } else {
+                incomplete = (raf.readInt() & FLAG_INCOMPLETE) != 0;
+            }
+            mappedCount = (int) ((raf.length() - HEADER_SIZE) / RECORD_SIZE);
+            final long validLength = HEADER_SIZE + (long) mappedCount * RECORD_SIZE;
+            if (raf.length() != validLength) {
+                // drop a partially written record
+                raf.setLength(validLength);
+            }
+            MappedByteBuffer buffer = raf.getChannel().map(MapMode.READ_ONLY, 0, validLength);
+            buffer.position(HEADER_SIZE);
+            mapped = buffer.slice();
+            files().loaded(FILE_NAME, validLength);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void loadEdges(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            // edges are only referenced by records, drop them along with a rebuilt file
+            final int count = mappedCount == 0 ? 0 : (int) (raf.length() / 4);
+            if (raf.length() != count * 4L) {
+                raf.setLength(count * 4L);
+            }
+            edges = new int[Math.max(16, count)];
+            MappedByteBuffer buffer = raf.getChannel().map(MapMode.READ_ONLY, 0, count * 4L);
+            buffer.asIntBuffer().get(edges, 0, count);
+            edgesSize = flushedEdgesSize = count;
+            files().loaded(EDGES_FILE_NAME, count * 4L);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Adds a commit to the graph, or queues it until its parents are added if they are not in the
+     * graph yet.
+     */
+    public void add(RevCommit commit) {
+        add(commit.getId(), commit.getParentIds(), commit.getCommitter().getTimestamp());
+    }
+
+    /**
+     * Adds a commit to the graph, along with its ancestors that are missing from the graph but
+     * present in the given database, as it happens the first time a commit is added to a
+     * repository created before it had a commit graph.
+     */
+    public synchronized void add(RevCommit commit, ObjectDatabase database) {
+        add(commit);
+        Deque<ObjectId> missing = new ArrayDeque<ObjectId>();
+        missing.addAll(commit.getParentIds());
+        while (!missing.isEmpty()) {
+            ObjectId id = missing.pop();
+            if (!loaded || index.containsKey(id) || pending.contains(id)
+                    || !database.exists(id)) {
+                continue;
+            }
+            RevCommit ancestor = database.getCommit(id);
+            add(ancestor);
+            missing.addAll(ancestor.getParentIds());
+        }
+    }
+
+    /**
+     * Adds a commit to the graph, or queues it until its parents are added if they are not in the
+     * graph yet.
+     */
+    public synchronized void add(ObjectId commitId, ImmutableList<ObjectId> parentIds,
+            long timestamp) {
+        ensureLoaded();
+        if (!loaded || index.containsKey(commitId) || pending.contains(commitId)) {
+            return;
+        }
+        PendingCommit commit = new PendingCommit(commitId, parentIds, timestamp);
+        for (ObjectId parentId : parentIds) {
+            if (!index.containsKey(parentId)) {
+                commit.missingParents++;
+                List<PendingCommit> children = waiting.get(parentId);
+                if (children == null) {
+                    children = Lists.newArrayListWithCapacity(1);
+                    waiting.put(parentId, children);
+                }
+                children.add(commit);
+            }
+        }
+        if (commit.missingParents > 0) {
+            pending.add(commitId);
+            return;
+        }
+        Deque<PendingCommit> resolved = new ArrayDeque<PendingCommit>();
+        resolved.add(commit);
+        while (!resolved.isEmpty()) {
+            PendingCommit next = resolved.poll();
+            append(next);
+            List<PendingCommit> children = waiting.remove(next.id);
+            if (children != null) {
+                for (PendingCommit child : children) {
+                    if (--child.missingParents == 0) {
+                        pending.remove(child.id);
+                        resolved.add(child);
+                    }
+                }
+            }
+        }
+    }
+
+    private void append(PendingCommit commit) {
+        final int size = size();
+        final int[] parents = new int[commit.parents.size()];
+        int generation = 1;
+        int depth = 0;
+        for (int i = 0; i < parents.length; i++) {
+            int parent = index.get(commit.parents.get(i)).intValue();
+            parents[i] = parent;
+            generation = Math.max(generation, generation(parent) + 1);
+            depth = i == 0 ? depth(parent) + 1 : Math.min(depth, depth(parent) + 1);
+            childCounts[parent]++;
+        }
+
+        if (tail.remaining() < RECORD_SIZE) {
+            ByteBuffer grown = ByteBuffer.allocate(tail.capacity() * 2);
+            tail.flip();
+            grown.put(tail);
+            tail = grown;
+        }
+        tail.put(commit.id.getRawValue());
+        tail.putLong(commit.timestamp);
+        tail.putInt(generation);
+        tail.putInt(depth);
+        tail.putInt(parents.length > 0 ? parents[0] : NO_PARENT);
+        if (parents.length < 2) {
+            tail.putInt(NO_PARENT);
+        } else if (parents.length == 2) {
+            tail.putInt(parents[1]);
+        } else {
+            tail.putInt(-edgesSize - 2);
+            appendEdge(parents.length - 1);
+            for (int i = 1; i < parents.length; i++) {
+                appendEdge(parents[i]);
+            }
+        }
+        tailCount++;
+
+        index.put(commit.id, Integer.valueOf(size));
+        if (childCounts.length == size) {
+            childCounts = Arrays.copyOf(childCounts, size * 2);
+        }
+    }
+
+    private void appendEdge(int value) {
+        if (edgesSize == edges.length) {
+            edges = Arrays.copyOf(edges, edgesSize * 2);
+        }
+        edges[edgesSize++] = value;
+    }
+
+    /**
+     * Appends the commits added since the last flush to the commit graph file.
+     */
+    public synchronized void flush() {
+        if (!loaded || directory.get() == null) {
+            return;
+        }
+        try {
+            files.locked(new AppendOnlyFiles.Action() {
+                @Override
+                public void run() throws IOException {
+                    if (!files.isCurrent()) {
+                        LOGGER.debug("Commit graph changed by another process, reloading it");
+                        reload();
+                    }
+                    write();
+                }
+            });
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Reads the graph files again and adds the commits added since the last flush, as well as
+     * the ones waiting for their parents, on top of them. Must be called while holding the lock
+     * of the files.
+     */
+    private void reload() {
+        List<PendingCommit> unflushed = Lists.newArrayList();
+        for (int i = mappedCount + flushedTailCount; i < mappedCount + tailCount; i++) {
+            ImmutableList.Builder<ObjectId> parents = ImmutableList.builder();
+            for (int parent : parents(i)) {
+                parents.add(id(parent));
+            }
+            unflushed.add(new PendingCommit(id(i), parents.build(), timestamp(i)));
+        }
+        // a commit waits once for each of its missing parents
+        Set<PendingCommit> waitingCommits = Sets.newLinkedHashSet();
+        for (List<PendingCommit> children : waiting.values()) {
+            waitingCommits.addAll(children);
+        }
+        unflushed.addAll(waitingCommits);
+
+        read();
+        for (PendingCommit commit : unflushed) {
+            add(commit.id, commit.parents, commit.timestamp);
+        }
+    }
+
+    /**
+     * Appends the commits added since the last flush. Must be called while holding the lock of
+     * the files, and only if they are current.
+     */
+    private void write() throws IOException {
+        if (!incomplete && !pending.isEmpty()) {
+            incomplete = true;
+            RandomAccessFile raf = new RandomAccessFile(files.file(FILE_NAME), "rw");
+            try {
+                raf.seek(FLAGS);
+                raf.writeInt(FLAG_INCOMPLETE);
+            } finally {
+                raf.close();
+            }
+        }
+        if (flushedTailCount == tailCount) {
+            return;
+        }
+        // edges first, so records never point to missing edges
+        if (flushedEdgesSize < edgesSize) {
+            ByteBuffer buffer = ByteBuffer.allocate(4 * (edgesSize - flushedEdgesSize));
+            buffer.asIntBuffer().put(edges, flushedEdgesSize, edgesSize - flushedEdgesSize);
+            files.append(EDGES_FILE_NAME, buffer.array(), 0, buffer.capacity());
+            flushedEdgesSize = edgesSize;
+        }
+        files.append(FILE_NAME, tail.array(), flushedTailCount * RECORD_SIZE,
+                (tailCount - flushedTailCount) * RECORD_SIZE);
+        flushedTailCount = tailCount;
+    }
+
+    /**
+     * Removes all the commits from the graph and deletes its files.
+     */
+    public synchronized void clear() {
+        if (directory.get() != null) {
+            try {
+                files().locked(new AppendOnlyFiles.Action() {
+                    @Override
+                    public void run() {
+                        files.delete(FILE_NAME, EDGES_FILE_NAME);
+                    }
+                });
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+        loaded = false;
+    }
+
+    /**
+     * @return whether the commit is in the graph
+     */
+    public synchronized boolean contains(ObjectId commitId) {
+        return indexOf(commitId) >= 0;
+    }
+
+    /**
+     * @return the number of commits in the graph, not counting the ones waiting for their parents
+     */
+    public synchronized int size() {
+        ensureLoaded();
+        return mappedCount + tailCount;
+    }
+
+    /**
+     * @return the parents of the commit, or absent if it's not in the graph
+     */
+    public synchronized Optional<ImmutableList<ObjectId>> getParents(ObjectId commitId) {
+        final int i = indexOf(commitId);
+        if (i < 0) {
+            return Optional.absent();
+        }
+        ImmutableList.Builder<ObjectId> parents = ImmutableList.builder();
+        for (int parent : parents(i)) {
+            parents.add(id(parent));
+        }
+        return Optional.of(parents.build());
+    }
+
+    /**
+     * @return the number of children of the commit, or absent if it's not in the graph or the
+     *         graph is incomplete, so some of its children may be missing
+     */
+    public synchronized Optional<Integer> getChildCount(ObjectId commitId) {
+        final int i = indexOf(commitId);
+        if (i < 0 || incomplete || !pending.isEmpty()) {
+            return Optional.absent();
+        }
+        return Optional.of(Integer.valueOf(childCounts[i]));
+    }
+
+    /**
+     * @return the generation number of the commit, {@code 1} for root commits, or absent if it's
+     *         not in the graph
+     */
+    public synchronized Optional<Integer> getGeneration(ObjectId commitId) {
+        final int i = indexOf(commitId);
+        return i < 0 ? Optional.<Integer> absent() : Optional.of(Integer.valueOf(generation(i)));
+    }
+
+    /**
+     * @return the length of the shortest path from the commit to a root commit, as in
+     *         {@link GraphDatabase#getDepth}, or absent if it's not in the graph
+     */
+    public synchronized Optional<Integer> getDepth(ObjectId commitId) {
+        final int i = indexOf(commitId);
+        return i < 0 ? Optional.<Integer> absent() : Optional.of(Integer.valueOf(depth(i)));
+    }
+
+    /**
+     * Finds the lowest common ancestor of two commits. When there are several (criss-cross
+     * merges), the one with the highest generation, then the most recent, is returned.
+     *
+     * @param left a commit in the graph
+     * @param right a commit in the graph
+     * @return the lowest common ancestor, or absent if the commits have no common history
+     */
+    public synchronized Optional<ObjectId> findMergeBase(ObjectId left, ObjectId right) {
+        final int l = indexOf(left);
+        final int r = indexOf(right);
+        Preconditions.checkArgument(l >= 0, "Commit %s is not in the commit graph", left);
+        Preconditions.checkArgument(r >= 0, "Commit %s is not in the commit graph", right);
+        if (l == r) {
+            return Optional.of(left);
+        }
+        final byte[] flags = new byte[size()];
+        final PriorityQueue<Integer> queue = newQueue();
+        enqueue(queue, flags, l, LEFT);
+        enqueue(queue, flags, r, RIGHT);
+        while (!queue.isEmpty()) {
+            final int commit = queue.poll().intValue();
+            final int paint = flags[commit] & (LEFT | RIGHT);
+            if (paint == (LEFT | RIGHT)) {
+                // all of its descendants have been visited already, so none of them is a common
+                // ancestor, and neither is any other commit of a higher generation
+                return Optional.of(id(commit));
+            }
+            for (int parent : parents(commit)) {
+                if ((flags[parent] & QUEUED) == 0) {
+                    enqueue(queue, flags, parent, paint);
+                } else {
+                    flags[parent] |= paint;
+                }
+            }
+        }
+        return Optional.absent();
+    }
+
+    /**
+     * Counts the commits reachable from one commit but not the other.
+     *
+     * @param left a commit in the graph
+     * @param right a commit in the graph
+     * @return a two element array with the number of commits reachable from {@code left} but not
+     *         from {@code right}, and the number of commits reachable from {@code right} but not
+     *         from {@code left}
+     */
+    public synchronized int[] countAheadBehind(ObjectId left, ObjectId right) {
+        final int l = indexOf(left);
+        final int r = indexOf(right);
+        Preconditions.checkArgument(l >= 0, "Commit %s is not in the commit graph", left);
+        Preconditions.checkArgument(r >= 0, "Commit %s is not in the commit graph", right);
+        final int[] counts = new int[2];
+        final byte[] flags = new byte[size()];
+        final PriorityQueue<Integer> queue = newQueue();
+        enqueue(queue, flags, l, LEFT);
+        if (l == r) {
+            flags[r] |= RIGHT;
+        } else {
+            enqueue(queue, flags, r, RIGHT);
+        }
+        // commits painted by one side only, the history below the ones painted by both sides is
+        // common to both
+        int oneSided = l == r ? 0 : 2;
+        while (oneSided > 0) {
+            final int commit = queue.poll().intValue();
+            final int paint = flags[commit] & (LEFT | RIGHT);
+            if (paint == LEFT) {
+                counts[0]++;
+                oneSided--;
+            } else if (paint == RIGHT) {
+                counts[1]++;
+                oneSided--;
+            }
+            for (int parent : parents(commit)) {
+                final int before = flags[parent];
+                if ((before & paint) == paint) {
+                    continue;
+                }
+                if ((before & QUEUED) == 0) {
+                    enqueue(queue, flags, parent, paint);
+                    if (paint != (LEFT | RIGHT)) {
+                        oneSided++;
+                    }
+                } else {
+                    flags[parent] |= paint;
+                    oneSided--;
+                }
+            }
+        }
+        return counts;
+    }
+
+    private void enqueue(PriorityQueue<Integer> queue, byte[] flags, int commit, int paint) {
+        flags[commit] |= paint | QUEUED;
+        queue.add(Integer.valueOf(commit));
+    }
+
+    /**
+     * @return a queue of commit indices, in decreasing generation order, then most recent first
+     */
+    private PriorityQueue<Integer> newQueue() {
+        return new PriorityQueue<Integer>(16, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                final int c1 = o1.intValue();
+                final int c2 = o2.intValue();
+                int c = -compareInts(generation(c1), generation(c2));
+                if (c == 0) {
+                    c = -Long.valueOf(timestamp(c1)).compareTo(Long.valueOf(timestamp(c2)));
+                }
+                return c == 0 ? -compareInts(c1, c2) : c;
+            }
+        });
+    }
+
+    private static int compareInts(int i1, int i2) {
+        return i1 < i2 ? -1 : (i1 == i2 ? 0 : 1);
+    }
+
+    private int indexOf(ObjectId commitId) {
+        ensureLoaded();
+        if (!loaded) {
+            return -1;
+        }
+        Integer i = index.get(commitId);
+        return i == null ? -1 : i.intValue();
+    }
+
+    private ByteBuffer buffer(int i) {
+        return i < mappedCount ? mapped : tail;
+    }
+
+    private int offset(int i) {
+        return (i < mappedCount ? i : i - mappedCount) * RECORD_SIZE;
+    }
+
+    private ObjectId id(int i) {
+        byte[] raw = new byte[ObjectId.NUM_BYTES];
+        ByteBuffer buffer = buffer(i).duplicate();
+        buffer.position(offset(i));
+        buffer.get(raw);
+        return ObjectId.createNoClone(raw);
+    }
+
+    private long timestamp(int i) {
+        return buffer(i).getLong(offset(i) + TIMESTAMP);
+    }
+
+    private int generation(int i) {
+        return buffer(i).getInt(offset(i) + GENERATION);
+    }
+
+    private int depth(int i) {
+        return buffer(i).getInt(offset(i) + DEPTH);
+    }
+
+    private int[] parents(int i) {
+        final ByteBuffer buffer = buffer(i);
+        final int offset = offset(i);
+        final int parent1 = buffer.getInt(offset + PARENT1);
+        if (parent1 == NO_PARENT) {
+            return NO_PARENTS;
+        }
+        final int parent2 = buffer.getInt(offset + PARENT2);
+        if (parent2 == NO_PARENT) {
+            return new int[] { parent1 };
+        }
+        if (parent2 >= 0) {
+            return new int[] { parent1, parent2 };
+        }
+        final int edge = -parent2 - 2;
+        final int[] parents = new int[1 + edges[edge]];
+        parents[0] = parent1;
+        System.arraycopy(edges, edge + 1, parents, 1, parents.length - 1);
+        return parents;
+    }
+}
@@ -0,0 +1,225 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An immutable bitmap compressed with a word aligned run length encoding, in the spirit of EWAH.
+ * <p>
+ * The bitmap is split in 64 bit words, and stored as a sequence of marker words, each followed by
+ * the literal words it announces. A marker holds a run of words that are all zeros or all ones,
+ * and the number of literal words that follow the run:
+ *
+ * <pre>
+ * <code>
+ * marker = runBit[1] runLength[32] literalCount[31]
+ * </code>
+ * </pre>
+ *
+ * Bitmaps of reachable objects are mostly long runs of ones with a few sparse words in between, so
+ * they take a fraction of the space of a plain bit set, and combining them with an uncompressed
+ * {@link BitSet} skips over whole runs at once.
+ */
+public final class CompressedBitmap {
+
+    private static final long MAX_RUN = 0xFFFFFFFFL;
+
+    private static final int MAX_LITERALS = Integer.MAX_VALUE;
+
+    private final long[] buffer;
+
+    private final int sizeInWords;
+
+    private final int cardinality;
+
+    private CompressedBitmap(long[] buffer, int sizeInWords, int cardinality) {
+        this.buffer = buffer;
+        this.sizeInWords = sizeInWords;
+        this.cardinality = cardinality;
+    }
+
+    /**
+     * Compresses the given bit set.
+     */
+    public static CompressedBitmap of(BitSet bits) {
+        final long[] words = bits.toLongArray();
+        final int size = words.length;
+        long[] buffer = new long[16];
+        int length = 0;
+        int i = 0;
+        while (i < size) {
+            final long word = words[i];
+            long runLength = 0;
+            boolean runBit = false;
+            if (word == 0L || word == ~0L) {
+                runBit = word == ~0L;
+                while (i < size && words[i] == word && runLength < MAX_RUN) {
+                    runLength++;
+                    i++;
+                }
+            }
+            int literals = 0;
+            while (i + literals < size && literals < MAX_LITERALS && words[i + literals] != 0L
+                    && words[i + literals] != ~0L) {
+                literals++;
+            }
+            if (length + 1 + literals > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + 1 + literals));
+            }
+            buffer[length++] = marker(runBit, runLength, literals);
+            System.arraycopy(words, i, buffer, length, literals);
+            length += literals;
+            i += literals;
+        }
+        return new CompressedBitmap(Arrays.copyOf(buffer, length), size, bits.cardinality());
+    }
+
+    private static long marker(boolean runBit, long runLength, int literals) {
+        return (runBit ? 1L : 0L) | (runLength << 1) | ((long) literals << 33);
+    }
+
+    private static boolean runBit(long marker) {
+        return (marker & 1L) != 0;
+    }
+
+    private static long runLength(long marker) {
+        return (marker >>> 1) & MAX_RUN;
+    }
+
+    private static int literals(long marker) {
+        return (int) (marker >>> 33);
+    }
+
+    /**
+     * @return the number of bits set
+     */
+    public int cardinality() {
+        return cardinality;
+    }
+
+    /**
+     * @return the number of bits covered by the bitmap, all the bits past it are unset
+     */
+    public long sizeInBits() {
+        return 64L * sizeInWords;
+    }
+
+    /**
+     * @return the number of bytes taken by the compressed words
+     */
+    public int sizeInBytes() {
+        return 8 * buffer.length;
+    }
+
+    /**
+     * Sets the bits set in this bitmap in the given bit set.
+     */
+    public void or(BitSet target) {
+        long word = 0;
+        int i = 0;
+        while (i < buffer.length) {
+            final long marker = buffer[i++];
+            final long runLength = runLength(marker);
+            if (runBit(marker) && runLength > 0) {
+                target.set(bitIndex(word), bitIndex(word + runLength));
+            }
+            word += runLength;
+            for (int l = literals(marker); l > 0; l--, word++) {
+                long literal = buffer[i++];
+                while (literal != 0L) {
+                    target.set(bitIndex(word) + Long.numberOfTrailingZeros(literal));
+                    literal &= literal - 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Clears the bits set in this bitmap from the given bit set.
+     */
+    public void andNot(BitSet target) {
+        long word = 0;
+        int i = 0;
+        while (i < buffer.length) {
+            final long marker = buffer[i++];
+            final long runLength = runLength(marker);
+            if (runBit(marker) && runLength > 0) {
+                target.clear(bitIndex(word), bitIndex(word + runLength));
+            }
+            word += runLength;
+            for (int l = literals(marker); l > 0; l--, word++) {
+                long literal = buffer[i++];
+                while (literal != 0L) {
+                    target.clear(bitIndex(word) + Long.numberOfTrailingZeros(literal));
+                    literal &= literal - 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return an uncompressed copy of this bitmap
+     */
+    public BitSet toBitSet() {
+        BitSet bits = new BitSet();
+        or(bits);
+        return bits;
+    }
+
+    private static int bitIndex(long word) {
+        return (int) (64L * word);
+    }
+
+    /**
+     * Writes the bitmap in the format read by {@link #readFrom(DataInput)}.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(sizeInWords);
+        out.writeInt(cardinality);
+        out.writeInt(buffer.length);
+        for (long word : buffer) {
+            out.writeLong(word);
+        }
+    }
+
+    public static CompressedBitmap readFrom(DataInput in) throws IOException {
+        final int sizeInWords = in.readInt();
+        final int cardinality = in.readInt();
+        final int length = in.readInt();
+        Preconditions.checkState(sizeInWords >= 0 && cardinality >= 0 && length >= 0,
+                "Corrupt bitmap");
+        long[] buffer = new long[length];
+        for (int i = 0; i < length; i++) {
+            buffer[i] = in.readLong();
+        }
+        return new CompressedBitmap(buffer, sizeInWords, cardinality);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof CompressedBitmap)) {
+            return false;
+        }
+        CompressedBitmap b = (CompressedBitmap) o;
+        return sizeInWords == b.sizeInWords && Arrays.equals(buffer, b.buffer);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(buffer);
+    }
+
+    @Override
+    public String toString() {
+        return "CompressedBitmap[bits: " + cardinality + ", size: " + sizeInBytes() + " bytes]";
+    }
+}
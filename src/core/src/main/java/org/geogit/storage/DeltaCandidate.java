@@ -0,0 +1,67 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeature;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A {@link RevFeature} that's a new version of another feature already in the target database,
+ * which the database may store as a delta against that base version.
+ * <p>
+ * Databases that don't support deltas just store the feature as is.
+ *
+ * @see FeatureDeltas
+ */
+public final class DeltaCandidate extends RevFeature {
+
+    private final RevFeature feature;
+
+    private final ObjectId baseId;
+
+    /**
+     * @param feature the new version of the feature
+     * @param baseId the id of the previous version of the feature
+     */
+    public DeltaCandidate(RevFeature feature, ObjectId baseId) {
+        super(feature.getId());
+        Preconditions.checkNotNull(baseId);
+        this.feature = feature;
+        this.baseId = baseId;
+    }
+
+    /**
+     * @return the feature to store
+     */
+    public RevFeature getFeature() {
+        return feature;
+    }
+
+    /**
+     * @return the id of the feature to store the delta against
+     */
+    public ObjectId getBaseId() {
+        return baseId;
+    }
+
+    @Override
+    public ImmutableList<Optional<Object>> getValues() {
+        return feature.getValues();
+    }
+
+    @Override
+    public Optional<Object> get(int index) {
+        return feature.get(index);
+    }
+
+    @Override
+    public int size() {
+        return feature.size();
+    }
+}
@@ -0,0 +1,442 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.Platform;
+import org.geogit.api.plumbing.diff.DiffObjectCount;
+import org.geogit.api.plumbing.diff.DiffSummary;
+import org.geogit.storage.memory.ObjectIdMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.inject.Inject;
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * A cache of the {@link DiffObjectCount counts} and bounds of the differences between pairs of
+ * trees, kept in the {@code diff-summaries} file of the repository directory so browsing the
+ * history doesn't walk the diff between the same commits over and over.
+ * <p>
+ * Summaries are keyed by the ids of both trees and the path filters applied to the diff. Since
+ * trees are immutable a summary never gets stale, and it's only worth dropping once one of its
+ * trees is gone from the repository, so the cache is never invalidated but by {@link #clear()}.
+ * Still, to keep the file from growing forever, the older half of the summaries is dropped
+ * whenever it would exceed {@link #DEFAULT_MAX_FILE_SIZE}.
+ * <p>
+ * The file is shared with the other processes using the repository through
+ * {@link AppendOnlyFiles}, and read again before appending if another process changed it.
+ * <p>
+ * The file is a sequence of records appended as summaries are added:
+ *
+ * <pre>
+ * <code>
+ * diff-summaries = "GGDS" version *record
+ * record         = key[20] (COUNT counts / BOUNDS bounds)
+ * counts         = featuresAdded[8] featuresRemoved[8] featuresChanged[8]
+ *                  treesAdded[4] treesRemoved[4] treesChanged[4]
+ * bounds         = left right
+ * left, right    = minX[8] maxX[8] minY[8] maxY[8]
+ * </code>
+ * </pre>
+ *
+ * Where {@code COUNT} and {@code BOUNDS} are one byte record types, {@code key} is a hash of the
+ * summary type, tree ids and path filters, and empty bounds are written as {@code NaN}s.
+ */
+public class DiffSummaryCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DiffSummaryCache.class);
+
+    static final String FILE_NAME = "diff-summaries";
+
+    private static final String LOCK_FILE_NAME = "diff-summaries.lock";
+
+    /**
+     * The max size of the file, about two hundred thousand summaries
+     */
+    static final int DEFAULT_MAX_FILE_SIZE = 16 * 1024 * 1024;
+
+    private static final byte[] MAGIC = { 'G', 'G', 'D', 'S' };
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte COUNT = 1, BOUNDS = 2;
+
+    private static final int COUNT_SIZE = 3 * 8 + 3 * 4;
+
+    private static final int BOUNDS_SIZE = 2 * 4 * 8;
+
+    private static final int MAX_RECORD_SIZE = ObjectId.NUM_BYTES + 1 + BOUNDS_SIZE;
+
+    private final RepositoryDirectory directory;
+
+    private final int maxFileSize;
+
+    private AppendOnlyFiles files;
+
+    private boolean loaded;
+
+    private ObjectIdMap<DiffObjectCount> counts;
+
+    private ObjectIdMap<DiffSummary<Envelope, Envelope>> bounds;
+
+    /**
+     * Creates the cache of the repository of the given platform, kept in memory until there is a
+     * repository.
+     */
+    @Inject
+    public DiffSummaryCache(Platform platform) {
+        this.directory = new RepositoryDirectory(platform);
+        this.maxFileSize = DEFAULT_MAX_FILE_SIZE;
+    }
+
+    /**
+     * Creates the cache stored in the given directory, or kept in memory only if it's
+     * {@code null}.
+     */
+    DiffSummaryCache(File directory) {
+        this(directory, DEFAULT_MAX_FILE_SIZE);
+    }
+
+    /**
+     * Creates the cache stored in the given directory with a file of up to {@code maxFileSize}
+     * bytes.
+     */
+    DiffSummaryCache(File directory, int maxFileSize) {
+        Preconditions.checkArgument(maxFileSize >= HEADER_SIZE + 2 * MAX_RECORD_SIZE,
+                "maxFileSize is too small: %s", maxFileSize);
+        this.directory = new RepositoryDirectory(directory);
+        this.maxFileSize = maxFileSize;
+        load();
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        if (directory.resolve()) {
+            load();
+        } else if (counts == null) {
+            // no repository yet, cache in memory meanwhile
+            counts = new ObjectIdMap<DiffObjectCount>();
+            bounds = new ObjectIdMap<DiffSummary<Envelope, Envelope>>();
+        }
+    }
+
+    private void load() {
+        try {
+            if (directory.get() == null) {
+                read();
+            } else {
+                files().locked(new AppendOnlyFiles.Action() {
+                    @Override
+                    public void run() throws IOException {
+                        read();
+                    }
+                });
+            }
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        loaded = true;
+    }
+
+    private AppendOnlyFiles files() {
+        if (files == null) {
+            files = new AppendOnlyFiles(directory.get(), LOCK_FILE_NAME);
+        }
+        return files;
+    }
+
+    /**
+     * Reads the file, or sets up an empty cache if kept in memory only. Must be called while
+     * holding the lock of the file.
+     */
+    private void read() throws IOException {
+        counts = new ObjectIdMap<DiffObjectCount>();
+        bounds = new ObjectIdMap<DiffSummary<Envelope, Envelope>>();
+        if (directory.get() != null) {
+            files().loaded(FILE_NAME, load(directory.file(FILE_NAME)));
+        }
+    }
+
+    private static int recordSize(byte type) {
+        final int size = type == COUNT ? COUNT_SIZE : type == BOUNDS ? BOUNDS_SIZE : -1;
+        return size < 0 ? -1 : ObjectId.NUM_BYTES + 1 + size;
+    }
+
+    /**
+     * @return the length of the valid part of the file, the rest having been dropped
+     */
+    private long load(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            final long originalLength = raf.length();
+            byte[] magic = new byte[MAGIC.length];
+            if (originalLength < HEADER_SIZE || raf.read(magic) != MAGIC.length
+                    || !Arrays.equals(MAGIC, magic) || raf.readInt() != VERSION) {
+                if (originalLength > 0) {
+                    LOGGER.warn("Unrecognized diff summaries file {}, rebuilding it", file);
+                }
+                raf.setLength(0);
+                raf.write(MAGIC);
+                raf.writeInt(VERSION);
+                return HEADER_SIZE;
+            }
+            final long length = raf.length();
+            long offset = HEADER_SIZE;
+            byte[] rawKey = new byte[ObjectId.NUM_BYTES];
+            while (offset + ObjectId.NUM_BYTES + 1 <= length) {
+                raf.readFully(rawKey);
+                final byte type = raf.readByte();
+                final int size = recordSize(type);
+                if (size < 0 || offset + size > length) {
+                    break;
+                }
+                ObjectId key = ObjectId.createNoClone(rawKey.clone());
+                if (type == COUNT) {
+                    counts.put(key, new DiffObjectCount(raf.readLong(), raf.readLong(),
+                            raf.readLong(), raf.readInt(), raf.readInt(), raf.readInt()));
+                } else {
+                    Envelope left = readEnvelope(raf);
+                    Envelope right = readEnvelope(raf);
+                    bounds.put(key, summary(left, right));
+                }
+                offset += size;
+            }
+            if (offset != length) {
+                LOGGER.warn("Dropping the end of the diff summaries file {} at offset {}", file,
+                        offset);
+                raf.setLength(offset);
+            }
+            return offset;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static Envelope readEnvelope(RandomAccessFile raf) throws IOException {
+        double minX = raf.readDouble(), maxX = raf.readDouble();
+        double minY = raf.readDouble(), maxY = raf.readDouble();
+        if (Double.isNaN(minX)) {
+            return new Envelope();
+        }
+        return new Envelope(minX, maxX, minY, maxY);
+    }
+
+    private static void writeEnvelope(Envelope env, DataOutputStream out) throws IOException {
+        if (env.isNull()) {
+            for (int i = 0; i < 4; i++) {
+                out.writeDouble(Double.NaN);
+            }
+        } else {
+            out.writeDouble(env.getMinX());
+            out.writeDouble(env.getMaxX());
+            out.writeDouble(env.getMinY());
+            out.writeDouble(env.getMaxY());
+        }
+    }
+
+    private static DiffSummary<Envelope, Envelope> summary(Envelope left, Envelope right) {
+        Envelope merged = new Envelope(left);
+        merged.expandToInclude(right);
+        return new DiffSummary<Envelope, Envelope>(left, right, merged);
+    }
+
+    private static ObjectId key(byte type, ObjectId left, ObjectId right, List<String> pathFilters) {
+        List<String> paths = Lists.newArrayList(pathFilters);
+        Collections.sort(paths);
+        List<Object> parts = Lists.<Object> newArrayList(type, left, right);
+        parts.addAll(paths);
+        return ObjectId.forString(Joiner.on('\0').join(parts));
+    }
+
+    /**
+     * @param left the id of the left tree of the diff
+     * @param right the id of the right tree of the diff
+     * @param pathFilters the path filters of the diff, in any order
+     * @return the cached counts of the diff, if any
+     */
+    public synchronized Optional<DiffObjectCount> getCount(ObjectId left, ObjectId right,
+            List<String> pathFilters) {
+        ensureLoaded();
+        return Optional.fromNullable(counts.get(key(COUNT, left, right, pathFilters)));
+    }
+
+    /**
+     * Adds the counts of the diff between two trees to the cache.
+     *
+     * @see #getCount
+     */
+    public synchronized void putCount(ObjectId left, ObjectId right, List<String> pathFilters,
+            DiffObjectCount count) {
+        ensureLoaded();
+        ObjectId key = key(COUNT, left, right, pathFilters);
+        if (counts.containsKey(key)) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.write(key.getRawValue());
+            out.writeByte(COUNT);
+            out.writeLong(count.getFeaturesAdded());
+            out.writeLong(count.getFeaturesRemoved());
+            out.writeLong(count.getFeaturesChanged());
+            out.writeInt(count.getTreesAdded());
+            out.writeInt(count.getTreesRemoved());
+            out.writeInt(count.getTreesChanged());
+            append(bytes);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        counts.put(key, count);
+    }
+
+    /**
+     * @param left the id of the left tree of the diff
+     * @param right the id of the right tree of the diff
+     * @param pathFilters the path filters of the diff, in any order
+     * @return the cached bounds of the left and right sides of the diff in {@code EPSG:4326} with
+     *         long/lat axis order, if any
+     */
+    public synchronized Optional<DiffSummary<Envelope, Envelope>> getBounds(ObjectId left,
+            ObjectId right, List<String> pathFilters) {
+        ensureLoaded();
+        DiffSummary<Envelope, Envelope> summary = bounds.get(key(BOUNDS, left, right,
+                pathFilters));
+        if (summary == null) {
+            return Optional.absent();
+        }
+        // hand out copies, envelopes are mutable
+        return Optional.of(summary(new Envelope(summary.getLeft()),
+                new Envelope(summary.getRight())));
+    }
+
+    /**
+     * Adds the bounds of the left and right sides of the diff between two trees to the cache.
+     *
+     * @see #getBounds
+     */
+    public synchronized void putBounds(ObjectId left, ObjectId right, List<String> pathFilters,
+            Envelope leftBounds, Envelope rightBounds) {
+        ensureLoaded();
+        ObjectId key = key(BOUNDS, left, right, pathFilters);
+        if (bounds.containsKey(key)) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.write(key.getRawValue());
+            out.writeByte(BOUNDS);
+            writeEnvelope(leftBounds, out);
+            writeEnvelope(rightBounds, out);
+            append(bytes);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        bounds.put(key, summary(new Envelope(leftBounds), new Envelope(rightBounds)));
+    }
+
+    /**
+     * Appends a record to the file, reading it again first if another process changed it, and
+     * compacting it if it would grow past the max size.
+     */
+    private void append(final ByteArrayOutputStream bytes) throws IOException {
+        if (!loaded || directory.get() == null) {
+            return;
+        }
+        files.locked(new AppendOnlyFiles.Action() {
+            @Override
+            public void run() throws IOException {
+                if (!files.isCurrent()) {
+                    LOGGER.debug("Diff summaries changed by another process, reading them again");
+                    read();
+                }
+                if (files.length(FILE_NAME) + bytes.size() > maxFileSize) {
+                    compact();
+                }
+                files.append(FILE_NAME, bytes.toByteArray(), 0, bytes.size());
+            }
+        });
+    }
+
+    /**
+     * Drops the older half of the summaries, the ones written first being as good a guess as any
+     * of the ones least likely to be used again, and reads the file again. Must be called while
+     * holding the lock of the file, and only if it's current.
+     */
+    private void compact() throws IOException {
+        final File file = directory.file(FILE_NAME);
+        final long length = files.length(FILE_NAME);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            final long half = HEADER_SIZE + (length - HEADER_SIZE) / 2;
+            long offset = HEADER_SIZE;
+            while (offset < half) {
+                raf.seek(offset + ObjectId.NUM_BYTES);
+                offset += recordSize(raf.readByte());
+            }
+            byte[] kept = new byte[(int) (length - offset)];
+            raf.seek(offset);
+            raf.readFully(kept);
+            // a crash while rewriting leaves a partially written record, dropped on load
+            raf.setLength(HEADER_SIZE);
+            raf.seek(HEADER_SIZE);
+            raf.write(kept);
+        } finally {
+            raf.close();
+        }
+        LOGGER.debug("Dropped {} bytes of old diff summaries", length - file.length());
+        read();
+    }
+
+    /**
+     * @return the number of cached summaries
+     */
+    public synchronized int size() {
+        ensureLoaded();
+        return counts.size() + bounds.size();
+    }
+
+    /**
+     * Removes all the cached summaries and deletes their file, for instance after the objects of
+     * the repository have been garbage collected.
+     */
+    public synchronized void clear() {
+        if (directory.get() != null) {
+            try {
+                files().locked(new AppendOnlyFiles.Action() {
+                    @Override
+                    public void run() {
+                        files.delete(FILE_NAME);
+                    }
+                });
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+        loaded = false;
+        counts = null;
+        bounds = null;
+    }
+}
@@ -0,0 +1,201 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.geogit.api.ObjectId;
+
+import com.google.common.base.Throwables;
+import com.ning.compress.lzf.LZFOutputStream;
+
+/**
+ * Binary deltas between the serialized forms of two versions of a feature, used by
+ * {@link AbstractObjectDatabase} to store {@link DeltaCandidate delta candidates} as a patch
+ * against their base version.
+ * <p>
+ * A delta is a sequence of copy operations, that take a range of the base, and insert operations,
+ * that carry new bytes. Since the serialized values of a feature follow each other, and geometry
+ * coordinates are delta encoded, changing a few attributes or vertices of a feature only changes
+ * a few ranges of its serialized form, and the delta is the size of the changes rather than the
+ * size of the feature.
+ * <p>
+ * A delta stored in an object database has the following layout:
+ *
+ * <pre>
+ * <code>
+ * record = magic depth baseId lzf(delta)
+ * magic  = "GD"
+ * depth  = unsigned byte (length of the delta chain up to a full object)
+ * baseId = 20 bytes
+ * delta  = baseSize targetSize *op
+ * op     = (int(length &lt;&lt; 1 | 0) bytes) | (int(length &lt;&lt; 1 | 1) int(baseOffset))
+ * </code>
+ * </pre>
+ *
+ * The magic bytes differ from the ones that start an LZF chunk, so deltas and full objects can be
+ * told apart by their first two bytes.
+ */
+public final class FeatureDeltas {
+
+    /**
+     * Config key of the flag that enables storing modified features as deltas when committing
+     */
+    public static final String DELTAS_ENABLED = "deltas.enabled";
+
+    /**
+     * Maximum number of deltas to apply to reconstruct a feature, once reached the feature is
+     * stored in full
+     */
+    static final int MAX_CHAIN_LENGTH = 8;
+
+    static final byte[] MAGIC = { 'G', 'D' };
+
+    /**
+     * Size of the base blocks indexed to find matches, also the minimum length of a copy
+     */
+    private static final int BLOCK = 16;
+
+    private FeatureDeltas() {
+        // utility class
+    }
+
+    static boolean isDelta(byte[] header, int length) {
+        return length == MAGIC.length && header[0] == MAGIC[0] && header[1] == MAGIC[1];
+    }
+
+    /**
+     * Writes a delta record to {@code out}
+     */
+    static void writeRecord(int depth, ObjectId baseId, byte[] delta, OutputStream out) {
+        try {
+            out.write(MAGIC);
+            out.write(depth);
+            out.write(baseId.getRawValue());
+            LZFOutputStream cOut = new LZFOutputStream(out);
+            cOut.write(delta);
+            cOut.flush();
+            cOut.close();
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Computes the delta that turns {@code base} into {@code target}
+     */
+    static byte[] diff(final byte[] base, final byte[] target) {
+        Map<Integer, Integer> index = new HashMap<Integer, Integer>();
+        for (int offset = 0; offset + BLOCK <= base.length; offset += BLOCK) {
+            Integer hash = Integer.valueOf(hash(base, offset));
+            if (!index.containsKey(hash)) {
+                index.put(hash, Integer.valueOf(offset));
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(base.length);
+            out.writeInt(target.length);
+            int pending = 0;// start of the bytes not yet copied or inserted
+            int i = 0;
+            while (i + BLOCK <= target.length) {
+                Integer match = index.get(Integer.valueOf(hash(target, i)));
+                if (match == null || !equal(base, match.intValue(), target, i, BLOCK)) {
+                    i++;
+                    continue;
+                }
+                int baseStart = match.intValue();
+                int targetStart = i;
+                // extend the match backwards over the pending bytes, and forwards
+                while (targetStart > pending && baseStart > 0
+                        && base[baseStart - 1] == target[targetStart - 1]) {
+                    baseStart--;
+                    targetStart--;
+                }
+                int length = i - targetStart + BLOCK;
+                while (targetStart + length < target.length && baseStart + length < base.length
+                        && base[baseStart + length] == target[targetStart + length]) {
+                    length++;
+                }
+                insert(out, target, pending, targetStart - pending);
+                out.writeInt(length << 1 | 1);
+                out.writeInt(baseStart);
+                i = pending = targetStart + length;
+            }
+            insert(out, target, pending, target.length - pending);
+            out.flush();
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Applies a delta computed by {@link #diff} to its base
+     */
+    static byte[] patch(final byte[] base, final byte[] delta) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(delta));
+        final int baseSize = in.readInt();
+        final int targetSize = in.readInt();
+        if (baseSize != base.length) {
+            throw new IOException("Delta base size mismatch, expected " + baseSize + ", got "
+                    + base.length);
+        }
+        final byte[] target = new byte[targetSize];
+        int position = 0;
+        while (position < targetSize) {
+            final int op = in.readInt();
+            final int length = op >>> 1;
+            if (position + length > targetSize) {
+                throw new IOException("Delta overflows the target size");
+            }
+            if ((op & 1) == 0) {
+                in.readFully(target, position, length);
+            } else {
+                final int offset = in.readInt();
+                if (offset < 0 || offset + length > baseSize) {
+                    throw new IOException("Delta copy out of the base bounds");
+                }
+                System.arraycopy(base, offset, target, position, length);
+            }
+            position += length;
+        }
+        return target;
+    }
+
+    private static void insert(DataOutputStream out, byte[] target, int offset, int length)
+            throws IOException {
+        if (length > 0) {
+            out.writeInt(length << 1);
+            out.write(target, offset, length);
+        }
+    }
+
+    private static int hash(byte[] data, int offset) {
+        int hash = 1;
+        for (int i = offset; i < offset + BLOCK; i++) {
+            hash = 31 * hash + data[i];
+        }
+        return hash;
+    }
+
+    private static boolean equal(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[aOffset + i] != b[bOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
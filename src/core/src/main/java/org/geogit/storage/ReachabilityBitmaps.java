@@ -0,0 +1,810 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.Bucket;
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.Platform;
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevObject;
+import org.geogit.api.RevTree;
+import org.geogit.storage.memory.ObjectIdMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+
+/**
+ * Precomputed, {@link CompressedBitmap compressed} bitmaps of the objects reachable from selected
+ * commits, kept in the {@code bitmap-objects} and {@code bitmaps} files of the repository
+ * directory so the objects to send to a remote can be computed with bitmap operations instead of
+ * walking every tree of the commits involved.
+ * <p>
+ * Each object gets a position the first time it's seen, and the {@code bitmap-objects} file holds
+ * the ids of the objects in position order. Positions are assigned in post order, after the
+ * positions of all the objects the object points to, so iterating over a bitmap returns trees
+ * after their contents and commits after their trees, as {@code PostOrderIterator} does.
+ * <p>
+ * The bitmap of a commit has the bits of the commit and all the contents of its tree set, but not
+ * the ones of its ancestors, matching what is sent for a commit when commits are not traversed.
+ * The {@code bitmaps} file is a sequence of commit id and bitmap pairs.
+ * <p>
+ * The file layouts are:
+ *
+ * <pre>
+ * <code>
+ * bitmap-objects = "GGBO" version *id[20]
+ * bitmaps        = "GGBM" version *(id[20] length[4] bitmap)
+ * </code>
+ * </pre>
+ *
+ * Where {@code bitmap} is in the format written by {@link CompressedBitmap#writeTo}.
+ * <p>
+ * The files are shared with the other processes using the repository through
+ * {@link AppendOnlyFiles}. If another process changed them since they were loaded, they are
+ * loaded again before flushing, and the bitmaps added since the last flush are translated to the
+ * positions of the reloaded objects.
+ * <p>
+ * Only {@link #add(ObjectId, ObjectDatabase) adding} bitmaps assigns positions and writes to the
+ * files. The objects to send to a remote are computed from a {@link #snapshot() snapshot} of the
+ * bitmaps and positions as of the last load or flush, so serving a fetch neither waits for
+ * bitmaps being added nor changes the bitmaps.
+ */
+public class ReachabilityBitmaps {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReachabilityBitmaps.class);
+
+    static final String OBJECTS_FILE_NAME = "bitmap-objects";
+
+    static final String FILE_NAME = "bitmaps";
+
+    private static final String LOCK_FILE_NAME = "bitmaps.lock";
+
+    private static final byte[] OBJECTS_MAGIC = { 'G', 'G', 'B', 'O' };
+
+    private static final byte[] MAGIC = { 'G', 'G', 'B', 'M' };
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 8;
+
+    private static final int CHUNK_SHIFT = 16;
+
+    /**
+     * The number of object ids per chunk of {@link #ids}
+     */
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    private final RepositoryDirectory directory;
+
+    private AppendOnlyFiles files;
+
+    private boolean loaded;
+
+    /**
+     * The raw ids of the objects in position order, in chunks of {@link #CHUNK_SIZE} ids so the
+     * byte offsets fit in an int
+     */
+    private byte[][] ids;
+
+    private int objectCount;
+
+    private int flushedObjectCount;
+
+    /**
+     * The positions of the objects as loaded, never changed afterwards so that
+     * {@link Snapshot snapshots} can share them
+     */
+    private ObjectIdMap<Integer> positions;
+
+    /**
+     * The positions assigned since {@link #positions} were loaded
+     */
+    private ObjectIdMap<Integer> assigned;
+
+    private ObjectIdMap<CompressedBitmap> bitmaps;
+
+    private List<ObjectId> unflushed;
+
+    private volatile Snapshot snapshot;
+
+    /**
+     * Creates the bitmaps of the repository of the given platform.
+     */
+    @Inject
+    public ReachabilityBitmaps(Platform platform) {
+        this.directory = new RepositoryDirectory(platform);
+    }
+
+    /**
+     * Creates the bitmaps stored in the given directory, or kept in memory only if it's
+     * {@code null}.
+     */
+    ReachabilityBitmaps(File directory) {
+        this.directory = new RepositoryDirectory(directory);
+        load();
+    }
+
+    private void ensureLoaded() {
+        if (!loaded && directory.resolve()) {
+            load();
+        }
+    }
+
+    private void load() {
+        if (directory.get() == null) {
+            read();
+        } else {
+            try {
+                files().locked(new AppendOnlyFiles.Action() {
+                    @Override
+                    public void run() throws IOException {
+                        read();
+                    }
+                });
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+        loaded = true;
+        publish();
+    }
+
+    private AppendOnlyFiles files() {
+        if (files == null) {
+            files = new AppendOnlyFiles(directory.get(), LOCK_FILE_NAME);
+        }
+        return files;
+    }
+
+    /**
+     * Reads the bitmap files, or sets up empty bitmaps if kept in memory only. Must be called
+     * while holding the lock of the files.
+     */
+    private void read() {
+        ids = new byte[16][];
+        objectCount = flushedObjectCount = 0;
+        positions = new ObjectIdMap<Integer>();
+        assigned = new ObjectIdMap<Integer>();
+        bitmaps = new ObjectIdMap<CompressedBitmap>();
+        unflushed = new ArrayList<ObjectId>();
+        if (directory.get() != null) {
+            try {
+                loadObjects(directory.file(OBJECTS_FILE_NAME));
+                loadBitmaps(directory.file(FILE_NAME));
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+    }
+
+    private static boolean readHeader(RandomAccessFile raf, byte[] expectedMagic)
+            throws IOException {
+        if (raf.length() >= HEADER_SIZE) {
+            byte[] magic = new byte[expectedMagic.length];
+            raf.readFully(magic);
+            if (Arrays.equals(expectedMagic, magic) && raf.readInt() == VERSION) {
+                return true;
+            }
+        }
+        raf.setLength(0);
+        raf.write(expectedMagic);
+        raf.writeInt(VERSION);
+        return false;
+    }
+
+    private void loadObjects(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            final long originalLength = raf.length();
+            if (!readHeader(raf, OBJECTS_MAGIC) && originalLength > 0) {
+                LOGGER.warn("Unrecognized bitmap objects file {}, rebuilding it", file);
+            }
+            final int count = (int) ((raf.length() - HEADER_SIZE) / ObjectId.NUM_BYTES);
+            final long validLength = HEADER_SIZE + (long) count * ObjectId.NUM_BYTES;
+            if (raf.length() != validLength) {
+                // drop a partially written id
+                raf.setLength(validLength);
+            }
+            ensureCapacity(count);
+            for (int chunk = 0; (long) chunk * CHUNK_SIZE < count; chunk++) {
+                final int chunkCount = (int) Math.min(CHUNK_SIZE, count - (long) chunk
+                        * CHUNK_SIZE);
+                raf.readFully(ids[chunk], 0, chunkCount * ObjectId.NUM_BYTES);
+            }
+            objectCount = flushedObjectCount = count;
+            files().loaded(OBJECTS_FILE_NAME, validLength);
+            positions = new ObjectIdMap<Integer>(count);
+            for (int i = 0; i < count; i++) {
+                positions.put(objectAt(i), Integer.valueOf(i));
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void loadBitmaps(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            // bitmaps refer to object positions, drop them along with a rebuilt objects file
+            if (!readHeader(raf, MAGIC) || objectCount == 0) {
+                raf.setLength(HEADER_SIZE);
+                files().loaded(FILE_NAME, HEADER_SIZE);
+                return;
+            }
+            final long length = raf.length();
+            long offset = HEADER_SIZE;
+            byte[] rawId = new byte[ObjectId.NUM_BYTES];
+            while (offset < length) {
+                if (offset + ObjectId.NUM_BYTES + 4 > length) {
+                    break;
+                }
+                raf.readFully(rawId);
+                final int size = raf.readInt();
+                if (size < 0 || offset + ObjectId.NUM_BYTES + 4 + size > length) {
+                    break;
+                }
+                byte[] data = new byte[size];
+                raf.readFully(data);
+                CompressedBitmap bitmap = CompressedBitmap.readFrom(new DataInputStream(
+                        new ByteArrayInputStream(data)));
+                if (bitmap.sizeInBits() > objectCount + 63L) {
+                    // refers to positions lost along with the end of the objects file
+                    break;
+                }
+                bitmaps.put(ObjectId.createNoClone(rawId.clone()), bitmap);
+                offset += ObjectId.NUM_BYTES + 4 + size;
+            }
+            if (offset != length) {
+                LOGGER.warn("Dropping the end of the bitmaps file {} at offset {}", file, offset);
+                raf.setLength(offset);
+            }
+            files().loaded(FILE_NAME, offset);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void ensureCapacity(int count) {
+        final int chunks = (int) ((count + (long) CHUNK_SIZE - 1) >>> CHUNK_SHIFT);
+        if (chunks > ids.length) {
+            ids = Arrays.copyOf(ids, Math.max(chunks, 2 * ids.length));
+        }
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            if (ids[chunk] == null) {
+                ids[chunk] = new byte[CHUNK_SIZE * ObjectId.NUM_BYTES];
+            }
+        }
+    }
+
+    /**
+     * @return the id of the object at the given position
+     */
+    private ObjectId objectAt(int position) {
+        return objectAt(ids, position);
+    }
+
+    private static ObjectId objectAt(byte[][] ids, int position) {
+        final byte[] chunk = ids[position >>> CHUNK_SHIFT];
+        final int offset = (position & (CHUNK_SIZE - 1)) * ObjectId.NUM_BYTES;
+        return ObjectId.createNoClone(Arrays.copyOfRange(chunk, offset, offset
+                + ObjectId.NUM_BYTES));
+    }
+
+    /**
+     * @return the bitmaps and object positions as of the last load or {@link #flush() flush}
+     */
+    public Snapshot snapshot() {
+        Snapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            ensureLoaded();
+            return loaded ? snapshot : Snapshot.EMPTY;
+        }
+    }
+
+    /**
+     * Makes the current bitmaps and positions visible to {@link #snapshot()}. The positions
+     * assigned since the last load are copied, and folded into the loaded ones once they are too
+     * many to copy every time.
+     */
+    private void publish() {
+        if (assigned.size() > positions.size() / 8) {
+            ObjectIdMap<Integer> folded = new ObjectIdMap<Integer>(positions.size()
+                    + assigned.size());
+            folded.putAll(positions);
+            folded.putAll(assigned);
+            positions = folded;
+            assigned = new ObjectIdMap<Integer>();
+        }
+        ObjectIdMap<Integer> assignedCopy = new ObjectIdMap<Integer>(assigned.size());
+        assignedCopy.putAll(assigned);
+        ObjectIdMap<CompressedBitmap> bitmapsCopy = new ObjectIdMap<CompressedBitmap>(
+                bitmaps.size());
+        bitmapsCopy.putAll(bitmaps);
+        snapshot = new Snapshot(ids.clone(), objectCount, positions, assignedCopy, bitmapsCopy);
+    }
+
+    /**
+     * @return the number of objects that have been assigned a position
+     */
+    public synchronized int objectCount() {
+        ensureLoaded();
+        return objectCount;
+    }
+
+    /**
+     * @return the number of commits with a bitmap
+     */
+    public synchronized int size() {
+        ensureLoaded();
+        return loaded ? bitmaps.size() : 0;
+    }
+
+    /**
+     * @return whether the commit has a bitmap
+     */
+    public synchronized boolean contains(ObjectId commitId) {
+        ensureLoaded();
+        return loaded && bitmaps.containsKey(commitId);
+    }
+
+    /**
+     * @return the bitmap of the given commit, if it has one
+     */
+    public synchronized Optional<CompressedBitmap> get(ObjectId commitId) {
+        ensureLoaded();
+        return loaded ? Optional.fromNullable(bitmaps.get(commitId)) : Optional
+                .<CompressedBitmap> absent();
+    }
+
+    /**
+     * Computes and keeps the bitmap of the given commit, walking its whole tree. The objects seen
+     * for the first time are assigned positions; the bitmap and the positions are visible to
+     * {@link #snapshot() snapshots} once {@link #flush() flushed}.
+     *
+     * @return {@code false} if the commit already had a bitmap or is not in the database
+     */
+    public synchronized boolean add(ObjectId commitId, ObjectDatabase database) {
+        ensureLoaded();
+        if (!loaded || bitmaps.containsKey(commitId)) {
+            return false;
+        }
+        RevObject commit = database.getIfPresent(commitId);
+        if (!(commit instanceof RevCommit)) {
+            return false;
+        }
+        BitSet bits = new BitSet();
+        new Walk(database) {
+            @Override
+            int position(ObjectId id) {
+                return ReachabilityBitmaps.this.position(id);
+            }
+
+            @Override
+            int positionToSet(ObjectId id) {
+                return assign(id);
+            }
+
+            @Override
+            CompressedBitmap bitmap(ObjectId id) {
+                return bitmaps.get(id);
+            }
+        }.addObject(commit, bits, bits);
+        bitmaps.put(commitId, CompressedBitmap.of(bits));
+        unflushed.add(commitId);
+        return true;
+    }
+
+    private int position(ObjectId id) {
+        Integer position = positions.get(id);
+        if (position == null) {
+            position = assigned.get(id);
+        }
+        return position == null ? -1 : position.intValue();
+    }
+
+    private int assign(ObjectId id) {
+        int position = position(id);
+        if (position < 0) {
+            Preconditions.checkState(objectCount < Integer.MAX_VALUE, "Too many objects");
+            position = objectCount;
+            ensureCapacity(objectCount + 1);
+            System.arraycopy(id.getRawValue(), 0, ids[position >>> CHUNK_SHIFT],
+                    (position & (CHUNK_SIZE - 1)) * ObjectId.NUM_BYTES, ObjectId.NUM_BYTES);
+            assigned.put(id, Integer.valueOf(position));
+            objectCount++;
+        }
+        return position;
+    }
+
+    /**
+     * Sets the bits of the positions of objects and everything they point to but commit parents,
+     * against a set of positions and bitmaps. Objects with no position are walked but their own
+     * bit is not set.
+     */
+    private abstract static class Walk {
+
+        private final ObjectDatabase database;
+
+        Walk(ObjectDatabase database) {
+            this.database = database;
+        }
+
+        /**
+         * @return the position of the object, or {@code -1} if it has none
+         */
+        abstract int position(ObjectId id);
+
+        /**
+         * @return the position of an object whose bit is to be set, or {@code -1} if it has none
+         */
+        abstract int positionToSet(ObjectId id);
+
+        @Nullable
+        abstract CompressedBitmap bitmap(ObjectId id);
+
+        void addObject(ObjectId id, BitSet seen, BitSet added) {
+            final int position = position(id);
+            if (position >= 0 && seen.get(position)) {
+                return;
+            }
+            CompressedBitmap bitmap = bitmap(id);
+            if (bitmap != null) {
+                bitmap.or(seen);
+                if (added != seen) {
+                    bitmap.or(added);
+                }
+                return;
+            }
+            RevObject object = database.getIfPresent(id);
+            if (object != null) {
+                addObject(object, seen, added);
+            }
+        }
+
+        /**
+         * Keeps {@code seen} closed: an object's bit is only set once the ones of its contents
+         * are.
+         */
+        void addObject(RevObject object, BitSet seen, BitSet added) {
+            if (object instanceof RevCommit) {
+                addObject(((RevCommit) object).getTreeId(), seen, added);
+            } else if (object instanceof RevTree) {
+                addContents((RevTree) object, seen, added);
+            }
+            set(positionToSet(object.getId()), seen, added);
+        }
+
+        private void addContents(RevTree tree, BitSet seen, BitSet added) {
+            List<ObjectId> subtrees = new ArrayList<ObjectId>();
+            if (tree.trees().isPresent()) {
+                for (Node n : tree.trees().get()) {
+                    addMetadata(n, seen, added);
+                    addIfUnseen(n.getObjectId(), seen, subtrees);
+                }
+            }
+            if (tree.buckets().isPresent()) {
+                for (Bucket b : tree.buckets().get().values()) {
+                    addIfUnseen(b.id(), seen, subtrees);
+                }
+            }
+            if (!subtrees.isEmpty()) {
+                Map<ObjectId, RevObject> fetched = new ObjectIdMap<RevObject>(subtrees.size());
+                Iterator<RevObject> it = database.getAll(subtrees);
+                while (it.hasNext()) {
+                    RevObject o = it.next();
+                    fetched.put(o.getId(), o);
+                }
+                for (ObjectId id : subtrees) {
+                    RevObject subtree = fetched.get(id);
+                    final int position = position(id);
+                    if (subtree != null && (position < 0 || !seen.get(position))) {
+                        addObject(subtree, seen, added);
+                    }
+                }
+            }
+            if (tree.features().isPresent()) {
+                for (Node n : tree.features().get()) {
+                    addMetadata(n, seen, added);
+                    set(positionToSet(n.getObjectId()), seen, added);
+                }
+            }
+        }
+
+        private void addMetadata(Node node, BitSet seen, BitSet added) {
+            if (node.getMetadataId().isPresent()) {
+                set(positionToSet(node.getMetadataId().get()), seen, added);
+            }
+        }
+
+        private void addIfUnseen(ObjectId id, BitSet seen, List<ObjectId> ids) {
+            final int position = position(id);
+            if (position < 0 || !seen.get(position)) {
+                ids.add(id);
+            }
+        }
+
+        private static void set(int position, BitSet seen, BitSet added) {
+            if (position < 0) {
+                return;
+            }
+            // objects seen through the other end's side are cleared from the result afterwards
+            seen.set(position);
+            added.set(position);
+        }
+    }
+
+    /**
+     * An immutable view of the bitmaps and object positions as of a load or flush, safe to use
+     * without holding the lock of the {@link ReachabilityBitmaps} it was taken from.
+     */
+    public static final class Snapshot {
+
+        static final Snapshot EMPTY = new Snapshot(new byte[0][], 0, new ObjectIdMap<Integer>(),
+                new ObjectIdMap<Integer>(), new ObjectIdMap<CompressedBitmap>());
+
+        private final byte[][] ids;
+
+        private final int objectCount;
+
+        private final ObjectIdMap<Integer> positions;
+
+        private final ObjectIdMap<Integer> assigned;
+
+        private final ObjectIdMap<CompressedBitmap> bitmaps;
+
+        Snapshot(byte[][] ids, int objectCount, ObjectIdMap<Integer> positions,
+                ObjectIdMap<Integer> assigned, ObjectIdMap<CompressedBitmap> bitmaps) {
+            this.ids = ids;
+            this.objectCount = objectCount;
+            this.positions = positions;
+            this.assigned = assigned;
+            this.bitmaps = bitmaps;
+        }
+
+        /**
+         * @return the number of commits with a bitmap
+         */
+        public int size() {
+            return bitmaps.size();
+        }
+
+        /**
+         * @return the number of objects that have a position
+         */
+        public int objectCount() {
+            return objectCount;
+        }
+
+        /**
+         * @return a value that differs between snapshots with different bitmaps or positions, so
+         *         that {@link #difference} may return different positions for the same request
+         */
+        public long generation() {
+            return ((long) bitmaps.size() << 32) | objectCount;
+        }
+
+        /**
+         * @return whether the commit has a bitmap
+         */
+        public boolean contains(ObjectId commitId) {
+            return bitmaps.containsKey(commitId);
+        }
+
+        /**
+         * @return the id of the object at the given position
+         */
+        public ObjectId objectAt(int position) {
+            Preconditions.checkElementIndex(position, objectCount);
+            return ReachabilityBitmaps.objectAt(ids, position);
+        }
+
+        /**
+         * @return the ids of the objects with bits set in the given bit set, in position order
+         */
+        public Iterator<ObjectId> objects(final BitSet bits) {
+            return new AbstractIterator<ObjectId>() {
+                int next = bits.nextSetBit(0);
+
+                @Override
+                protected ObjectId computeNext() {
+                    if (next < 0) {
+                        return endOfData();
+                    }
+                    ObjectId id = objectAt(next);
+                    next = bits.nextSetBit(next + 1);
+                    return id;
+                }
+            };
+        }
+
+        private int position(ObjectId id) {
+            Integer position = positions.get(id);
+            if (position == null) {
+                position = assigned.get(id);
+            }
+            return position == null || position.intValue() >= objectCount ? -1 : position
+                    .intValue();
+        }
+
+        /**
+         * Computes the objects to send to a repository that has the {@code have} objects so that
+         * it gets the {@code want} commits that have a bitmap, the same way
+         * {@code PostOrderIterator.range} does when commits are not traversed: the commits and the
+         * contents of their trees, minus the ones of the objects the other end has.
+         * <p>
+         * Wanted objects with no bitmap are ignored, the caller has to walk them. The bitmaps of
+         * the {@code have} commits that have one are used as they are; the trees of the others
+         * are walked, skipping the subtrees already known to be on the other end. Unknown
+         * {@code have} objects are ignored.
+         *
+         * @return the positions of the objects to send
+         */
+        public BitSet difference(List<ObjectId> want, List<ObjectId> have,
+                ObjectDatabase database) {
+            Walk walk = new Walk(database) {
+                @Override
+                int position(ObjectId id) {
+                    return Snapshot.this.position(id);
+                }
+
+                @Override
+                int positionToSet(ObjectId id) {
+                    return Snapshot.this.position(id);
+                }
+
+                @Override
+                CompressedBitmap bitmap(ObjectId id) {
+                    return bitmaps.get(id);
+                }
+            };
+            BitSet haves = new BitSet(objectCount);
+            for (ObjectId id : have) {
+                walk.addObject(id, haves, haves);
+            }
+            BitSet send = new BitSet(objectCount);
+            for (ObjectId id : want) {
+                CompressedBitmap bitmap = bitmaps.get(id);
+                if (bitmap != null) {
+                    bitmap.or(send);
+                }
+            }
+            send.andNot(haves);
+            return send;
+        }
+    }
+
+    /**
+     * Appends the object positions assigned and the bitmaps added since the last flush to the
+     * bitmap files.
+     */
+    public synchronized void flush() {
+        if (!loaded) {
+            return;
+        }
+        if (directory.get() != null) {
+            try {
+                files.locked(new AppendOnlyFiles.Action() {
+                    @Override
+                    public void run() throws IOException {
+                        if (!files.isCurrent()) {
+                            LOGGER.debug("Bitmaps changed by another process, reloading them");
+                            reload();
+                        }
+                        append();
+                    }
+                });
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+        publish();
+    }
+
+    /**
+     * Reads the bitmap files again and adds the bitmaps added since the last flush on top of them,
+     * with the objects that are new to the files assigned positions in the same relative order.
+     * The other positions assigned since the last flush are dropped. Must be called while holding
+     * the lock of the files.
+     */
+    private void reload() {
+        Map<ObjectId, List<ObjectId>> unflushedObjects = Maps.newLinkedHashMap();
+        for (ObjectId commitId : unflushed) {
+            BitSet bits = bitmaps.get(commitId).toBitSet();
+            List<ObjectId> objects = new ArrayList<ObjectId>(bits.cardinality());
+            for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+                objects.add(objectAt(i));
+            }
+            unflushedObjects.put(commitId, objects);
+        }
+        read();
+        for (Entry<ObjectId, List<ObjectId>> entry : unflushedObjects.entrySet()) {
+            if (bitmaps.containsKey(entry.getKey())) {
+                continue;
+            }
+            BitSet bits = new BitSet();
+            for (ObjectId id : entry.getValue()) {
+                bits.set(assign(id));
+            }
+            bitmaps.put(entry.getKey(), CompressedBitmap.of(bits));
+            unflushed.add(entry.getKey());
+        }
+    }
+
+    /**
+     * Appends the positions and bitmaps added since the last flush. Must be called while holding
+     * the lock of the files, and only if they are current.
+     */
+    private void append() throws IOException {
+        // objects first, so bitmaps never refer to missing positions
+        while (flushedObjectCount < objectCount) {
+            final int chunk = flushedObjectCount >>> CHUNK_SHIFT;
+            final int first = flushedObjectCount & (CHUNK_SIZE - 1);
+            final int count = Math.min(CHUNK_SIZE - first, objectCount - flushedObjectCount);
+            files.append(OBJECTS_FILE_NAME, ids[chunk], first * ObjectId.NUM_BYTES, count
+                    * ObjectId.NUM_BYTES);
+            flushedObjectCount += count;
+        }
+        if (!unflushed.isEmpty()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            for (ObjectId id : unflushed) {
+                CompressedBitmap bitmap = bitmaps.get(id);
+                out.write(id.getRawValue());
+                out.writeInt(12 + bitmap.sizeInBytes());
+                bitmap.writeTo(out);
+            }
+            out.flush();
+            files.append(FILE_NAME, bytes.toByteArray(), 0, bytes.size());
+            unflushed.clear();
+        }
+    }
+
+    /**
+     * Removes all the bitmaps and object positions and deletes their files.
+     */
+    public synchronized void clear() {
+        if (directory.get() != null) {
+            try {
+                files().locked(new AppendOnlyFiles.Action() {
+                    @Override
+                    public void run() {
+                        files.delete(OBJECTS_FILE_NAME, FILE_NAME);
+                    }
+                });
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+        loaded = false;
+        snapshot = null;
+    }
+}
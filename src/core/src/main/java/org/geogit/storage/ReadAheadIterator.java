@@ -0,0 +1,164 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject;
+import org.geogit.storage.memory.ObjectIdMap;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Resolves the objects for a sequence of ids, in the same order, by fetching them in batches
+ * through {@link ObjectDatabase#getAll(Iterable)} instead of one by one.
+ * <p>
+ * The first batch is fetched on the calling thread; from then on, unless read ahead is disabled,
+ * the next batch is fetched in the background while the current one is being consumed, so at most
+ * two batches are held in memory. The ids iterator is always consumed on the calling thread, so it
+ * doesn't need to be thread safe, but the object database shall support concurrent reads.
+ * <p>
+ * Ids not returned by {@code getAll} are looked up individually, so a missing object fails the
+ * same way {@link ObjectDatabase#get(ObjectId, Class)} does.
+ */
+public class ReadAheadIterator<T extends RevObject> extends AbstractIterator<T> {
+
+    /**
+     * Default number of ids to resolve per {@code getAll} call
+     */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    private static final ExecutorService EXECUTOR = Executors
+            .newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true)
+                    .setNameFormat("geogit-read-ahead-%d").build());
+
+    private final ObjectDatabase db;
+
+    private final Iterator<ObjectId> ids;
+
+    private final Class<T> type;
+
+    private final int batchSize;
+
+    private final boolean readAhead;
+
+    private Iterator<T> current = Collections.<T> emptyList().iterator();
+
+    @Nullable
+    private Future<List<T>> next;
+
+    public ReadAheadIterator(final ObjectDatabase db, final Iterator<ObjectId> ids,
+            final Class<T> type) {
+        this(db, ids, type, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param db the database to fetch the objects from
+     * @param ids the ids of the objects to return, in the order to return them
+     * @param type the type of the objects
+     * @param batchSize the number of ids to resolve per {@code getAll} call
+     */
+    public ReadAheadIterator(final ObjectDatabase db, final Iterator<ObjectId> ids,
+            final Class<T> type, final int batchSize) {
+        this(db, ids, type, batchSize, true);
+    }
+
+    /**
+     * @param db the database to fetch the objects from
+     * @param ids the ids of the objects to return, in the order to return them
+     * @param type the type of the objects
+     * @param batchSize the number of ids to resolve per {@code getAll} call
+     * @param readAhead whether to fetch the next batch in the background, or only fetch batches
+     *        on the calling thread as they are needed
+     */
+    public ReadAheadIterator(final ObjectDatabase db, final Iterator<ObjectId> ids,
+            final Class<T> type, final int batchSize, final boolean readAhead) {
+        checkNotNull(db);
+        checkNotNull(ids);
+        checkNotNull(type);
+        checkArgument(batchSize > 0, "batchSize shall be > 0");
+        this.db = db;
+        this.ids = ids;
+        this.type = type;
+        this.batchSize = batchSize;
+        this.readAhead = readAhead;
+    }
+
+    @Override
+    protected T computeNext() {
+        while (!current.hasNext()) {
+            final List<T> batch;
+            if (next != null) {
+                batch = await(next);
+                next = null;
+            } else if (ids.hasNext()) {
+                batch = resolve(nextIds());
+            } else {
+                return endOfData();
+            }
+            if (readAhead && ids.hasNext()) {
+                final List<ObjectId> ahead = nextIds();
+                next = EXECUTOR.submit(new Callable<List<T>>() {
+                    @Override
+                    public List<T> call() {
+                        return resolve(ahead);
+                    }
+                });
+            }
+            current = batch.iterator();
+        }
+        return current.next();
+    }
+
+    private List<ObjectId> nextIds() {
+        List<ObjectId> batch = new ArrayList<ObjectId>(batchSize);
+        while (batch.size() < batchSize && ids.hasNext()) {
+            batch.add(ids.next());
+        }
+        return batch;
+    }
+
+    private List<T> await(Future<List<T>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    private List<T> resolve(final List<ObjectId> batch) {
+        final ObjectIdMap<RevObject> found = new ObjectIdMap<RevObject>(batch.size());
+        Iterator<RevObject> objects = db.getAll(batch);
+        while (objects.hasNext()) {
+            RevObject object = objects.next();
+            found.put(object.getId(), object);
+        }
+        List<T> resolved = new ArrayList<T>(batch.size());
+        for (ObjectId id : batch) {
+            RevObject object = found.get(id);
+            resolved.add(object == null ? db.get(id, type) : type.cast(object));
+        }
+        return resolved;
+    }
+}
@@ -0,0 +1,96 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.net.URL;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.Platform;
+import org.geogit.api.plumbing.ResolveGeogitDir;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+
+/**
+ * The directory of the files of an index or cache kept next to the repository databases, like the
+ * {@link CommitGraph}, the {@link ReachabilityBitmaps} and the {@link DiffSummaryCache}.
+ * <p>
+ * Such indexes are bound to the {@link Platform} before the repository may exist, so the
+ * directory of the repository is resolved on first use, and until there is a repository the
+ * index has nowhere to keep its files and resolving is tried again on next use. Indexes created
+ * for a given directory, or for none at all to keep them in memory only, don't wait for a
+ * repository.
+ */
+class RepositoryDirectory {
+
+    @Nullable
+    private final Platform platform;
+
+    @Nullable
+    private File directory;
+
+    private boolean resolved;
+
+    /**
+     * @param platform the platform to resolve the directory of the repository from on first use
+     */
+    RepositoryDirectory(Platform platform) {
+        Preconditions.checkNotNull(platform);
+        this.platform = platform;
+    }
+
+    /**
+     * @param directory the directory of the files, or {@code null} to keep them in memory only
+     */
+    RepositoryDirectory(@Nullable File directory) {
+        this.platform = null;
+        this.directory = directory;
+        this.resolved = true;
+    }
+
+    /**
+     * Resolves the directory of the repository, unless already done.
+     *
+     * @return {@code false} if there is no repository yet, so resolving is to be tried again on
+     *         next use
+     */
+    boolean resolve() {
+        if (!resolved) {
+            Optional<URL> repoUrl = new ResolveGeogitDir(platform).call();
+            if (!repoUrl.isPresent()) {
+                return false;
+            }
+            try {
+                directory = new File(repoUrl.get().toURI());
+            } catch (URISyntaxException e) {
+                throw Throwables.propagate(e);
+            }
+            resolved = true;
+        }
+        return true;
+    }
+
+    /**
+     * @return the directory, or {@code null} if the files are kept in memory only or the
+     *         directory is not {@link #resolve() resolved} yet
+     */
+    @Nullable
+    File get() {
+        return directory;
+    }
+
+    /**
+     * @return the file of the given name in the directory, or {@code null} if the files are kept
+     *         in memory only or the directory is not {@link #resolve() resolved} yet
+     */
+    @Nullable
+    File file(String fileName) {
+        return directory == null ? null : new File(directory, fileName);
+    }
+}
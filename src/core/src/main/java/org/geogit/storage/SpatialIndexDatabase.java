@@ -0,0 +1,276 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.Platform;
+import org.geogit.api.plumbing.ResolveGeogitDir;
+import org.geogit.repository.SpatialIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Sets;
+import com.google.common.io.Closeables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+
+/**
+ * Stores the {@link SpatialIndex spatial indexes} of feature type trees, keyed by tree id.
+ * <p>
+ * Indexes are kept in a bounded in-memory cache, and persisted as one file per tree under the
+ * {@code spatial_index} directory of the repository, if the repository lives in the file system.
+ * Being keyed by immutable tree ids, index files never need to be updated, only created, and the
+ * ones of trees no longer in use are deleted through {@link #retainAll(Set, long)}. The last time
+ * an index was used is recorded as the modification time of its file, so the indexes of trees
+ * only reachable from past commits, that queries still ask for, can be kept.
+ * <p>
+ * Indexes can be {@link #buildInBackground built in the background}, one at a time, so the
+ * threads running queries don't wait for them.
+ */
+public class SpatialIndexDatabase {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SpatialIndexDatabase.class);
+
+    private static final String INDEX_DIR = "spatial_index";
+
+    /**
+     * Max number of indexed nodes to keep in memory, over all the cached indexes
+     */
+    private static final long MAX_CACHED_NODES = 2 * 1000 * 1000;
+
+    /**
+     * Resolution of the recorded last use time of the indexes, so that querying an index doesn't
+     * touch its file every time
+     */
+    private static final long USE_RESOLUTION_MILLIS = 60 * 60 * 1000;
+
+    private static final ExecutorService BUILD_EXECUTOR = Executors
+            .newSingleThreadExecutor(new ThreadFactoryBuilder().setDaemon(true)
+                    .setNameFormat("geogit-spatial-index-%d").build());
+
+    private final Platform platform;
+
+    private final Cache<ObjectId, SpatialIndex> cache;
+
+    /**
+     * The trees whose index is being built in the background
+     */
+    private final Set<ObjectId> building = Sets.newConcurrentHashSet();
+
+    /**
+     * The last recorded use time of the indexes used by this process
+     */
+    private final ConcurrentMap<ObjectId, Long> lastUsed = new ConcurrentHashMap<ObjectId, Long>();
+
+    @Inject
+    public SpatialIndexDatabase(final Platform platform) {
+        checkNotNull(platform);
+        this.platform = platform;
+        this.cache = CacheBuilder.newBuilder().maximumWeight(MAX_CACHED_NODES)
+                .weigher(new Weigher<ObjectId, SpatialIndex>() {
+                    @Override
+                    public int weigh(ObjectId key, SpatialIndex value) {
+                        return 1 + value.size();
+                    }
+                }).build();
+    }
+
+    /**
+     * @return the index for the given tree, if it was already built
+     */
+    public Optional<SpatialIndex> get(final ObjectId treeId) {
+        SpatialIndex index = cache.getIfPresent(treeId);
+        final File file = indexFile(treeId);
+        if (index == null && file != null && file.exists()) {
+            index = read(file);
+            cache.put(treeId, index);
+        }
+        if (index != null) {
+            used(treeId, file);
+        }
+        return Optional.fromNullable(index);
+    }
+
+    /**
+     * Records that the index of the given tree is in use, at most once per
+     * {@link #USE_RESOLUTION_MILLIS}
+     */
+    private void used(final ObjectId treeId, @Nullable final File file) {
+        final long now = platform.currentTimeMillis();
+        final Long last = lastUsed.get(treeId);
+        if (last != null && now - last.longValue() < USE_RESOLUTION_MILLIS) {
+            return;
+        }
+        lastUsed.put(treeId, Long.valueOf(now));
+        if (file != null && !file.setLastModified(now)) {
+            LOGGER.debug("Unable to record the use of spatial index {}", file);
+        }
+    }
+
+    /**
+     * Stores the index, replacing any other index for the same tree
+     */
+    public void put(final SpatialIndex index) {
+        cache.put(index.getTreeId(), index);
+        lastUsed.put(index.getTreeId(), Long.valueOf(platform.currentTimeMillis()));
+        File file = indexFile(index.getTreeId());
+        if (file != null) {
+            try {
+                write(index, file);
+            } catch (IOException e) {
+                // the index is still usable from the cache, and will be rebuilt otherwise
+                LOGGER.warn("Unable to save spatial index " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Runs the task building the index of the given tree on a background thread, unless the index
+     * of the same tree is already being built. Errors are logged.
+     *
+     * @return whether the task was scheduled
+     */
+    public boolean buildInBackground(final ObjectId treeId, final Runnable build) {
+        if (!building.add(treeId)) {
+            return false;
+        }
+        BUILD_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    build.run();
+                } catch (RuntimeException e) {
+                    LOGGER.warn("Error building the spatial index of tree " + treeId, e);
+                } finally {
+                    building.remove(treeId);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Deletes the indexes of all the trees but the given ones and the ones used after
+     * {@code usedAfter}
+     *
+     * @param usedAfter the time, in milliseconds since the epoch, after which an index must have
+     *        been used to be kept regardless of its tree
+     * @return the number of index files deleted
+     */
+    public int retainAll(final Set<ObjectId> treeIds, final long usedAfter) {
+        for (ObjectId cached : cache.asMap().keySet()) {
+            Long used = lastUsed.get(cached);
+            if (!treeIds.contains(cached) && (used == null || used.longValue() <= usedAfter)) {
+                cache.invalidate(cached);
+                lastUsed.remove(cached);
+            }
+        }
+        File indexDir = indexDir();
+        File[] files = indexDir == null ? null : indexDir.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        int deleted = 0;
+        for (File file : files) {
+            final String name = file.getName();
+            if (name.length() != 2 * ObjectId.NUM_BYTES) {
+                // temp file of an index being written
+                continue;
+            }
+            final ObjectId treeId;
+            try {
+                treeId = ObjectId.valueOf(name);
+            } catch (IllegalArgumentException notAnIndex) {
+                continue;
+            }
+            if (treeIds.contains(treeId) || file.lastModified() > usedAfter) {
+                continue;
+            }
+            if (file.delete()) {
+                cache.invalidate(treeId);
+                lastUsed.remove(treeId);
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    @Nullable
+    private File indexFile(final ObjectId treeId) {
+        File indexDir = indexDir();
+        return indexDir == null ? null : new File(indexDir, treeId.toString());
+    }
+
+    @Nullable
+    private File indexDir() {
+        Optional<URL> repoUrl = new ResolveGeogitDir(platform).call();
+        if (!repoUrl.isPresent() || !"file".equals(repoUrl.get().getProtocol())) {
+            return null;
+        }
+        try {
+            return new File(new File(repoUrl.get().toURI()), INDEX_DIR);
+        } catch (URISyntaxException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private SpatialIndex read(final File file) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            return SpatialIndex.read(in);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+    }
+
+    private void write(final SpatialIndex index, final File file) throws IOException {
+        final File dir = file.getParentFile();
+        if (!dir.exists() && !dir.mkdirs() && !dir.exists()) {
+            throw new IOException("Can't create directory " + dir);
+        }
+        // write to a temp file and rename, so concurrent readers never see a partial index
+        final File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)));
+        try {
+            index.write(out);
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file) && !file.exists()) {
+            tmp.delete();
+            throw new IOException("Can't rename " + tmp + " to " + file);
+        }
+        tmp.delete();
+    }
+}
@@ -0,0 +1,351 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import static org.geogit.storage.datastream.Varints.readSignedVarLong;
+import static org.geogit.storage.datastream.Varints.readUnsignedVarInt;
+import static org.geogit.storage.datastream.Varints.writeSignedVarLong;
+import static org.geogit.storage.datastream.Varints.writeUnsignedVarInt;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequenceFactory;
+
+/**
+ * A compact, lossless binary encoding for 2D geometries.
+ * <p>
+ * Coordinates are written as zig-zag varint deltas to the previous coordinate of the same
+ * geometry, scaled to the smallest number of decimal digits (up to {@link #MAX_DIGITS}) that
+ * represents all of them exactly. Geometries whose coordinates can't be represented exactly that
+ * way are written with full double precision instead, so encoding never changes a value.
+ * <p>
+ * Like the WKB encoding used by the first version of the format, only the X and Y ordinates are
+ * kept. Decoded geometries are backed by packed coordinate sequences, so there's no
+ * {@code Coordinate} object per vertex.
+ */
+final class CompactGeometrySerializer {
+
+    private static final int POINT = 1;
+
+    private static final int LINESTRING = 2;
+
+    private static final int POLYGON = 3;
+
+    private static final int MULTIPOINT = 4;
+
+    private static final int MULTILINESTRING = 5;
+
+    private static final int MULTIPOLYGON = 6;
+
+    private static final int GEOMETRYCOLLECTION = 7;
+
+    private static final int LINEARRING = 8;
+
+    /**
+     * Precision marker for geometries written as raw doubles
+     */
+    private static final int FULL_PRECISION = 0xFF;
+
+    static final int MAX_DIGITS = 9;
+
+    /**
+     * Scaled ordinates are kept below 2^53 so they're exact integers, and their deltas can't
+     * overflow
+     */
+    private static final double MAX_SCALED = 1L << 53;
+
+    private static final double[] SCALES = new double[MAX_DIGITS + 1];
+    static {
+        double scale = 1;
+        for (int i = 0; i <= MAX_DIGITS; i++) {
+            SCALES[i] = scale;
+            scale *= 10;
+        }
+    }
+
+    private static final PackedCoordinateSequenceFactory SEQUENCE_FACTORY = PackedCoordinateSequenceFactory.DOUBLE_FACTORY;
+
+    private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory(SEQUENCE_FACTORY);
+
+    private CompactGeometrySerializer() {
+        // static utility
+    }
+
+    public static void write(final Geometry geom, final DataOutput out) throws IOException {
+        final int digits = precision(geom);
+        out.writeByte(digits);
+        new Encoder(out, digits == FULL_PRECISION ? 0D : SCALES[digits]).write(geom);
+    }
+
+    public static Geometry read(final DataInput in) throws IOException {
+        final int digits = in.readUnsignedByte();
+        if (digits != FULL_PRECISION && digits > MAX_DIGITS) {
+            throw new IOException("Invalid geometry precision: " + digits);
+        }
+        return new Decoder(in, digits == FULL_PRECISION ? 0D : SCALES[digits]).read();
+    }
+
+    /**
+     * @return the smallest number of decimal digits that represent all the coordinates of
+     *         {@code geom} exactly, or {@link #FULL_PRECISION}
+     */
+    private static int precision(final Geometry geom) {
+        List<CoordinateSequence> sequences = new ArrayList<CoordinateSequence>();
+        collect(geom, sequences);
+        int digits = 0;
+        for (CoordinateSequence seq : sequences) {
+            for (int i = 0, n = seq.size(); i < n; i++) {
+                digits = digits(seq.getX(i), digits);
+                digits = digits(seq.getY(i), digits);
+                if (digits == FULL_PRECISION) {
+                    return FULL_PRECISION;
+                }
+            }
+        }
+        // exactness at d digits doesn't imply exactness at d + 1, so verify the final choice
+        for (; digits <= MAX_DIGITS; digits++) {
+            if (fitsAll(sequences, SCALES[digits])) {
+                return digits;
+            }
+        }
+        return FULL_PRECISION;
+    }
+
+    private static int digits(final double ordinate, final int minDigits) {
+        for (int d = minDigits; d <= MAX_DIGITS; d++) {
+            if (fits(ordinate, SCALES[d])) {
+                return d;
+            }
+        }
+        return FULL_PRECISION;
+    }
+
+    private static boolean fitsAll(final List<CoordinateSequence> sequences, final double scale) {
+        for (CoordinateSequence seq : sequences) {
+            for (int i = 0, n = seq.size(); i < n; i++) {
+                if (!fits(seq.getX(i), scale) || !fits(seq.getY(i), scale)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean fits(final double ordinate, final double scale) {
+        final double scaled = ordinate * scale;
+        if (!(Math.abs(scaled) < MAX_SCALED)) {
+            return false;// out of range, or NaN
+        }
+        final double decoded = Math.round(scaled) / scale;
+        return Double.doubleToLongBits(decoded) == Double.doubleToLongBits(ordinate);
+    }
+
+    private static void collect(final Geometry geom, final List<CoordinateSequence> sequences) {
+        if (geom instanceof Point) {
+            sequences.add(((Point) geom).getCoordinateSequence());
+        } else if (geom instanceof LineString) {
+            sequences.add(((LineString) geom).getCoordinateSequence());
+        } else if (geom instanceof Polygon) {
+            Polygon poly = (Polygon) geom;
+            sequences.add(poly.getExteriorRing().getCoordinateSequence());
+            for (int i = 0; i < poly.getNumInteriorRing(); i++) {
+                sequences.add(poly.getInteriorRingN(i).getCoordinateSequence());
+            }
+        } else {
+            for (int i = 0; i < geom.getNumGeometries(); i++) {
+                collect(geom.getGeometryN(i), sequences);
+            }
+        }
+    }
+
+    private static class Encoder {
+
+        private final DataOutput out;
+
+        private final double scale;
+
+        private long prevX, prevY;
+
+        Encoder(DataOutput out, double scale) {
+            this.out = out;
+            this.scale = scale;
+        }
+
+        void write(final Geometry geom) throws IOException {
+            if (geom instanceof Point) {
+                out.writeByte(POINT);
+                write(((Point) geom).getCoordinateSequence());
+            } else if (geom instanceof LinearRing) {
+                out.writeByte(LINEARRING);
+                write(((LinearRing) geom).getCoordinateSequence());
+            } else if (geom instanceof LineString) {
+                out.writeByte(LINESTRING);
+                write(((LineString) geom).getCoordinateSequence());
+            } else if (geom instanceof Polygon) {
+                out.writeByte(POLYGON);
+                writePolygon((Polygon) geom);
+            } else if (geom instanceof GeometryCollection) {
+                out.writeByte(collectionType((GeometryCollection) geom));
+                final int numGeometries = geom.getNumGeometries();
+                writeUnsignedVarInt(numGeometries, out);
+                for (int i = 0; i < numGeometries; i++) {
+                    write(geom.getGeometryN(i));
+                }
+            } else {
+                throw new IllegalArgumentException("Unsupported geometry type: "
+                        + geom.getGeometryType());
+            }
+        }
+
+        private int collectionType(GeometryCollection geom) {
+            if (geom instanceof MultiPoint) {
+                return MULTIPOINT;
+            }
+            if (geom instanceof MultiLineString) {
+                return MULTILINESTRING;
+            }
+            if (geom instanceof MultiPolygon) {
+                return MULTIPOLYGON;
+            }
+            return GEOMETRYCOLLECTION;
+        }
+
+        private void writePolygon(Polygon poly) throws IOException {
+            if (poly.isEmpty()) {
+                writeUnsignedVarInt(0, out);
+                return;
+            }
+            final int numHoles = poly.getNumInteriorRing();
+            writeUnsignedVarInt(1 + numHoles, out);
+            write(poly.getExteriorRing().getCoordinateSequence());
+            for (int i = 0; i < numHoles; i++) {
+                write(poly.getInteriorRingN(i).getCoordinateSequence());
+            }
+        }
+
+        private void write(final CoordinateSequence seq) throws IOException {
+            final int size = seq.size();
+            writeUnsignedVarInt(size, out);
+            for (int i = 0; i < size; i++) {
+                final double x = seq.getX(i);
+                final double y = seq.getY(i);
+                if (scale == 0D) {
+                    out.writeDouble(x);
+                    out.writeDouble(y);
+                } else {
+                    final long sx = Math.round(x * scale);
+                    final long sy = Math.round(y * scale);
+                    writeSignedVarLong(sx - prevX, out);
+                    writeSignedVarLong(sy - prevY, out);
+                    prevX = sx;
+                    prevY = sy;
+                }
+            }
+        }
+    }
+
+    private static class Decoder {
+
+        private final DataInput in;
+
+        private final double scale;
+
+        private long prevX, prevY;
+
+        Decoder(DataInput in, double scale) {
+            this.in = in;
+            this.scale = scale;
+        }
+
+        Geometry read() throws IOException {
+            final int type = in.readUnsignedByte();
+            switch (type) {
+            case POINT:
+                return GEOMETRY_FACTORY.createPoint(readSequence());
+            case LINESTRING:
+                return GEOMETRY_FACTORY.createLineString(readSequence());
+            case LINEARRING:
+                return GEOMETRY_FACTORY.createLinearRing(readSequence());
+            case POLYGON:
+                return readPolygon();
+            case MULTIPOINT: {
+                Point[] points = new Point[readUnsignedVarInt(in)];
+                for (int i = 0; i < points.length; i++) {
+                    points[i] = (Point) read();
+                }
+                return GEOMETRY_FACTORY.createMultiPoint(points);
+            }
+            case MULTILINESTRING: {
+                LineString[] lines = new LineString[readUnsignedVarInt(in)];
+                for (int i = 0; i < lines.length; i++) {
+                    lines[i] = (LineString) read();
+                }
+                return GEOMETRY_FACTORY.createMultiLineString(lines);
+            }
+            case MULTIPOLYGON: {
+                Polygon[] polygons = new Polygon[readUnsignedVarInt(in)];
+                for (int i = 0; i < polygons.length; i++) {
+                    polygons[i] = (Polygon) read();
+                }
+                return GEOMETRY_FACTORY.createMultiPolygon(polygons);
+            }
+            case GEOMETRYCOLLECTION: {
+                Geometry[] geometries = new Geometry[readUnsignedVarInt(in)];
+                for (int i = 0; i < geometries.length; i++) {
+                    geometries[i] = read();
+                }
+                return GEOMETRY_FACTORY.createGeometryCollection(geometries);
+            }
+            default:
+                throw new IOException("Unknown geometry type: " + type);
+            }
+        }
+
+        private Polygon readPolygon() throws IOException {
+            final int numRings = readUnsignedVarInt(in);
+            if (numRings == 0) {
+                return GEOMETRY_FACTORY.createPolygon(null, null);
+            }
+            LinearRing shell = GEOMETRY_FACTORY.createLinearRing(readSequence());
+            LinearRing[] holes = new LinearRing[numRings - 1];
+            for (int i = 0; i < holes.length; i++) {
+                holes[i] = GEOMETRY_FACTORY.createLinearRing(readSequence());
+            }
+            return GEOMETRY_FACTORY.createPolygon(shell, holes);
+        }
+
+        private CoordinateSequence readSequence() throws IOException {
+            final int size = readUnsignedVarInt(in);
+            final double[] ordinates = new double[2 * size];
+            for (int i = 0; i < ordinates.length; i += 2) {
+                if (scale == 0D) {
+                    ordinates[i] = in.readDouble();
+                    ordinates[i + 1] = in.readDouble();
+                } else {
+                    prevX += readSignedVarLong(in);
+                    prevY += readSignedVarLong(in);
+                    ordinates[i] = prevX / scale;
+                    ordinates[i + 1] = prevY / scale;
+                }
+            }
+            return SEQUENCE_FACTORY.create(ordinates, 2);
+        }
+    }
+}
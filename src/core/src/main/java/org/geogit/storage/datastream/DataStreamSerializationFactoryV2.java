@@ -0,0 +1,38 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevObject;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.storage.ObjectWriter;
+
+/**
+ * Second version of the data stream serialization format.
+ * <p>
+ * Features are written with {@link FeatureWriterV2}, which uses a compact, lazily decoded
+ * geometry encoding instead of WKB. All other objects are written as in the first version.
+ * <p>
+ * The readers of both versions understand features in both formats, so repositories written with
+ * the first version keep working, and mixed object databases are fine.
+ */
+public class DataStreamSerializationFactoryV2 extends DataStreamSerializationFactory {
+
+    /**
+     * factory singleton
+     */
+    public static final DataStreamSerializationFactoryV2 INSTANCE = new DataStreamSerializationFactoryV2();
+
+    private final static ObjectWriter<RevFeature> FEATURE_WRITER = new FeatureWriterV2();
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends RevObject> ObjectWriter<T> createObjectWriter(TYPE type) {
+        if (TYPE.FEATURE.equals(type)) {
+            return (ObjectWriter<T>) FEATURE_WRITER;
+        }
+        return super.createObjectWriter(type);
+    }
+}
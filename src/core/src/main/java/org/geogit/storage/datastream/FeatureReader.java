@@ -4,8 +4,11 @@
  */
 package org.geogit.storage.datastream;
 
+import static org.geogit.storage.datastream.FormatCommon.FEATURE_V2_HEADER;
+import static org.geogit.storage.datastream.FormatCommon.NUL;
 import static org.geogit.storage.datastream.FormatCommon.readFeature;
-import static org.geogit.storage.datastream.FormatCommon.requireHeader;
+import static org.geogit.storage.datastream.FormatCommon.readFeatureV2;
+import static org.geogit.storage.datastream.FormatCommon.readToMarker;
 
 import java.io.DataInput;
 import java.io.DataInputStream;
@@ -24,8 +27,14 @@ public class FeatureReader implements ObjectReader<RevFeature> {
     public RevFeature read(ObjectId id, InputStream rawData) throws IllegalArgumentException {
         DataInput in = new DataInputStream(rawData);
         try {
-            requireHeader(in, "feature");
-            return readFeature(id, in);
+            final String header = readToMarker(in, NUL);
+            if ("feature".equals(header)) {
+                return readFeature(id, in);
+            } else if (FEATURE_V2_HEADER.equals(header)) {
+                return readFeatureV2(id, in);
+            }
+            throw new IllegalArgumentException("Expected header feature or " + FEATURE_V2_HEADER
+                    + ", but actually got " + header);
         } catch (IOException e) {
             Throwables.propagate(e);
         }
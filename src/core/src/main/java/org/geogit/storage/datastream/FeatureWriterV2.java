@@ -0,0 +1,70 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import static org.geogit.storage.datastream.FormatCommon.FEATURE_V2_HEADER;
+import static org.geogit.storage.datastream.FormatCommon.isGeometry;
+import static org.geogit.storage.datastream.FormatCommon.writeHeader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.geogit.api.RevFeature;
+import org.geogit.storage.FieldType;
+import org.geogit.storage.ObjectWriter;
+
+import com.google.common.base.Optional;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Writes features in the second version of the format: the value count is a varint, and
+ * geometries are written length prefixed with the {@link CompactGeometrySerializer compact
+ * geometry encoding} instead of WKB, so they can be decoded lazily. All other values are written
+ * as in the first version.
+ * <p>
+ * Geometries of features read in this format and not accessed since are copied as they are,
+ * without decoding them.
+ */
+public class FeatureWriterV2 implements ObjectWriter<RevFeature> {
+
+    @Override
+    public void write(RevFeature feature, OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        writeHeader(data, FEATURE_V2_HEADER);
+        final int size = feature.size();
+        Varints.writeUnsignedVarInt(size, data);
+
+        final LazyRevFeature lazy = feature instanceof LazyRevFeature ? (LazyRevFeature) feature
+                : null;
+        ByteArrayOutputStream geometryBuffer = null;
+        for (int i = 0; i < size; i++) {
+            final byte[] encoded = lazy == null ? null : lazy.encodedGeometry(i);
+            if (encoded != null) {
+                data.writeByte(lazy.fieldType(i).getTag());
+                Varints.writeUnsignedVarInt(encoded.length, data);
+                data.write(encoded);
+                continue;
+            }
+            final Optional<Object> field = feature.get(i);
+            final FieldType type = FieldType.forValue(field);
+            data.writeByte(type.getTag());
+            if (isGeometry(type)) {
+                if (geometryBuffer == null) {
+                    geometryBuffer = new ByteArrayOutputStream();
+                } else {
+                    geometryBuffer.reset();
+                }
+                CompactGeometrySerializer.write((Geometry) field.get(), new DataOutputStream(
+                        geometryBuffer));
+                Varints.writeUnsignedVarInt(geometryBuffer.size(), data);
+                geometryBuffer.writeTo(data);
+            } else if (type != FieldType.NULL) {
+                DataStreamValueSerializer.write(field, data);
+            }
+        }
+    }
+}
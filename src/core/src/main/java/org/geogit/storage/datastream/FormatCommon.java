@@ -54,6 +54,14 @@ public class FormatCommon {
 
     public final static byte NUL = 0x00;
 
+    /**
+     * Header of the features written in the second version of the format, with compact
+     * geometries
+     * 
+     * @see FeatureWriterV2
+     */
+    public final static String FEATURE_V2_HEADER = "feature2";
+
     public final static String readToMarker(DataInput in, byte marker) throws IOException {
         StringBuilder buff = new StringBuilder();
         byte b = in.readByte();
@@ -299,6 +307,46 @@ public class FormatCommon {
         return new RevFeature(id, builder.build());
     }
 
+    /**
+     * Reads a feature in the second version of the format. Geometries are only decoded when first
+     * accessed.
+     * 
+     * @see FeatureWriterV2
+     */
+    public static RevFeature readFeatureV2(ObjectId id, DataInput in) throws IOException {
+        final int count = Varints.readUnsignedVarInt(in);
+        @SuppressWarnings("unchecked")
+        final Optional<Object>[] values = new Optional[count];
+        final byte[] tags = new byte[count];
+        byte[][] geometries = null;
+
+        for (int i = 0; i < count; i++) {
+            final byte fieldTag = in.readByte();
+            final FieldType fieldType = FieldType.valueOf(fieldTag);
+            tags[i] = fieldTag;
+            if (isGeometry(fieldType)) {
+                if (geometries == null) {
+                    geometries = new byte[count][];
+                }
+                final byte[] encoded = new byte[Varints.readUnsignedVarInt(in)];
+                in.readFully(encoded);
+                geometries[i] = encoded;
+            } else {
+                Object value = DataStreamValueSerializer.read(fieldType, in);
+                values[i] = Optional.fromNullable(value);
+            }
+        }
+        if (geometries == null) {
+            return new RevFeature(id, ImmutableList.copyOf(values));
+        }
+        return new LazyRevFeature(id, values, geometries, tags);
+    }
+
+    static boolean isGeometry(FieldType fieldType) {
+        final Class<?> binding = fieldType.getBinding();
+        return binding != null && Geometry.class.isAssignableFrom(binding);
+    }
+
     public static RevFeatureType readFeatureType(ObjectId id, DataInput in) throws IOException {
         return readFeatureType(id, in, DEFAULT_FEATURETYPE_FACTORY);
     }
@@ -0,0 +1,113 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeature;
+import org.geogit.storage.FieldType;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A {@link RevFeature} read from the second version of the feature format, that keeps its
+ * geometries encoded until they're first asked for, so that reading only the attributes of a
+ * feature doesn't materialize its geometries.
+ * <p>
+ * Features are shared through the object caches, so decoding is thread safe: a geometry may be
+ * decoded more than once by concurrent callers, but all of them see a fully built geometry.
+ */
+final class LazyRevFeature extends RevFeature {
+
+    private final AtomicReferenceArray<Optional<Object>> values;
+
+    /**
+     * The {@link CompactGeometrySerializer encoded} geometries, {@code null} for non geometry
+     * values
+     */
+    private final byte[][] encodedGeometries;
+
+    /**
+     * The {@link FieldType#getTag() field type tags} of the values
+     */
+    private final byte[] tags;
+
+    private volatile ImmutableList<Optional<Object>> valueList;
+
+    /**
+     * @param values the decoded values, {@code null} where {@code encodedGeometries} has the
+     *        encoded geometry
+     * @param encodedGeometries the encoded geometries, {@code null} for non geometry values
+     * @param tags the field type tags of the values
+     */
+    LazyRevFeature(ObjectId id, Optional<Object>[] values, byte[][] encodedGeometries,
+            byte[] tags) {
+        super(id);
+        this.values = new AtomicReferenceArray<Optional<Object>>(values);
+        this.encodedGeometries = encodedGeometries;
+        this.tags = tags;
+    }
+
+    @Override
+    public Optional<Object> get(final int index) {
+        Optional<Object> value = values.get(index);
+        if (value == null) {
+            value = Optional.<Object> of(decode(encodedGeometries[index]));
+            values.set(index, value);
+        }
+        return value;
+    }
+
+    @Override
+    public int size() {
+        return values.length();
+    }
+
+    @Override
+    public ImmutableList<Optional<Object>> getValues() {
+        ImmutableList<Optional<Object>> list = valueList;
+        if (list == null) {
+            ImmutableList.Builder<Optional<Object>> builder = ImmutableList.builder();
+            for (int i = 0; i < values.length(); i++) {
+                builder.add(get(i));
+            }
+            valueList = list = builder.build();
+        }
+        return list;
+    }
+
+    /**
+     * @return the encoded geometry at {@code index}, or {@code null} if the value is not a
+     *         geometry
+     */
+    @Nullable
+    byte[] encodedGeometry(final int index) {
+        return encodedGeometries[index];
+    }
+
+    /**
+     * @return the field type of the value at {@code index}
+     */
+    FieldType fieldType(final int index) {
+        return FieldType.valueOf(tags[index]);
+    }
+
+    private static Object decode(final byte[] encoded) {
+        try {
+            return CompactGeometrySerializer.read(new DataInputStream(new ByteArrayInputStream(
+                    encoded)));
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+}
@@ -4,10 +4,12 @@
  */
 package org.geogit.storage.datastream;
 
+import static org.geogit.storage.datastream.FormatCommon.FEATURE_V2_HEADER;
 import static org.geogit.storage.datastream.FormatCommon.NUL;
 import static org.geogit.storage.datastream.FormatCommon.readCommit;
 import static org.geogit.storage.datastream.FormatCommon.readFeature;
 import static org.geogit.storage.datastream.FormatCommon.readFeatureType;
+import static org.geogit.storage.datastream.FormatCommon.readFeatureV2;
 import static org.geogit.storage.datastream.FormatCommon.readTag;
 import static org.geogit.storage.datastream.FormatCommon.readToMarker;
 import static org.geogit.storage.datastream.FormatCommon.readTree;
@@ -39,6 +41,8 @@ public class ObjectReader implements org.geogit.storage.ObjectReader<RevObject>
             return readTree(id, in);
         else if ("feature".equals(header))
             return readFeature(id, in);
+        else if (FEATURE_V2_HEADER.equals(header))
+            return readFeatureV2(id, in);
         else if ("featuretype".equals(header))
             return readFeatureType(id, in);
         else if ("tag".equals(header))
@@ -0,0 +1,74 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Variable length encoding of integral values, 7 bits per byte with the high bit set on all but
+ * the last byte. Signed values are zig-zag encoded first so small negative numbers take as few
+ * bytes as small positive ones.
+ */
+final class Varints {
+
+    private Varints() {
+        // static utility
+    }
+
+    public static void writeUnsignedVarInt(int value, DataOutput out) throws IOException {
+        while ((value & 0xFFFFFF80) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value & 0x7F);
+    }
+
+    public static int readUnsignedVarInt(DataInput in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        while (((b = in.readByte()) & 0x80) != 0) {
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+            if (shift > 28) {
+                throw new IOException("Malformed variable length int");
+            }
+        }
+        return value | (b << shift);
+    }
+
+    public static void writeUnsignedVarLong(long value, DataOutput out) throws IOException {
+        while ((value & 0xFFFFFFFFFFFFFF80L) != 0L) {
+            out.writeByte(((int) value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value & 0x7F);
+    }
+
+    public static long readUnsignedVarLong(DataInput in) throws IOException {
+        long value = 0L;
+        int shift = 0;
+        long b;
+        while (((b = in.readByte()) & 0x80L) != 0) {
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+            if (shift > 63) {
+                throw new IOException("Malformed variable length long");
+            }
+        }
+        return value | (b << shift);
+    }
+
+    public static void writeSignedVarLong(long value, DataOutput out) throws IOException {
+        writeUnsignedVarLong((value << 1) ^ (value >> 63), out);
+    }
+
+    public static long readSignedVarLong(DataInput in) throws IOException {
+        long raw = readUnsignedVarLong(in);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+}
@@ -9,6 +9,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
 import java.io.File;
+import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -16,8 +17,15 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.annotation.Nullable;
 
 import org.geogit.api.ObjectId;
 import org.geogit.api.Platform;
@@ -28,22 +36,73 @@ import org.geogit.storage.AbstractObjectDatabase;
 import org.geogit.storage.BulkOpListener;
 import org.geogit.storage.ConfigDatabase;
 import org.geogit.storage.ObjectDatabase;
-import org.geogit.storage.datastream.DataStreamSerializationFactory;
+import org.geogit.storage.datastream.DataStreamSerializationFactoryV2;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableList.Builder;
+import com.google.common.collect.Iterators;
+import com.google.common.io.Files;
 import com.google.inject.Inject;
 
 /**
  * Provides an implementation of a GeoGit object database that utilizes the file system for the
  * storage of objects.
+ * <p>
+ * New objects are written as individual "loose" files. {@link #repack()} folds all the loose
+ * objects into memory mapped {@link PackFile pack files} under the {@code pack} sub directory.
+ * Reads consult the pack files first, where most objects of a repacked repository are, and fall
+ * back to the loose objects.
  * 
  * @see AbstractObjectDatabase
  */
 public class FileObjectDatabase extends AbstractObjectDatabase implements ObjectDatabase {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileObjectDatabase.class);
+
+    public static final String FORMAT_NAME = "file";
+
+    /**
+     * Version of the file storage format, recorded under the {@code file.version} key it shares
+     * with {@link FileRefDatabase}.
+     * <p>
+     * Version 1.1 adds {@link #repack() pack files}, whose objects version 1.0 would report as
+     * missing, and version 1.2 writes features in the {@link DataStreamSerializationFactoryV2 V2
+     * format}, which older versions can't read. Older repositories are upgraded when opened.
+     */
+    public static final String VERSION = "1.2";
+
+    static final String[] UPGRADABLE_VERSIONS = { "1.0", "1.1" };
+
+    private static final String PACK_DIR = "pack";
+
+    /**
+     * Max number of objects per pack file created by {@link #repack()}
+     */
+    private static final int MAX_OBJECTS_PER_PACK = 1000 * 1000;
+
+    /**
+     * Number of ids {@link #getAll(Iterable, BulkOpListener)} sorts and looks up at a time
+     */
+    private static final int GET_ALL_BATCH_SIZE = 10 * 1000;
+
+    private static final FileFilter LOOSE_OBJECT_DIR_FILTER = new FileFilter() {
+        @Override
+        public boolean accept(File f) {
+            return f.isDirectory() && f.getName().length() == 2;
+        }
+    };
+
+    private static final FileFilter LOOSE_OBJECT_FILTER = new FileFilter() {
+        @Override
+        public boolean accept(File f) {
+            return f.isFile() && f.getName().length() == 2 * ObjectId.NUM_BYTES;
+        }
+    };
+
     private final Platform platform;
 
     private final ConfigDatabase configDB;
@@ -54,6 +113,8 @@ public class FileObjectDatabase extends AbstractObjectDatabase implements Object
 
     private String dataRootPath;
 
+    private final List<PackFile> packs = new CopyOnWriteArrayList<PackFile>();
+
     /**
      * Constructs a new {@code FileObjectDatabase} using the given platform.
      * 
@@ -66,7 +127,7 @@ public class FileObjectDatabase extends AbstractObjectDatabase implements Object
 
     protected FileObjectDatabase(final Platform platform, final String databaseName,
             final ConfigDatabase configDB) {
-        super(DataStreamSerializationFactory.INSTANCE);
+        super(DataStreamSerializationFactoryV2.INSTANCE);
         checkNotNull(platform);
         checkNotNull(databaseName);
         this.platform = platform;
@@ -120,6 +181,25 @@ public class FileObjectDatabase extends AbstractObjectDatabase implements Object
                     + dataRoot.getAbsolutePath());
         }
         dataRootPath = dataRoot.getAbsolutePath();
+        openPacks();
+    }
+
+    private void openPacks() {
+        File packDir = new File(dataRoot, PACK_DIR);
+        File[] packFiles = packDir.listFiles();
+        if (packFiles == null) {
+            return;
+        }
+        for (File f : packFiles) {
+            if (f.getName().endsWith(PackFile.PACK_EXTENSION)
+                    && PackFile.indexFileFor(f).exists()) {
+                try {
+                    packs.add(PackFile.open(f));
+                } catch (IOException e) {
+                    throw Throwables.propagate(e);
+                }
+            }
+        }
     }
 
     /**
@@ -129,6 +209,10 @@ public class FileObjectDatabase extends AbstractObjectDatabase implements Object
     public void close() {
         dataRoot = null;
         dataRootPath = null;
+        for (PackFile pack : packs) {
+            pack.close();
+        }
+        packs.clear();
     }
 
     /**
@@ -139,21 +223,67 @@ public class FileObjectDatabase extends AbstractObjectDatabase implements Object
      */
     @Override
     public boolean exists(final ObjectId id) {
-        File f = filePath(id);
-        return f.exists();
+        final int packCount = packs.size();
+        if (isPacked(id, 0)) {
+            return true;
+        }
+        if (filePath(id).exists()) {
+            return true;
+        }
+        return isPacked(id, packCount);
     }
 
     @Override
     protected InputStream getRawInternal(ObjectId id, boolean failIfNotFound) {
-        File f = filePath(id);
+        final int packCount = packs.size();
+        InputStream in = openPacked(id, 0);
+        if (in != null) {
+            return in;
+        }
         try {
-            return new FileInputStream(f);
+            return new FileInputStream(filePath(id));
         } catch (FileNotFoundException e) {
-            if (failIfNotFound) {
+            in = openPacked(id, packCount);
+            if (in == null && failIfNotFound) {
                 throw Throwables.propagate(e);
             }
-            return null;
+            return in;
+        }
+    }
+
+    /**
+     * {@link #repack()} deletes the loose objects it packed after adding their pack, so an object
+     * that is neither in the packs nor in the loose files is looked up again in the packs added
+     * since the first lookup, skipping the ones there were before it.
+     * 
+     * @param skip the number of packs to skip
+     */
+    private boolean isPacked(ObjectId id, int skip) {
+        int i = 0;
+        for (PackFile pack : packs) {
+            if (i++ >= skip && pack.contains(id)) {
+                return true;
+            }
         }
+        return false;
+    }
+
+    /**
+     * @param skip the number of packs to skip, as in {@link #isPacked(ObjectId, int)}
+     * @return a stream over the object in the packs, or {@code null} if it's not in them
+     */
+    @Nullable
+    private InputStream openPacked(ObjectId id, int skip) {
+        int i = 0;
+        for (PackFile pack : packs) {
+            if (i++ >= skip) {
+                InputStream in = pack.open(id);
+                if (in != null) {
+                    return in;
+                }
+            }
+        }
+        return null;
     }
 
     /**
@@ -161,10 +291,10 @@ public class FileObjectDatabase extends AbstractObjectDatabase implements Object
      */
     @Override
     protected boolean putInternal(final ObjectId id, final byte[] rawData) {
-        final File f = filePath(id);
-        if (f.exists()) {
+        if (exists(id)) {
             return false;
         }
+        final File f = filePath(id);
 
         FileOutputStream fileOutputStream;
         try {
@@ -192,6 +322,8 @@ public class FileObjectDatabase extends AbstractObjectDatabase implements Object
 
     /**
      * Deletes the object with the provided {@link ObjectId id} from the database.
+     * <p>
+     * Note only loose objects can be deleted, pack files are immutable.
      * 
      * @param objectId the id of the object to delete
      * @return true if the object was deleted, false if it was not found
@@ -232,18 +364,99 @@ public class FileObjectDatabase extends AbstractObjectDatabase implements Object
      */
     @Override
     public List<ObjectId> lookUp(final String partialId) {
+        Set<ObjectId> matches = new LinkedHashSet<ObjectId>();
         File parent = filePath(partialId).getParentFile();
         String[] list = parent.list();
-        if (null == list) {
-            return ImmutableList.of();
+        if (null != list) {
+            for (String oid : list) {
+                if (oid.startsWith(partialId)) {
+                    matches.add(ObjectId.valueOf(oid));
+                }
+            }
+        }
+        if (!packs.isEmpty()) {
+            final byte[] prefix = ObjectId.toRaw(partialId);
+            final boolean oddLength = partialId.length() % 2 != 0;
+            for (PackFile pack : packs) {
+                for (ObjectId id : pack.lookUp(prefix)) {
+                    if (!oddLength || id.toString().startsWith(partialId)) {
+                        matches.add(id);
+                    }
+                }
+            }
+        }
+        return ImmutableList.copyOf(matches);
+    }
+
+    /**
+     * Moves all the loose objects into new pack files.
+     * <p>
+     * Loose objects are visited in ascending id order and written to packs of at most
+     * {@code 1M} objects or {@code 1GB}. Each loose object is only deleted once the pack it was
+     * written to is complete and visible to readers.
+     * 
+     * @return the number of objects packed
+     */
+    public synchronized long repack() {
+        checkState(isOpen(), "Database is closed");
+        final File packDir = new File(dataRoot, PACK_DIR);
+        if (!packDir.exists() && !packDir.mkdirs()) {
+            throw new IllegalStateException("Can't create " + packDir.getAbsolutePath());
         }
-        Builder<ObjectId> builder = ImmutableList.builder();
-        for (String oid : list) {
-            if (oid.startsWith(partialId)) {
-                builder.add(ObjectId.valueOf(oid));
+        long packed = 0;
+        List<File> packedFiles = new ArrayList<File>();
+        PackFile.Writer writer = null;
+        try {
+            for (File dir1 : sortedFiles(dataRoot, LOOSE_OBJECT_DIR_FILTER)) {
+                for (File dir2 : sortedFiles(dir1, LOOSE_OBJECT_DIR_FILTER)) {
+                    for (File f : sortedFiles(dir2, LOOSE_OBJECT_FILTER)) {
+                        if (writer == null) {
+                            writer = new PackFile.Writer(packDir);
+                        }
+                        byte[] rawData = Files.toByteArray(f);
+                        writer.add(ObjectId.valueOf(f.getName()), rawData);
+                        packedFiles.add(f);
+                        if (writer.count() >= MAX_OBJECTS_PER_PACK
+                                || writer.size() >= PackFile.MAX_PACK_SIZE) {
+                            packed += finishPack(writer, packedFiles);
+                            writer = null;
+                        }
+                    }
+                }
+            }
+            if (writer != null) {
+                packed += finishPack(writer, packedFiles);
+                writer = null;
+            }
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        } finally {
+            if (writer != null) {
+                writer.abort();
             }
         }
-        return builder.build();
+        return packed;
+    }
+
+    private int finishPack(PackFile.Writer writer, List<File> packedFiles) throws IOException {
+        File packFile = writer.finish();
+        PackFile pack = PackFile.open(packFile);
+        packs.add(pack);
+        LOGGER.debug("Created {}", pack);
+        for (File f : packedFiles) {
+            f.delete();
+        }
+        packedFiles.clear();
+        return pack.size();
+    }
+
+    private static File[] sortedFiles(File dir, FileFilter filter) {
+        File[] files = dir.listFiles(filter);
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);
+        return files;
     }
 
     @Override
@@ -252,9 +465,39 @@ public class FileObjectDatabase extends AbstractObjectDatabase implements Object
                 "This method should not be called, we override lookUp(String) directly");
     }
 
+    /**
+     * Looks up the objects in batches sorted by id, which is both the order of the loose object
+     * directories and of the objects in the pack files, so lookups go sequentially through them
+     * instead of jumping around at random.
+     */
     @Override
-    public Iterator<RevObject> getAll(Iterable<ObjectId> ids, BulkOpListener listener) {
-        throw new UnsupportedOperationException("This method is not yet implemented");
+    public Iterator<RevObject> getAll(final Iterable<ObjectId> ids, final BulkOpListener listener) {
+        final Iterator<List<ObjectId>> batches = Iterators.partition(ids.iterator(),
+                GET_ALL_BATCH_SIZE);
+        return new AbstractIterator<RevObject>() {
+
+            private Iterator<ObjectId> queryIds = Iterators.emptyIterator();
+
+            @Override
+            protected RevObject computeNext() {
+                while (true) {
+                    while (queryIds.hasNext()) {
+                        ObjectId id = queryIds.next();
+                        RevObject object = getIfPresent(id);
+                        if (object == null) {
+                            listener.notFound(id);
+                        } else {
+                            listener.found(id, null);
+                            return object;
+                        }
+                    }
+                    if (!batches.hasNext()) {
+                        return endOfData();
+                    }
+                    queryIds = ObjectId.NATURAL_ORDER.sortedCopy(batches.next()).iterator();
+                }
+            }
+        };
     }
 
     @Override
@@ -264,12 +507,13 @@ public class FileObjectDatabase extends AbstractObjectDatabase implements Object
 
     @Override
     public void configure() throws RepositoryConnectionException {
-        RepositoryConnectionException.StorageType.OBJECT.configure(configDB, "file", "1.0");
+        RepositoryConnectionException.StorageType.OBJECT.configure(configDB, FORMAT_NAME, VERSION);
     }
 
     @Override
     public void checkConfig() throws RepositoryConnectionException {
-        RepositoryConnectionException.StorageType.OBJECT.verify(configDB, "file", "1.0");
+        RepositoryConnectionException.StorageType.OBJECT.verifyOrUpgrade(configDB, FORMAT_NAME,
+                VERSION, UPGRADABLE_VERSIONS);
     }
 
     @Override
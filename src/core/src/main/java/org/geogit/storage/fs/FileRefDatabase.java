@@ -340,12 +340,15 @@ public class FileRefDatabase extends AbstractRefDatabase {
 
     @Override
     public void configure() throws RepositoryConnectionException {
-        RepositoryConnectionException.StorageType.REF.configure(configDB, "file", "1.0");
+        RepositoryConnectionException.StorageType.REF.configure(configDB,
+                FileObjectDatabase.FORMAT_NAME, FileObjectDatabase.VERSION);
     }
 
     @Override
     public void checkConfig() throws RepositoryConnectionException {
-        RepositoryConnectionException.StorageType.REF.verify(configDB, "file", "1.0");
+        RepositoryConnectionException.StorageType.REF.verifyOrUpgrade(configDB,
+                FileObjectDatabase.FORMAT_NAME, FileObjectDatabase.VERSION,
+                FileObjectDatabase.UPGRADABLE_VERSIONS);
     }
 
     @Override
@@ -284,9 +284,12 @@ public class IniFileConfigDatabase implements ConfigDatabase {
         if (String.class.equals(c)) {
             return (T) s;
         }
-        if (c.equals(int.class)) {
+        if (c.equals(int.class) || Integer.class.equals(c)) {
             return (T) Integer.valueOf(s);
         }
+        if (c.equals(long.class) || Long.class.equals(c)) {
+            return (T) Long.valueOf(s);
+        }
         if (Boolean.class.equals(c)) {
             return (T) Boolean.valueOf(s);
         }
@@ -0,0 +1,506 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.fs;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.ObjectId;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hasher;
+import com.google.common.io.Closeables;
+
+/**
+ * An immutable, memory mapped pair of {@code .pack} and {@code .idx} files holding a sorted set
+ * of serialized objects.
+ * <p>
+ * The {@code .pack} file is the concatenation of the raw (compressed) object blobs exactly as
+ * they'd be stored as loose files. The {@code .idx} file layout is:
+ *
+ * <pre>
+ * <code>
+ * header:  "GGIX" (4 bytes) version (int) count (int)
+ * fanout:  int[256], fanout[b] is the number of ids whose first byte is <= b
+ * ids:     count * 20 bytes, sorted in unsigned lexicographical order
+ * offsets: count * long, start of each object in the pack file
+ * lengths: count * int, size of each object in the pack file
+ * </code>
+ * </pre>
+ *
+ * Looking up an object is hence a fanout lookup plus a binary search over the mapped id table,
+ * and reading it is a slice of the mapped pack file.
+ * <p>
+ * The mapped buffers are released on {@link #close()}, or once the last stream
+ * {@link #open(ObjectId) opened} before closing is closed, as accessing an unmapped buffer
+ * crashes the JVM.
+ *
+ * @see FileObjectDatabase#repack()
+ */
+final class PackFile {
+
+    static final String PACK_EXTENSION = ".pack";
+
+    static final String INDEX_EXTENSION = ".idx";
+
+    /**
+     * Max size of a single pack file, so that it can be mapped as a single {@link ByteBuffer}
+     */
+    static final long MAX_PACK_SIZE = 1024 * 1024 * 1024;
+
+    private static final byte[] INDEX_MAGIC = { 'G', 'G', 'I', 'X' };
+
+    private static final int INDEX_VERSION = 1;
+
+    private static final int HEADER_SIZE = 4 + 4 + 4;
+
+    private static final int FANOUT_SIZE = 256 * 4;
+
+    private static final int ID_SIZE = ObjectId.NUM_BYTES;
+
+    private final File packFile;
+
+    private final ByteBuffer index;
+
+    private final ByteBuffer pack;
+
+    private final int count;
+
+    private final int idsOffset;
+
+    private final int offsetsOffset;
+
+    private final int lengthsOffset;
+
+    /**
+     * Number of lookups and open streams using the mapped buffers, guarded by {@code this}
+     */
+    private int users;
+
+    private boolean closed;
+
+    private PackFile(File packFile, ByteBuffer index, ByteBuffer pack) {
+        this.packFile = packFile;
+        this.index = index;
+        this.pack = pack;
+        byte[] magic = new byte[INDEX_MAGIC.length];
+        index.duplicate().get(magic);
+        checkState(Arrays.equals(INDEX_MAGIC, magic), "%s is not a pack index file", packFile);
+        final int version = index.getInt(4);
+        checkState(INDEX_VERSION == version, "Unsupported pack index version: %s", version);
+        this.count = index.getInt(8);
+        this.idsOffset = HEADER_SIZE + FANOUT_SIZE;
+        this.offsetsOffset = idsOffset + count * ID_SIZE;
+        this.lengthsOffset = offsetsOffset + count * 8;
+        checkState(index.capacity() == lengthsOffset + count * 4,
+                "Pack index %s is corrupt, expected %s bytes, got %s", packFile,
+                lengthsOffset + count * 4, index.capacity());
+    }
+
+    /**
+     * Maps the given pack file and its companion index file, which is expected to exist.
+     */
+    public static PackFile open(final File packFile) throws IOException {
+        File indexFile = indexFileFor(packFile);
+        checkArgument(indexFile.exists(), "Index file does not exist: %s", indexFile);
+        ByteBuffer index = map(indexFile);
+        ByteBuffer pack = map(packFile);
+        return new PackFile(packFile, index, pack);
+    }
+
+    private static MappedByteBuffer map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            return channel.map(MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            // the mapping stays valid after the channel is closed
+            raf.close();
+        }
+    }
+
+    static File indexFileFor(File packFile) {
+        String name = packFile.getName();
+        checkArgument(name.endsWith(PACK_EXTENSION));
+        name = name.substring(0, name.length() - PACK_EXTENSION.length()) + INDEX_EXTENSION;
+        return new File(packFile.getParentFile(), name);
+    }
+
+    public File getFile() {
+        return packFile;
+    }
+
+    /**
+     * @return the number of objects in this pack
+     */
+    public int size() {
+        return count;
+    }
+
+    public boolean contains(final ObjectId id) {
+        acquire();
+        try {
+            return find(id) >= 0;
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * @return a stream over the raw contents of the object, or {@code null} if the object is not
+     *         in this pack
+     */
+    @Nullable
+    public InputStream open(final ObjectId id) {
+        acquire();
+        final int idx = find(id);
+        if (idx < 0) {
+            release();
+            return null;
+        }
+        final int offset = (int) index.getLong(offsetsOffset + idx * 8);
+        final int length = index.getInt(lengthsOffset + idx * 4);
+        ByteBuffer slice = pack.duplicate();
+        slice.limit(offset + length);
+        slice.position(offset);
+        return new ByteBufferInputStream(slice);
+    }
+
+    /**
+     * @return all the ids in this pack that start with the given raw prefix
+     */
+    public List<ObjectId> lookUp(final byte[] prefix) {
+        checkArgument(prefix.length > 0 && prefix.length <= ID_SIZE);
+        acquire();
+        try {
+            return lookUpInternal(prefix);
+        } finally {
+            release();
+        }
+    }
+
+    private List<ObjectId> lookUpInternal(final byte[] prefix) {
+        final int first = prefix[0] & 0xFF;
+        int low = first == 0 ? 0 : fanout(first - 1);
+        int high = fanout(first) - 1;
+        // find the lowest index whose id is >= prefix
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (compare(mid, prefix) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        ImmutableList.Builder<ObjectId> matches = ImmutableList.builder();
+        for (int i = low; i < count && compare(i, prefix) == 0; i++) {
+            matches.add(idAt(i));
+        }
+        return matches.build();
+    }
+
+    /**
+     * @return the index of {@code id} in the id table, or {@code -1} if not found
+     */
+    private int find(final ObjectId id) {
+        final int first = id.byteN(0);
+        int low = first == 0 ? 0 : fanout(first - 1);
+        int high = fanout(first) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int c = compare(mid, id);
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int fanout(final int firstByte) {
+        return index.getInt(HEADER_SIZE + firstByte * 4);
+    }
+
+    private int compare(final int idx, final ObjectId id) {
+        final int base = idsOffset + idx * ID_SIZE;
+        for (int i = 0; i < ID_SIZE; i++) {
+            int c = (index.get(base + i) & 0xFF) - id.byteN(i);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Compares only the first {@code prefix.length} bytes of the id at {@code idx}
+     */
+    private int compare(final int idx, final byte[] prefix) {
+        final int base = idsOffset + idx * ID_SIZE;
+        for (int i = 0; i < prefix.length; i++) {
+            int c = (index.get(base + i) & 0xFF) - (prefix[i] & 0xFF);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    private ObjectId idAt(final int idx) {
+        byte[] raw = new byte[ID_SIZE];
+        ByteBuffer ids = index.duplicate();
+        ids.position(idsOffset + idx * ID_SIZE);
+        ids.get(raw);
+        return ObjectId.createNoClone(raw);
+    }
+
+    /**
+     * Releases the mapped buffers once they're no longer in use
+     */
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            if (users == 0) {
+                unmap();
+            }
+        }
+    }
+
+    private synchronized void acquire() {
+        checkState(!closed, "Pack file %s is closed", packFile);
+        users++;
+    }
+
+    private synchronized void release() {
+        users--;
+        if (closed && users == 0) {
+            unmap();
+        }
+    }
+
+    private void unmap() {
+        unmap(index);
+        unmap(pack);
+    }
+
+    /**
+     * Unmaps the buffer right away through its cleaner, if the JVM allows it, instead of waiting
+     * for it to be garbage collected, so the pack file can be deleted and its address space
+     * reused
+     */
+    private static void unmap(ByteBuffer buffer) {
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Exception e) {
+            // not supported, the mapping is released when the buffer is collected
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[%s, objects: %d]", getClass().getSimpleName(),
+                packFile.getName(), count);
+    }
+
+    /**
+     * Writes a new pack file. Objects must be added in ascending {@link ObjectId} order, and the
+     * pack becomes visible to readers only once {@link #finish()} atomically renames the index
+     * file in place.
+     */
+    static class Writer {
+
+        private final File packDir;
+
+        private final File tmpPack;
+
+        private final DataOutputStream packOut;
+
+        private final Hasher nameHasher = ObjectId.HASH_FUNCTION.newHasher();
+
+        private final int[] fanout = new int[256];
+
+        private byte[] ids = new byte[1024 * ID_SIZE];
+
+        private long[] offsets = new long[1024];
+
+        private int[] lengths = new int[1024];
+
+        private int count;
+
+        private long offset;
+
+        private byte[] lastId;
+
+        public Writer(final File packDir) throws IOException {
+            this.packDir = packDir;
+            this.tmpPack = File.createTempFile("pack-", ".tmp", packDir);
+            this.packOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+                    tmpPack), 64 * 1024));
+        }
+
+        /**
+         * @return the number of bytes written to the pack file so far
+         */
+        public long size() {
+            return offset;
+        }
+
+        public int count() {
+            return count;
+        }
+
+        public void add(final ObjectId id, final byte[] rawData) throws IOException {
+            final byte[] raw = id.getRawValue();
+            checkArgument(lastId == null || ObjectId.compare(lastId, raw) < 0,
+                    "objects must be added in ascending id order");
+            if (count == offsets.length) {
+                final int capacity = 2 * count;
+                ids = Arrays.copyOf(ids, capacity * ID_SIZE);
+                offsets = Arrays.copyOf(offsets, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+            }
+            System.arraycopy(raw, 0, ids, count * ID_SIZE, ID_SIZE);
+            offsets[count] = offset;
+            lengths[count] = rawData.length;
+            fanout[raw[0] & 0xFF]++;
+            count++;
+
+            packOut.write(rawData);
+            offset += rawData.length;
+            nameHasher.putBytes(raw);
+            lastId = raw;
+        }
+
+        /**
+         * Closes the pack and writes its index.
+         *
+         * @return the final pack file
+         */
+        public File finish() throws IOException {
+            packOut.close();
+
+            final String name = "pack-" + ObjectId.createNoClone(nameHasher.hash().asBytes());
+            final File pack = new File(packDir, name + PACK_EXTENSION);
+            final File index = new File(packDir, name + INDEX_EXTENSION);
+            final File tmpIndex = new File(packDir, name + INDEX_EXTENSION + ".tmp");
+
+            DataOutputStream indexOut = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tmpIndex), 64 * 1024));
+            try {
+                indexOut.write(INDEX_MAGIC);
+                indexOut.writeInt(INDEX_VERSION);
+                indexOut.writeInt(count);
+                int cumulative = 0;
+                for (int i = 0; i < 256; i++) {
+                    cumulative += fanout[i];
+                    indexOut.writeInt(cumulative);
+                }
+                indexOut.write(ids, 0, count * ID_SIZE);
+                for (int i = 0; i < count; i++) {
+                    indexOut.writeLong(offsets[i]);
+                }
+                for (int i = 0; i < count; i++) {
+                    indexOut.writeInt(lengths[i]);
+                }
+            } finally {
+                indexOut.close();
+            }
+            if (!tmpPack.renameTo(pack) || !tmpIndex.renameTo(index)) {
+                throw new IOException("Unable to rename temporary pack files to " + name);
+            }
+            return pack;
+        }
+
+        /**
+         * Discards the temporary pack file
+         */
+        public void abort() {
+            try {
+                Closeables.close(packOut, true);
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+            tmpPack.delete();
+        }
+    }
+
+    private class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private boolean released;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            return buffer.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public long skip(long n) {
+            int skip = (int) Math.min(n, buffer.remaining());
+            buffer.position(buffer.position() + skip);
+            return skip;
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                release();
+            }
+        }
+    }
+}
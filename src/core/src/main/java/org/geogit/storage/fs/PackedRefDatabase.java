@@ -0,0 +1,901 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.fs;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static org.geogit.api.Ref.append;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.GeogitTransaction;
+import org.geogit.api.ObjectId;
+import org.geogit.api.Platform;
+import org.geogit.api.Ref;
+import org.geogit.api.plumbing.ResolveGeogitDir;
+import org.geogit.repository.RepositoryConnectionException;
+import org.geogit.storage.AbstractRefDatabase;
+import org.geogit.storage.ConfigDatabase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import com.google.common.primitives.UnsignedBytes;
+import com.google.inject.Inject;
+
+/**
+ * A GeoGit ref database that keeps all the refs of a repository in a single sorted, memory mapped
+ * {@code packed-refs} table, and the changes made since the table was written in the append-only
+ * {@code packed-refs.log} file, both in the repository directory.
+ * <p>
+ * Reads don't take any lock: the table and the changes read from the log are held in a snapshot
+ * that is only reloaded when the log file changes, at the cost of a single file status check per
+ * read. Looking up a ref is a binary search over the table, and {@link #getAll(String)} reads the
+ * refs of a namespace from a contiguous range of it instead of walking a directory tree.
+ * <p>
+ * Writes are serialized across threads and processes by a lock on the {@code packed-refs.lock}
+ * file, and each of them appends its records to the log at once. When the log holds more records
+ * than the table has refs, the table is rewritten with the changes applied, and replaces the old
+ * one along with an empty log through atomic renames. Readers still holding the old table keep a
+ * consistent view until they notice the new log.
+ * <p>
+ * The refs of a repository that still keeps them one per file, as {@link FileRefDatabase} does,
+ * are packed into the table the first time it's opened. The ref files are left in place.
+ * <p>
+ * The file layouts are:
+ *
+ * <pre>
+ * <code>
+ * packed-refs     = "GGPR" version count[4] *offset[4] *entry
+ * entry           = name value
+ * packed-refs.log = "GGPL" version *record
+ * record          = PUT name value / REMOVE name
+ * name, value     = length[2] utf8
+ * </code>
+ * </pre>
+ *
+ * Where the table entries are sorted by the bytes of their names, {@code offset} is the position
+ * of each entry in the file, and {@code PUT} and {@code REMOVE} are one byte record types. Values
+ * are stored as {@link FileRefDatabase} writes them, with a {@code "ref: "} prefix for symbolic
+ * refs.
+ */
+public class PackedRefDatabase extends AbstractRefDatabase {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PackedRefDatabase.class);
+
+    public static final String FORMAT_NAME = "packed";
+
+    public static final String VERSION = "1.0";
+
+    static final String FILE_NAME = "packed-refs";
+
+    static final String LOG_FILE_NAME = "packed-refs.log";
+
+    private static final String LOCK_FILE_NAME = "packed-refs.lock";
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private static final byte[] MAGIC = { 'G', 'G', 'P', 'R' };
+
+    private static final byte[] LOG_MAGIC = { 'G', 'G', 'P', 'L' };
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte PUT = 1, REMOVE = 2;
+
+    /**
+     * The number of log records below which the table is never rewritten
+     */
+    private static final int MIN_COMPACTION_RECORDS = 1000;
+
+    private static final String SYMREF_PREFIX = "ref: ";
+
+    /**
+     * Marks the refs removed since the table was written in {@link State#changes}
+     */
+    private static final String REMOVED = "";
+
+    /**
+     * The refs outside of the {@code refs} and {@code transactions} namespaces a repository may
+     * have
+     */
+    private static final List<String> TOP_LEVEL_REFS = ImmutableList.of(Ref.HEAD, Ref.WORK_HEAD,
+            Ref.STAGE_HEAD, Ref.ORIG_HEAD, Ref.MERGE_HEAD, Ref.CHERRY_PICK_HEAD);
+
+    private final Platform platform;
+
+    private final ConfigDatabase configDB;
+
+    private File directory;
+
+    private volatile State state;
+
+    /**
+     * The lock on the lock file while this database writes, guarded by {@code this}
+     */
+    private FileLock fileLock;
+
+    /**
+     * Constructs a new {@code PackedRefDatabase} for the repository of the given platform.
+     *
+     * @param platform the platform to use
+     */
+    @Inject
+    public PackedRefDatabase(Platform platform, ConfigDatabase configDB) {
+        this.platform = platform;
+        this.configDB = configDB;
+    }
+
+    /**
+     * Creates a ref database stored in the given directory.
+     */
+    PackedRefDatabase(File directory) {
+        this.platform = null;
+        this.configDB = null;
+        this.directory = directory;
+    }
+
+    private File directory() {
+        if (directory == null) {
+            Optional<URL> envHome = new ResolveGeogitDir(platform).call();
+            checkState(envHome.isPresent(), "Not inside a geogit directory");
+            final URL envURL = envHome.get();
+            if (!"file".equals(envURL.getProtocol())) {
+                throw new UnsupportedOperationException(
+                        "This References Database works only against file system repositories. "
+                                + "Repository location: " + envURL.toExternalForm());
+            }
+            try {
+                directory = new File(envURL.toURI());
+            } catch (URISyntaxException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+        return directory;
+    }
+
+    private Path path(String fileName) {
+        return new File(directory(), fileName).toPath();
+    }
+
+    /**
+     * Creates the reference database.
+     */
+    @Override
+    public void create() {
+        state();
+    }
+
+    /**
+     * Closes the reference database.
+     */
+    @Override
+    public void close() {
+        // the mapped table is released once no longer referenced
+        state = null;
+    }
+
+    /**
+     * @param name the name of the ref (e.g. {@code "refs/remotes/origin"}, etc).
+     * @return the ref, or {@code null} if it doesn't exist
+     */
+    @Override
+    public String getRef(String name) {
+        checkNotNull(name);
+        String value = state().get(name);
+        if (value == null) {
+            return null;
+        }
+        ObjectId.valueOf(value);
+        return value;
+    }
+
+    /**
+     * @param name the name of the symbolic ref (e.g. {@code "HEAD"}, etc).
+     * @return the ref, or {@code null} if it doesn't exist
+     */
+    @Override
+    public String getSymRef(String name) {
+        checkNotNull(name);
+        String value = state().get(name);
+        if (value == null) {
+            return null;
+        }
+        if (!value.startsWith(SYMREF_PREFIX)) {
+            throw new IllegalArgumentException(name + " is not a symbolic ref: '" + value + "'");
+        }
+        return value.substring(SYMREF_PREFIX.length());
+    }
+
+    /**
+     * @param refName the name of the ref
+     * @param refValue the value of the ref
+     */
+    @Override
+    public void putRef(String refName, String refValue) {
+        checkNotNull(refName);
+        checkNotNull(refValue);
+        put(refName, refValue);
+    }
+
+    /**
+     * @param name the name of the symbolic ref
+     * @param val the value of the symbolic ref
+     */
+    @Override
+    public void putSymRef(String name, String val) {
+        checkNotNull(name);
+        checkNotNull(val);
+        checkArgument(!name.equals(val), "Trying to store cyclic symbolic ref: %s", name);
+        put(name, SYMREF_PREFIX + val);
+    }
+
+    private void put(final String name, final String value) {
+        update(new Function<State, Map<String, String>>() {
+            @Override
+            public Map<String, String> apply(State state) {
+                return ImmutableMap.of(name, value);
+            }
+        });
+    }
+
+    /**
+     * @param refName the name of the ref to remove (e.g. {@code "HEAD"},
+     *        {@code "refs/remotes/origin"}, etc).
+     * @return the value of the ref before removing it, or {@code null} if it didn't exist
+     */
+    @Override
+    public String remove(final String refName) {
+        checkNotNull(refName);
+        Map<String, String> removed = update(new Function<State, Map<String, String>>() {
+            @Override
+            public Map<String, String> apply(State state) {
+                if (state.get(refName) == null) {
+                    return ImmutableMap.of();
+                }
+                return ImmutableMap.of(refName, REMOVED);
+            }
+        });
+        return removed.get(refName);
+    }
+
+    /**
+     * @return all known references under the "refs" namespace (i.e. not top level ones like HEAD,
+     *         etc), key'ed by ref name
+     */
+    @Override
+    public Map<String, String> getAll() {
+        return getAll("refs");
+    }
+
+    /**
+     * @return all references under the specified namespace
+     */
+    @Override
+    public Map<String, String> getAll(String namespace) {
+        return state().getAll(prefix(namespace));
+    }
+
+    /**
+     * Removes all references under the given {@code namespace}
+     *
+     * @return the references removed
+     */
+    @Override
+    public Map<String, String> removeAll(String namespace) {
+        final String prefix = prefix(namespace);
+        return update(new Function<State, Map<String, String>>() {
+            @Override
+            public Map<String, String> apply(State state) {
+                Map<String, String> removals = Maps.newTreeMap();
+                for (String name : state.getAll(prefix).keySet()) {
+                    removals.put(name, REMOVED);
+                }
+                return removals;
+            }
+        });
+    }
+
+    private static String prefix(String namespace) {
+        return namespace.isEmpty() || namespace.endsWith("/") ? namespace : namespace + "/";
+    }
+
+    @Override
+    public void configure() throws RepositoryConnectionException {
+        RepositoryConnectionException.StorageType.REF.configure(configDB, FORMAT_NAME, VERSION);
+    }
+
+    @Override
+    public void checkConfig() throws RepositoryConnectionException {
+        RepositoryConnectionException.StorageType.REF.verify(configDB, FORMAT_NAME, VERSION);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[geogit dir: %s]", getClass().getSimpleName(), directory);
+    }
+
+    /**
+     * @return the current snapshot of the refs, reloading it if the log changed since it was read
+     */
+    private State state() {
+        State current = this.state;
+        if (current != null && current.isCurrent(stat(path(LOG_FILE_NAME)))) {
+            return current;
+        }
+        synchronized (this) {
+            try {
+                current = refresh();
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+        if (current == null) {
+            // no log yet, create it while holding the write lock
+            update(new Function<State, Map<String, String>>() {
+                @Override
+                public Map<String, String> apply(State state) {
+                    return ImmutableMap.of();
+                }
+            });
+            return state();
+        }
+        return current;
+    }
+
+    @Nullable
+    private static BasicFileAttributes stat(Path file) {
+        try {
+            return java.nio.file.Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * @return what identifies a version of the log file, which is replaced by a new file when the
+     *         table is rewritten
+     */
+    private static Object fileKey(BasicFileAttributes attributes) {
+        Object key = attributes.fileKey();
+        return key == null ? attributes.creationTime() : key;
+    }
+
+    /**
+     * Reads the records appended to the log since the last read, or reloads the table and log if
+     * the log has been replaced. Called while holding the monitor of {@code this}.
+     *
+     * @return the current refs, or {@code null} if there is no log yet and this database doesn't
+     *         hold the write lock to create it
+     */
+    @Nullable
+    private State refresh() throws IOException {
+        final Path logPath = path(LOG_FILE_NAME);
+        while (true) {
+            FileChannel log;
+            try {
+                log = FileChannel.open(logPath, StandardOpenOption.READ);
+            } catch (NoSuchFileException e) {
+                if (fileLock == null) {
+                    return null;
+                }
+                initialize();
+                continue;
+            }
+            try {
+                // checked after opening, a replaced log file never comes back
+                BasicFileAttributes attributes = stat(logPath);
+                if (attributes == null) {
+                    continue;
+                }
+                State current = this.state;
+                if (current == null || !current.logKey.equals(fileKey(attributes))) {
+                    // the table is renamed into place before its log, so the table read here is
+                    // at least as recent as the log, and the log records already in the table
+                    // apply again without changing it
+                    current = new State(Table.open(path(FILE_NAME)), fileKey(attributes));
+                }
+                readLog(current, log);
+                this.state = current;
+                return current;
+            } finally {
+                log.close();
+            }
+        }
+    }
+
+    private static void readLog(State state, FileChannel log) throws IOException {
+        final long size = log.size();
+        if (state.logLength == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (size < HEADER_SIZE || readFully(log, header, 0) < HEADER_SIZE
+                    || !hasHeader(header, LOG_MAGIC)) {
+                throw new IllegalStateException("Unrecognized refs log file");
+            }
+            state.logLength = HEADER_SIZE;
+        }
+        if (size <= state.logLength) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) (size - state.logLength));
+        readFully(log, buffer, state.logLength);
+        buffer.flip();
+        int end = 0;
+        try {
+            while (buffer.hasRemaining()) {
+                final byte type = buffer.get();
+                final String name = readString(buffer);
+                if (type == PUT) {
+                    state.changes.put(name, readString(buffer));
+                } else if (type == REMOVE) {
+                    state.changes.put(name, REMOVED);
+                } else {
+                    break;
+                }
+                state.logRecords++;
+                end = buffer.position();
+            }
+        } catch (BufferUnderflowException e) {
+            // a record being written, or the end of an interrupted write
+        }
+        state.logLength += end;
+    }
+
+    private static int readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        int read = 0;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + read);
+            if (n < 0) {
+                break;
+            }
+            read += n;
+        }
+        return read;
+    }
+
+    private static boolean hasHeader(ByteBuffer buffer, byte[] magic) {
+        byte[] actual = new byte[magic.length];
+        buffer.position(0);
+        buffer.get(actual);
+        return Arrays.equals(magic, actual) && buffer.getInt() == FORMAT_VERSION;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, CHARSET);
+    }
+
+    private static void writeString(String s, DataOutputStream out) throws IOException {
+        byte[] bytes = s.getBytes(CHARSET);
+        checkArgument(bytes.length <= 0xFFFF, "Ref name or value too long: %s", s);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Applies the changes computed from the current refs while holding the write lock.
+     *
+     * @param changes the function computing the new values of the changed refs, {@link #REMOVED}
+     *        for the refs to remove
+     * @return the previous values of the changed refs that existed
+     */
+    private Map<String, String> update(Function<State, Map<String, String>> changes) {
+        try {
+            final File lockFile = new File(directory(), LOCK_FILE_NAME);
+            synchronized (lockFile.getCanonicalPath().intern()) {
+                synchronized (this) {
+                    RandomAccessFile raf = new RandomAccessFile(lockFile, "rw");
+                    try {
+                        fileLock = raf.getChannel().lock();
+                        try {
+                            State current = refresh();
+                            return update(current, changes.apply(current));
+                        } finally {
+                            fileLock.release();
+                            fileLock = null;
+                        }
+                    } finally {
+                        raf.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private Map<String, String> update(State current, Map<String, String> changes)
+            throws IOException {
+        if (changes.isEmpty()) {
+            return ImmutableMap.of();
+        }
+        Map<String, String> previous = Maps.newHashMap();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (Entry<String, String> change : changes.entrySet()) {
+            String old = current.get(change.getKey());
+            if (old != null) {
+                previous.put(change.getKey(), old);
+            }
+            if (REMOVED.equals(change.getValue())) {
+                out.writeByte(REMOVE);
+                writeString(change.getKey(), out);
+            } else {
+                out.writeByte(PUT);
+                writeString(change.getKey(), out);
+                writeString(change.getValue(), out);
+            }
+        }
+        out.flush();
+
+        FileChannel log = FileChannel.open(path(LOG_FILE_NAME), StandardOpenOption.WRITE);
+        try {
+            if (log.size() > current.logLength) {
+                // the end of an interrupted write
+                log.truncate(current.logLength);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            long position = current.logLength;
+            while (buffer.hasRemaining()) {
+                position += log.write(buffer, position);
+            }
+            // force change to be persisted to disk
+            log.force(false);
+        } finally {
+            log.close();
+        }
+        current.changes.putAll(changes);
+        current.logRecords += changes.size();
+        current.logLength += bytes.size();
+
+        if (current.logRecords > Math.max(MIN_COMPACTION_RECORDS, current.table.size())) {
+            compact(current);
+        }
+        return previous;
+    }
+
+    /**
+     * Writes the table and an empty log for a repository that has none, packing its loose ref
+     * files if any. Called while holding the write lock.
+     */
+    private void initialize() throws IOException {
+        final File dir = directory();
+        checkState(dir.isDirectory() || dir.mkdirs(), "Unable to create directory %s", dir);
+        if (stat(path(FILE_NAME)) == null) {
+            Map<String, String> refs = Maps.newTreeMap();
+            addLooseRefs(new File(dir, "refs"), "refs", refs);
+            addLooseRefs(new File(dir, GeogitTransaction.TRANSACTIONS_NAMESPACE),
+                    GeogitTransaction.TRANSACTIONS_NAMESPACE, refs);
+            for (String name : TOP_LEVEL_REFS) {
+                addLooseRef(new File(dir, name), name, refs);
+            }
+            if (!refs.isEmpty()) {
+                LOGGER.info("Packing {} ref files of {}", refs.size(), dir);
+            }
+            writeTable(refs);
+        }
+        writeEmptyLog();
+    }
+
+    private static void addLooseRefs(File nsDir, String namespace, Map<String, String> target)
+            throws IOException {
+        File[] children = nsDir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File f : children) {
+            final String fileName = f.getName();
+            if (f.isDirectory()) {
+                addLooseRefs(f, append(namespace, fileName), target);
+            } else if (fileName.length() == 0 || fileName.charAt(0) != '.') {
+                addLooseRef(f, append(namespace, fileName), target);
+            }
+        }
+    }
+
+    private static void addLooseRef(File file, String name, Map<String, String> target)
+            throws IOException {
+        if (file.isFile()) {
+            String value = Files.readFirstLine(file, CHARSET);
+            if (value != null) {
+                target.put(name, value);
+            }
+        }
+    }
+
+    /**
+     * Rewrites the table with the changes in the log applied and replaces the log by an empty one.
+     */
+    private void compact(State current) throws IOException {
+        Map<String, String> refs = Maps.newTreeMap();
+        refs.putAll(current.getAll(""));
+        writeTable(refs);
+        writeEmptyLog();
+        BasicFileAttributes attributes = stat(path(LOG_FILE_NAME));
+        State compacted = new State(Table.open(path(FILE_NAME)), fileKey(attributes));
+        compacted.logLength = HEADER_SIZE;
+        this.state = compacted;
+    }
+
+    private void writeTable(Map<String, String> refs) throws IOException {
+        List<byte[][]> entries = Lists.newArrayListWithCapacity(refs.size());
+        for (Entry<String, String> ref : refs.entrySet()) {
+            byte[] name = ref.getKey().getBytes(CHARSET);
+            byte[] value = ref.getValue().getBytes(CHARSET);
+            checkArgument(name.length <= 0xFFFF && value.length <= 0xFFFF, "Ref too long: %s",
+                    ref.getKey());
+            entries.add(new byte[][] { name, value });
+        }
+        final Comparator<byte[]> bytesOrder = UnsignedBytes.lexicographicalComparator();
+        Collections.sort(entries, new Comparator<byte[][]>() {
+            @Override
+            public int compare(byte[][] e1, byte[][] e2) {
+                return bytesOrder.compare(e1[0], e2[0]);
+            }
+        });
+
+        File tmp = new File(directory(), FILE_NAME + ".tmp");
+        FileOutputStream fout = new FileOutputStream(tmp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fout));
+            out.write(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(entries.size());
+            int offset = HEADER_SIZE + 4 + 4 * entries.size();
+            for (byte[][] entry : entries) {
+                out.writeInt(offset);
+                offset += 2 + entry[0].length + 2 + entry[1].length;
+            }
+            for (byte[][] entry : entries) {
+                out.writeShort(entry[0].length);
+                out.write(entry[0]);
+                out.writeShort(entry[1].length);
+                out.write(entry[1]);
+            }
+            out.flush();
+            fout.getFD().sync();
+        } finally {
+            fout.close();
+        }
+        replace(tmp, FILE_NAME);
+    }
+
+    private void writeEmptyLog() throws IOException {
+        File tmp = new File(directory(), LOG_FILE_NAME + ".tmp");
+        FileOutputStream fout = new FileOutputStream(tmp);
+        try {
+            DataOutputStream out = new DataOutputStream(fout);
+            out.write(LOG_MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.flush();
+            fout.getFD().sync();
+        } finally {
+            fout.close();
+        }
+        replace(tmp, LOG_FILE_NAME);
+    }
+
+    private void replace(File tmp, String fileName) throws IOException {
+        java.nio.file.Files.move(tmp.toPath(), path(fileName), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * The refs as of a version of the log: the table the log applies to, and the changes read from
+     * the log so far.
+     */
+    private static class State {
+
+        final Table table;
+
+        final ConcurrentNavigableMap<String, String> changes;
+
+        final Object logKey;
+
+        /**
+         * The length of the log read so far, {@code 0} until its header is read
+         */
+        volatile long logLength;
+
+        int logRecords;
+
+        State(Table table, Object logKey) {
+            this.table = table;
+            this.changes = new ConcurrentSkipListMap<String, String>();
+            this.logKey = logKey;
+        }
+
+        boolean isCurrent(@Nullable BasicFileAttributes log) {
+            return log != null && log.size() == logLength && logKey.equals(fileKey(log));
+        }
+
+        @Nullable
+        String get(String name) {
+            String value = changes.get(name);
+            if (value == null) {
+                return table.get(name.getBytes(CHARSET));
+            }
+            return REMOVED.equals(value) ? null : value;
+        }
+
+        Map<String, String> getAll(String prefix) {
+            Map<String, String> refs = Maps.newTreeMap();
+            table.addAll(prefix.getBytes(CHARSET), refs);
+            Iterator<Entry<String, String>> it = changes.tailMap(prefix).entrySet().iterator();
+            while (it.hasNext()) {
+                Entry<String, String> change = it.next();
+                if (!change.getKey().startsWith(prefix)) {
+                    break;
+                }
+                if (REMOVED.equals(change.getValue())) {
+                    refs.remove(change.getKey());
+                } else {
+                    refs.put(change.getKey(), change.getValue());
+                }
+            }
+            return ImmutableMap.copyOf(refs);
+        }
+    }
+
+    /**
+     * A read only view of a memory mapped {@code packed-refs} file.
+     */
+    private static class Table {
+
+        private static final Table EMPTY = new Table(null, 0);
+
+        private final ByteBuffer buffer;
+
+        private final int size;
+
+        private Table(ByteBuffer buffer, int size) {
+            this.buffer = buffer;
+            this.size = size;
+        }
+
+        static Table open(Path file) throws IOException {
+            FileChannel channel;
+            try {
+                channel = FileChannel.open(file, StandardOpenOption.READ);
+            } catch (NoSuchFileException e) {
+                return EMPTY;
+            }
+            try {
+                ByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.limit() < HEADER_SIZE + 4 || !hasHeader(buffer, MAGIC)) {
+                    throw new IllegalStateException("Unrecognized packed refs file " + file);
+                }
+                return new Table(buffer, buffer.getInt(HEADER_SIZE));
+            } finally {
+                channel.close();
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        private int offset(int index) {
+            return buffer.getInt(HEADER_SIZE + 4 + 4 * index);
+        }
+
+        /**
+         * @return the index of the first entry whose name is not lower than {@code key}
+         */
+        private int search(byte[] key) {
+            int low = 0, high = size;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (compare(offset(mid), key) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private int compare(int offset, byte[] key) {
+            final int length = buffer.getShort(offset) & 0xFFFF;
+            final int common = Math.min(length, key.length);
+            for (int i = 0; i < common; i++) {
+                int c = (buffer.get(offset + 2 + i) & 0xFF) - (key[i] & 0xFF);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return length - key.length;
+        }
+
+        private boolean startsWith(int offset, byte[] prefix) {
+            final int length = buffer.getShort(offset) & 0xFFFF;
+            if (length < prefix.length) {
+                return false;
+            }
+            for (int i = 0; i < prefix.length; i++) {
+                if (buffer.get(offset + 2 + i) != prefix[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private String string(int offset) {
+            ByteBuffer view = buffer.duplicate();
+            view.position(offset);
+            return readString(view);
+        }
+
+        private int valueOffset(int offset) {
+            return offset + 2 + (buffer.getShort(offset) & 0xFFFF);
+        }
+
+        @Nullable
+        String get(byte[] name) {
+            final int index = search(name);
+            if (index < size) {
+                final int offset = offset(index);
+                if (compare(offset, name) == 0) {
+                    return string(valueOffset(offset));
+                }
+            }
+            return null;
+        }
+
+        void addAll(byte[] prefix, Map<String, String> target) {
+            for (int i = search(prefix); i < size; i++) {
+                final int offset = offset(i);
+                if (!startsWith(offset, prefix)) {
+                    break;
+                }
+                target.put(string(offset), string(valueOffset(offset)));
+            }
+        }
+    }
+}
@@ -7,25 +7,20 @@ package org.geogit.storage.memory;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.io.ByteArrayInputStream;
-import java.io.IOException;
 import java.io.InputStream;
 import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.ConcurrentMap;
 
 import org.geogit.api.ObjectId;
 import org.geogit.api.RevObject;
 import org.geogit.storage.AbstractObjectDatabase;
 import org.geogit.storage.BulkOpListener;
 import org.geogit.storage.ObjectDatabase;
-import org.geogit.storage.datastream.DataStreamSerializationFactory;
+import org.geogit.storage.datastream.DataStreamSerializationFactoryV2;
 
 import com.google.common.base.Preconditions;
-import com.google.common.base.Throwables;
 import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
-import com.ning.compress.lzf.LZFInputStream;
 
 /**
  * Provides an implementation of a GeoGit object database that utilizes the heap for the storage of
@@ -35,10 +30,16 @@ import com.ning.compress.lzf.LZFInputStream;
  */
 public class HeapObjectDatabse extends AbstractObjectDatabase implements ObjectDatabase {
 
-    private ConcurrentMap<ObjectId, byte[]> objects;
+    /**
+     * Number of independently locked {@link ObjectIdMap}s the objects are spread over, so
+     * concurrent writers don't contend on a single lock
+     */
+    private static final int STRIPES = 16;
+
+    private ObjectIdMap<byte[]>[] objects;
 
     public HeapObjectDatabse() {
-        super(DataStreamSerializationFactory.INSTANCE);
+        super(DataStreamSerializationFactoryV2.INSTANCE);
     }
 
     /**
@@ -49,7 +50,11 @@ public class HeapObjectDatabse extends AbstractObjectDatabase implements ObjectD
     @Override
     public void close() {
         if (objects != null) {
-            objects.clear();
+            for (ObjectIdMap<byte[]> stripe : objects) {
+                synchronized (stripe) {
+                    stripe.clear();
+                }
+            }
             objects = null;
         }
     }
@@ -70,7 +75,30 @@ public class HeapObjectDatabse extends AbstractObjectDatabase implements ObjectD
         if (isOpen()) {
             return;
         }
-        objects = Maps.newConcurrentMap();
+        @SuppressWarnings("unchecked")
+        ObjectIdMap<byte[]>[] stripes = new ObjectIdMap[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ObjectIdMap<byte[]>();
+        }
+        objects = stripes;
+    }
+
+    private ObjectIdMap<byte[]> stripe(ObjectId id) {
+        return objects[id.byteN(0) & (STRIPES - 1)];
+    }
+
+    private byte[] getBytes(ObjectId id) {
+        ObjectIdMap<byte[]> stripe = stripe(id);
+        synchronized (stripe) {
+            return stripe.get(id);
+        }
+    }
+
+    private byte[] removeBytes(ObjectId id) {
+        ObjectIdMap<byte[]> stripe = stripe(id);
+        synchronized (stripe) {
+            return stripe.remove(id);
+        }
     }
 
     /**
@@ -82,7 +110,10 @@ public class HeapObjectDatabse extends AbstractObjectDatabase implements ObjectD
     @Override
     public boolean exists(ObjectId id) {
         checkNotNull(id);
-        return objects.containsKey(id);
+        ObjectIdMap<byte[]> stripe = stripe(id);
+        synchronized (stripe) {
+            return stripe.containsKey(id);
+        }
     }
 
     /**
@@ -94,7 +125,7 @@ public class HeapObjectDatabse extends AbstractObjectDatabase implements ObjectD
     @Override
     public boolean delete(ObjectId objectId) {
         checkNotNull(objectId);
-        return objects.remove(objectId) != null;
+        return removeBytes(objectId) != null;
     }
 
     @Override
@@ -112,9 +143,13 @@ public class HeapObjectDatabse extends AbstractObjectDatabase implements ObjectD
     public List<ObjectId> lookUp(final String partialId) {
         Preconditions.checkNotNull(partialId);
         List<ObjectId> matches = Lists.newLinkedList();
-        for (ObjectId id : objects.keySet()) {
-            if (id.toString().startsWith(partialId)) {
-                matches.add(id);
+        for (ObjectIdMap<byte[]> stripe : objects) {
+            synchronized (stripe) {
+                for (ObjectId id : stripe.keySet()) {
+                    if (id.toString().startsWith(partialId)) {
+                        matches.add(id);
+                    }
+                }
             }
         }
         return matches;
@@ -123,7 +158,7 @@ public class HeapObjectDatabse extends AbstractObjectDatabase implements ObjectD
     @Override
     protected InputStream getRawInternal(ObjectId id, boolean failIfNotFound)
             throws IllegalArgumentException {
-        byte[] data = objects.get(id);
+        byte[] data = getBytes(id);
         if (data == null) {
             if (failIfNotFound) {
                 throw new IllegalArgumentException(id + " does not exist");
@@ -135,8 +170,10 @@ public class HeapObjectDatabse extends AbstractObjectDatabase implements ObjectD
 
     @Override
     protected boolean putInternal(ObjectId id, byte[] rawData) {
-        byte[] previousValue = objects.putIfAbsent(id, rawData);
-        return previousValue == null;
+        ObjectIdMap<byte[]> stripe = stripe(id);
+        synchronized (stripe) {
+            return stripe.putIfAbsent(id, rawData) == null;
+        }
     }
 
     @Override
@@ -144,7 +181,7 @@ public class HeapObjectDatabse extends AbstractObjectDatabase implements ObjectD
         long count = 0;
         while (ids.hasNext()) {
             ObjectId id = ids.next();
-            byte[] removed = this.objects.remove(id);
+            byte[] removed = removeBytes(id);
             if (removed != null) {
                 count++;
                 listener.deleted(id);
@@ -168,14 +205,10 @@ public class HeapObjectDatabse extends AbstractObjectDatabase implements ObjectD
                 byte[] raw;
                 while (iterator.hasNext() && found == null) {
                     id = iterator.next();
-                    raw = objects.get(id);
+                    raw = getBytes(id);
                     if (raw != null) {
-                        try {
-                            found = serializationFactory.createObjectReader().read(id,
-                                    new LZFInputStream(new ByteArrayInputStream(raw)));
-                        } catch (IOException e) {
-                            throw Throwables.propagate(e);
-                        }
+                        found = serializationFactory.createObjectReader().read(id,
+                                uncompress(new ByteArrayInputStream(raw)));
                         listener.found(found.getId(), raw.length);
                     } else {
                         listener.notFound(id);
@@ -0,0 +1,286 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.memory;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+
+import org.geogit.api.ObjectId;
+
+/**
+ * Base open addressing hash table for {@link ObjectId} keys, with the keys stored inline in a
+ * {@code long[]} instead of as {@code ObjectId} instances.
+ * <p>
+ * Each slot takes three longs: the first and second eight bytes of the id, and the last four
+ * bytes plus a flag marking the slot as used. Collisions are resolved by linear probing, and
+ * removal shifts back the following entries of the probe sequence so no tombstones are needed.
+ * <p>
+ * Subclasses holding values per key are told about slot moves through {@link #moveSlot} and
+ * {@link #rehash}.
+ * <p>
+ * Instances are not thread safe.
+ */
+abstract class ObjectIdHashTable {
+
+    private static final int LONGS_PER_SLOT = 3;
+
+    private static final long USED = 1L << 32;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private static final float LOAD_FACTOR = 0.7f;
+
+    private long[] keys;
+
+    private int mask;
+
+    private int size;
+
+    private int threshold;
+
+    ObjectIdHashTable(final int expectedSize) {
+        checkArgument(expectedSize >= 0, "expectedSize shall be >= 0");
+        allocate(capacityFor(expectedSize));
+    }
+
+    private static int capacityFor(final int expectedSize) {
+        long needed = (long) Math.ceil(expectedSize / LOAD_FACTOR) + 1;
+        int capacity = MIN_CAPACITY;
+        while (capacity < needed) {
+            checkArgument(capacity < (1 << 29), "too many entries: %s", expectedSize);
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private void allocate(final int capacity) {
+        this.keys = new long[capacity * LONGS_PER_SLOT];
+        this.mask = capacity - 1;
+        this.threshold = (int) (capacity * LOAD_FACTOR);
+        allocateValues(capacity);
+    }
+
+    /**
+     * Called whenever the table is (re)allocated, for subclasses to allocate their per slot
+     * storage
+     */
+    protected void allocateValues(int capacity) {
+        // no values by default
+    }
+
+    /**
+     * Called when the entry at slot {@code from} is moved to the empty slot {@code to} of the same
+     * table
+     */
+    protected void moveSlot(int from, int to) {
+        // no values by default
+    }
+
+    /**
+     * Called when the table grows, with the old per slot storage already replaced by the one
+     * allocated through {@link #allocateValues}
+     */
+    protected void rehash(int oldSlot, int newSlot) {
+        // no values by default
+    }
+
+    /**
+     * Called once all the entries have been moved to the grown table
+     */
+    protected void rehashed() {
+        // no values by default
+    }
+
+    /**
+     * Called for the slot being emptied by a removal, once any following entry has been shifted
+     */
+    protected void clearSlot(int slot) {
+        // no values by default
+    }
+
+    /**
+     * Called on {@link #clear()} for subclasses to clear their per slot storage
+     */
+    protected void clearValues() {
+        // no values by default
+    }
+
+    private static long k0(ObjectId id) {
+        return bytesToLong(id, 0);
+    }
+
+    private static long k1(ObjectId id) {
+        return bytesToLong(id, 8);
+    }
+
+    private static long k2(ObjectId id) {
+        return USED | ((long) id.byteN(16) << 24) | (id.byteN(17) << 16) | (id.byteN(18) << 8)
+                | id.byteN(19);
+    }
+
+    private static long bytesToLong(ObjectId id, int offset) {
+        long l = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            l = (l << 8) | id.byteN(i);
+        }
+        return l;
+    }
+
+    private int home(final long k0) {
+        // ids are already uniformly distributed, just fold the first eight bytes
+        return (int) (k0 ^ (k0 >>> 32)) & mask;
+    }
+
+    /**
+     * @return the slot holding {@code id}, or {@code -(insertionSlot + 1)} if it's not present
+     */
+    protected final int find(final ObjectId id) {
+        final long k0 = k0(id);
+        final long k1 = k1(id);
+        final long k2 = k2(id);
+        final long[] keys = this.keys;
+        int slot = home(k0);
+        while (true) {
+            final int i = slot * LONGS_PER_SLOT;
+            final long used = keys[i + 2];
+            if (used == 0L) {
+                return -(slot + 1);
+            }
+            if (keys[i] == k0 && keys[i + 1] == k1 && used == k2) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Stores {@code id} at the insertion slot returned by {@link #find}, growing the table if
+     * needed
+     *
+     * @return the slot where the id ended up
+     */
+    protected final int insert(final ObjectId id, final int insertionSlot) {
+        int slot = insertionSlot;
+        if (size >= threshold) {
+            grow();
+            slot = -(find(id) + 1);
+        }
+        final int i = slot * LONGS_PER_SLOT;
+        keys[i] = k0(id);
+        keys[i + 1] = k1(id);
+        keys[i + 2] = k2(id);
+        size++;
+        return slot;
+    }
+
+    /**
+     * Empties the given used slot, shifting back the entries that follow it in the probe sequence
+     */
+    protected final void removeSlot(final int removed) {
+        final long[] keys = this.keys;
+        int gap = removed;
+        int slot = gap;
+        while (true) {
+            slot = (slot + 1) & mask;
+            final int i = slot * LONGS_PER_SLOT;
+            if (keys[i + 2] == 0L) {
+                break;
+            }
+            final int home = home(keys[i]);
+            // move the entry to the gap unless its home lies cyclically in (gap, slot]
+            boolean movable = gap <= slot ? (home <= gap || home > slot)
+                    : (home <= gap && home > slot);
+            if (movable) {
+                final int g = gap * LONGS_PER_SLOT;
+                keys[g] = keys[i];
+                keys[g + 1] = keys[i + 1];
+                keys[g + 2] = keys[i + 2];
+                moveSlot(slot, gap);
+                gap = slot;
+            }
+        }
+        final int g = gap * LONGS_PER_SLOT;
+        keys[g] = 0L;
+        keys[g + 1] = 0L;
+        keys[g + 2] = 0L;
+        clearSlot(gap);
+        size--;
+    }
+
+    private void grow() {
+        final long[] oldKeys = this.keys;
+        final int oldCapacity = mask + 1;
+        checkArgument(oldCapacity < (1 << 29), "ObjectId table is full");
+        allocate(oldCapacity << 1);
+        final long[] keys = this.keys;
+        for (int oldSlot = 0; oldSlot < oldCapacity; oldSlot++) {
+            final int o = oldSlot * LONGS_PER_SLOT;
+            if (oldKeys[o + 2] == 0L) {
+                continue;
+            }
+            int slot = home(oldKeys[o]);
+            while (keys[slot * LONGS_PER_SLOT + 2] != 0L) {
+                slot = (slot + 1) & mask;
+            }
+            final int i = slot * LONGS_PER_SLOT;
+            keys[i] = oldKeys[o];
+            keys[i + 1] = oldKeys[o + 1];
+            keys[i + 2] = oldKeys[o + 2];
+            rehash(oldSlot, slot);
+        }
+        rehashed();
+    }
+
+    /**
+     * @return the number of slots, used or not
+     */
+    protected final int capacity() {
+        return mask + 1;
+    }
+
+    protected final boolean isUsed(final int slot) {
+        return keys[slot * LONGS_PER_SLOT + 2] != 0L;
+    }
+
+    /**
+     * @return a new {@link ObjectId} for the key at the given used slot
+     */
+    protected final ObjectId idAt(final int slot) {
+        final int i = slot * LONGS_PER_SLOT;
+        byte[] raw = new byte[ObjectId.NUM_BYTES];
+        longToBytes(keys[i], raw, 0);
+        longToBytes(keys[i + 1], raw, 8);
+        final long last = keys[i + 2];
+        raw[16] = (byte) (last >>> 24);
+        raw[17] = (byte) (last >>> 16);
+        raw[18] = (byte) (last >>> 8);
+        raw[19] = (byte) last;
+        return ObjectId.createNoClone(raw);
+    }
+
+    private static void longToBytes(long l, byte[] target, int offset) {
+        for (int i = offset + 7; i >= offset; i--) {
+            target[i] = (byte) l;
+            l >>>= 8;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(keys, 0L);
+            clearValues();
+            size = 0;
+        }
+    }
+}
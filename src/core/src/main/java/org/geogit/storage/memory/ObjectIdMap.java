@@ -0,0 +1,261 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.memory;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.ObjectId;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Maps;
+
+/**
+ * A {@link Map} keyed by {@link ObjectId} that stores the keys inline in a primitive open
+ * addressing hash table, with the values in a parallel array. There are no per entry objects
+ * other than the values themselves.
+ * <p>
+ * {@code null} values are not supported. The keys returned by the views are created on demand,
+ * and the view iterators do not support {@link Iterator#remove() removal}. Instances are not
+ * thread safe.
+ *
+ * @see ObjectIdSet
+ */
+public class ObjectIdMap<V> extends AbstractMap<ObjectId, V> {
+
+    private static class Table extends ObjectIdHashTable {
+
+        private Object[] values;
+
+        private Object[] rehashing;
+
+        Table(int expectedSize) {
+            super(expectedSize);
+        }
+
+        @Override
+        protected void allocateValues(int capacity) {
+            rehashing = values;
+            values = new Object[capacity];
+        }
+
+        @Override
+        protected void rehash(int oldSlot, int newSlot) {
+            values[newSlot] = rehashing[oldSlot];
+        }
+
+        @Override
+        protected void rehashed() {
+            rehashing = null;
+        }
+
+        @Override
+        protected void moveSlot(int from, int to) {
+            values[to] = values[from];
+        }
+
+        @Override
+        protected void clearSlot(int slot) {
+            values[slot] = null;
+        }
+
+        @Override
+        protected void clearValues() {
+            Arrays.fill(values, null);
+        }
+    }
+
+    private final Table table;
+
+    public ObjectIdMap() {
+        this(0);
+    }
+
+    /**
+     * @param expectedSize the number of entries the map is expected to hold, to avoid rehashing
+     */
+    public ObjectIdMap(final int expectedSize) {
+        this.table = new Table(expectedSize);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V valueAt(int slot) {
+        return (V) table.values[slot];
+    }
+
+    @Override
+    public @Nullable
+    V get(Object key) {
+        if (!(key instanceof ObjectId)) {
+            return null;
+        }
+        final int slot = table.find((ObjectId) key);
+        return slot < 0 ? null : valueAt(slot);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof ObjectId && table.find((ObjectId) key) >= 0;
+    }
+
+    @Override
+    public @Nullable
+    V put(ObjectId key, V value) {
+        checkNotNull(key);
+        checkNotNull(value, "null values are not supported");
+        int slot = table.find(key);
+        if (slot >= 0) {
+            V previous = valueAt(slot);
+            table.values[slot] = value;
+            return previous;
+        }
+        slot = table.insert(key, -(slot + 1));
+        table.values[slot] = value;
+        return null;
+    }
+
+    /**
+     * Stores the value only if there's no value for {@code key} yet
+     *
+     * @return the current value if present, {@code null} if {@code value} was stored
+     */
+    public @Nullable
+    V putIfAbsent(ObjectId key, V value) {
+        checkNotNull(key);
+        checkNotNull(value, "null values are not supported");
+        int slot = table.find(key);
+        if (slot >= 0) {
+            return valueAt(slot);
+        }
+        slot = table.insert(key, -(slot + 1));
+        table.values[slot] = value;
+        return null;
+    }
+
+    @Override
+    public @Nullable
+    V remove(Object key) {
+        if (!(key instanceof ObjectId)) {
+            return null;
+        }
+        final int slot = table.find((ObjectId) key);
+        if (slot < 0) {
+            return null;
+        }
+        V previous = valueAt(slot);
+        table.removeSlot(slot);
+        return previous;
+    }
+
+    @Override
+    public int size() {
+        return table.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return table.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        table.clear();
+    }
+
+    /**
+     * Iterates over the used slots
+     */
+    private abstract class SlotIterator<T> extends AbstractIterator<T> {
+        private int slot = -1;
+
+        @Override
+        protected final T computeNext() {
+            final int capacity = table.capacity();
+            while (++slot < capacity) {
+                if (table.isUsed(slot)) {
+                    return at(slot);
+                }
+            }
+            return endOfData();
+        }
+
+        protected abstract T at(int slot);
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new SlotIterator<V>() {
+                    @Override
+                    protected V at(int slot) {
+                        return valueAt(slot);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return table.size();
+            }
+        };
+    }
+
+    @Override
+    public Set<ObjectId> keySet() {
+        return new AbstractSet<ObjectId>() {
+            @Override
+            public Iterator<ObjectId> iterator() {
+                return new SlotIterator<ObjectId>() {
+                    @Override
+                    protected ObjectId at(int slot) {
+                        return table.idAt(slot);
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+
+            @Override
+            public int size() {
+                return table.size();
+            }
+        };
+    }
+
+    @Override
+    public Set<Map.Entry<ObjectId, V>> entrySet() {
+        return new AbstractSet<Map.Entry<ObjectId, V>>() {
+            @Override
+            public Iterator<Map.Entry<ObjectId, V>> iterator() {
+                return new SlotIterator<Map.Entry<ObjectId, V>>() {
+                    @Override
+                    protected Map.Entry<ObjectId, V> at(int slot) {
+                        return Maps.immutableEntry(table.idAt(slot), valueAt(slot));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return table.size();
+            }
+        };
+    }
+}
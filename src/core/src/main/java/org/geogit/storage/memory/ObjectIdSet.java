@@ -0,0 +1,119 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.memory;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+
+import org.geogit.api.ObjectId;
+
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * A {@link java.util.Set} of {@link ObjectId}s that stores the ids inline in a primitive open
+ * addressing hash table, using 24 bytes per slot and no per entry objects.
+ * <p>
+ * Meant for the large visited/seen sets of history and tree traversals, where a
+ * {@code HashSet<ObjectId>} would keep an entry, an {@code ObjectId} and its byte array alive for
+ * each id.
+ * <p>
+ * The ids returned by {@link #iterator()} are created on demand, and the iterator does not support
+ * {@link Iterator#remove() removal}. Instances are not thread safe.
+ */
+public class ObjectIdSet extends AbstractSet<ObjectId> {
+
+    private final ObjectIdHashTable table;
+
+    public ObjectIdSet() {
+        this(0);
+    }
+
+    /**
+     * @param expectedSize the number of ids the set is expected to hold, to avoid rehashing
+     */
+    public ObjectIdSet(final int expectedSize) {
+        this.table = new ObjectIdHashTable(expectedSize) {
+        };
+    }
+
+    public ObjectIdSet(final Collection<ObjectId> ids) {
+        this(ids.size());
+        addAll(ids);
+    }
+
+    @Override
+    public boolean add(ObjectId id) {
+        final int slot = table.find(id);
+        if (slot >= 0) {
+            return false;
+        }
+        table.insert(id, -(slot + 1));
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof ObjectId && table.find((ObjectId) o) >= 0;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!(o instanceof ObjectId)) {
+            return false;
+        }
+        final int slot = table.find((ObjectId) o);
+        if (slot < 0) {
+            return false;
+        }
+        table.removeSlot(slot);
+        return true;
+    }
+
+    /**
+     * Overrides the default implementation, that may use {@link Iterator#remove()}
+     */
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        boolean changed = false;
+        for (Object o : c) {
+            changed |= remove(o);
+        }
+        return changed;
+    }
+
+    @Override
+    public int size() {
+        return table.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return table.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        table.clear();
+    }
+
+    @Override
+    public Iterator<ObjectId> iterator() {
+        return new AbstractIterator<ObjectId>() {
+            private int slot = -1;
+
+            @Override
+            protected ObjectId computeNext() {
+                final int capacity = table.capacity();
+                while (++slot < capacity) {
+                    if (table.isUsed(slot)) {
+                        return table.idAt(slot);
+                    }
+                }
+                return endOfData();
+            }
+        };
+    }
+}
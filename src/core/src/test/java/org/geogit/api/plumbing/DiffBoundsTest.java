@@ -10,12 +10,15 @@ import java.util.List;
 import javax.annotation.Nullable;
 
 import org.geogit.api.DefaultProgressListener;
+import org.geogit.api.ObjectId;
 import org.geogit.api.RevCommit;
 import org.geogit.api.RevTree;
+import org.geogit.api.plumbing.diff.DiffObjectCount;
 import org.geogit.api.plumbing.diff.DiffSummary;
 import org.geogit.api.porcelain.AddOp;
 import org.geogit.api.porcelain.CommitOp;
 import org.geogit.repository.WorkingTree;
+import org.geogit.storage.DiffSummaryCache;
 import org.geogit.test.integration.RepositoryTestCase;
 import org.geotools.data.DataUtilities;
 import org.geotools.feature.SchemaException;
@@ -27,10 +30,12 @@ import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.geometry.BoundingBox;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
+import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
 import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.io.ParseException;
 
 public class DiffBoundsTest extends RepositoryTestCase {
@@ -157,6 +162,45 @@ public class DiffBoundsTest extends RepositoryTestCase {
         assertEquals(DEFAULT_CRS, diffBounds.getMergedResult().get().getCoordinateReferenceSystem());
     }
 
+    @Test
+    public void testCachedSummaries() throws Exception {
+        DiffSummary<BoundingBox, BoundingBox> computed = geogit.command(DiffBounds.class)
+                .setOldVersion("HEAD~3").setNewVersion("HEAD").call();
+        DiffObjectCount count = geogit.command(DiffCount.class).setOldVersion("HEAD~3")
+                .setNewVersion("HEAD").call();
+
+        // the summaries are in the repository's cache file
+        DiffSummaryCache cache = new DiffSummaryCache(geogit.getPlatform());
+        ObjectId left = geogit.command(ResolveTreeish.class).setTreeish("HEAD~3").call().get();
+        ObjectId right = geogit.command(ResolveTreeish.class).setTreeish("HEAD").call().get();
+        List<String> noFilters = ImmutableList.of();
+        Optional<DiffSummary<Envelope, Envelope>> cachedBounds = cache.getBounds(left, right,
+                noFilters);
+        assertTrue(cachedBounds.isPresent());
+        assertEquals(new Envelope((ReferencedEnvelope) computed.getLeft()), cachedBounds.get()
+                .getLeft());
+        assertEquals(new Envelope((ReferencedEnvelope) computed.getRight()), cachedBounds.get()
+                .getRight());
+        Optional<DiffObjectCount> cachedCount = cache.getCount(left, right, noFilters);
+        assertTrue(cachedCount.isPresent());
+        assertEquals(count.getFeaturesChanged(), cachedCount.get().getFeaturesChanged());
+        assertEquals(count.count(), cachedCount.get().count());
+
+        DiffSummary<BoundingBox, BoundingBox> fromCache = geogit.command(DiffBounds.class)
+                .setOldVersion("HEAD~3").setNewVersion("HEAD").call();
+        assertEquals(DEFAULT_CRS, fromCache.getMergedResult().get().getCoordinateReferenceSystem());
+        assertEquals(new Envelope((ReferencedEnvelope) computed.getMergedResult().get()),
+                new Envelope((ReferencedEnvelope) fromCache.getMergedResult().get()));
+        assertEquals(count.count(), geogit.command(DiffCount.class).setOldVersion("HEAD~3")
+                .setNewVersion("HEAD").call().count());
+
+        // the working tree is not cached
+        final int size = cache.size();
+        insert(l1Modified);
+        geogit.command(DiffCount.class).setOldVersion("HEAD").setNewVersion("WORK_HEAD").call();
+        assertEquals(size, new DiffSummaryCache(geogit.getPlatform()).size());
+    }
+
     @Test
     public void testReprojectToTargetCRS() throws Exception {
         DiffBounds cmd = geogit.command(DiffBounds.class).setOldVersion("HEAD^")
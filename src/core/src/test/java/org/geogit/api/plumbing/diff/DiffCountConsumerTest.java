@@ -5,6 +5,8 @@
 
 package org.geogit.api.plumbing.diff;
 
+import java.util.concurrent.ForkJoinPool;
+
 import org.geogit.api.Bucket;
 import org.geogit.api.Node;
 import org.geogit.api.NodeRef;
@@ -88,6 +90,18 @@ public class DiffCountConsumerTest extends Assert {
         return count;
     }
 
+    private DiffObjectCount parallelCount(RevTree left, RevTree right) {
+        DiffTreeVisitor visitor = new DiffTreeVisitor(left, right, odb, odb);
+        DiffCountConsumer consumer = new DiffCountConsumer(odb);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            visitor.walk(consumer, pool);
+        } finally {
+            pool.shutdown();
+        }
+        return consumer.get();
+    }
+
     @Test
     public void testSameTree() {
         DiffObjectCount count = count(childrenFeatureTree, childrenFeatureTree);
@@ -283,6 +297,39 @@ public class DiffCountConsumerTest extends Assert {
         assertEquals(expected, count(changed, deepTree).featureCount());
     }
 
+    @Test
+    public void testParallelWalk() {
+        final RevTree deepTree = createFeaturesTree("", 20000 + RevTree.NORMALIZED_SIZE_LIMIT)
+                .build();
+        assertTrue(depth(deepTree, 0) > 1);
+
+        RevTreeBuilder builder = new RevTreeBuilder(odb, deepTree);
+        int removed = 0, changed = 0;
+        for (int i = 0; i < deepTree.size(); i += 3) {
+            builder.remove(String.valueOf(i));
+            removed++;
+        }
+        for (int i = 1; i < deepTree.size(); i += 7) {
+            builder.put(Node.create(String.valueOf(i), FAKE_FEATURE_ID_CHANGED, ObjectId.NULL,
+                    TYPE.FEATURE, null));
+            changed++;
+        }
+        RevTree newTree = builder.build();
+
+        DiffObjectCount sequential = count(deepTree, newTree);
+        DiffObjectCount parallel = parallelCount(deepTree, newTree);
+        assertEquals(removed, sequential.getFeaturesRemoved());
+        assertEquals(sequential.getFeaturesRemoved(), parallel.getFeaturesRemoved());
+        assertEquals(sequential.getFeaturesChanged(), parallel.getFeaturesChanged());
+        assertEquals(sequential.getFeaturesAdded(), parallel.getFeaturesAdded());
+        assertTrue(parallel.getFeaturesChanged() > 0 && parallel.getFeaturesChanged() <= changed);
+
+        assertEquals(deepTree.size(), parallelCount(RevTree.EMPTY, deepTree).getFeaturesAdded());
+        assertEquals(0, parallelCount(deepTree, deepTree).featureCount());
+        assertEquals(count(childrenFeatureTypesTree, bucketsFeatureTree).featureCount(),
+                parallelCount(childrenFeatureTypesTree, bucketsFeatureTree).featureCount());
+    }
+
     private int depth(RevTree deepTree, int currDepth) {
         if (!deepTree.buckets().isPresent()) {
             return currDepth;
@@ -5,10 +5,13 @@
 
 package org.geogit.api.plumbing.diff;
 
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeSet;
 
@@ -19,6 +22,7 @@ import org.geogit.api.Node;
 import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
 import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevObject;
 import org.geogit.api.RevTree;
 import org.geogit.api.RevTreeImpl;
 import org.geogit.storage.NodeStorageOrder;
@@ -26,12 +30,16 @@ import org.geogit.storage.ObjectDatabase;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 /**
@@ -239,6 +247,38 @@ public class TreeDiffEntryIteratorTest extends Assert {
         assertEquals(expected, diffset);
     }
 
+    @Test
+    public void testBucketBucketNonAdjacentBuckets() {
+        // the bucket trees are resolved in batches, make the mock resolve them one by one
+        when(mockDb.getAll(any(Iterable.class))).thenAnswer(new Answer<Iterator<RevObject>>() {
+            @Override
+            public Iterator<RevObject> answer(InvocationOnMock invocation) {
+                List<RevObject> trees = Lists.newArrayList();
+                for (Object id : (Iterable<?>) invocation.getArguments()[0]) {
+                    trees.add(mockDb.getTree((ObjectId) id));
+                }
+                return trees.iterator();
+            }
+        });
+
+        RevTree removed = childenTree("1", "aa", "3", "cc");
+        RevTree changedV1 = childenTree("2", "bb");
+        RevTree changedV2 = childenTree("2", "b2");
+
+        // buckets 3 and 17 would be walked as 17, 3 in hash order
+        RevTree leftTree = bucketTree("left", 3, removed, 17, changedV1);
+        RevTree rightTree = bucketTree("right", 17, changedV2);
+
+        ImmutableSet<DiffEntry> diffset = diffSet(leftTree, rightTree);
+        ImmutableSet<DiffEntry> expected = ImmutableSet.of(//
+                entry("1", "aa", null, null),//
+                entry("3", "cc", null, null),//
+                entry("2", "bb", "2", "b2")//
+                );
+
+        assertEquals(expected, diffset);
+    }
+
     private RevTree bucketTree() {
 
         ObjectId id = ObjectId.forString("null");
@@ -250,6 +290,23 @@ public class TreeDiffEntryIteratorTest extends Assert {
         return tree;
     }
 
+    private RevTree bucketTree(String name, Object... bucketTreeKvps) {
+
+        Map<Integer, Bucket> bucketTrees = Maps.newTreeMap();
+        long size = 0;
+        for (int i = 0; i < bucketTreeKvps.length; i += 2) {
+            RevTree bucketTree = (RevTree) bucketTreeKvps[i + 1];
+            bucketTrees.put((Integer) bucketTreeKvps[i], Bucket.create(bucketTree.getId(), null));
+            size += bucketTree.size();
+        }
+        ObjectId id = ObjectId.forString(name);
+        RevTreeImpl tree = RevTreeImpl.createNodeTree(id, size, 0, bucketTrees);
+
+        when(mockDb.getTree(eq(id))).thenReturn(tree);
+
+        return tree;
+    }
+
     private RevTree childenTree(@Nullable String... pathIdKvps) {
 
         TreeSet<Node> features = Sets.newTreeSet(new NodeStorageOrder());
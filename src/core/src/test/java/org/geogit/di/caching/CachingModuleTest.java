@@ -7,14 +7,17 @@ package org.geogit.di.caching;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.File;
 import java.util.Iterator;
+import java.util.Map;
 
 import org.geogit.api.CommitBuilder;
 import org.geogit.api.Context;
@@ -47,6 +50,8 @@ import org.opengis.feature.simple.SimpleFeatureType;
 import com.google.common.base.Throwables;
 import com.google.common.cache.Cache;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Module;
@@ -182,4 +187,27 @@ public class CachingModuleTest {
         assertNotSame(s3, actual);
         assertEquals(s3, actual);
     }
+
+    @Test
+    public void testGetAll() {
+        when(odbCache.getAllPresent(any(Iterable.class))).thenReturn(
+                ImmutableMap.of(o1.getId(), o1));
+
+        Iterator<RevObject> all = odb.getAll(ImmutableList.of(o1.getId(), o2.getId(),
+                o3.getId()));
+        Map<ObjectId, RevObject> found = Maps.newHashMap();
+        while (all.hasNext()) {
+            RevObject object = all.next();
+            found.put(object.getId(), object);
+        }
+        assertEquals(3, found.size());
+        assertSame(o1, found.get(o1.getId()));
+        assertEquals(o2, found.get(o2.getId()));
+        assertEquals(o3, found.get(o3.getId()));
+
+        // only the misses are cached, and only if cacheable
+        verify(odbCache, never()).put(eq(o1.getId()), any(RevObject.class));
+        verify(odbCache, never()).put(eq(o2.getId()), any(RevObject.class));
+        verify(odbCache).put(eq(o3.getId()), eq(o3));
+    }
 }
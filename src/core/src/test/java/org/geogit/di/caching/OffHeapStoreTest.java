@@ -0,0 +1,86 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.di.caching;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.geogit.api.ObjectId;
+import org.junit.Test;
+
+public class OffHeapStoreTest {
+
+    private static ObjectId id(int i) {
+        return ObjectId.forString("object " + i);
+    }
+
+    private static byte[] value(int i, int size) {
+        byte[] value = new byte[size];
+        for (int j = 0; j < size; j++) {
+            value[j] = (byte) (i + j);
+        }
+        return value;
+    }
+
+    @Test
+    public void testPutGet() {
+        OffHeapStore store = new OffHeapStore(4096, 1024);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(store.put(id(i), value(i, 100)));
+        }
+        assertEquals(10, store.size());
+        assertEquals(1000, store.usedBytes());
+        for (int i = 0; i < 10; i++) {
+            assertArrayEquals(value(i, 100), store.get(id(i)));
+        }
+        assertNull(store.get(id(11)));
+
+        store.remove(id(0));
+        assertNull(store.get(id(0)));
+    }
+
+    @Test
+    public void testValueLargerThanSegment() {
+        OffHeapStore store = new OffHeapStore(4096, 1024);
+        assertFalse(store.put(id(0), value(0, 1025)));
+        assertNull(store.get(id(0)));
+    }
+
+    @Test
+    public void testEvictsOldestSegment() {
+        // 4 segments of 10 values each
+        OffHeapStore store = new OffHeapStore(4000, 1000);
+        for (int i = 0; i < 50; i++) {
+            store.put(id(i), value(i, 100));
+        }
+        // writing the 41st value recycled the first segment
+        assertEquals(10, store.evictionCount());
+        assertEquals(40, store.size());
+        assertTrue(store.usedBytes() <= 4000);
+        for (int i = 0; i < 10; i++) {
+            assertNull(store.get(id(i)));
+        }
+        for (int i = 10; i < 50; i++) {
+            assertArrayEquals(value(i, 100), store.get(id(i)));
+        }
+    }
+
+    @Test
+    public void testClear() {
+        OffHeapStore store = new OffHeapStore(4000, 1000);
+        for (int i = 0; i < 20; i++) {
+            store.put(id(i), value(i, 100));
+        }
+        store.clear();
+        assertEquals(0, store.size());
+        assertEquals(0, store.usedBytes());
+        assertNull(store.get(id(1)));
+        store.put(id(1), value(1, 100));
+        assertArrayEquals(value(1, 100), store.get(id(1)));
+    }
+}
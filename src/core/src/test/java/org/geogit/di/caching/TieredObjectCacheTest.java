@@ -0,0 +1,107 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.di.caching;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.geogit.api.RevFeature;
+import org.geogit.storage.datastream.DataStreamSerializationFactoryV2;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
+public class TieredObjectCacheTest {
+
+    private static RevFeature feature(int i) {
+        return RevFeature.build(ImmutableList.<Optional<Object>> of(
+                Optional.<Object> of("feature." + i), Optional.<Object> of(i)));
+    }
+
+    private static TieredObjectCache cache(int heapMaxEntries, long maxBytes, int segmentSize) {
+        return new TieredObjectCache(heapMaxEntries, new OffHeapStore(maxBytes, segmentSize),
+                DataStreamSerializationFactoryV2.INSTANCE);
+    }
+
+    @Test
+    public void testPromotesFromOffHeap() {
+        TieredObjectCache cache = cache(2, 64 * 1024, 16 * 1024);
+        for (int i = 0; i < 5; i++) {
+            cache.put(feature(i).getId(), feature(i));
+        }
+        assertEquals(5, cache.size());
+        assertEquals(0, cache.stats().loadCount());
+
+        // evicted from the heap tier, decoded from the off-heap one
+        RevFeature first = feature(0);
+        RevFeature decoded = (RevFeature) cache.getIfPresent(first.getId());
+        assertEquals(first, decoded);
+        assertNotSame(first, decoded);
+        assertEquals(1, cache.stats().loadCount());
+
+        // promoted to the heap tier
+        assertSame(decoded, cache.getIfPresent(first.getId()));
+        assertEquals(1, cache.stats().loadCount());
+        assertEquals(2, cache.stats().hitCount());
+    }
+
+    @Test
+    public void testSerializesOnEviction() {
+        TieredObjectCache cache = cache(2, 64 * 1024, 16 * 1024);
+        cache.put(feature(0).getId(), feature(0));
+        cache.put(feature(1).getId(), feature(1));
+        // both fit on the heap, nothing is serialized
+        assertEquals(0, cache.offHeapBytes());
+        assertEquals(2, cache.size());
+
+        cache.put(feature(2).getId(), feature(2));
+        assertTrue(cache.offHeapBytes() > 0);
+        assertEquals(3, cache.size());
+        assertEquals(feature(0), cache.getIfPresent(feature(0).getId()));
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void testByteBoundedEviction() {
+        TieredObjectCache cache = cache(1, 1024, 256);
+        final int count = 500;
+        for (int i = 0; i < count; i++) {
+            cache.put(feature(i).getId(), feature(i));
+            assertTrue(cache.offHeapBytes() <= 1024);
+        }
+        assertTrue(cache.size() < count);
+        assertEquals(count - cache.size(), cache.stats().evictionCount());
+
+        // the oldest ones are gone, the newest ones are still there
+        assertNull(cache.getIfPresent(feature(0).getId()));
+        assertEquals(feature(count - 2), cache.getIfPresent(feature(count - 2).getId()));
+    }
+
+    @Test
+    public void testStaleAfterSegmentRecycled() {
+        TieredObjectCache cache = cache(1, 512, 256);
+        final RevFeature first = feature(0);
+        cache.put(first.getId(), first);
+        // keep writing until the segment of the first feature is reused
+        int i = 1;
+        while (cache.stats().evictionCount() == 0) {
+            cache.put(feature(i).getId(), feature(i));
+            i++;
+        }
+        assertNull(cache.getIfPresent(first.getId()));
+
+        // written again to the current segment, the old location doesn't shadow it
+        cache.put(first.getId(), first);
+        cache.put(feature(i).getId(), feature(i));
+        RevFeature found = (RevFeature) cache.getIfPresent(first.getId());
+        assertNotNull(found);
+        assertEquals(first, found);
+    }
+}
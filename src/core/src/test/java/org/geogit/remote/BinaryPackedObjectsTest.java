@@ -0,0 +1,242 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.remote;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevObject;
+import org.geogit.api.plumbing.CreateDeduplicator;
+import org.geogit.api.plumbing.ResolveBitmaps;
+import org.geogit.api.plumbing.UpdateBitmapsOp;
+import org.geogit.storage.Deduplicator;
+import org.geogit.storage.ReachabilityBitmaps;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.geogit.test.integration.RepositoryTestCase;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+public class BinaryPackedObjectsTest extends RepositoryTestCase {
+
+    private List<ObjectId> commitIds;
+
+    private HeapObjectDatabse target;
+
+    @Override
+    protected void setUpInternal() throws Exception {
+        List<RevCommit> commits = populate(true, points1, points2, points3, lines1, lines2,
+                lines3);
+        commitIds = Lists.newArrayList();
+        for (RevCommit c : commits) {
+            commitIds.add(c.getId());
+        }
+        target = new HeapObjectDatabse();
+        target.open();
+    }
+
+    @Override
+    protected void tearDownInternal() throws Exception {
+        target.close();
+    }
+
+    private List<ObjectId> writePack(ByteArrayOutputStream out, long resumeFrom, long traversal)
+            throws Exception {
+        BinaryPackedObjects packer = new BinaryPackedObjects(repo.objectDatabase(), 128);
+        return writePack(packer, out, commitIds, ImmutableList.<ObjectId> of(), resumeFrom,
+                traversal);
+    }
+
+    private List<ObjectId> writePack(BinaryPackedObjects packer, ByteArrayOutputStream out,
+            List<ObjectId> want, List<ObjectId> have, long resumeFrom, long traversal)
+            throws Exception {
+        final List<ObjectId> written = Lists.newArrayList();
+        Deduplicator deduplicator = geogit.command(CreateDeduplicator.class).call();
+        try {
+            long count = packer.writePack(out, want, have, resumeFrom, traversal,
+                    new BinaryPackedObjects.Callback() {
+                        @Override
+                        public void callback(Supplier<RevObject> object) {
+                            written.add(object.get().getId());
+                        }
+                    }, false, deduplicator);
+            assertEquals(written.size(), count);
+        } finally {
+            deduplicator.release();
+        }
+        return written;
+    }
+
+    private static long traversalOf(ByteArrayOutputStream pack) throws Exception {
+        PackProtocol.BlockReader reader = new PackProtocol.BlockReader(new ByteArrayInputStream(
+                pack.toByteArray()), 0L, 0L);
+        reader.next();
+        return reader.traversal();
+    }
+
+    private static final BinaryPackedObjects.Callback NO_CALLBACK = //
+    new BinaryPackedObjects.Callback() {
+        @Override
+        public void callback(Supplier<RevObject> object) {
+            // nothing to do
+        }
+    };
+
+    @Test
+    public void testPackRoundTrip() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        List<ObjectId> written = writePack(out, 0, 0);
+        assertFalse(written.isEmpty());
+
+        BinaryPackedObjects unpacker = new BinaryPackedObjects(target);
+        long count = unpacker.ingestPack(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(written.size(), count);
+        for (ObjectId id : written) {
+            assertTrue(target.exists(id));
+            assertEquals(repo.objectDatabase().get(id), target.get(id));
+        }
+        for (ObjectId commitId : commitIds) {
+            assertTrue(target.exists(commitId));
+        }
+    }
+
+    @Test
+    public void testResumeTruncatedPack() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final List<ObjectId> written = writePack(out, 0, 0);
+        final byte[] pack = out.toByteArray();
+
+        BinaryPackedObjects unpacker = new BinaryPackedObjects(target);
+        long checkpoint;
+        long traversal;
+        try {
+            unpacker.ingestPack(new ByteArrayInputStream(Arrays.copyOf(pack, pack.length / 2)));
+            fail("Expected TruncatedPackException");
+            return;
+        } catch (PackProtocol.TruncatedPackException e) {
+            checkpoint = e.getCheckpoint();
+            traversal = e.getTraversal();
+        }
+        assertEquals(traversalOf(out), traversal);
+        assertTrue(checkpoint > 0);
+        assertTrue(checkpoint < written.size());
+        for (ObjectId id : written.subList(0, (int) checkpoint)) {
+            assertTrue(target.exists(id));
+        }
+
+        out = new ByteArrayOutputStream();
+        List<ObjectId> resumed = writePack(out, checkpoint, traversal);
+        assertEquals(written.subList((int) checkpoint, written.size()), resumed);
+
+        long total = unpacker.ingestPack(new ByteArrayInputStream(out.toByteArray()), checkpoint,
+                traversal, NO_CALLBACK);
+        assertEquals(written.size(), total);
+        for (ObjectId id : written) {
+            assertTrue(target.exists(id));
+        }
+    }
+
+    @Test
+    public void testPackFromBitmaps() throws Exception {
+        ReachabilityBitmaps bitmaps = geogit.command(ResolveBitmaps.class).call();
+        assertEquals(0, bitmaps.size());
+        BinaryPackedObjects traversal = new BinaryPackedObjects(repo.objectDatabase());
+        BinaryPackedObjects packer = new BinaryPackedObjects(repo.objectDatabase(), bitmaps);
+
+        assertEquals(Integer.valueOf(4), geogit.command(UpdateBitmapsOp.class).setInterval(2)
+                .call());
+        assertEquals(Integer.valueOf(0), geogit.command(UpdateBitmapsOp.class).setInterval(2)
+                .call());
+        // the tip and the commits at depth 4, 2, and 0
+        assertEquals(4, bitmaps.size());
+
+        List<ObjectId> none = ImmutableList.of();
+        List<ObjectId> first = commitIds.subList(0, 1);
+        List<ObjectId> rest = commitIds.subList(1, commitIds.size());
+        assertEquals(
+                Sets.newHashSet(writePack(traversal, new ByteArrayOutputStream(), commitIds, none,
+                        0, 0)),
+                Sets.newHashSet(writePack(packer, new ByteArrayOutputStream(), commitIds, none,
+                        0, 0)));
+        assertEquals(
+                Sets.newHashSet(writePack(traversal, new ByteArrayOutputStream(), rest, first, 0,
+                        0)),
+                Sets.newHashSet(writePack(packer, new ByteArrayOutputStream(), rest, first, 0, 0)));
+
+        // the order is the same from one request to the next, so packs can be resumed
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        List<ObjectId> written = writePack(packer, out, rest, first, 0, 0);
+        assertEquals(written.subList(5, written.size()),
+                writePack(packer, new ByteArrayOutputStream(), rest, first, 5, traversalOf(out)));
+    }
+
+    @Test
+    public void testResumeAcrossBitmapCreation() throws Exception {
+        ReachabilityBitmaps bitmaps = geogit.command(ResolveBitmaps.class).call();
+        assertEquals(0, bitmaps.size());
+        BinaryPackedObjects packer = new BinaryPackedObjects(repo.objectDatabase(), bitmaps, 128);
+        List<ObjectId> none = ImmutableList.of();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final List<ObjectId> written = writePack(packer, out, commitIds, none, 0, 0);
+        final byte[] pack = out.toByteArray();
+        BinaryPackedObjects unpacker = new BinaryPackedObjects(target);
+        long checkpoint;
+        long traversal;
+        try {
+            unpacker.ingestPack(new ByteArrayInputStream(Arrays.copyOf(pack, pack.length / 2)));
+            fail("Expected TruncatedPackException");
+            return;
+        } catch (PackProtocol.TruncatedPackException e) {
+            checkpoint = e.getCheckpoint();
+            traversal = e.getTraversal();
+        }
+        assertTrue(checkpoint > 0);
+
+        // the objects are sent in another order once the server has bitmaps
+        geogit.command(UpdateBitmapsOp.class).setInterval(2).call();
+        assertTrue(bitmaps.size() > 0);
+
+        out = new ByteArrayOutputStream();
+        List<ObjectId> resumed = writePack(packer, out, commitIds, none, checkpoint, traversal);
+        assertFalse(traversal == traversalOf(out));
+        // so the resume offset is ignored and the pack starts over
+        assertEquals(written.size(), resumed.size());
+        assertEquals(Sets.newHashSet(written), Sets.newHashSet(resumed));
+
+        target.close();
+        target = new HeapObjectDatabse();
+        target.open();
+        unpacker = new BinaryPackedObjects(target);
+        long total = unpacker.ingestPack(new ByteArrayInputStream(out.toByteArray()), checkpoint,
+                traversal, NO_CALLBACK);
+        assertEquals(written.size(), total);
+        for (ObjectId id : written) {
+            assertTrue(target.exists(id));
+        }
+    }
+
+    @Test
+    public void testRequestRoundTrip() throws Exception {
+        List<ObjectId> have = ImmutableList.of(ObjectId.forString("have"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PackProtocol.writeRequest(out, commitIds, have, 42L, 7L);
+
+        PackProtocol.Request request = PackProtocol.readRequest(new ByteArrayInputStream(out
+                .toByteArray()));
+        assertEquals(commitIds, request.getWant());
+        assertEquals(have, request.getHave());
+        assertEquals(42L, request.getResumeFrom());
+        assertEquals(7L, request.getTraversal());
+    }
+}
@@ -0,0 +1,200 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.Envelope;
+
+public class RevTreeBuilder2Test {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HeapObjectDatabse odb;
+
+    private ExecutorService executor;
+
+    private final Random random = new Random(17);
+
+    @Before
+    public void setUp() {
+        odb = new HeapObjectDatabse();
+        odb.open();
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        odb.close();
+    }
+
+    private Node node(String name) {
+        Envelope bounds = null;
+        switch (random.nextInt(3)) {
+        case 0:
+            double x = random.nextDouble() * 100, y = random.nextDouble() * 100;
+            bounds = new Envelope(x, x, y, y);
+            break;
+        case 1:
+            x = random.nextDouble() * 100;
+            y = random.nextDouble() * 100;
+            bounds = new Envelope(x, x + random.nextDouble(), y, y + 1);
+            break;
+        default:
+            break;
+        }
+        ObjectId metadataId = random.nextBoolean() ? ObjectId.forString("type") : ObjectId.NULL;
+        return Node.create(name, ObjectId.forString(name + random.nextInt(2)), metadataId,
+                TYPE.FEATURE, bounds);
+    }
+
+    private RevTree original(int size) {
+        RevTreeBuilder builder = new RevTreeBuilder(odb);
+        for (int i = 0; i < size; i++) {
+            builder.put(node("f" + i));
+        }
+        RevTree tree = builder.build();
+        odb.put(tree);
+        return tree;
+    }
+
+    /**
+     * @return random additions, replacements and removals of features named after numbers below
+     *         {@code range}
+     */
+    private List<Node> changes(int count, int range) {
+        List<Node> changes = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            String name = "f" + random.nextInt(range);
+            if (random.nextInt(5) == 0) {
+                changes.add(Node.create(name, ObjectId.NULL, ObjectId.NULL, TYPE.FEATURE, null));
+            } else {
+                changes.add(node(name));
+            }
+        }
+        return changes;
+    }
+
+    private RevTree build(RevTree original, List<Node> changes, int parallelism) {
+        RevTreeBuilder2 builder = new RevTreeBuilder2(odb, original, ObjectId.NULL, executor, 1000,
+                folder.getRoot(), parallelism);
+        for (Node node : changes) {
+            builder.put(node);
+        }
+        RevTree tree = builder.build();
+        // the temporary files are gone once the tree is built
+        assertEquals(0, folder.getRoot().list().length);
+        return tree;
+    }
+
+    private RevTree buildSingleBuilder(RevTree original, List<Node> changes) {
+        RevTreeBuilder builder = new RevTreeBuilder(odb, original);
+        for (Node node : changes) {
+            if (node.getObjectId().isNull()) {
+                builder.remove(node.getName());
+            } else {
+                builder.put(node);
+            }
+        }
+        return builder.build();
+    }
+
+    private void assertParallelBuild(RevTree original, List<Node> changes) {
+        RevTree expected = buildSingleBuilder(original, changes);
+        assertEquals(expected, build(original, changes, 1));
+        assertEquals(expected, build(original, changes, 4));
+    }
+
+    @Test
+    public void testBuildFromScratch() {
+        assertParallelBuild(RevTree.EMPTY, changes(20000, 15000));
+    }
+
+    @Test
+    public void testUpdateBucketTree() {
+        RevTree original = original(3000);
+        assertTrue(original.buckets().isPresent());
+        assertParallelBuild(original, changes(5000, 6000));
+    }
+
+    @Test
+    public void testSplitLeafTree() {
+        RevTree original = original(300);
+        assertFalse(original.buckets().isPresent());
+        assertParallelBuild(original, changes(3000, 3000));
+    }
+
+    @Test
+    public void testRemovalsCollapseToLeafTree() {
+        RevTree original = original(3000);
+        List<Node> changes = Lists.newArrayList();
+        for (int i = 10; i < 3000; i++) {
+            changes.add(Node.create("f" + i, ObjectId.NULL, ObjectId.NULL, TYPE.FEATURE, null));
+        }
+        RevTree tree = build(original, changes, 4);
+        assertEquals(10, tree.size());
+        assertFalse(tree.buckets().isPresent());
+        assertEquals(buildSingleBuilder(original, changes), tree);
+    }
+
+    @Test
+    public void testNodeEncoding() throws Exception {
+        List<Node> nodes = Lists.newArrayList();
+        nodes.add(Node.create("nobounds", ObjectId.forString("a"), ObjectId.NULL, TYPE.FEATURE,
+                null));
+        nodes.add(Node.create("point", ObjectId.forString("b"), ObjectId.forString("md"),
+                TYPE.FEATURE, new Envelope(1.1, 1.1, -2.5, -2.5)));
+        nodes.add(Node.create("rect", ObjectId.forString("c"), ObjectId.NULL, TYPE.FEATURE,
+                new Envelope(-180, 180, -90, 90)));
+        nodes.add(Node.create("tree", ObjectId.forString("d"), ObjectId.forString("md"),
+                TYPE.TREE, new Envelope(0, 1, 0, 1)));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (Node node : nodes) {
+            NodeIndex.writeNode(node, out);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        for (Node expected : nodes) {
+            Node actual = NodeIndex.readNode(in);
+            assertEquals(expected, actual);
+            assertEquals(expected.getType(), actual.getType());
+            assertEquals(expected.getMetadataId(), actual.getMetadataId());
+            Envelope expectedBounds = new Envelope();
+            expected.expand(expectedBounds);
+            Envelope actualBounds = new Envelope();
+            actual.expand(actualBounds);
+            assertEquals(expectedBounds, actualBounds);
+        }
+        assertEquals(0, in.available());
+    }
+}
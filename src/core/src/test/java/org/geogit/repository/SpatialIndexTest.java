@@ -0,0 +1,101 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.storage.NodeStorageOrder;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.Envelope;
+
+public class SpatialIndexTest {
+
+    private HeapObjectDatabse odb;
+
+    private List<Node> nodes;
+
+    private RevTree tree;
+
+    @Before
+    public void setUp() {
+        odb = new HeapObjectDatabse();
+        odb.open();
+        nodes = Lists.newArrayList();
+        RevTreeBuilder builder = new RevTreeBuilder(odb);
+        for (int i = 0; i < 2000; i++) {
+            double x = i % 50;
+            double y = i / 50;
+            Node node = Node.create("f" + i, ObjectId.forString("f" + i), ObjectId.NULL,
+                    TYPE.FEATURE, new Envelope(x, x + 0.5, y, y + 0.5));
+            nodes.add(node);
+            builder.put(node);
+        }
+        // a feature with no bounds is never indexed
+        builder.put(Node.create("nogeom", ObjectId.forString("nogeom"), ObjectId.NULL,
+                TYPE.FEATURE, null));
+        tree = builder.build();
+        assertTrue(tree.buckets().isPresent());
+    }
+
+    private List<Node> bruteForce(Envelope bounds) {
+        List<Node> expected = Lists.newArrayList();
+        for (Node node : nodes) {
+            if (node.intersects(bounds)) {
+                expected.add(node);
+            }
+        }
+        return new NodeStorageOrder().sortedCopy(expected);
+    }
+
+    @Test
+    public void testQuery() {
+        SpatialIndex index = SpatialIndex.build(tree, odb);
+        assertEquals(tree.getId(), index.getTreeId());
+        assertEquals(2000, index.size());
+
+        Envelope small = new Envelope(10.2, 12.1, 3.7, 4.2);
+        List<Node> result = index.query(small);
+        assertEquals(bruteForce(small), result);
+        assertEquals(3, result.size());
+
+        Envelope all = new Envelope(-1, 100, -1, 100);
+        assertEquals(bruteForce(all), index.query(all));
+
+        assertEquals(0, index.query(new Envelope(200, 201, 200, 201)).size());
+    }
+
+    @Test
+    public void testWriteRead() throws IOException {
+        SpatialIndex index = SpatialIndex.build(tree, odb);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        index.write(new DataOutputStream(out));
+
+        SpatialIndex read = SpatialIndex.read(new DataInputStream(new ByteArrayInputStream(
+                out.toByteArray())));
+        assertEquals(index.getTreeId(), read.getTreeId());
+        assertEquals(index.size(), read.size());
+
+        Envelope bounds = new Envelope(0, 5, 0, 5);
+        assertEquals(index.query(bounds), read.query(bounds));
+    }
+}
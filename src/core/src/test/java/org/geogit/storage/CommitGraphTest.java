@@ -0,0 +1,255 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.geogit.api.CommitBuilder;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevTree;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
+public class CommitGraphTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CommitGraph graph;
+
+    private long time;
+
+    @Before
+    public void setUp() {
+        graph = new CommitGraph(folder.getRoot());
+    }
+
+    private ObjectId commit(String name, ObjectId... parents) {
+        ObjectId id = ObjectId.forString(name);
+        graph.add(id, ImmutableList.copyOf(parents), ++time);
+        return id;
+    }
+
+    @Test
+    public void testLinearHistory() {
+        ObjectId c1 = commit("c1");
+        ObjectId c2 = commit("c2", c1);
+        ObjectId c3 = commit("c3", c2);
+
+        assertEquals(3, graph.size());
+        assertEquals(Optional.of(1), graph.getGeneration(c1));
+        assertEquals(Optional.of(3), graph.getGeneration(c3));
+        assertEquals(Optional.of(0), graph.getDepth(c1));
+        assertEquals(Optional.of(2), graph.getDepth(c3));
+        assertEquals(ImmutableList.of(c2), graph.getParents(c3).get());
+        assertEquals(Optional.of(1), graph.getChildCount(c2));
+        assertEquals(Optional.of(0), graph.getChildCount(c3));
+        assertEquals(Optional.of(c2), graph.findMergeBase(c2, c3));
+        assertArrayEquals(new int[] { 0, 1 }, graph.countAheadBehind(c2, c3));
+    }
+
+    @Test
+    public void testMergeBase() {
+        // c2 branches into c3 and c4 - c5, m1 merges c3 and c5, then c6 follows m1 and c7
+        // follows c5
+        ObjectId c1 = commit("c1");
+        ObjectId c2 = commit("c2", c1);
+        ObjectId c3 = commit("c3", c2);
+        ObjectId c4 = commit("c4", c2);
+        ObjectId c5 = commit("c5", c4);
+        ObjectId m1 = commit("m1", c3, c5);
+        ObjectId c6 = commit("c6", m1);
+        ObjectId c7 = commit("c7", c5);
+
+        assertEquals(Optional.of(c2), graph.findMergeBase(c3, c5));
+        assertEquals(Optional.of(c5), graph.findMergeBase(c6, c7));
+        assertEquals(Optional.of(c5), graph.findMergeBase(c7, c6));
+        assertEquals(Optional.of(c5), graph.findMergeBase(c5, c6));
+        assertEquals(Optional.of(4), graph.getDepth(c6));
+        assertEquals(Optional.of(6), graph.getGeneration(c6));
+        assertEquals(Optional.of(2), graph.getChildCount(c2));
+
+        // c6 has c3, m1, c6 that c7 doesn't, c7 only has itself
+        assertArrayEquals(new int[] { 3, 1 }, graph.countAheadBehind(c6, c7));
+        assertArrayEquals(new int[] { 1, 3 }, graph.countAheadBehind(c7, c6));
+        assertArrayEquals(new int[] { 0, 0 }, graph.countAheadBehind(c6, c6));
+    }
+
+    @Test
+    public void testCrissCrossMerge() {
+        ObjectId base = commit("base");
+        ObjectId a1 = commit("a1", base);
+        ObjectId b1 = commit("b1", base);
+        ObjectId a2 = commit("a2", a1, b1);
+        ObjectId b2 = commit("b2", b1, a1);
+        ObjectId a3 = commit("a3", a2);
+        ObjectId b3 = commit("b3", b2);
+
+        Optional<ObjectId> mergeBase = graph.findMergeBase(a3, b3);
+        assertTrue(mergeBase.isPresent());
+        assertTrue(mergeBase.get().equals(a1) || mergeBase.get().equals(b1));
+    }
+
+    @Test
+    public void testUnrelatedHistories() {
+        ObjectId a1 = commit("a1");
+        ObjectId a2 = commit("a2", a1);
+        ObjectId b1 = commit("b1");
+        ObjectId b2 = commit("b2", b1);
+
+        assertFalse(graph.findMergeBase(a2, b2).isPresent());
+        assertArrayEquals(new int[] { 2, 2 }, graph.countAheadBehind(a2, b2));
+    }
+
+    @Test
+    public void testChildrenBeforeParents() {
+        ObjectId c1 = ObjectId.forString("c1");
+        ObjectId c2 = ObjectId.forString("c2");
+        ObjectId c3 = commit("c3", c2);
+        ObjectId c4 = commit("c4", c3, c1);
+
+        assertFalse(graph.contains(c3));
+        assertFalse(graph.contains(c4));
+        assertEquals(0, graph.size());
+
+        commit("c2", c1);
+        assertFalse(graph.contains(c3));
+        commit("c1");
+        assertTrue(graph.contains(c3));
+        assertTrue(graph.contains(c4));
+        assertEquals(4, graph.size());
+        assertEquals(Optional.of(4), graph.getGeneration(c4));
+        assertEquals(Optional.of(1), graph.getDepth(c4));
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        ObjectId c1 = commit("c1");
+        ObjectId c2 = commit("c2", c1);
+        ObjectId c3 = commit("c3", c1);
+        ObjectId c4 = commit("c4", c1);
+        ObjectId octopus = commit("octopus", c2, c3, c4);
+        graph.flush();
+
+        graph = new CommitGraph(folder.getRoot());
+        assertEquals(5, graph.size());
+        assertEquals(ImmutableList.of(c2, c3, c4), graph.getParents(octopus).get());
+        assertEquals(Optional.of(3), graph.getChildCount(c1));
+        assertEquals(Optional.of(c1), graph.findMergeBase(c2, c4));
+
+        // extend the mapped graph
+        ObjectId c5 = commit("c5", octopus, c2);
+        graph.flush();
+        graph = new CommitGraph(folder.getRoot());
+        assertEquals(6, graph.size());
+        assertEquals(ImmutableList.of(octopus, c2), graph.getParents(c5).get());
+        assertEquals(Optional.of(4), graph.getGeneration(c5));
+        assertEquals(Optional.of(2), graph.getDepth(c5));
+    }
+
+    @Test
+    public void testConcurrentWriters() {
+        CommitGraph other = new CommitGraph(folder.getRoot());
+        ObjectId c1 = commit("c1");
+        ObjectId c2 = commit("c2", c1);
+        graph.flush();
+
+        // other appends on top of the commits it didn't know about
+        ObjectId c3 = ObjectId.forString("c3");
+        other.add(c1, ImmutableList.<ObjectId> of(), 1);
+        other.add(c3, ImmutableList.of(c1), 3);
+        other.flush();
+        assertEquals(3, other.size());
+        assertEquals(ImmutableList.of(c1), other.getParents(c3).get());
+
+        ObjectId c4 = commit("c4", c2, c3);
+        graph.flush();
+        assertEquals(4, graph.size());
+
+        graph = new CommitGraph(folder.getRoot());
+        assertEquals(4, graph.size());
+        assertEquals(ImmutableList.of(c1), graph.getParents(c2).get());
+        assertEquals(ImmutableList.of(c1), graph.getParents(c3).get());
+        assertEquals(ImmutableList.of(c2, c3), graph.getParents(c4).get());
+        assertEquals(Optional.of(2), graph.getChildCount(c1));
+    }
+
+    @Test
+    public void testPartiallyWrittenRecord() throws Exception {
+        ObjectId c1 = commit("c1");
+        ObjectId c2 = commit("c2", c1);
+        graph.flush();
+
+        File file = new File(folder.getRoot(), CommitGraph.FILE_NAME);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() + CommitGraph.RECORD_SIZE / 2);
+        } finally {
+            raf.close();
+        }
+
+        graph = new CommitGraph(folder.getRoot());
+        assertEquals(2, graph.size());
+        ObjectId c3 = commit("c3", c2);
+        graph.flush();
+        graph = new CommitGraph(folder.getRoot());
+        assertEquals(ImmutableList.of(c2), graph.getParents(c3).get());
+    }
+
+    @Test
+    public void testIncomplete() {
+        ObjectId c1 = commit("c1");
+        ObjectId c2 = commit("c2", c1, ObjectId.forString("missing"));
+        graph.flush();
+        assertFalse(graph.contains(c2));
+        assertFalse(graph.getChildCount(c1).isPresent());
+
+        graph = new CommitGraph(folder.getRoot());
+        assertTrue(graph.contains(c1));
+        assertFalse(graph.getChildCount(c1).isPresent());
+
+        graph.clear();
+        commit("c1");
+        assertEquals(Optional.of(0), graph.getChildCount(c1));
+    }
+
+    @Test
+    public void testAddMissingAncestors() {
+        HeapObjectDatabse db = new HeapObjectDatabse();
+        db.open();
+        try {
+            CommitBuilder builder = new CommitBuilder();
+            builder.setTreeId(RevTree.EMPTY_TREE_ID).setAuthor("groldan")
+                    .setCommitter("groldan").setAuthorTimestamp(1000)
+                    .setCommitterTimestamp(1000);
+            RevCommit c1 = builder.setMessage("c1").build();
+            RevCommit c2 = builder.setMessage("c2").setParentIds(ImmutableList.of(c1.getId()))
+                    .build();
+            RevCommit c3 = builder.setMessage("c3").setParentIds(ImmutableList.of(c2.getId()))
+                    .build();
+            db.put(c1);
+            db.put(c2);
+
+            graph.add(c3, db);
+            assertEquals(3, graph.size());
+            assertEquals(Optional.of(2), graph.getDepth(c3.getId()));
+        } finally {
+            db.close();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CompressedBitmapTest {
+
+    private final Random random = new Random(42);
+
+    /**
+     * @return a bit set with long runs of ones and zeros, and sparse words in between
+     */
+    private BitSet randomBits(int size) {
+        BitSet bits = new BitSet();
+        int i = 0;
+        while (i < size) {
+            int length = random.nextInt(1000);
+            switch (random.nextInt(3)) {
+            case 0:
+                bits.set(i, Math.min(size, i + length));
+                break;
+            case 1:
+                for (int j = i; j < i + length && j < size; j++) {
+                    if (random.nextInt(4) == 0) {
+                        bits.set(j);
+                    }
+                }
+                break;
+            default:
+                break;
+            }
+            i += length + 1;
+        }
+        return bits;
+    }
+
+    @Test
+    public void testRoundTrip() {
+        for (int i = 0; i < 50; i++) {
+            BitSet bits = randomBits(random.nextInt(100000));
+            CompressedBitmap bitmap = CompressedBitmap.of(bits);
+            assertEquals(bits, bitmap.toBitSet());
+            assertEquals(bits.cardinality(), bitmap.cardinality());
+        }
+        assertEquals(new BitSet(), CompressedBitmap.of(new BitSet()).toBitSet());
+    }
+
+    @Test
+    public void testRunsAreCompressed() {
+        BitSet bits = new BitSet();
+        bits.set(0, 1000000);
+        bits.set(2000000, 3000000);
+        CompressedBitmap bitmap = CompressedBitmap.of(bits);
+        assertEquals(2000000, bitmap.cardinality());
+        assertTrue(bitmap.sizeInBytes() <= 32);
+        assertEquals(bits, bitmap.toBitSet());
+    }
+
+    @Test
+    public void testOrAndNot() {
+        for (int i = 0; i < 50; i++) {
+            BitSet a = randomBits(50000);
+            BitSet b = randomBits(70000);
+
+            BitSet expected = (BitSet) a.clone();
+            expected.or(b);
+            BitSet actual = (BitSet) a.clone();
+            CompressedBitmap.of(b).or(actual);
+            assertEquals(expected, actual);
+
+            expected = (BitSet) a.clone();
+            expected.andNot(b);
+            actual = (BitSet) a.clone();
+            CompressedBitmap.of(b).andNot(actual);
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        BitSet bits = randomBits(100000);
+        CompressedBitmap bitmap = CompressedBitmap.of(bits);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bitmap.writeTo(new DataOutputStream(bytes));
+        assertEquals(12 + bitmap.sizeInBytes(), bytes.size());
+
+        CompressedBitmap read = CompressedBitmap.readFrom(new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(bitmap, read);
+        assertEquals(bits, read.toBitSet());
+        assertEquals(bits.cardinality(), read.cardinality());
+    }
+}
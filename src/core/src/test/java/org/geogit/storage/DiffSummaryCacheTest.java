@@ -0,0 +1,160 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.plumbing.diff.DiffObjectCount;
+import org.geogit.api.plumbing.diff.DiffSummary;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+import com.vividsolutions.jts.geom.Envelope;
+
+public class DiffSummaryCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DiffSummaryCache cache;
+
+    private final ObjectId tree1 = ObjectId.forString("tree1");
+
+    private final ObjectId tree2 = ObjectId.forString("tree2");
+
+    private final List<String> noFilters = ImmutableList.of();
+
+    @Before
+    public void setUp() {
+        cache = new DiffSummaryCache(folder.getRoot());
+    }
+
+    private static void assertCount(DiffObjectCount expected, DiffObjectCount actual) {
+        assertEquals(expected.getFeaturesAdded(), actual.getFeaturesAdded());
+        assertEquals(expected.getFeaturesRemoved(), actual.getFeaturesRemoved());
+        assertEquals(expected.getFeaturesChanged(), actual.getFeaturesChanged());
+        assertEquals(expected.getTreesAdded(), actual.getTreesAdded());
+        assertEquals(expected.getTreesRemoved(), actual.getTreesRemoved());
+        assertEquals(expected.getTreesChanged(), actual.getTreesChanged());
+    }
+
+    @Test
+    public void testCounts() {
+        DiffObjectCount count = new DiffObjectCount(1, 2, 3000000000L, 4, 5, 6);
+        assertFalse(cache.getCount(tree1, tree2, noFilters).isPresent());
+        cache.putCount(tree1, tree2, noFilters, count);
+        assertCount(count, cache.getCount(tree1, tree2, noFilters).get());
+
+        // the key depends on the order of the trees and the filters, but not the filter order
+        assertFalse(cache.getCount(tree2, tree1, noFilters).isPresent());
+        assertFalse(cache.getCount(tree1, tree2, ImmutableList.of("roads")).isPresent());
+        cache.putCount(tree1, tree2, ImmutableList.of("roads", "rivers"), new DiffObjectCount());
+        assertTrue(cache.getCount(tree1, tree2, ImmutableList.of("rivers", "roads")).isPresent());
+        assertFalse(cache.getCount(tree1, tree2, ImmutableList.of("rivers")).isPresent());
+        assertEquals(0, cache.getCount(tree1, tree2, ImmutableList.of("rivers", "roads")).get()
+                .count());
+        // counts and bounds don't share keys
+        assertFalse(cache.getBounds(tree1, tree2, noFilters).isPresent());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testBounds() {
+        Envelope left = new Envelope(-10, 10, -5, 5);
+        cache.putBounds(tree1, tree2, noFilters, left, new Envelope());
+        DiffSummary<Envelope, Envelope> bounds = cache.getBounds(tree1, tree2, noFilters).get();
+        assertEquals(left, bounds.getLeft());
+        assertTrue(bounds.getRight().isNull());
+        assertEquals(left, bounds.getMergedResult().get());
+
+        // returned envelopes are copies
+        bounds.getLeft().expandToInclude(100, 100);
+        assertEquals(left, cache.getBounds(tree1, tree2, noFilters).get().getLeft());
+    }
+
+    @Test
+    public void testReload() {
+        DiffObjectCount count = new DiffObjectCount(10, 0, 3, 1, 0, 0);
+        cache.putCount(tree1, tree2, noFilters, count);
+        cache.putBounds(tree1, tree2, noFilters, new Envelope(), new Envelope(1, 2, 3, 4));
+
+        cache = new DiffSummaryCache(folder.getRoot());
+        assertEquals(2, cache.size());
+        assertCount(count, cache.getCount(tree1, tree2, noFilters).get());
+        DiffSummary<Envelope, Envelope> bounds = cache.getBounds(tree1, tree2, noFilters).get();
+        assertTrue(bounds.getLeft().isNull());
+        assertEquals(new Envelope(1, 2, 3, 4), bounds.getRight());
+    }
+
+    @Test
+    public void testPartiallyWrittenFile() throws Exception {
+        cache.putCount(tree1, tree2, noFilters, new DiffObjectCount(1, 1, 1, 0, 0, 0));
+        cache.putCount(tree2, tree1, noFilters, new DiffObjectCount(1, 1, 1, 0, 0, 0));
+        File file = new File(folder.getRoot(), DiffSummaryCache.FILE_NAME);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() - 10);
+        } finally {
+            raf.close();
+        }
+
+        cache = new DiffSummaryCache(folder.getRoot());
+        assertEquals(1, cache.size());
+        assertTrue(cache.getCount(tree1, tree2, noFilters).isPresent());
+        assertFalse(cache.getCount(tree2, tree1, noFilters).isPresent());
+
+        // appending after the dropped record works
+        cache.putCount(tree2, tree1, noFilters, new DiffObjectCount(1, 1, 1, 0, 0, 0));
+        assertEquals(2, new DiffSummaryCache(folder.getRoot()).size());
+    }
+
+    @Test
+    public void testConcurrentWriters() {
+        DiffSummaryCache other = new DiffSummaryCache(folder.getRoot());
+        cache.putCount(tree1, tree2, noFilters, new DiffObjectCount(1, 0, 0, 0, 0, 0));
+        other.putCount(tree2, tree1, noFilters, new DiffObjectCount(2, 0, 0, 0, 0, 0));
+        // other read the file again before appending to it
+        assertEquals(2, other.size());
+        assertEquals(2, new DiffSummaryCache(folder.getRoot()).size());
+    }
+
+    @Test
+    public void testCompaction() {
+        File file = new File(folder.getRoot(), DiffSummaryCache.FILE_NAME);
+        final int maxFileSize = 1024;
+        cache = new DiffSummaryCache(folder.getRoot(), maxFileSize);
+        final int count = 100;
+        for (int i = 0; i < count; i++) {
+            ObjectId tree = ObjectId.forString("tree" + i);
+            cache.putCount(tree1, tree, noFilters, new DiffObjectCount(i, 0, 0, 0, 0, 0));
+            assertTrue(file.length() <= maxFileSize);
+        }
+        assertTrue(cache.size() < count);
+        // the oldest ones are dropped, the newest ones kept
+        assertFalse(cache.getCount(tree1, ObjectId.forString("tree0"), noFilters).isPresent());
+        assertEquals(count - 1,
+                cache.getCount(tree1, ObjectId.forString("tree" + (count - 1)), noFilters).get()
+                        .getFeaturesAdded());
+        assertEquals(cache.size(), new DiffSummaryCache(folder.getRoot()).size());
+    }
+
+    @Test
+    public void testClear() {
+        cache.putCount(tree1, tree2, noFilters, new DiffObjectCount());
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, new DiffSummaryCache(folder.getRoot()).size());
+    }
+}
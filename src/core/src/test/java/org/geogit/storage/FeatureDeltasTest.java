@@ -0,0 +1,193 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevObject;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+public class FeatureDeltasTest {
+
+    private HeapObjectDatabse db;
+
+    private Map<ObjectId, Integer> storedSizes;
+
+    private BulkOpListener sizeListener;
+
+    @Before
+    public void setUp() {
+        db = new HeapObjectDatabse();
+        db.open();
+        storedSizes = Maps.newHashMap();
+        sizeListener = new BulkOpListener() {
+            @Override
+            public void inserted(ObjectId object, @Nullable Integer storageSizeBytes) {
+                storedSizes.put(object, storageSizeBytes);
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    private RevFeature feature(String name, Coordinate[] coords) {
+        GeometryFactory gf = new GeometryFactory();
+        ImmutableList<Optional<Object>> values = ImmutableList.<Optional<Object>> of(
+                Optional.<Object> of(name), Optional.<Object> of(gf.createLineString(coords)),
+                Optional.<Object> of(Integer.valueOf(coords.length)));
+        return RevFeature.build(values);
+    }
+
+    private Coordinate[] coords(int count) {
+        // a random walk, so that the geometry doesn't compress well on its own
+        Random random = new Random(count);
+        Coordinate[] coords = new Coordinate[count];
+        double x = -60000, y = -30000;
+        for (int i = 0; i < count; i++) {
+            x += 1 + random.nextInt(1000);
+            y += random.nextInt(2001) - 1000;
+            coords[i] = new Coordinate(x, y);
+        }
+        return coords;
+    }
+
+    private Coordinate[] moveVertex(Coordinate[] coords, int index) {
+        Coordinate[] moved = new Coordinate[coords.length];
+        for (int i = 0; i < coords.length; i++) {
+            moved[i] = new Coordinate(coords[i]);
+        }
+        moved[index].y += 5;
+        return moved;
+    }
+
+    private int put(RevObject object) {
+        db.putAll(Iterators.singletonIterator(object), sizeListener);
+        return storedSizes.get(object.getId()).intValue();
+    }
+
+    @Test
+    public void testDiffPatch() throws Exception {
+        Random random = new Random(1);
+        for (int i = 0; i < 100; i++) {
+            byte[] base = new byte[random.nextInt(2000)];
+            random.nextBytes(base);
+            byte[] target = base.clone();
+            if (target.length > 0) {
+                target[random.nextInt(target.length)]++;
+            }
+            byte[] delta = FeatureDeltas.diff(base, target);
+            assertArrayEquals(target, FeatureDeltas.patch(base, delta));
+            assertTrue(delta.length < 100);
+        }
+        byte[] base = new byte[500];
+        byte[] target = new byte[700];
+        random.nextBytes(base);
+        random.nextBytes(target);
+        assertArrayEquals(target, FeatureDeltas.patch(base, FeatureDeltas.diff(base, target)));
+    }
+
+    @Test
+    public void testStoreAsDelta() {
+        Coordinate[] coords = coords(2000);
+        RevFeature base = feature("parcel", coords);
+        RevFeature modified = feature("parcel", moveVertex(coords, 1000));
+
+        final int fullSize = put(base);
+        final int deltaSize = put(new DeltaCandidate(modified, base.getId()));
+        assertTrue("delta size: " + deltaSize + ", full size: " + fullSize,
+                deltaSize < fullSize / 10);
+
+        assertEquals(modified.getValues(), db.getFeature(modified.getId()).getValues());
+        assertEquals(modified.getValues(), ((RevFeature) db.get(modified.getId())).getValues());
+
+        List<RevObject> all = Lists.newArrayList(db.getAll(ImmutableList.of(base.getId(),
+                modified.getId())));
+        assertEquals(2, all.size());
+        assertEquals(base.getValues(), ((RevFeature) all.get(0)).getValues());
+        assertEquals(modified.getValues(), ((RevFeature) all.get(1)).getValues());
+    }
+
+    @Test
+    public void testDeltaChainLength() {
+        Coordinate[] coords = coords(2000);
+        RevFeature previous = feature("parcel", coords);
+        final int fullSize = put(previous);
+
+        List<RevFeature> versions = Lists.newArrayList(previous);
+        List<Integer> sizes = Lists.newArrayList();
+        for (int i = 1; i <= FeatureDeltas.MAX_CHAIN_LENGTH + 2; i++) {
+            coords = moveVertex(coords, i * 100);
+            RevFeature version = feature("parcel", coords);
+            sizes.add(Integer.valueOf(put(new DeltaCandidate(version, previous.getId()))));
+            versions.add(version);
+            previous = version;
+        }
+        for (int i = 0; i < sizes.size(); i++) {
+            int size = sizes.get(i).intValue();
+            if (i == FeatureDeltas.MAX_CHAIN_LENGTH) {
+                assertTrue("version " + (i + 1) + " should be stored in full", size > fullSize / 2);
+            } else {
+                assertTrue("version " + (i + 1) + " should be a delta", size < fullSize / 10);
+            }
+        }
+        Iterator<RevObject> all = db.getAll(Lists.transform(versions,
+                new Function<RevFeature, ObjectId>() {
+                    @Override
+                    public ObjectId apply(RevFeature input) {
+                        return input.getId();
+                    }
+                }));
+        for (RevFeature version : versions) {
+            assertEquals(version.getValues(), ((RevFeature) all.next()).getValues());
+        }
+    }
+
+    @Test
+    public void testMissingBase() {
+        Coordinate[] coords = coords(100);
+        RevFeature base = feature("parcel", coords);
+        RevFeature modified = feature("parcel", moveVertex(coords, 50));
+
+        put(new DeltaCandidate(modified, base.getId()));
+        RevFeature read = db.getFeature(modified.getId());
+        assertEquals(modified.getValues(), read.getValues());
+    }
+
+    @Test
+    public void testNotWorthADelta() {
+        RevFeature base = feature("parcel", coords(100));
+        RevFeature other = feature("road", coords(3));
+
+        put(base);
+        put(new DeltaCandidate(other, base.getId()));
+        assertEquals(other.getValues(), db.getFeature(other.getId()).getValues());
+    }
+}
@@ -0,0 +1,346 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.geogit.api.Bucket;
+import org.geogit.api.CommitBuilder;
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevObject;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.repository.PostOrderIterator;
+import org.geogit.storage.memory.HeapDeduplicator;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+public class ReachabilityBitmapsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HeapObjectDatabse db;
+
+    private ReachabilityBitmaps bitmaps;
+
+    private RevCommit c1, c2, c3;
+
+    @Before
+    public void setUp() {
+        db = new HeapObjectDatabse();
+        db.open();
+        bitmaps = new ReachabilityBitmaps(folder.getRoot());
+
+        // c1 has two layers with buckets, c2 changes some features of one of them, and c3 adds
+        // a layer sharing features with the others
+        RevTree roads = tree("roads", 0, 1000);
+        RevTree rivers = tree("rivers", 0, 100);
+        c1 = commit(root(roads, rivers), 1);
+        RevTree roads2 = tree("roads", 500, 1600);
+        c2 = commit(root(roads2, rivers), 2, c1);
+        RevTree lakes = tree("roads", 0, 50);
+        c3 = commit(root(roads2, rivers, lakes), 3, c2);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    private RevTree tree(String name, int from, int to) {
+        RevTreeBuilder builder = new RevTreeBuilder(db);
+        ObjectId featureType = ObjectId.forString(name + ".type");
+        for (int i = from; i < to; i++) {
+            ObjectId feature = ObjectId.forString(name + "." + i);
+            builder.put(Node.create(name + "." + i, feature, featureType, TYPE.FEATURE, null));
+        }
+        RevTree tree = builder.build();
+        db.put(tree);
+        return tree;
+    }
+
+    private RevTree root(RevTree... layers) {
+        RevTreeBuilder builder = new RevTreeBuilder(db);
+        int i = 0;
+        for (RevTree layer : layers) {
+            builder.put(Node.create("layer" + i++, layer.getId(), ObjectId.NULL, TYPE.TREE, null));
+        }
+        RevTree tree = builder.build();
+        db.put(tree);
+        return tree;
+    }
+
+    private RevCommit commit(RevTree tree, long timestamp, RevCommit... parents) {
+        CommitBuilder builder = new CommitBuilder();
+        builder.setTreeId(tree.getId()).setAuthor("groldan").setCommitter("groldan")
+                .setAuthorTimestamp(timestamp).setCommitterTimestamp(timestamp)
+                .setMessage("commit " + timestamp);
+        List<ObjectId> parentIds = Lists.newArrayList();
+        for (RevCommit parent : parents) {
+            parentIds.add(parent.getId());
+        }
+        RevCommit commit = builder.setParentIds(parentIds).build();
+        db.put(commit);
+        return commit;
+    }
+
+    /**
+     * @return what {@code BinaryPackedObjects} sends when commits are not traversed
+     */
+    private Set<ObjectId> traversal(List<ObjectId> want, List<ObjectId> have) {
+        List<ObjectId> base = Lists.newArrayList();
+        Iterator<RevObject> contents = PostOrderIterator.contentsOf(have, db,
+                new HeapDeduplicator());
+        while (contents.hasNext()) {
+            base.add(contents.next().getId());
+        }
+        Set<ObjectId> ids = Sets.newHashSet();
+        Iterator<RevObject> range = PostOrderIterator.range(want, base, db, false,
+                new HeapDeduplicator());
+        while (range.hasNext()) {
+            ids.add(range.next().getId());
+        }
+        return ids;
+    }
+
+    /**
+     * @return the objects to send according to the bitmaps, leaving out the features and
+     *         feature types that are not in the database, as the traversal does
+     */
+    private List<ObjectId> difference(List<ObjectId> want, List<ObjectId> have) {
+        List<ObjectId> ids = Lists.newArrayList();
+        ReachabilityBitmaps.Snapshot snapshot = bitmaps.snapshot();
+        Iterator<ObjectId> it = snapshot.objects(snapshot.difference(want, have, db));
+        while (it.hasNext()) {
+            ObjectId id = it.next();
+            if (db.exists(id)) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Checks the difference against the traversal of the wanted commits that have a bitmap, the
+     * others being left to the caller to walk
+     */
+    private void assertSameAsTraversal(List<ObjectId> want, List<ObjectId> have) {
+        List<ObjectId> covered = Lists.newArrayList();
+        for (ObjectId id : want) {
+            if (bitmaps.snapshot().contains(id)) {
+                covered.add(id);
+            }
+        }
+        List<ObjectId> difference = difference(want, have);
+        assertEquals(difference.size(), Sets.newHashSet(difference).size());
+        if (covered.isEmpty()) {
+            assertTrue(difference.isEmpty());
+        } else {
+            assertEquals(traversal(covered, have), Sets.newHashSet(difference));
+        }
+    }
+
+    private void assertAllCases() {
+        ImmutableList<ObjectId> none = ImmutableList.of();
+        assertSameAsTraversal(ImmutableList.of(c1.getId()), none);
+        assertSameAsTraversal(ImmutableList.of(c3.getId(), c2.getId(), c1.getId()), none);
+        assertSameAsTraversal(ImmutableList.of(c2.getId()), ImmutableList.of(c1.getId()));
+        assertSameAsTraversal(ImmutableList.of(c2.getId(), c3.getId()),
+                ImmutableList.of(c1.getId()));
+        assertSameAsTraversal(ImmutableList.of(c1.getId()), ImmutableList.of(c3.getId()));
+        assertSameAsTraversal(ImmutableList.of(c3.getId()),
+                ImmutableList.of(c2.getId(), ObjectId.forString("unknown")));
+    }
+
+    @Test
+    public void testDifferenceWithoutBitmaps() {
+        assertAllCases();
+        assertEquals(0, bitmaps.size());
+    }
+
+    @Test
+    public void testDifferenceWithBitmaps() {
+        assertTrue(bitmaps.add(c1.getId(), db));
+        assertTrue(bitmaps.add(c3.getId(), db));
+        assertFalse(bitmaps.add(c3.getId(), db));
+        assertFalse(bitmaps.add(ObjectId.forString("unknown"), db));
+        assertEquals(2, bitmaps.size());
+        bitmaps.flush();
+        assertAllCases();
+
+        CompressedBitmap bitmap = bitmaps.get(c1.getId()).get();
+        // 2 layer trees with features and feature types, their buckets, the root and commit
+        assertTrue(bitmap.cardinality() > 1100);
+    }
+
+    @Test
+    public void testPostOrder() {
+        bitmaps.add(c1.getId(), db);
+        bitmaps.add(c3.getId(), db);
+        bitmaps.flush();
+        List<ObjectId> ids = difference(ImmutableList.of(c3.getId(), c1.getId()),
+                ImmutableList.<ObjectId> of());
+        Map<ObjectId, Integer> order = Maps.newHashMap();
+        for (int i = 0; i < ids.size(); i++) {
+            order.put(ids.get(i), Integer.valueOf(i));
+        }
+        for (ObjectId id : ids) {
+            RevObject object = db.get(id);
+            int position = order.get(id).intValue();
+            if (object instanceof RevCommit) {
+                assertTrue(order.get(((RevCommit) object).getTreeId()).intValue() < position);
+            } else if (object instanceof RevTree) {
+                RevTree tree = (RevTree) object;
+                if (tree.trees().isPresent()) {
+                    for (Node n : tree.trees().get()) {
+                        assertTrue(order.get(n.getObjectId()).intValue() < position);
+                    }
+                }
+                if (tree.buckets().isPresent()) {
+                    for (Bucket b : tree.buckets().get().values()) {
+                        assertTrue(order.get(b.id()).intValue() < position);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSnapshot() {
+        bitmaps.add(c1.getId(), db);
+        bitmaps.flush();
+        ReachabilityBitmaps.Snapshot snapshot = bitmaps.snapshot();
+        bitmaps.add(c2.getId(), db);
+        // unflushed bitmaps and positions are not visible
+        assertFalse(bitmaps.snapshot().contains(c2.getId()));
+        assertEquals(snapshot.objectCount(), bitmaps.snapshot().objectCount());
+        bitmaps.flush();
+        assertTrue(bitmaps.snapshot().contains(c2.getId()));
+        assertTrue(bitmaps.snapshot().generation() != snapshot.generation());
+        // the older snapshot still works on what it saw
+        assertFalse(snapshot.contains(c2.getId()));
+        assertEquals(snapshot.objectCount(), snapshot.difference(ImmutableList.of(c1.getId()),
+                ImmutableList.<ObjectId> of(), db).cardinality());
+    }
+
+    @Test
+    public void testDifferenceDoesNotWrite() {
+        bitmaps.add(c1.getId(), db);
+        bitmaps.flush();
+        final int objectCount = bitmaps.objectCount();
+        final long objectsLength = new File(folder.getRoot(),
+                ReachabilityBitmaps.OBJECTS_FILE_NAME).length();
+        final long bitmapsLength = new File(folder.getRoot(), ReachabilityBitmaps.FILE_NAME)
+                .length();
+
+        // c3 and its new objects have no positions
+        assertSameAsTraversal(ImmutableList.of(c1.getId()), ImmutableList.of(c3.getId()));
+        assertEquals(objectCount, bitmaps.objectCount());
+        assertEquals(objectsLength,
+                new File(folder.getRoot(), ReachabilityBitmaps.OBJECTS_FILE_NAME).length());
+        assertEquals(bitmapsLength,
+                new File(folder.getRoot(), ReachabilityBitmaps.FILE_NAME).length());
+    }
+
+    @Test
+    public void testReload() {
+        bitmaps.add(c1.getId(), db);
+        bitmaps.add(c2.getId(), db);
+        bitmaps.add(c3.getId(), db);
+        bitmaps.flush();
+        List<ObjectId> expected = difference(ImmutableList.of(c3.getId()),
+                ImmutableList.of(c1.getId()));
+        final int objectCount = bitmaps.objectCount();
+
+        bitmaps = new ReachabilityBitmaps(folder.getRoot());
+        assertEquals(objectCount, bitmaps.objectCount());
+        assertEquals(3, bitmaps.size());
+        assertTrue(bitmaps.contains(c1.getId()));
+        assertTrue(bitmaps.contains(c2.getId()));
+        assertEquals(expected, difference(ImmutableList.of(c3.getId()),
+                ImmutableList.of(c1.getId())));
+        assertAllCases();
+    }
+
+    @Test
+    public void testConcurrentWriters() {
+        ReachabilityBitmaps other = new ReachabilityBitmaps(folder.getRoot());
+        bitmaps.add(c1.getId(), db);
+        other.add(c2.getId(), db);
+        bitmaps.flush();
+        // the positions other assigned were taken by bitmaps
+        other.flush();
+        assertEquals(2, other.size());
+        bitmaps.add(c3.getId(), db);
+        bitmaps.flush();
+
+        bitmaps = new ReachabilityBitmaps(folder.getRoot());
+        assertEquals(3, bitmaps.size());
+        assertEquals(bitmaps.get(c2.getId()), other.get(c2.getId()));
+        assertAllCases();
+    }
+
+    @Test
+    public void testPartiallyWrittenFiles() throws Exception {
+        bitmaps.add(c1.getId(), db);
+        bitmaps.flush();
+        bitmaps.add(c2.getId(), db);
+        bitmaps.flush();
+        final int objectCount = bitmaps.objectCount();
+
+        File file = new File(folder.getRoot(), ReachabilityBitmaps.FILE_NAME);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() - 10);
+        } finally {
+            raf.close();
+        }
+        file = new File(folder.getRoot(), ReachabilityBitmaps.OBJECTS_FILE_NAME);
+        raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() + ObjectId.NUM_BYTES / 2);
+        } finally {
+            raf.close();
+        }
+
+        bitmaps = new ReachabilityBitmaps(folder.getRoot());
+        assertEquals(objectCount, bitmaps.objectCount());
+        assertTrue(bitmaps.contains(c1.getId()));
+        assertFalse(bitmaps.contains(c2.getId()));
+        assertAllCases();
+    }
+
+    @Test
+    public void testClear() {
+        bitmaps.add(c1.getId(), db);
+        bitmaps.flush();
+        bitmaps.clear();
+        assertEquals(0, bitmaps.size());
+        assertEquals(0, bitmaps.objectCount());
+        assertFalse(new File(folder.getRoot(), ReachabilityBitmaps.FILE_NAME).length() > 8);
+    }
+}
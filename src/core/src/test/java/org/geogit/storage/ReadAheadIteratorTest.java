@@ -0,0 +1,98 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeature;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+public class ReadAheadIteratorTest {
+
+    private HeapObjectDatabse db;
+
+    private List<RevFeature> features;
+
+    @Before
+    public void setUp() {
+        db = new HeapObjectDatabse();
+        db.open();
+        features = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            ImmutableList<Optional<Object>> values = ImmutableList.of(
+                    Optional.<Object> of("feature " + i), Optional.<Object> of(Integer.valueOf(i)));
+            RevFeature feature = RevFeature.build(values);
+            features.add(feature);
+            db.put(feature);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    private List<ObjectId> ids(List<RevFeature> features) {
+        List<ObjectId> ids = Lists.newArrayList();
+        for (RevFeature f : features) {
+            ids.add(f.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testKeepsOrder() {
+        Collections.shuffle(features);
+        for (int batchSize : new int[] { 1, 7, 100, 1000 }) {
+            ReadAheadIterator<RevFeature> it = new ReadAheadIterator<RevFeature>(db,
+                    ids(features).iterator(), RevFeature.class, batchSize);
+            assertEquals(features, Lists.newArrayList(it));
+        }
+    }
+
+    @Test
+    public void testWithoutReadAhead() {
+        Collections.shuffle(features);
+        ReadAheadIterator<RevFeature> it = new ReadAheadIterator<RevFeature>(db,
+                ids(features).iterator(), RevFeature.class, 7, false);
+        assertEquals(features, Lists.newArrayList(it));
+    }
+
+    @Test
+    public void testDuplicateIds() {
+        List<ObjectId> ids = ids(features.subList(0, 3));
+        ids.addAll(ids(features.subList(0, 3)));
+        ReadAheadIterator<RevFeature> it = new ReadAheadIterator<RevFeature>(db, ids.iterator(),
+                RevFeature.class, 4);
+        assertEquals(ids, ids(Lists.newArrayList(it)));
+    }
+
+    @Test
+    public void testEmpty() {
+        List<ObjectId> ids = Collections.emptyList();
+        ReadAheadIterator<RevFeature> it = new ReadAheadIterator<RevFeature>(db, ids.iterator(),
+                RevFeature.class);
+        assertEquals(0, Lists.newArrayList(it).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingObject() {
+        List<ObjectId> ids = ids(features.subList(0, 10));
+        ids.add(ObjectId.forString("missing"));
+        Lists.newArrayList(new ReadAheadIterator<RevFeature>(db, ids.iterator(),
+                RevFeature.class, 4));
+    }
+}
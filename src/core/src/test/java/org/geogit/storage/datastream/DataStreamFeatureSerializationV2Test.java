@@ -0,0 +1,138 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.datastream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.storage.ObjectSerializingFactory;
+import org.geogit.storage.RevFeatureSerializationTest;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.io.WKTReader;
+
+public class DataStreamFeatureSerializationV2Test extends RevFeatureSerializationTest {
+
+    @Override
+    protected ObjectSerializingFactory getObjectSerializingFactory() {
+        return new DataStreamSerializationFactoryV2();
+    }
+
+    private byte[] write(ObjectSerializingFactory factory, RevFeature feature) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        factory.<RevFeature> createObjectWriter(TYPE.FEATURE).write(feature, out);
+        return out.toByteArray();
+    }
+
+    private RevFeature read(ObjectSerializingFactory factory, ObjectId id, byte[] data) {
+        return factory.<RevFeature> createObjectReader(TYPE.FEATURE).read(id,
+                new ByteArrayInputStream(data));
+    }
+
+    private RevFeature feature(Object... values) {
+        ImmutableList.Builder<Optional<Object>> builder = ImmutableList.builder();
+        for (Object v : values) {
+            builder.add(Optional.fromNullable(v));
+        }
+        return RevFeature.build(builder.build());
+    }
+
+    private void assertRoundTrip(String wkt) throws Exception {
+        Geometry geom = new WKTReader().read(wkt);
+        RevFeature feature = feature("name", geom, null);
+        RevFeature read = read(factory, feature.getId(), write(factory, feature));
+        assertEquals(3, read.size());
+        Geometry readGeom = (Geometry) read.get(1).get();
+        assertEquals(geom.getClass(), readGeom.getClass());
+        assertTrue(wkt, geom.equalsExact(readGeom));
+        assertEquals(feature.getValues(), read.getValues());
+    }
+
+    @Test
+    public void testGeometryTypes() throws Exception {
+        assertRoundTrip("POINT(1 2)");
+        assertRoundTrip("POINT EMPTY");
+        assertRoundTrip("LINESTRING(0 0, 1.5 1.25, -3.125 7)");
+        assertRoundTrip("LINEARRING(0 0, 0 1, 1 1, 0 0)");
+        assertRoundTrip("POLYGON((0 0, 0 10, 10 10, 10 0, 0 0), (1 1, 2 1, 2 2, 1 1))");
+        assertRoundTrip("POLYGON EMPTY");
+        assertRoundTrip("MULTIPOINT((0 0), (-1 -1))");
+        assertRoundTrip("MULTILINESTRING((0 0, 1 1), (2 2, 3 3))");
+        assertRoundTrip("MULTIPOLYGON(((0 0, 0 1, 1 1, 0 0)), ((5 5, 5 6, 6 6, 5 5)))");
+        assertRoundTrip("GEOMETRYCOLLECTION(POINT(1 1), LINESTRING(0 0, 1 1))");
+    }
+
+    @Test
+    public void testExactCoordinates() throws Exception {
+        GeometryFactory gf = new GeometryFactory();
+        double[] ordinates = { 0.1, -73.9856744, 1e-9, 1.0 / 3, Math.PI, 1e300, -0.0,
+                Double.MIN_VALUE };
+        for (double ordinate : ordinates) {
+            Geometry geom = gf.createLineString(new Coordinate[] { new Coordinate(ordinate, 1),
+                    new Coordinate(2, ordinate) });
+            RevFeature feature = feature(geom);
+            RevFeature read = read(factory, feature.getId(), write(factory, feature));
+            Geometry readGeom = (Geometry) read.get(0).get();
+            for (int i = 0; i < 2; i++) {
+                Coordinate expected = geom.getCoordinates()[i];
+                Coordinate actual = readGeom.getCoordinates()[i];
+                assertEquals(Double.doubleToLongBits(expected.x), Double.doubleToLongBits(actual.x));
+                assertEquals(Double.doubleToLongBits(expected.y), Double.doubleToLongBits(actual.y));
+            }
+        }
+    }
+
+    @Test
+    public void testSmallerThanV1() throws Exception {
+        Geometry geom = new WKTReader()
+                .read("LINESTRING(-73.9856744 40.7484404, -73.9856001 40.7485123, -73.9855012 40.7486999)");
+        RevFeature feature = feature("name", geom);
+        byte[] v1 = write(new DataStreamSerializationFactory(), feature);
+        byte[] v2 = write(factory, feature);
+        assertTrue(v2.length + " >= " + v1.length, v2.length < v1.length);
+    }
+
+    @Test
+    public void testLazyGeometry() throws Exception {
+        Geometry geom = new WKTReader().read("POINT(1 2)");
+        RevFeature feature = feature("name", geom);
+        byte[] data = write(factory, feature);
+        RevFeature read = read(factory, feature.getId(), data);
+        assertTrue(read instanceof LazyRevFeature);
+        assertEquals("name", read.get(0).get());
+
+        // copying a feature with undecoded geometries yields the same bytes
+        byte[] copy = write(factory, read);
+        assertTrue(Arrays.equals(data, copy));
+
+        assertEquals(geom, read.get(1).get());
+        assertSame(read.get(1).get(), read.get(1).get());
+    }
+
+    @Test
+    public void testReadsV1() throws Exception {
+        Geometry geom = new WKTReader().read("POLYGON((0 0, 0 10, 10 10, 10 0, 0 0))");
+        RevFeature feature = feature("name", geom, 1, null);
+        byte[] v1 = write(new DataStreamSerializationFactory(), feature);
+        assertEquals(feature.getValues(), read(factory, feature.getId(), v1).getValues());
+
+        byte[] v2 = write(factory, feature);
+        assertEquals(feature.getValues(),
+                read(new DataStreamSerializationFactory(), feature.getId(), v2).getValues());
+        RevFeature generic = (RevFeature) new DataStreamSerializationFactory()
+                .createObjectReader().read(feature.getId(), new ByteArrayInputStream(v2));
+        assertEquals(feature.getValues(), generic.getValues());
+    }
+}
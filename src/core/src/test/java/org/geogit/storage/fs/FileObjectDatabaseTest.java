@@ -0,0 +1,158 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.List;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.Platform;
+import org.geogit.api.RevFeature;
+import org.geogit.repository.RepositoryConnectionException;
+import org.geogit.repository.RepositoryConnectionException.StorageType;
+import org.geogit.storage.ConfigDatabase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+
+public class FileObjectDatabaseTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private FileObjectDatabase db;
+
+    private Platform platform;
+
+    @Before
+    public void setUp() {
+        final File workingDir = tempFolder.newFolder("mockWorkingDir");
+        tempFolder.newFolder("mockWorkingDir/.geogit");
+
+        platform = mock(Platform.class);
+        when(platform.pwd()).thenReturn(workingDir);
+
+        db = new FileObjectDatabase(platform, mock(ConfigDatabase.class));
+        db.open();
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    private List<RevFeature> createFeatures(int count) {
+        List<RevFeature> features = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            ImmutableList<Optional<Object>> values = ImmutableList.of(
+                    Optional.<Object> of("feature " + i), Optional.<Object> of(Integer.valueOf(i)));
+            features.add(RevFeature.build(values));
+        }
+        return features;
+    }
+
+    @Test
+    public void testRepack() {
+        List<RevFeature> features = createFeatures(1000);
+        for (RevFeature f : features) {
+            assertTrue(db.put(f));
+        }
+        assertEquals(1000L, db.repack());
+        assertEquals(0L, db.repack());
+
+        for (RevFeature f : features) {
+            assertTrue(db.exists(f.getId()));
+            assertEquals(f, db.getFeature(f.getId()));
+            assertFalse("object already packed", db.put(f));
+        }
+        assertFalse(db.exists(ObjectId.forString("not in the database")));
+        assertEquals(null, db.getIfPresent(ObjectId.forString("not in the database")));
+    }
+
+    @Test
+    public void testPacksSurviveReopen() {
+        List<RevFeature> features = createFeatures(100);
+        db.putAll(features.iterator());
+        db.repack();
+        db.close();
+
+        db = new FileObjectDatabase(platform, mock(ConfigDatabase.class));
+        db.open();
+        for (RevFeature f : features) {
+            assertEquals(f, db.getFeature(f.getId()));
+        }
+    }
+
+    @Test
+    public void testLookUp() {
+        List<RevFeature> features = createFeatures(100);
+        db.putAll(features.iterator());
+        db.repack();
+
+        // a loose object alongside the packed ones
+        RevFeature loose = createFeatures(101).get(100);
+        db.put(loose);
+
+        for (RevFeature f : Iterables.concat(features, ImmutableList.of(loose))) {
+            String id = f.getId().toString();
+            assertEquals(ImmutableList.of(f.getId()), db.lookUp(id));
+            assertTrue(db.lookUp(id.substring(0, 7)).contains(f.getId()));
+            assertTrue(db.lookUp(id.substring(0, 8)).contains(f.getId()));
+        }
+    }
+
+    @Test
+    public void testStreamOutlivesClose() throws Exception {
+        List<RevFeature> features = createFeatures(10);
+        db.putAll(features.iterator());
+        db.repack();
+
+        InputStream in = db.getRawInternal(features.get(0).getId(), true);
+        db.close();
+        // the pack is only unmapped once the stream is closed
+        assertTrue(ByteStreams.toByteArray(in).length > 0);
+        in.close();
+
+        db = new FileObjectDatabase(platform, mock(ConfigDatabase.class));
+        db.open();
+    }
+
+    @Test
+    public void testUpgradeVersion() throws Exception {
+        ConfigDatabase config = mock(ConfigDatabase.class);
+        when(config.get("storage.objects")).thenReturn(Optional.of("file"));
+        when(config.get("file.version")).thenReturn(Optional.of("1.0"));
+        FileObjectDatabase upgraded = new FileObjectDatabase(platform, config);
+        upgraded.checkConfig();
+        verify(config).put("file.version", FileObjectDatabase.VERSION);
+
+        // versions that can't read pack files refuse to open the repository
+        when(config.get("file.version")).thenReturn(Optional.of(FileObjectDatabase.VERSION));
+        upgraded.checkConfig();
+        try {
+            StorageType.OBJECT.verify(config, "file", "1.0");
+            fail("Expected RepositoryConnectionException");
+        } catch (RepositoryConnectionException e) {
+            assertTrue(e.getMessage().contains(FileObjectDatabase.VERSION));
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.Ref;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+public class PackedRefDatabaseTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File repoDir;
+
+    private PackedRefDatabase refDb;
+
+    @Before
+    public void setUp() {
+        repoDir = folder.getRoot();
+        refDb = new PackedRefDatabase(repoDir);
+        refDb.create();
+    }
+
+    private static String id(int i) {
+        return ObjectId.forString("commit" + i).toString();
+    }
+
+    @Test
+    public void testPutGetRemove() {
+        assertNull(refDb.getRef(Ref.MASTER));
+        refDb.putRef(Ref.MASTER, id(1));
+        refDb.putSymRef(Ref.HEAD, Ref.MASTER);
+        assertEquals(id(1), refDb.getRef(Ref.MASTER));
+        assertEquals(Ref.MASTER, refDb.getSymRef(Ref.HEAD));
+        try {
+            refDb.getRef(Ref.HEAD);
+            fail("expected IAE on symbolic ref");
+        } catch (IllegalArgumentException e) {
+            assertTrue(true);
+        }
+        try {
+            refDb.getSymRef(Ref.MASTER);
+            fail("expected IAE on non symbolic ref");
+        } catch (IllegalArgumentException e) {
+            assertTrue(true);
+        }
+
+        assertEquals(id(1), refDb.remove(Ref.MASTER));
+        assertNull(refDb.remove(Ref.MASTER));
+        assertNull(refDb.getRef(Ref.MASTER));
+        assertEquals("ref: " + Ref.MASTER, refDb.remove(Ref.HEAD));
+    }
+
+    @Test
+    public void testGetAll() {
+        refDb.putRef("refs/heads/master", id(1));
+        refDb.putRef("refs/heads/branch", id(2));
+        refDb.putRef("refs/heads-other", id(3));
+        refDb.putRef("refs/tags/v1", id(4));
+        refDb.putSymRef(Ref.HEAD, Ref.MASTER);
+
+        assertEquals(ImmutableSet.of("refs/heads/master", "refs/heads/branch"),
+                refDb.getAll("refs/heads").keySet());
+        assertEquals(refDb.getAll("refs/heads"), refDb.getAll("refs/heads/"));
+        assertEquals(4, refDb.getAll().size());
+        assertEquals(5, refDb.getAll("").size());
+
+        Map<String, String> removed = refDb.removeAll("refs/heads");
+        assertEquals(ImmutableSet.of("refs/heads/master", "refs/heads/branch"), removed.keySet());
+        assertEquals(id(2), removed.get("refs/heads/branch"));
+        assertTrue(refDb.getAll("refs/heads").isEmpty());
+        assertEquals(id(3), refDb.getRef("refs/heads-other"));
+    }
+
+    @Test
+    public void testReopenAndCompaction() {
+        // enough changes for the table to be rewritten a few times
+        for (int i = 0; i < 3000; i++) {
+            refDb.putRef("transactions/tx" + (i % 30) + "/changed/refs/heads/b" + i, id(i));
+        }
+        refDb.removeAll("transactions/tx7");
+        refDb.putRef(Ref.MASTER, id(1));
+
+        PackedRefDatabase reopened = new PackedRefDatabase(repoDir);
+        assertEquals(id(1), reopened.getRef(Ref.MASTER));
+        assertTrue(reopened.getAll("transactions/tx7").isEmpty());
+        assertEquals(100, reopened.getAll("transactions/tx8").size());
+        assertEquals(2900, reopened.getAll("transactions").size());
+        assertEquals(id(8), reopened.getRef("transactions/tx8/changed/refs/heads/b8"));
+        assertTrue(new File(repoDir, PackedRefDatabase.LOG_FILE_NAME).length() < new File(
+                repoDir, PackedRefDatabase.FILE_NAME).length());
+
+        // changes made by one instance are seen by the other
+        reopened.remove(Ref.MASTER);
+        assertNull(refDb.getRef(Ref.MASTER));
+    }
+
+    @Test
+    public void testPackLooseRefs() throws Exception {
+        File looseRepo = folder.newFolder("loose");
+        File heads = new File(looseRepo, "refs/heads");
+        heads.mkdirs();
+        Files.write(id(1) + "\n", new File(heads, "master"), Charsets.UTF_8);
+        Files.write("ref: refs/heads/master\n", new File(looseRepo, Ref.HEAD), Charsets.UTF_8);
+
+        PackedRefDatabase packed = new PackedRefDatabase(looseRepo);
+        assertEquals(id(1), packed.getRef(Ref.MASTER));
+        assertEquals(Ref.MASTER, packed.getSymRef(Ref.HEAD));
+        assertEquals(1, packed.getAll().size());
+    }
+
+    @Test
+    public void testInterruptedWrite() throws Exception {
+        refDb.putRef(Ref.MASTER, id(1));
+        RandomAccessFile raf = new RandomAccessFile(new File(repoDir,
+                PackedRefDatabase.LOG_FILE_NAME), "rw");
+        try {
+            // the start of a put record
+            raf.seek(raf.length());
+            raf.write(new byte[] { 1, 0, 50, 'r' });
+        } finally {
+            raf.close();
+        }
+
+        PackedRefDatabase reopened = new PackedRefDatabase(repoDir);
+        assertEquals(id(1), reopened.getRef(Ref.MASTER));
+        reopened.putRef("refs/heads/branch", id(2));
+        assertEquals(id(2), new PackedRefDatabase(repoDir).getRef("refs/heads/branch"));
+        assertEquals(id(1), refDb.getRef(Ref.MASTER));
+    }
+
+    @Test
+    public void testConcurrentWrites() throws Exception {
+        final PackedRefDatabase[] instances = { refDb, new PackedRefDatabase(repoDir) };
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Void>> futures = Lists.newArrayList();
+            for (int t = 0; t < 4; t++) {
+                final int thread = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        PackedRefDatabase db = instances[thread % instances.length];
+                        for (int i = 0; i < 500; i++) {
+                            String name = "refs/heads/t" + thread + "/b" + i;
+                            db.putRef(name, id(i));
+                            assertEquals(id(i), db.getRef(name));
+                            if (i % 2 == 0) {
+                                db.remove(name);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> f : futures) {
+                f.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Map<String, String> all = new PackedRefDatabase(repoDir).getAll();
+        assertEquals(4 * 250, all.size());
+        assertEquals(all, refDb.getAll());
+        assertEquals(all, instances[1].getAll());
+    }
+}
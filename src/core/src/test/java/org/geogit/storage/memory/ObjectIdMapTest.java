@@ -0,0 +1,84 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.geogit.api.ObjectId;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+public class ObjectIdMapTest {
+
+    private static ObjectId id(int i) {
+        return ObjectId.forString("object " + i);
+    }
+
+    @Test
+    public void testPutGet() {
+        ObjectIdMap<Integer> map = new ObjectIdMap<Integer>();
+        for (int i = 0; i < 10000; i++) {
+            assertNull(map.put(id(i), i));
+        }
+        assertEquals(10000, map.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(Integer.valueOf(i), map.get(id(i)));
+            assertTrue(map.containsKey(id(i)));
+        }
+        assertEquals(Integer.valueOf(1), map.put(id(1), -1));
+        assertEquals(Integer.valueOf(-1), map.get(id(1)));
+        assertNull(map.get(id(10000)));
+        assertEquals(10000, map.size());
+    }
+
+    @Test
+    public void testPutIfAbsent() {
+        ObjectIdMap<String> map = new ObjectIdMap<String>();
+        assertNull(map.putIfAbsent(id(0), "a"));
+        assertEquals("a", map.putIfAbsent(id(0), "b"));
+        assertEquals("a", map.get(id(0)));
+    }
+
+    @Test
+    public void testViews() {
+        Map<ObjectId, Integer> expected = new HashMap<ObjectId, Integer>();
+        ObjectIdMap<Integer> map = new ObjectIdMap<Integer>(10);
+        for (int i = 0; i < 1000; i++) {
+            expected.put(id(i), i);
+            map.put(id(i), i);
+        }
+        assertEquals(expected, map);
+        assertEquals(expected.keySet(), Sets.newHashSet(map.keySet()));
+        assertEquals(Sets.newHashSet(expected.values()), Sets.newHashSet(map.values()));
+    }
+
+    @Test
+    public void testRandomOperations() {
+        Random random = new Random(1);
+        Map<ObjectId, Integer> expected = new HashMap<ObjectId, Integer>();
+        ObjectIdMap<Integer> map = new ObjectIdMap<Integer>();
+        for (int i = 0; i < 100000; i++) {
+            int n = random.nextInt(5000);
+            ObjectId id = id(n);
+            if (random.nextBoolean()) {
+                assertEquals(expected.put(id, i), map.put(id, i));
+            } else {
+                assertEquals(expected.remove(id), map.remove(id));
+            }
+        }
+        assertEquals(expected, map);
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertFalse(map.containsKey(id(1)));
+    }
+}
@@ -0,0 +1,117 @@
+/* Copyright (c) 2013 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.geogit.api.ObjectId;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+public class ObjectIdSetTest {
+
+    private static ObjectId id(int i) {
+        return ObjectId.forString("object " + i);
+    }
+
+    /**
+     * Ids sharing their first 16 bytes, hence all hashed to the same slot
+     */
+    private static ObjectId colliding(int i) {
+        byte[] raw = new byte[ObjectId.NUM_BYTES];
+        raw[16] = (byte) (i >>> 24);
+        raw[17] = (byte) (i >>> 16);
+        raw[18] = (byte) (i >>> 8);
+        raw[19] = (byte) i;
+        return new ObjectId(raw);
+    }
+
+    @Test
+    public void testAddContains() {
+        ObjectIdSet set = new ObjectIdSet();
+        assertTrue(set.isEmpty());
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(set.add(id(i)));
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertFalse(set.add(id(i)));
+            assertTrue(set.contains(id(i)));
+        }
+        assertFalse(set.contains(id(10000)));
+        assertFalse(set.contains("not an id"));
+        assertEquals(10000, set.size());
+    }
+
+    @Test
+    public void testIterator() {
+        Set<ObjectId> expected = new HashSet<ObjectId>();
+        ObjectIdSet set = new ObjectIdSet();
+        for (int i = 0; i < 1000; i++) {
+            expected.add(id(i));
+            set.add(id(i));
+        }
+        assertEquals(expected, Sets.newHashSet(set));
+        assertEquals(expected, set);
+    }
+
+    @Test
+    public void testRemoveColliding() {
+        ObjectIdSet set = new ObjectIdSet();
+        for (int i = 0; i < 100; i++) {
+            set.add(colliding(i));
+        }
+        for (int i = 0; i < 100; i += 2) {
+            assertTrue(set.remove(colliding(i)));
+        }
+        assertFalse(set.remove(colliding(0)));
+        assertEquals(50, set.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i % 2 == 1, set.contains(colliding(i)));
+        }
+    }
+
+    @Test
+    public void testRandomOperations() {
+        Random random = new Random(1);
+        Set<ObjectId> expected = new HashSet<ObjectId>();
+        ObjectIdSet set = new ObjectIdSet();
+        for (int i = 0; i < 100000; i++) {
+            ObjectId id = id(random.nextInt(5000));
+            if (random.nextBoolean()) {
+                assertEquals(expected.add(id), set.add(id));
+            } else {
+                assertEquals(expected.remove(id), set.remove(id));
+            }
+        }
+        assertEquals(expected.size(), set.size());
+        assertEquals(expected, Sets.newHashSet(set));
+    }
+
+    @Test
+    public void testRemoveAll() {
+        ObjectIdSet set = new ObjectIdSet();
+        for (int i = 0; i < 10; i++) {
+            set.add(id(i));
+        }
+        List<ObjectId> ids = Lists.newArrayList(id(1), id(20), id(3));
+        ids.removeAll(set);
+        assertEquals(Lists.newArrayList(id(20)), ids);
+
+        assertTrue(set.removeAll(Lists.newArrayList(id(1), id(20))));
+        assertEquals(9, set.size());
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertFalse(set.contains(id(2)));
+    }
+}
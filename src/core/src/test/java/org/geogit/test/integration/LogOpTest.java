@@ -88,6 +88,22 @@ public class LogOpTest extends RepositoryTestCase {
         assertFalse(iterator.hasNext());
     }
 
+    @Test
+    public void testInjectedDefaults() throws Exception {
+        insertAndAdd(points1);
+        final RevCommit firstCommit = geogit.command(CommitOp.class).call();
+        insertAndAdd(lines1);
+        final RevCommit secondCommit = geogit.command(CommitOp.class).call();
+
+        // no time range set, all the commits are returned
+        List<RevCommit> logs = Lists.newArrayList(geogit.command(LogOp.class).call());
+        assertEquals(Arrays.asList(secondCommit, firstCommit), logs);
+
+        // the injected commit graph is used for topological order
+        logs = Lists.newArrayList(geogit.command(LogOp.class).setTopoOrder(true).call());
+        assertEquals(Arrays.asList(secondCommit, firstCommit), logs);
+    }
+
     @Test
     public void testHeadWithMultipleCommits() throws Exception {
 
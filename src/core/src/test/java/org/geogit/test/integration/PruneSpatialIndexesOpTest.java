@@ -0,0 +1,102 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.test.integration;
+
+import org.geogit.api.Ref;
+import org.geogit.api.RevTree;
+import org.geogit.api.plumbing.PruneSpatialIndexesOp;
+import org.geogit.api.plumbing.ResolveSpatialIndex;
+import org.geogit.api.plumbing.RevObjectParse;
+import org.geogit.api.porcelain.CommitOp;
+import org.geogit.api.porcelain.ConfigOp;
+import org.geogit.api.porcelain.ConfigOp.ConfigAction;
+import org.geogit.repository.SpatialIndex;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+public class PruneSpatialIndexesOpTest extends RepositoryTestCase {
+
+    @Override
+    protected void setUpInternal() throws Exception {
+        repo.command(ConfigOp.class).setAction(ConfigAction.CONFIG_SET).setName("user.name")
+                .setValue("groldan").call();
+        repo.command(ConfigOp.class).setAction(ConfigAction.CONFIG_SET).setName("user.email")
+                .setValue("groldan@opengeo.org").call();
+    }
+
+    private RevTree pointsTree() {
+        return geogit.command(RevObjectParse.class).setRefSpec(Ref.HEAD + ":" + pointsName)
+                .call(RevTree.class).get();
+    }
+
+    private Optional<SpatialIndex> index(RevTree tree, boolean build) {
+        return geogit.command(ResolveSpatialIndex.class).setTree(tree).setMinSize(0)
+                .setBuild(build).call();
+    }
+
+    @Test
+    public void testPrune() throws Exception {
+        insertAndAdd(points1);
+        geogit.command(CommitOp.class).call();
+        final RevTree first = pointsTree();
+        assertTrue(index(first, true).isPresent());
+
+        insertAndAdd(points2);
+        geogit.command(CommitOp.class).call();
+        final RevTree second = pointsTree();
+        assertTrue(index(second, true).isPresent());
+
+        // only the current points tree is reachable from a ref
+        Thread.sleep(10);
+        assertEquals(Integer.valueOf(1), geogit.command(PruneSpatialIndexesOp.class)
+                .setRetentionPeriod(0).call());
+        assertFalse(index(first, false).isPresent());
+        assertTrue(index(second, false).isPresent());
+    }
+
+    @Test
+    public void testKeepRecentlyUsed() throws Exception {
+        insertAndAdd(points1);
+        geogit.command(CommitOp.class).call();
+        final RevTree first = pointsTree();
+        assertTrue(index(first, true).isPresent());
+
+        insertAndAdd(points2);
+        geogit.command(CommitOp.class).call();
+        final RevTree second = pointsTree();
+        Optional<SpatialIndex> index = geogit.command(ResolveSpatialIndex.class).setTree(second)
+                .setMinSize(0).setBuildInBackground(true).call();
+        for (int i = 0; i < 100 && !index.isPresent(); i++) {
+            Thread.sleep(50);
+            index = index(second, false);
+        }
+        assertTrue(index.isPresent());
+
+        // building an index doesn't delete the ones of past trees, queries may still use them
+        assertTrue(index(first, false).isPresent());
+        assertEquals(Integer.valueOf(0), geogit.command(PruneSpatialIndexesOp.class).call());
+        assertTrue(index(first, false).isPresent());
+    }
+
+    @Test
+    public void testBuildInBackground() throws Exception {
+        insertAndAdd(points1);
+        insertAndAdd(points2);
+        geogit.command(CommitOp.class).call();
+        final RevTree tree = pointsTree();
+
+        // the caller walks the tree until the index is built
+        Optional<SpatialIndex> index = geogit.command(ResolveSpatialIndex.class).setTree(tree)
+                .setMinSize(0).setBuildInBackground(true).call();
+        assertFalse(index.isPresent());
+        for (int i = 0; i < 100 && !index.isPresent(); i++) {
+            Thread.sleep(50);
+            index = index(tree, false);
+        }
+        assertTrue(index.isPresent());
+        assertEquals(2, index.get().size());
+    }
+}
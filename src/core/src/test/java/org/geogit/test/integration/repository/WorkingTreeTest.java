@@ -42,8 +42,10 @@ import org.opengis.feature.Feature;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.type.Name;
 
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 
 /**
  *
@@ -267,6 +269,42 @@ public class WorkingTreeTest extends RepositoryTestCase {
         assertEquals(3, workTree.countUnstaged(treePath).featureCount());
     }
 
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Test
+    public void testInsertFeatureSourceMultipleBatches() throws Exception {
+        final List<SimpleFeature> features = Lists.newArrayList();
+        for (int i = 0; i < 2500; i++) {
+            features.add((SimpleFeature) feature(pointsType, "Points." + i, "StringProp_" + i,
+                    Integer.valueOf(i), "POINT(" + i + " 0)"));
+        }
+        MemoryDataStore store = new MemoryDataStore();
+        store.addFeatures(features);
+
+        FeatureSource source = store.getFeatureSource(pointsName);
+
+        String treePath = "target_typename";
+        workTree.insert(treePath, source, Query.ALL, LISTENER);
+
+        assertEquals(2500, workTree.countUnstaged(treePath).featureCount());
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Test
+    public void testInsertFeatureSourceReadFailure() throws Exception {
+        MemoryDataStore store = new MemoryDataStore();
+        store.addFeatures(ImmutableList.of((SimpleFeature) points1, (SimpleFeature) points2));
+
+        FeatureSource source = new ForwardingFeatureSource(store.getFeatureSource(pointsName)) {
+            @Override
+            public FeatureCollection getFeatures(Query query) throws IOException {
+                throw new IOException("read failure");
+            }
+        };
+
+        exception.expectMessage("read failure");
+        workTree.insert("target_typename", source, Query.ALL, LISTENER);
+    }
+
     @Test
     public void testInsertCollectionNoTarget() throws Exception {
         List<Feature> featureList = new LinkedList<Feature>();
@@ -558,6 +596,32 @@ public class WorkingTreeTest extends RepositoryTestCase {
 
     }
 
+    @Test
+    public void testInsertBatches() throws Exception {
+        workTree.insert(pointsName, ImmutableList.of(points1).iterator(), LISTENER, null, 1);
+
+        Function<Feature, String> treePathResolver = new Function<Feature, String>() {
+            @Override
+            public String apply(Feature input) {
+                return input.getType().getName().getLocalPart();
+            }
+        };
+        List<List<Feature>> batches = ImmutableList.<List<Feature>> of(
+                ImmutableList.<Feature> of(points2, lines1),
+                ImmutableList.<Feature> of(new FeatureToDelete(pointsType, idP1), lines2),
+                ImmutableList.<Feature> of(points3, lines3));
+
+        long inserted = workTree.insertBatches(treePathResolver, batches.iterator(), LISTENER);
+
+        assertEquals(5, inserted);
+        assertFalse(workTree.findUnstaged(appendChild(pointsName, idP1)).isPresent());
+        assertTrue(workTree.findUnstaged(appendChild(pointsName, idP2)).isPresent());
+        assertTrue(workTree.findUnstaged(appendChild(pointsName, idP3)).isPresent());
+        assertTrue(workTree.findUnstaged(appendChild(linesName, idL1)).isPresent());
+        assertTrue(workTree.findUnstaged(appendChild(linesName, idL2)).isPresent());
+        assertTrue(workTree.findUnstaged(appendChild(linesName, idL3)).isPresent());
+    }
+
     @Test
     public void testGetFeatureTypeNames() throws Exception {
         List<Feature> featureList = new LinkedList<Feature>();
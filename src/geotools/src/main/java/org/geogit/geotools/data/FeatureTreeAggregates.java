@@ -0,0 +1,324 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.geotools.data;
+
+import static com.google.common.collect.Iterators.filter;
+import static com.google.common.collect.Iterators.transform;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.Bounded;
+import org.geogit.api.Bucket;
+import org.geogit.api.Context;
+import org.geogit.api.FeatureBuilder;
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevTree;
+import org.geogit.api.plumbing.ResolveSpatialIndex;
+import org.geogit.repository.SpatialIndex;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.ReadAheadIterator;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.filter.Filter;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.spatial.BBOX;
+
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Computes the count, bounds and attribute values of the features of a feature type tree that
+ * match a filter, straight from the tree nodes instead of building every feature.
+ * <p>
+ * Only {@link Filter#INCLUDE} and {@link BBOX} filters on the default geometry are
+ * {@link #isSupported supported}. Buckets and nodes whose bounds fall outside the query box are
+ * skipped, and features whose bounds fall inside it match without being fetched. Since node bounds
+ * are stored as floats, only the features whose bounds cross the edges of the box, within that
+ * precision, are fetched and evaluated against the filter, so the results are exact.
+ * <p>
+ * For {@link BBOX} filters the nodes are looked up in the spatial index of the tree instead, if
+ * spatial indexes are enabled and the index has been built.
+ *
+ * @see GeogitFeatureReader#SPATIAL_INDEX_CONFIG_KEY
+ */
+class FeatureTreeAggregates {
+
+    private static final int OUTSIDE = 0, INSIDE = 1, CROSSES = 2;
+
+    private final Context commandLocator;
+
+    private final ObjectDatabase db;
+
+    private final SimpleFeatureType schema;
+
+    private final RevTree typeTree;
+
+    private final Filter filter;
+
+    /**
+     * The query box shrunk and grown by the precision of the node bounds, or {@code null} for
+     * {@link Filter#INCLUDE}
+     */
+    @Nullable
+    private final Envelope inner, outer;
+
+    private final Optional<SpatialIndex> index;
+
+    /**
+     * @param commandLocator the context to fetch the trees and features from
+     * @param schema the feature type of the tree
+     * @param typeTree the feature type tree
+     * @param filter a {@link #isSupported supported} filter, in the native CRS of {@code schema}
+     */
+    public FeatureTreeAggregates(Context commandLocator, SimpleFeatureType schema,
+            RevTree typeTree, Filter filter) {
+        Preconditions.checkArgument(isSupported(filter, schema), "Unsupported filter: %s", filter);
+        this.commandLocator = commandLocator;
+        this.db = commandLocator.stagingDatabase();
+        this.schema = schema;
+        this.typeTree = typeTree;
+        this.filter = filter;
+        if (Filter.INCLUDE.equals(filter)) {
+            this.inner = null;
+            this.outer = null;
+        } else {
+            Envelope box = (Envelope) filter.accept(new ExtractBounds(), null);
+            this.outer = new Envelope(box.getMinX() - precision(box.getMinX()), box.getMaxX()
+                    + precision(box.getMaxX()), box.getMinY() - precision(box.getMinY()),
+                    box.getMaxY() + precision(box.getMaxY()));
+            double minX = box.getMinX() + precision(box.getMinX());
+            double maxX = box.getMaxX() - precision(box.getMaxX());
+            double minY = box.getMinY() + precision(box.getMinY());
+            double maxY = box.getMaxY() - precision(box.getMaxY());
+            this.inner = minX > maxX || minY > maxY ? new Envelope() : new Envelope(minX, maxX,
+                    minY, maxY);
+        }
+        if (inner != null && GeogitFeatureReader.isSpatialIndexEnabled(commandLocator)) {
+            this.index = commandLocator.command(ResolveSpatialIndex.class).setTree(typeTree)
+                    .setBuildInBackground(true).call();
+        } else {
+            this.index = Optional.absent();
+        }
+    }
+
+    /**
+     * @return the maximum error of a coordinate close to {@code ordinate} stored as a float
+     */
+    private static double precision(double ordinate) {
+        return 2 * Math.ulp((float) ordinate);
+    }
+
+    /**
+     * @param filter a simplified filter, in the native CRS of {@code schema}
+     * @return whether the filter can be resolved against the node bounds: either
+     *         {@link Filter#INCLUDE} or a {@link BBOX} filter on the default geometry
+     */
+    public static boolean isSupported(Filter filter, SimpleFeatureType schema) {
+        if (Filter.INCLUDE.equals(filter)) {
+            return true;
+        }
+        if (!(filter instanceof BBOX)) {
+            return false;
+        }
+        BBOX bbox = (BBOX) filter;
+        GeometryDescriptor geometry = schema.getGeometryDescriptor();
+        if (geometry == null || !(bbox.getExpression1() instanceof PropertyName)) {
+            return false;
+        }
+        String property = ((PropertyName) bbox.getExpression1()).getPropertyName();
+        if (!"".equals(property) && !geometry.getLocalName().equals(property)) {
+            return false;
+        }
+        Envelope box = (Envelope) filter.accept(new ExtractBounds(), null);
+        return box != null && !box.isNull();
+    }
+
+    /**
+     * @return the number of features matching the filter
+     */
+    public int count() {
+        if (inner == null) {
+            return (int) typeTree.size();
+        }
+        int count = 0;
+        List<Node> crossing = Lists.newArrayList();
+        Iterator<Node> nodes = nodes();
+        while (nodes.hasNext()) {
+            Node node = nodes.next();
+            if (position(node) == INSIDE) {
+                count++;
+            } else {
+                crossing.add(node);
+            }
+        }
+        count += Iterators.size(new MatchingFeatures(crossing.iterator()));
+        return count;
+    }
+
+    /**
+     * @return the bounds of the features matching the filter, as stored in their nodes
+     */
+    public ReferencedEnvelope bounds() {
+        ReferencedEnvelope bounds = new ReferencedEnvelope(schema.getCoordinateReferenceSystem());
+        List<Node> crossing = Lists.newArrayList();
+        Iterator<Node> nodes = nodes();
+        while (nodes.hasNext()) {
+            Node node = nodes.next();
+            if (position(node) == INSIDE) {
+                node.expand(bounds);
+            } else {
+                crossing.add(node);
+            }
+        }
+        MatchingFeatures matches = new MatchingFeatures(crossing.iterator());
+        while (matches.hasNext()) {
+            matches.next();
+            matches.node().expand(bounds);
+        }
+        return bounds;
+    }
+
+    /**
+     * Returns the values of an attribute for the features matching the filter, decoding only that
+     * attribute for the features that don't need to be evaluated against the filter.
+     *
+     * @param attributeIndex the index of the attribute in the feature type
+     * @return the values in no particular order, with {@link Optional#absent()} representing a
+     *         null value
+     */
+    public Iterator<Optional<Object>> values(final int attributeIndex) {
+        Preconditions.checkElementIndex(attributeIndex, schema.getAttributeCount());
+        return transform(new MatchingFeatures(nodes()),
+                new Function<RevFeature, Optional<Object>>() {
+                    @Override
+                    public Optional<Object> apply(RevFeature feature) {
+                        return feature.get(attributeIndex);
+                    }
+                });
+    }
+
+    private int position(Bounded bounded) {
+        if (inner == null) {
+            return INSIDE;
+        }
+        Envelope bounds = new Envelope();
+        bounded.expand(bounds);
+        if (bounds.isNull() || !outer.intersects(bounds)) {
+            return OUTSIDE;
+        }
+        return inner.contains(bounds) ? INSIDE : CROSSES;
+    }
+
+    /**
+     * @return the feature nodes of the tree not outside the query box, from the spatial index of
+     *         the tree or walking down only the buckets that aren't outside of it either
+     */
+    private Iterator<Node> nodes() {
+        final Predicate<Bounded> notOutside = new Predicate<Bounded>() {
+            @Override
+            public boolean apply(Bounded bounded) {
+                return position(bounded) != OUTSIDE;
+            }
+        };
+        if (index.isPresent()) {
+            return filter(index.get().query(outer).iterator(), notOutside);
+        }
+        return new AbstractIterator<Node>() {
+
+            private final Deque<ObjectId> buckets = new ArrayDeque<ObjectId>();
+
+            private Iterator<Node> current = children(typeTree);
+
+            private Iterator<Node> children(RevTree tree) {
+                if (tree.buckets().isPresent()) {
+                    for (Bucket bucket : tree.buckets().get().values()) {
+                        if (notOutside.apply(bucket)) {
+                            buckets.push(bucket.id());
+                        }
+                    }
+                }
+                if (tree.features().isPresent()) {
+                    return filter(tree.features().get().iterator(), notOutside);
+                }
+                return Collections.<Node> emptyList().iterator();
+            }
+
+            @Override
+            protected Node computeNext() {
+                while (!current.hasNext()) {
+                    if (buckets.isEmpty()) {
+                        return endOfData();
+                    }
+                    current = children(db.getTree(buckets.pop()));
+                }
+                return current.next();
+            }
+        };
+    }
+
+    /**
+     * Fetches the features of a sequence of nodes in batches, and drops those whose bounds cross
+     * the query box and don't match the filter.
+     */
+    private class MatchingFeatures extends AbstractIterator<RevFeature> {
+
+        private final FeatureBuilder featureBuilder = new FeatureBuilder(schema);
+
+        private final Deque<Node> pending = new ArrayDeque<Node>();
+
+        private final Iterator<RevFeature> features;
+
+        private Node node;
+
+        public MatchingFeatures(Iterator<Node> nodes) {
+            Iterator<ObjectId> ids = transform(nodes, new Function<Node, ObjectId>() {
+                @Override
+                public ObjectId apply(Node node) {
+                    pending.add(node);
+                    return node.getObjectId();
+                }
+            });
+            this.features = new ReadAheadIterator<RevFeature>(db, ids, RevFeature.class,
+                    GeogitFeatureReader.getFetchSize(commandLocator),
+                    GeogitFeatureReader.isPrefetchEnabled(commandLocator));
+        }
+
+        /**
+         * @return the node of the last returned feature
+         */
+        public Node node() {
+            return node;
+        }
+
+        @Override
+        protected RevFeature computeNext() {
+            while (features.hasNext()) {
+                RevFeature feature = features.next();
+                node = pending.remove();
+                if (position(node) == INSIDE
+                        || filter.evaluate(featureBuilder.build(node.getName(), feature))) {
+                    return feature;
+                }
+            }
+            return endOfData();
+        }
+    }
+}
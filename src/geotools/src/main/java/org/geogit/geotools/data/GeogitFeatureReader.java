@@ -12,8 +12,11 @@ import static com.google.common.collect.Iterators.filter;
 import static com.google.common.collect.Iterators.transform;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.logging.Logger;
@@ -26,6 +29,7 @@ import org.geogit.api.Context;
 import org.geogit.api.FeatureBuilder;
 import org.geogit.api.Node;
 import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
 import org.geogit.api.Ref;
 import org.geogit.api.RevFeature;
 import org.geogit.api.RevObject;
@@ -33,8 +37,11 @@ import org.geogit.api.RevTree;
 import org.geogit.api.plumbing.FindTreeChild;
 import org.geogit.api.plumbing.LsTreeOp;
 import org.geogit.api.plumbing.LsTreeOp.Strategy;
+import org.geogit.api.plumbing.ResolveSpatialIndex;
 import org.geogit.api.plumbing.RevObjectParse;
+import org.geogit.repository.SpatialIndex;
 import org.geogit.storage.NodePathStorageOrder;
+import org.geogit.storage.ReadAheadIterator;
 import org.geotools.data.FeatureReader;
 import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.filter.spatial.ReprojectingFilterVisitor;
@@ -56,6 +63,7 @@ import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Sets;
@@ -69,6 +77,27 @@ class GeogitFeatureReader<T extends FeatureType, F extends Feature> implements F
 
     private static final Logger LOGGER = Logging.getLogger(GeogitFeatureReader.class);
 
+    /**
+     * Boolean config key to enable the use of {@link SpatialIndex spatial indexes} for bounds
+     * queries. Indexes are built in the background for the feature type trees queried, which are
+     * walked as usual until their index is ready, so it pays off when many queries hit the same
+     * tree, like WMS requests against a committed revision
+     */
+    static final String SPATIAL_INDEX_CONFIG_KEY = "spatialindex.enabled";
+
+    /**
+     * Integer config key for the number of features fetched from the object database at once
+     */
+    static final String FETCH_SIZE_CONFIG_KEY = "featurereader.fetchsize";
+
+    /**
+     * Boolean config key to fetch the next batch of features in the background while the current
+     * one is being read, enabled by default
+     */
+    static final String PREFETCH_CONFIG_KEY = "featurereader.prefetch";
+
+    static final int DEFAULT_FETCH_SIZE = 1000;
+
     private SimpleFeatureType schema;
 
     private Stats stats;
@@ -162,7 +191,7 @@ class GeogitFeatureReader<T extends FeatureType, F extends Feature> implements F
         Preconditions.checkArgument(parentTree.isPresent(), "Feature type tree not found: %s",
                 typeTreeRefSpec);
 
-        final Filter filter = reprojectFilter(origFilter);
+        final Filter filter = reprojectFilter(origFilter, schema);
         final Envelope queryBounds = getQueryBounds(filter);
 
         Predicate<Bounded> refBoundsFilter = alwaysTrue();
@@ -189,9 +218,19 @@ class GeogitFeatureReader<T extends FeatureType, F extends Feature> implements F
             Iterator<FeatureId> featureIds = getSortedFidsInNaturalOrder((Id) filter);
             featureRefs = filter(transform(featureIds, idToRef), notNull());
         } else {
-            featureRefs = commandLocator.command(LsTreeOp.class)
-                    .setStrategy(Strategy.FEATURES_ONLY).setReference(typeTreeRefSpec)
-                    .setBoundsFilter(refBoundsFilter).call();
+            Optional<SpatialIndex> index = Optional.absent();
+            if (!queryBounds.isNull() && isSpatialIndexEnabled(commandLocator)) {
+                index = commandLocator.command(ResolveSpatialIndex.class)
+                        .setTree(parentTree.get()).setBuildInBackground(true).call();
+            }
+            if (index.isPresent()) {
+                List<Node> nodes = index.get().query(queryBounds);
+                featureRefs = transform(nodes.iterator(), new NodeToRef(typeTreePath));
+            } else {
+                featureRefs = commandLocator.command(LsTreeOp.class)
+                        .setStrategy(Strategy.FEATURES_ONLY).setReference(typeTreeRefSpec)
+                        .setBoundsFilter(refBoundsFilter).call();
+            }
         }
 
         final boolean filterSupportedByRefs = Filter.INCLUDE.equals(filter)
@@ -201,8 +240,8 @@ class GeogitFeatureReader<T extends FeatureType, F extends Feature> implements F
             featureRefs = applyRefsOffsetLimit(featureRefs);
         }
 
-        NodeRefToFeature refToFeature = new NodeRefToFeature(commandLocator, schema);
-        final Iterator<SimpleFeature> featuresUnfiltered = transform(featureRefs, refToFeature);
+        final Iterator<SimpleFeature> featuresUnfiltered = new NodeRefToFeature(commandLocator,
+                schema, featureRefs);
 
         FilterPredicate filterPredicate = new FilterPredicate(filter);
         Iterator<SimpleFeature> featuresFiltered = filter(featuresUnfiltered, filterPredicate);
@@ -241,6 +280,24 @@ class GeogitFeatureReader<T extends FeatureType, F extends Feature> implements F
         throw new UnsupportedOperationException();
     }
 
+    static boolean isSpatialIndexEnabled(Context commandLocator) {
+        Optional<Boolean> enabled = commandLocator.configDatabase().get(
+                SPATIAL_INDEX_CONFIG_KEY, Boolean.class);
+        return enabled.or(Boolean.FALSE).booleanValue();
+    }
+
+    static int getFetchSize(Context commandLocator) {
+        Optional<Integer> fetchSize = commandLocator.configDatabase().get(FETCH_SIZE_CONFIG_KEY,
+                Integer.class);
+        return Math.max(1, fetchSize.or(Integer.valueOf(DEFAULT_FETCH_SIZE)).intValue());
+    }
+
+    static boolean isPrefetchEnabled(Context commandLocator) {
+        Optional<Boolean> enabled = commandLocator.configDatabase().get(PREFETCH_CONFIG_KEY,
+                Boolean.class);
+        return enabled.or(Boolean.TRUE).booleanValue();
+    }
+
     private Iterator<SimpleFeature> applyFeaturesOffsetLimit(Iterator<SimpleFeature> features) {
         if (offset != null) {
             Iterators.advance(features, offset.intValue());
@@ -303,25 +360,65 @@ class GeogitFeatureReader<T extends FeatureType, F extends Feature> implements F
         }
     };
 
-    private static class NodeRefToFeature implements Function<NodeRef, SimpleFeature> {
+    private static class NodeToRef implements Function<Node, NodeRef> {
+
+        private final String treePath;
+
+        public NodeToRef(String treePath) {
+            this.treePath = treePath;
+        }
+
+        @Override
+        public NodeRef apply(Node node) {
+            // no need for the default metadata id, the feature type is given by the schema
+            return new NodeRef(node, treePath, ObjectId.NULL);
+        }
+    };
+
+    /**
+     * Builds the features of a sequence of refs, fetching their {@link RevFeature}s in batches of
+     * the {@link #FETCH_SIZE_CONFIG_KEY configured} size through a {@link ReadAheadIterator},
+     * instead of looking them up one by one.
+     */
+    private static class NodeRefToFeature extends AbstractIterator<SimpleFeature> {
+
+        private final FeatureBuilder featureBuilder;
 
-        private RevObjectParse parseRevFeatureCommand;
+        /**
+         * The refs whose features have been requested but not built yet, in order
+         */
+        private final Deque<NodeRef> pending = new ArrayDeque<NodeRef>();
 
-        private FeatureBuilder featureBuilder;
+        private final Iterator<RevFeature> revFeatures;
 
-        public NodeRefToFeature(Context commandLocator, SimpleFeatureType schema) {
+        public NodeRefToFeature(Context commandLocator, SimpleFeatureType schema,
+                Iterator<NodeRef> featureRefs) {
             this.featureBuilder = new FeatureBuilder(schema);
-            this.parseRevFeatureCommand = commandLocator.command(RevObjectParse.class);
+
+            // the read ahead iterator consumes the ids on this thread, in order
+            Iterator<ObjectId> featureIds = transform(featureRefs,
+                    new Function<NodeRef, ObjectId>() {
+                        @Override
+                        public ObjectId apply(NodeRef ref) {
+                            pending.add(ref);
+                            return ref.objectId();
+                        }
+                    });
+            this.revFeatures = new ReadAheadIterator<RevFeature>(
+                    commandLocator.stagingDatabase(), featureIds, RevFeature.class,
+                    getFetchSize(commandLocator), isPrefetchEnabled(commandLocator));
         }
 
         @Override
-        public SimpleFeature apply(final NodeRef featureRef) {
-            Optional<RevFeature> revFeature = parseRevFeatureCommand.setObjectId(
-                    featureRef.objectId()).call(RevFeature.class);
-            Preconditions.checkState(revFeature.isPresent());
+        protected SimpleFeature computeNext() {
+            if (!revFeatures.hasNext()) {
+                return endOfData();
+            }
+            RevFeature revFeature = revFeatures.next();
+            NodeRef featureRef = pending.remove();
 
             String id = featureRef.name();
-            Feature feature = featureBuilder.build(id, revFeature.get());
+            Feature feature = featureBuilder.build(id, revFeature);
             return (SimpleFeature) feature;
         }
     };
@@ -351,9 +448,10 @@ class GeogitFeatureReader<T extends FeatureType, F extends Feature> implements F
 
     /**
      * @param filter
-     * @return
+     * @param schema the feature type whose CRS to reproject the filter's geometries to
+     * @return the filter with its geometries in the native CRS of {@code schema}
      */
-    private Filter reprojectFilter(Filter filter) {
+    static Filter reprojectFilter(Filter filter, SimpleFeatureType schema) {
         if (hasSpatialFilter(filter)) {
             CoordinateReferenceSystem crs = schema.getCoordinateReferenceSystem();
             if (crs == null) {
@@ -372,7 +470,7 @@ class GeogitFeatureReader<T extends FeatureType, F extends Feature> implements F
         return filter;
     }
 
-    private boolean hasSpatialFilter(Filter filter) {
+    private static boolean hasSpatialFilter(Filter filter) {
         SpatialFilterVisitor spatialFilterVisitor = new SpatialFilterVisitor();
         filter.accept(spatialFilterVisitor, null);
         return spatialFilterVisitor.hasSpatialFilter();
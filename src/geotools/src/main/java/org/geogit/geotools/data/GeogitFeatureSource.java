@@ -6,6 +6,7 @@
 package org.geogit.geotools.data;
 
 import java.io.IOException;
+import java.util.Iterator;
 import java.util.Set;
 
 import javax.annotation.Nullable;
@@ -30,19 +31,27 @@ import org.geotools.data.store.ContentFeatureSource;
 import org.geotools.data.store.ContentState;
 import org.geotools.factory.Hints;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.feature.visitor.CountVisitor;
+import org.geotools.feature.visitor.MaxVisitor;
+import org.geotools.feature.visitor.MinVisitor;
+import org.geotools.feature.visitor.UniqueVisitor;
 import org.geotools.filter.visitor.SimplifyingFilterVisitor;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.opengis.feature.Feature;
 import org.opengis.feature.FeatureVisitor;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.GeometryDescriptor;
 import org.opengis.feature.type.Name;
 import org.opengis.filter.Filter;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.PropertyName;
 import org.opengis.filter.sort.SortBy;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Sets;
 
 /**
  *
@@ -112,9 +121,100 @@ class GeogitFeatureSource extends ContentFeatureSource {
         return true;
     }
 
+    /**
+     * Handles {@link CountVisitor}, and {@link UniqueVisitor}, {@link MinVisitor} and
+     * {@link MaxVisitor} on a non geometry attribute, for the filters supported by
+     * {@link FeatureTreeAggregates}, decoding only the visited attribute of each feature. Other
+     * visitors and filters are left to the default feature by feature visit.
+     */
     @Override
     protected boolean handleVisitor(Query query, FeatureVisitor visitor) throws IOException {
-        return false;
+        final Optional<FeatureTreeAggregates> aggregates = getAggregates(query.getFilter());
+        if (!aggregates.isPresent()) {
+            return false;
+        }
+        if (visitor instanceof CountVisitor) {
+            ((CountVisitor) visitor).setValue(getCountInternal(query));
+            return true;
+        }
+        if (query.getStartIndex() != null || query.getMaxFeatures() != Integer.MAX_VALUE) {
+            return false;
+        }
+
+        final Expression expression;
+        if (visitor instanceof UniqueVisitor) {
+            expression = ((UniqueVisitor) visitor).getExpression();
+        } else if (visitor instanceof MinVisitor) {
+            expression = ((MinVisitor) visitor).getExpression();
+        } else if (visitor instanceof MaxVisitor) {
+            expression = ((MaxVisitor) visitor).getExpression();
+        } else {
+            return false;
+        }
+        final int attributeIndex = getAttributeIndex(expression);
+        if (attributeIndex == -1) {
+            return false;
+        }
+
+        Iterator<Optional<Object>> values = aggregates.get().values(attributeIndex);
+        if (visitor instanceof UniqueVisitor) {
+            Set<Object> unique = Sets.newHashSet();
+            while (values.hasNext()) {
+                // null values are not reported, as in UniqueVisitor.visit
+                unique.addAll(values.next().asSet());
+            }
+            ((UniqueVisitor) visitor).setValue(unique);
+            return true;
+        }
+
+        final boolean min = visitor instanceof MinVisitor;
+        Comparable<Object> result = null;
+        while (values.hasNext()) {
+            Comparable<Object> value = (Comparable<Object>) values.next().orNull();
+            if (value != null
+                    && (result == null || (min ? value.compareTo(result) < 0 : value
+                            .compareTo(result) > 0))) {
+                result = value;
+            }
+        }
+        if (result != null) {
+            if (min) {
+                ((MinVisitor) visitor).setValue(result);
+            } else {
+                ((MaxVisitor) visitor).setValue(result);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the index of the non geometry attribute {@code expression} refers to, or {@code -1}
+     */
+    private int getAttributeIndex(Expression expression) {
+        if (!(expression instanceof PropertyName)) {
+            return -1;
+        }
+        SimpleFeatureType schema = getSchema();
+        int index = schema.indexOf(((PropertyName) expression).getPropertyName());
+        if (index == -1 || schema.getDescriptor(index) instanceof GeometryDescriptor) {
+            return -1;
+        }
+        return index;
+    }
+
+    /**
+     * @return the aggregates of the feature type tree for the given filter, if it can be resolved
+     *         against the tree nodes
+     */
+    private Optional<FeatureTreeAggregates> getAggregates(Filter filter) {
+        final SimpleFeatureType schema = getSchema();
+        filter = (Filter) filter.accept(new SimplifyingFilterVisitor(), null);
+        filter = GeogitFeatureReader.reprojectFilter(filter, schema);
+        if (!FeatureTreeAggregates.isSupported(filter, schema)) {
+            return Optional.absent();
+        }
+        return Optional.of(new FeatureTreeAggregates(getCommandLocator(), schema, getTypeTree(),
+                filter));
     }
 
     @Override
@@ -169,6 +269,14 @@ class GeogitFeatureSource extends ContentFeatureSource {
         };
     }
 
+    /**
+     * Bounding box filters of queries that aren't paged are resolved against the tree nodes, or
+     * its spatial index if enabled, by {@link FeatureTreeAggregates}. Other filters besides
+     * {@link Filter#INCLUDE} and {@link Filter#EXCLUDE} are resolved through the native reader,
+     * which queries the spatial index of the feature type tree for bounds filters, if enabled.
+     * 
+     * @see GeogitFeatureReader#SPATIAL_INDEX_CONFIG_KEY
+     */
     @Override
     protected ReferencedEnvelope getBoundsInternal(Query query) throws IOException {
         final Filter filter = (Filter) query.getFilter().accept(new SimplifyingFilterVisitor(),
@@ -183,6 +291,12 @@ class GeogitFeatureSource extends ContentFeatureSource {
         if (Filter.EXCLUDE.equals(filter)) {
             return ReferencedEnvelope.create(crs);
         }
+        if (query.getStartIndex() == null && query.getMaxFeatures() == Integer.MAX_VALUE) {
+            Optional<FeatureTreeAggregates> aggregates = getAggregates(filter);
+            if (aggregates.isPresent()) {
+                return aggregates.get().bounds();
+            }
+        }
 
         FeatureReader<SimpleFeatureType, SimpleFeature> features;
         if (isNaturalOrder(query.getSortBy())) {
@@ -204,6 +318,14 @@ class GeogitFeatureSource extends ContentFeatureSource {
         return bounds;
     }
 
+    /**
+     * {@link Filter#INCLUDE} and bounding box filters are resolved against the tree nodes, or its
+     * spatial index if enabled, by {@link FeatureTreeAggregates}; other filters through the native
+     * reader, which queries the spatial index of the feature type tree for bounds filters, if
+     * enabled.
+     * 
+     * @see GeogitFeatureReader#SPATIAL_INDEX_CONFIG_KEY
+     */
     @Override
     protected int getCountInternal(Query query) throws IOException {
         final Filter filter = (Filter) query.getFilter().accept(new SimplifyingFilterVisitor(),
@@ -216,12 +338,11 @@ class GeogitFeatureSource extends ContentFeatureSource {
         final Integer maxFeatures = query.getMaxFeatures() == Integer.MAX_VALUE ? null : query
                 .getMaxFeatures();
 
-        int size;
-        if (Filter.INCLUDE.equals(filter)) {
-            RevTree tree = getTypeTree();
-            size = (int) tree.size();
+        Optional<FeatureTreeAggregates> aggregates = getAggregates(filter);
+        if (aggregates.isPresent()) {
+            int size = aggregates.get().count();
             if (offset != null) {
-                size = size - offset.intValue();
+                size = Math.max(0, size - offset.intValue());
             }
             if (maxFeatures != null) {
                 size = Math.min(size, maxFeatures.intValue());
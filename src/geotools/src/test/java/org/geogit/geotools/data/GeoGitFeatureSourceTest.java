@@ -33,6 +33,10 @@ import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.data.simple.SimpleFeatureSource;
 import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.visitor.CountVisitor;
+import org.geotools.feature.visitor.MaxVisitor;
+import org.geotools.feature.visitor.MinVisitor;
+import org.geotools.feature.visitor.UniqueVisitor;
 import org.geotools.filter.text.ecql.ECQL;
 import org.geotools.geometry.jts.JTS;
 import org.geotools.geometry.jts.ReferencedEnvelope;
@@ -47,6 +51,7 @@ import org.opengis.filter.identity.ResourceId;
 import org.opengis.filter.sort.SortBy;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
@@ -220,6 +225,75 @@ public class GeoGitFeatureSourceTest extends RepositoryTestCase {
         assertEquals(2, linesSource.getCount(new Query(linesName, filter)));
     }
 
+    @Test
+    public void testBoundingBoxCountAndBounds() throws Exception {
+        // points2 is on the edge of the box
+        Filter filter = ff.bbox("pp", 0.5, 0.5, 2, 2, null);
+        Query query = new Query(pointsName, filter);
+        assertEquals(2, pointsSource.getCount(query));
+        assertEquals(boundsOf(points1, points2), pointsSource.getBounds(query));
+
+        filter = ff.bbox("pp", 2.5, 2.5, 4, 4, null);
+        query = new Query(pointsName, filter);
+        assertEquals(1, pointsSource.getCount(query));
+        assertEquals(boundsOf(points3), pointsSource.getBounds(query));
+
+        filter = ff.bbox("pp", 10, 10, 20, 20, null);
+        query = new Query(pointsName, filter);
+        assertEquals(0, pointsSource.getCount(query));
+        assertTrue(pointsSource.getBounds(query).isEmpty());
+
+        query = new Query(pointsName, ff.bbox("pp", 0, 0, 4, 4, null));
+        query.setStartIndex(1);
+        query.setMaxFeatures(1);
+        assertEquals(1, pointsSource.getCount(query));
+        query.setStartIndex(5);
+        assertEquals(0, pointsSource.getCount(query));
+    }
+
+    @Test
+    public void testAggregateVisitors() throws Exception {
+        SimpleFeatureCollection collection = pointsSource.getFeatures(Query.ALL);
+
+        CountVisitor count = new CountVisitor();
+        collection.accepts(count, null);
+        assertEquals(3, count.getCount());
+
+        UniqueVisitor unique = new UniqueVisitor("sp", pointsType);
+        collection.accepts(unique, null);
+        assertEquals(ImmutableSet.of("StringProp1_1", "StringProp1_2", "StringProp1_3"),
+                unique.getUnique());
+
+        MinVisitor min = new MinVisitor("ip", pointsType);
+        collection.accepts(min, null);
+        assertEquals(1000, min.getResult().toInt());
+
+        MaxVisitor max = new MaxVisitor("ip", pointsType);
+        collection.accepts(max, null);
+        assertEquals(3000, max.getResult().toInt());
+
+        collection = pointsSource.getFeatures(new Query(pointsName, ff.bbox("pp", 1.5, 1.5, 4,
+                4, null)));
+
+        count = new CountVisitor();
+        collection.accepts(count, null);
+        assertEquals(2, count.getCount());
+
+        unique = new UniqueVisitor("sp", pointsType);
+        collection.accepts(unique, null);
+        assertEquals(ImmutableSet.of("StringProp1_2", "StringProp1_3"), unique.getUnique());
+
+        min = new MinVisitor("ip", pointsType);
+        collection.accepts(min, null);
+        assertEquals(2000, min.getResult().toInt());
+
+        // not resolved against the tree
+        collection = pointsSource.getFeatures(new Query(pointsName, ECQL.toFilter("ip < 3000")));
+        max = new MaxVisitor("ip", pointsType);
+        collection.accepts(max, null);
+        assertEquals(2000, max.getResult().toInt());
+    }
+
     @Test
     public void testGetFeatures() throws Exception {
         SimpleFeatureCollection collection;
@@ -323,6 +397,33 @@ public class GeoGitFeatureSourceTest extends RepositoryTestCase {
 
     }
 
+    @Test
+    public void testGetFeaturesInBatches() throws Exception {
+        Query query = new Query(linesName);
+        final List<String> expected = featureIds(query);
+        query.setStartIndex(1);
+        query.setMaxFeatures(1);
+        final List<String> expectedPage = featureIds(query);
+        assertEquals(3, expected.size());
+        assertEquals(expected.subList(1, 2), expectedPage);
+
+        for (Boolean prefetch : ImmutableList.of(Boolean.TRUE, Boolean.FALSE)) {
+            repo.configDatabase().put(GeogitFeatureReader.FETCH_SIZE_CONFIG_KEY, 2);
+            repo.configDatabase().put(GeogitFeatureReader.PREFETCH_CONFIG_KEY, prefetch);
+
+            assertEquals(expected, featureIds(new Query(linesName)));
+            assertEquals(expectedPage, featureIds(query));
+        }
+    }
+
+    private List<String> featureIds(Query query) throws IOException {
+        List<String> ids = Lists.newArrayList();
+        for (SimpleFeature f : toList(linesSource.getFeatures(query))) {
+            ids.add(f.getID());
+        }
+        return ids;
+    }
+
     @Test
     public void testFeatureIdsAreVersioned() throws IOException {
         SimpleFeatureCollection collection = pointsSource.getFeatures(Query.ALL);
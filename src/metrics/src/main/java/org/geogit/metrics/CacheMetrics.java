@@ -0,0 +1,84 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.metrics;
+
+import org.geogit.di.caching.ObjectCaches;
+
+import com.google.common.cache.CacheStats;
+import com.google.inject.Provider;
+
+/**
+ * Registers {@link Gauge gauges} for the hit and miss counts, and hit rate, of the object and
+ * staging database caches of a repository while it's open.
+ *
+ * @see ObjectCaches
+ */
+class CacheMetrics {
+
+    private static final String[] CACHES = { "cache.objects", "cache.staging" };
+
+    private final Provider<ObjectCaches> caches;
+
+    private final MetricRegistry registry;
+
+    public CacheMetrics(Provider<ObjectCaches> caches, MetricRegistry registry) {
+        this.caches = caches;
+        this.registry = registry;
+    }
+
+    public void register() {
+        final ObjectCaches caches = this.caches.get();
+        register(CACHES[0], caches, true);
+        register(CACHES[1], caches, false);
+    }
+
+    private void register(final String cache, final ObjectCaches caches, final boolean objects) {
+        registry.gauge(cache + ".hitCount", new CacheGauge(caches, objects) {
+            @Override
+            double value(CacheStats stats) {
+                return stats.hitCount();
+            }
+        });
+        registry.gauge(cache + ".missCount", new CacheGauge(caches, objects) {
+            @Override
+            double value(CacheStats stats) {
+                return stats.missCount();
+            }
+        });
+        registry.gauge(cache + ".hitRate", new CacheGauge(caches, objects) {
+            @Override
+            double value(CacheStats stats) {
+                return stats.hitRate();
+            }
+        });
+    }
+
+    public void unregister() {
+        for (String cache : CACHES) {
+            registry.remove(cache + ".hitCount");
+            registry.remove(cache + ".missCount");
+            registry.remove(cache + ".hitRate");
+        }
+    }
+
+    private static abstract class CacheGauge extends Gauge {
+
+        private final ObjectCaches caches;
+
+        private final boolean objects;
+
+        CacheGauge(ObjectCaches caches, boolean objects) {
+            this.caches = caches;
+            this.objects = objects;
+        }
+
+        @Override
+        public double getValue() {
+            return value(objects ? caches.objectDatabaseStats() : caches.stagingDatabaseStats());
+        }
+
+        abstract double value(CacheStats stats);
+    }
+}
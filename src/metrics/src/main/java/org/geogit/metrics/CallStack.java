@@ -98,7 +98,7 @@ final class CallStack implements Serializable {
     }
 
     public long getEllapsedNanos() {
-        return nanoTime = startTimeNanos;
+        return nanoTime - startTimeNanos;
     }
 
     public long getStartTimeMillis() {
@@ -147,7 +147,7 @@ final class CallStack implements Serializable {
         final double percent = (this.getEllapsedNanos() * 100.0) / totalNanos;
 
         return String.format("%s -> %,.2f %s (%.2f%%), success: %s", name,
-                (durationFactor * nanoTime), unitName, percent, success);
+                (durationFactor * getEllapsedNanos()), unitName, percent, success);
     }
 
     public void dump(PrintStream stream, TimeUnit durationUnit) {
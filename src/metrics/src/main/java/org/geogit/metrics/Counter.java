@@ -0,0 +1,38 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A monotonically increasing count, like the number of objects or bytes read from a storage
+ * backend.
+ */
+public final class Counter implements Metric, CounterMXBean {
+
+    private final AtomicLong count = new AtomicLong();
+
+    Counter() {
+        //
+    }
+
+    public void increment() {
+        count.incrementAndGet();
+    }
+
+    public void increment(long amount) {
+        count.addAndGet(amount);
+    }
+
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+
+    @Override
+    public String toString() {
+        return "Counter[" + getCount() + "]";
+    }
+}
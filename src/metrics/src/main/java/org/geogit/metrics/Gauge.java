@@ -0,0 +1,19 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.metrics;
+
+/**
+ * A metric whose value is computed each time it's read, like a cache hit rate.
+ */
+public abstract class Gauge implements Metric, GaugeMXBean {
+
+    @Override
+    public abstract double getValue();
+
+    @Override
+    public String toString() {
+        return "Gauge[" + getValue() + "]";
+    }
+}
@@ -0,0 +1,13 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.metrics;
+
+/**
+ * JMX view of a {@link Gauge}
+ */
+public interface GaugeMXBean {
+
+    public double getValue();
+}
@@ -0,0 +1,87 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Hashtable;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Exposes the metrics of a {@link MetricRegistry} as MXBeans, named
+ * {@code org.geogit:type=Metrics,name="<metric name>"}, as they're added to the registry.
+ */
+class JmxReporter implements MetricRegistry.Listener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JmxReporter.class);
+
+    static final String DOMAIN = "org.geogit";
+
+    private static JmxReporter globalReporter;
+
+    private final MBeanServer server;
+
+    JmxReporter(MBeanServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Exposes the {@link MetricRegistry#global() global} registry through the platform MBean
+     * server, if not already done.
+     */
+    static synchronized void registerGlobal() {
+        if (globalReporter == null) {
+            globalReporter = new JmxReporter(ManagementFactory.getPlatformMBeanServer());
+            MetricRegistry.global().addListener(globalReporter);
+        }
+    }
+
+    static ObjectName objectName(String metricName) throws JMException {
+        Hashtable<String, String> properties = new Hashtable<String, String>();
+        properties.put("type", "Metrics");
+        properties.put("name", ObjectName.quote(metricName));
+        return new ObjectName(DOMAIN, properties);
+    }
+
+    @Override
+    public void added(String name, Metric metric) {
+        try {
+            final StandardMBean mbean;
+            if (metric instanceof Timer) {
+                mbean = new StandardMBean((Timer) metric, TimerMXBean.class, true);
+            } else if (metric instanceof Counter) {
+                mbean = new StandardMBean((Counter) metric, CounterMXBean.class, true);
+            } else if (metric instanceof Gauge) {
+                mbean = new StandardMBean((Gauge) metric, GaugeMXBean.class, true);
+            } else {
+                return;
+            }
+            server.registerMBean(mbean, objectName(name));
+        } catch (InstanceAlreadyExistsException e) {
+            LOGGER.debug("Metric {} already registered", name);
+        } catch (JMException e) {
+            LOGGER.warn("Unable to register metric {} with JMX", name, e);
+        }
+    }
+
+    @Override
+    public void removed(String name, Metric metric) {
+        try {
+            server.unregisterMBean(objectName(name));
+        } catch (InstanceNotFoundException e) {
+            // not registered, nothing to do
+        } catch (JMException e) {
+            LOGGER.warn("Unable to unregister metric {} from JMX", name, e);
+        }
+    }
+}
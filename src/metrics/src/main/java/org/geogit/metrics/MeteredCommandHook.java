@@ -14,6 +14,12 @@ import org.geogit.api.porcelain.ConfigException;
 import org.geogit.api.porcelain.ConfigException.StatusCode;
 import org.geogit.storage.ConfigDatabase;
 
+/**
+ * A {@link CommandHook} that, when {@code metrics.enabled} is set, records the ellapsed time of
+ * every command in the {@link MetricRegistry#global() global metrics registry} and logs it.
+ *
+ * @see MetricsModule
+ */
 public class MeteredCommandHook implements CommandHook {
 
     private static final double toMillisFactor = 1.0 / TimeUnit.MILLISECONDS.toNanos(1L);
@@ -69,7 +75,13 @@ public class MeteredCommandHook implements CommandHook {
         stack = CallStack.pop(endTime, success);
         long ellapsed = stack.getEllapsedNanos();
 
-        double millis = endTime * toMillisFactor;
+        MetricRegistry registry = MetricRegistry.global();
+        registry.timer("op." + stack.getName()).record(ellapsed, TimeUnit.NANOSECONDS);
+        if (!success) {
+            registry.counter("op." + stack.getName() + ".failures").increment();
+        }
+
+        double millis = ellapsed * toMillisFactor;
         METRICS_LOGGER.info("{}, {}, {}, {}", stack.getName(), stack.getStartTimeMillis(), millis,
                 success);
         if (stack.isRoot()) {
@@ -0,0 +1,13 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.metrics;
+
+/**
+ * Marker interface for the metrics held by a {@link MetricRegistry}: {@link Timer timers},
+ * {@link Counter counters}, and {@link Gauge gauges}.
+ */
+public interface Metric {
+
+}
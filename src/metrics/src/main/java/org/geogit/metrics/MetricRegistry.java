@@ -0,0 +1,155 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.metrics;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
+
+/**
+ * An in-process registry of named {@link Metric metrics}.
+ * <p>
+ * Command hooks are discovered through the {@link java.util.ServiceLoader} rather than created by
+ * the injector, and the JMX server is shared by the whole JVM, so metrics are collected in the
+ * {@link #global() global} registry. The following names are used:
+ * <ul>
+ * <li>{@code op.<command class>}: {@link Timer} of every {@code AbstractGeoGitOp} call, and
+ * {@code op.<command class>.failures} a {@link Counter} of the calls that threw an exception
+ * <li>{@code odb.<backend>.<method>}: {@link Timer} of the {@code get}, {@code getAll},
+ * {@code put}, {@code putAll}, and {@code exists} calls to the repository object database, with
+ * {@code odb.<backend>.<method>.objects} and {@code odb.<backend>.<method>.bytes} {@link Counter
+ * counters} for the bulk methods
+ * <li>{@code cache.<objects|staging>.<hitCount|missCount|hitRate>}: {@link Gauge gauges} of the
+ * object caches statistics
+ * </ul>
+ *
+ * @see MetricsModule
+ */
+public final class MetricRegistry {
+
+    /**
+     * Gets notified of metrics being added to or removed from a registry
+     */
+    public static interface Listener {
+
+        public void added(String name, Metric metric);
+
+        public void removed(String name, Metric metric);
+    }
+
+    private static final MetricRegistry GLOBAL = new MetricRegistry();
+
+    private final ConcurrentMap<String, Metric> metrics = Maps.newConcurrentMap();
+
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    public static MetricRegistry global() {
+        return GLOBAL;
+    }
+
+    /**
+     * @return the timer named {@code name}, created if it doesn't exist yet
+     * @throws IllegalArgumentException if a metric of another kind is registered under that name
+     */
+    public Timer timer(final String name) {
+        Metric metric = metrics.get(name);
+        if (metric == null) {
+            metric = register(name, new Timer(), false);
+        }
+        checkArgument(metric instanceof Timer, "%s is not a timer: %s", name, metric);
+        return (Timer) metric;
+    }
+
+    /**
+     * @return the counter named {@code name}, created if it doesn't exist yet
+     * @throws IllegalArgumentException if a metric of another kind is registered under that name
+     */
+    public Counter counter(final String name) {
+        Metric metric = metrics.get(name);
+        if (metric == null) {
+            metric = register(name, new Counter(), false);
+        }
+        checkArgument(metric instanceof Counter, "%s is not a counter: %s", name, metric);
+        return (Counter) metric;
+    }
+
+    /**
+     * Registers {@code gauge} under {@code name}, replacing any gauge previously registered with
+     * that name.
+     *
+     * @throws IllegalArgumentException if a metric of another kind is registered under that name
+     */
+    public void gauge(final String name, final Gauge gauge) {
+        checkNotNull(gauge);
+        Metric existing = metrics.get(name);
+        checkArgument(existing == null || existing instanceof Gauge, "%s is not a gauge: %s",
+                name, existing);
+        register(name, gauge, true);
+    }
+
+    /**
+     * Removes the metric named {@code name}, if any
+     *
+     * @return whether the metric existed
+     */
+    public boolean remove(final String name) {
+        Metric removed = metrics.remove(name);
+        if (removed != null) {
+            for (Listener l : listeners) {
+                l.removed(name, removed);
+            }
+        }
+        return removed != null;
+    }
+
+    /**
+     * @return a snapshot of the currently registered metrics, sorted by name
+     */
+    public SortedMap<String, Metric> getMetrics() {
+        return ImmutableSortedMap.copyOf(metrics);
+    }
+
+    /**
+     * Adds a listener, that gets immediately notified of the currently registered metrics
+     */
+    public void addListener(final Listener listener) {
+        listeners.add(listener);
+        for (Map.Entry<String, Metric> e : getMetrics().entrySet()) {
+            listener.added(e.getKey(), e.getValue());
+        }
+    }
+
+    public void removeListener(final Listener listener) {
+        listeners.remove(listener);
+    }
+
+    private Metric register(final String name, final Metric metric, final boolean replace) {
+        checkNotNull(name);
+        if (replace) {
+            Metric previous = metrics.put(name, metric);
+            if (previous != null) {
+                for (Listener l : listeners) {
+                    l.removed(name, previous);
+                }
+            }
+        } else {
+            Metric previous = metrics.putIfAbsent(name, metric);
+            if (previous != null) {
+                return previous;
+            }
+        }
+        for (Listener l : listeners) {
+            l.added(name, metric);
+        }
+        return metric;
+    }
+}
@@ -8,7 +8,9 @@ import java.lang.management.ManagementFactory;
 
 import org.geogit.api.Platform;
 import org.geogit.di.GeogitModule;
+import org.geogit.di.caching.ObjectCaches;
 import org.geogit.storage.ConfigDatabase;
+import org.geogit.storage.ObjectDatabase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -16,10 +18,13 @@ import com.google.inject.AbstractModule;
 
 /**
  * Guice module to be used jointly with {@link GeogitModule}, that logs command ellapsed time to a
- * file.
+ * file, and records command timings, object database timings and counts, and cache statistics in
+ * the {@link MetricRegistry#global() global metrics registry}, which is exposed through JMX under
+ * the {@code org.geogit} domain.
  * <p>
  * The {@code metrics.enabled} (boolean) <b>local</b> configuration property is used to
- * enable/disable logging tracking of command ellapsed time.
+ * enable/disable logging tracking of command ellapsed time, and the recording of command and
+ * object database metrics.
  * <p>
  * The following loggers are used:
  * <ul>
@@ -62,32 +67,20 @@ public class MetricsModule extends AbstractModule {
     @Override
     protected void configure() {
 
-        // Provider<Platform> platform = getProvider(Platform.class);
-        // Provider<ConfigDatabase> configDb = getProvider(ConfigDatabase.class);
-
-        // final Matcher<Class> stagingDatabase = subclassesOf(StagingDatabase.class);
-        // final Matcher<Class> objectDatabase = subclassesOf(ObjectDatabase.class).and(
-        // Matchers.not(stagingDatabase));
-        //
-        // bindInterceptor(objectDatabase, new MethodMatcher(ObjectDatabase.class, "putAll",
-        // Iterator.class), new NamedMeteredInterceptor(platform, configDb,
-        // "ObjectDatabase.putAll"));
-        //
-        // bindInterceptor(stagingDatabase, new MethodMatcher(StagingDatabase.class, "putAll",
-        // Iterator.class), new NamedMeteredInterceptor(platform, configDb,
-        // "StagingDatabase.putAll"));
-        //
-        // bindInterceptor(objectDatabase, new MethodMatcher(ObjectDatabase.class, "close"),
-        // new NamedMeteredInterceptor(platform, configDb, "ObjectDatabase.close"));
-        //
-        // bindInterceptor(stagingDatabase, new MethodMatcher(StagingDatabase.class, "close"),
-        // new NamedMeteredInterceptor(platform, configDb, "StagingDatabase.close"));
-
-        // bind JVM metrics to the repository life cycle
+        // bind JVM and cache metrics to the repository life cycle
         final HeapMemoryMetricsService jvmMetricsService = new HeapMemoryMetricsService(
                 getProvider(Platform.class), getProvider(ConfigDatabase.class));
+        final CacheMetrics cacheMetrics = new CacheMetrics(getProvider(ObjectCaches.class),
+                MetricRegistry.global());
+
+        GeogitModule.bindDecorator(binder(), new RepositoryDecorator(jvmMetricsService,
+                cacheMetrics));
+
+        GeogitModule.bindDecorator(binder(), new ObjectDatabaseDecorator(
+                getProvider(ObjectDatabase.class), getProvider(ConfigDatabase.class),
+                MetricRegistry.global()));
 
-        GeogitModule.bindDecorator(binder(), new RepositoryDecorator(jvmMetricsService));
+        JmxReporter.registerGlobal();
     }
 
 }
@@ -1,15 +1,67 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
 package org.geogit.metrics;
 
+import static org.geogit.metrics.MetricsModule.METRICS_ENABLED;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevFeatureType;
+import org.geogit.api.RevObject;
+import org.geogit.api.RevTag;
+import org.geogit.api.RevTree;
+import org.geogit.api.porcelain.ConfigException;
 import org.geogit.di.Decorator;
+import org.geogit.storage.BulkOpListener;
+import org.geogit.storage.ConfigDatabase;
 import org.geogit.storage.ForwardingObjectDatabase;
 import org.geogit.storage.ObjectDatabase;
 import org.geogit.storage.StagingDatabase;
 
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.AbstractIterator;
 import com.google.inject.Provider;
 import com.google.inject.util.Providers;
 
+/**
+ * Decorates the repository {@link ObjectDatabase} to record the time spent in, and the number of
+ * objects and bytes going through its {@code get}, {@code getAll}, {@code put}, {@code putAll},
+ * and {@code exists} methods, per backend.
+ * <p>
+ * Object and byte counts are recorded for the bulk methods, from the {@link BulkOpListener}
+ * notifications of the backend, so byte counts are only as accurate as the storage sizes each
+ * backend reports.
+ *
+ * @see MetricRegistry
+ */
 class ObjectDatabaseDecorator implements Decorator {
 
+    private final Provider<ObjectDatabase> undecorated;
+
+    private final Provider<ConfigDatabase> configDb;
+
+    private final MetricRegistry registry;
+
+    /**
+     * @param undecorated provides the backend object database, to name the metrics after
+     * @param configDb the config database to check whether metrics are enabled
+     */
+    public ObjectDatabaseDecorator(Provider<ObjectDatabase> undecorated,
+            Provider<ConfigDatabase> configDb, MetricRegistry registry) {
+        this.undecorated = undecorated;
+        this.configDb = configDb;
+        this.registry = registry;
+    }
+
     @Override
     public boolean canDecorate(Object instance) {
         return instance instanceof ObjectDatabase && !(instance instanceof StagingDatabase);
@@ -19,14 +71,268 @@ class ObjectDatabaseDecorator implements Decorator {
     @Override
     public <I> I decorate(I subject) {
         Provider<ObjectDatabase> provider = Providers.of((ObjectDatabase) subject);
-        return (I) new MetricsODB(provider);
+        String backend = undecorated.get().getClass().getSimpleName();
+        return (I) new MetricsODB(provider, backend, enabled(configDb), registry);
+    }
+
+    /**
+     * Checking the config database on every call would cost more than the calls being measured,
+     * so the {@code metrics.enabled} flag is re-read at most once a second
+     */
+    private static Supplier<Boolean> enabled(final Provider<ConfigDatabase> configDb) {
+        Supplier<Boolean> supplier = new Supplier<Boolean>() {
+            @Override
+            public Boolean get() {
+                try {
+                    return configDb.get().get(METRICS_ENABLED, Boolean.class).or(Boolean.FALSE);
+                } catch (ConfigException e) {
+                    return Boolean.FALSE;// not in a geogit repository
+                }
+            }
+        };
+        return Suppliers.memoizeWithExpiration(supplier, 1, TimeUnit.SECONDS);
     }
 
     private static class MetricsODB extends ForwardingObjectDatabase {
 
-        public MetricsODB(Provider<? extends ObjectDatabase> odb) {
+        private final Supplier<Boolean> enabled;
+
+        private final Timer get, getAll, put, putAll, exists;
+
+        private final Counter getAllObjects, getAllBytes, putAllObjects, putAllBytes;
+
+        public MetricsODB(Provider<? extends ObjectDatabase> odb, String backend,
+                Supplier<Boolean> enabled, MetricRegistry registry) {
             super(odb);
+            this.enabled = enabled;
+            final String prefix = "odb." + backend + ".";
+            get = registry.timer(prefix + "get");
+            getAll = registry.timer(prefix + "getAll");
+            put = registry.timer(prefix + "put");
+            putAll = registry.timer(prefix + "putAll");
+            exists = registry.timer(prefix + "exists");
+            getAllObjects = registry.counter(prefix + "getAll.objects");
+            getAllBytes = registry.counter(prefix + "getAll.bytes");
+            putAllObjects = registry.counter(prefix + "putAll.objects");
+            putAllBytes = registry.counter(prefix + "putAll.bytes");
+        }
+
+        private boolean enabled() {
+            return enabled.get().booleanValue();
+        }
+
+        private static void record(Timer timer, long startNanos) {
+            timer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public boolean exists(ObjectId id) {
+            if (!enabled()) {
+                return super.exists(id);
+            }
+            final long start = System.nanoTime();
+            try {
+                return super.exists(id);
+            } finally {
+                record(exists, start);
+            }
+        }
+
+        @Override
+        public RevObject get(ObjectId id) throws IllegalArgumentException {
+            if (!enabled()) {
+                return super.get(id);
+            }
+            final long start = System.nanoTime();
+            try {
+                return super.get(id);
+            } finally {
+                record(get, start);
+            }
+        }
+
+        @Override
+        public <T extends RevObject> T get(ObjectId id, Class<T> type)
+                throws IllegalArgumentException {
+            if (!enabled()) {
+                return super.get(id, type);
+            }
+            final long start = System.nanoTime();
+            try {
+                return super.get(id, type);
+            } finally {
+                record(get, start);
+            }
+        }
+
+        @Override
+        public @Nullable
+        RevObject getIfPresent(ObjectId id) {
+            if (!enabled()) {
+                return super.getIfPresent(id);
+            }
+            final long start = System.nanoTime();
+            try {
+                return super.getIfPresent(id);
+            } finally {
+                record(get, start);
+            }
+        }
+
+        @Override
+        public @Nullable
+        <T extends RevObject> T getIfPresent(ObjectId id, Class<T> type)
+                throws IllegalArgumentException {
+            if (!enabled()) {
+                return super.getIfPresent(id, type);
+            }
+            final long start = System.nanoTime();
+            try {
+                return super.getIfPresent(id, type);
+            } finally {
+                record(get, start);
+            }
+        }
+
+        @Override
+        public RevTree getTree(ObjectId id) {
+            return get(id, RevTree.class);
+        }
+
+        @Override
+        public RevFeature getFeature(ObjectId id) {
+            return get(id, RevFeature.class);
         }
 
+        @Override
+        public RevFeatureType getFeatureType(ObjectId id) {
+            return get(id, RevFeatureType.class);
+        }
+
+        @Override
+        public RevCommit getCommit(ObjectId id) {
+            return get(id, RevCommit.class);
+        }
+
+        @Override
+        public RevTag getTag(ObjectId id) {
+            return get(id, RevTag.class);
+        }
+
+        @Override
+        public Iterator<RevObject> getAll(Iterable<ObjectId> ids) {
+            return getAll(ids, BulkOpListener.NOOP_LISTENER);
+        }
+
+        @Override
+        public Iterator<RevObject> getAll(Iterable<ObjectId> ids, BulkOpListener listener) {
+            if (!enabled()) {
+                return super.getAll(ids, listener);
+            }
+            final long start = System.nanoTime();
+            Iterator<RevObject> objects = super.getAll(ids, new BytesListener(listener,
+                    getAllBytes));
+            return new MeteredIterator(objects, System.nanoTime() - start);
+        }
+
+        @Override
+        public boolean put(RevObject object) {
+            if (!enabled()) {
+                return super.put(object);
+            }
+            final long start = System.nanoTime();
+            try {
+                return super.put(object);
+            } finally {
+                record(put, start);
+            }
+        }
+
+        @Override
+        public void putAll(Iterator<? extends RevObject> objects) {
+            putAll(objects, BulkOpListener.NOOP_LISTENER);
+        }
+
+        @Override
+        public void putAll(Iterator<? extends RevObject> objects, BulkOpListener listener) {
+            if (!enabled()) {
+                super.putAll(objects, listener);
+                return;
+            }
+            final long start = System.nanoTime();
+            try {
+                super.putAll(objects, new BytesListener(listener, putAllBytes) {
+                    @Override
+                    public void found(ObjectId object, @Nullable Integer storageSizeBytes) {
+                        putAllObjects.increment();
+                        super.found(object, storageSizeBytes);
+                    }
+
+                    @Override
+                    public void inserted(ObjectId object, @Nullable Integer storageSizeBytes) {
+                        putAllObjects.increment();
+                        super.inserted(object, storageSizeBytes);
+                    }
+                });
+            } finally {
+                record(putAll, start);
+            }
+        }
+
+        /**
+         * Records the time spent iterating over the results of {@code getAll} once they're
+         * exhausted, as backends fetch the objects lazily.
+         */
+        private class MeteredIterator extends AbstractIterator<RevObject> {
+
+            private final Iterator<RevObject> objects;
+
+            private long nanos;
+
+            MeteredIterator(Iterator<RevObject> objects, long initialNanos) {
+                this.objects = objects;
+                this.nanos = initialNanos;
+            }
+
+            @Override
+            protected RevObject computeNext() {
+                final long start = System.nanoTime();
+                if (objects.hasNext()) {
+                    RevObject next = objects.next();
+                    nanos += System.nanoTime() - start;
+                    getAllObjects.increment();
+                    return next;
+                }
+                nanos += System.nanoTime() - start;
+                getAll.record(nanos, TimeUnit.NANOSECONDS);
+                return endOfData();
+            }
+        }
+    }
+
+    private static class BytesListener extends BulkOpListener.ForwardingListener {
+
+        private final Counter bytes;
+
+        BytesListener(BulkOpListener target, Counter bytes) {
+            super(target);
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void found(ObjectId object, @Nullable Integer storageSizeBytes) {
+            if (storageSizeBytes != null) {
+                bytes.increment(storageSizeBytes.intValue());
+            }
+            super.found(object, storageSizeBytes);
+        }
+
+        @Override
+        public void inserted(ObjectId object, @Nullable Integer storageSizeBytes) {
+            if (storageSizeBytes != null) {
+                bytes.increment(storageSizeBytes.intValue());
+            }
+            super.inserted(object, storageSizeBytes);
+        }
     }
 }
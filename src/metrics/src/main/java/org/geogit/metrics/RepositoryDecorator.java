@@ -9,16 +9,20 @@ import org.geogit.repository.Repository;
 import org.geogit.repository.Repository.RepositoryListener;
 
 /**
- * Shuts down the metrics service at repository close() event
+ * Starts the metrics service and registers the cache metrics at repository open() event, and
+ * shuts them down at repository close() event
  */
 class RepositoryDecorator implements Decorator {
 
     private HeapMemoryMetricsService service;
 
+    private CacheMetrics cacheMetrics;
+
     private RepositoryListener listener;
 
-    public RepositoryDecorator(HeapMemoryMetricsService service) {
+    public RepositoryDecorator(HeapMemoryMetricsService service, CacheMetrics cacheMetrics) {
         this.service = service;
+        this.cacheMetrics = cacheMetrics;
     }
 
     @Override
@@ -34,10 +38,12 @@ class RepositoryDecorator implements Decorator {
                 @Override
                 public void opened(Repository repo) {
                     service.startAsync().awaitRunning();
+                    cacheMetrics.register();
                 }
 
                 @Override
                 public void closed() {
+                    cacheMetrics.unregister();
                     service.stopAsync();
                 }
             };
@@ -0,0 +1,158 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.metrics;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records the number, total, maximum, and distribution of the durations of an operation.
+ * <p>
+ * Durations are kept in a fixed size log-linear histogram: each power of two range of nanoseconds
+ * is split in {@code 8} equally sized buckets, so percentiles are estimated within a
+ * {@code 12.5%} error no matter the magnitude of the durations, with constant memory and no
+ * locking on {@link #record(long, TimeUnit) record}.
+ */
+public final class Timer implements Metric, TimerMXBean {
+
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Durations below {@link #SUB_BUCKETS} nanoseconds get a bucket each, then every power of two
+     * up to {@code 2^62} gets {@link #SUB_BUCKETS} buckets
+     */
+    private static final int NUM_BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    Timer() {
+        //
+    }
+
+    public void record(final long duration, final TimeUnit unit) {
+        final long nanos = Math.max(0L, unit.toNanos(duration));
+        buckets.incrementAndGet(bucket(nanos));
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = maxNanos.get())) {
+            if (maxNanos.compareAndSet(max, nanos)) {
+                break;
+            }
+        }
+    }
+
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getTotalTime(TimeUnit unit) {
+        return unit.convert(totalNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getMax(TimeUnit unit) {
+        return unit.convert(maxNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param quantile the quantile to estimate, between {@code 0} and {@code 1}
+     * @return the estimated duration in nanoseconds below which {@code quantile} of the recorded
+     *         durations fall, or {@code 0} if nothing was recorded
+     */
+    public long getPercentileNanos(final double quantile) {
+        checkArgument(quantile >= 0 && quantile <= 1, "quantile shall be between 0 and 1: %s",
+                quantile);
+        long[] counts = new long[NUM_BUCKETS];
+        long total = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0L;
+        }
+        final long rank = Math.max(1L, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                long lower = lowerBound(i);
+                long upper = i + 1 < NUM_BUCKETS ? lowerBound(i + 1) : Long.MAX_VALUE;
+                long estimate = lower + (upper - lower) / 2;
+                return Math.min(estimate, maxNanos.get());
+            }
+        }
+        return maxNanos.get();
+    }
+
+    @Override
+    public double getTotalMillis() {
+        return totalNanos.get() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getMeanMillis() {
+        final long count = getCount();
+        return count == 0 ? 0D : getTotalMillis() / count;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return maxNanos.get() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double get50thPercentileMillis() {
+        return getPercentileNanos(0.5) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double get95thPercentileMillis() {
+        return getPercentileNanos(0.95) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double get99thPercentileMillis() {
+        return getPercentileNanos(0.99) / NANOS_PER_MILLI;
+    }
+
+    static int bucket(final long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        final int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long lowerBound(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        final long subBucket = bucket % SUB_BUCKETS;
+        return (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Timer[count: %d, mean: %.3fms, p99: %.3fms, max: %.3fms]",
+                getCount(), getMeanMillis(), get99thPercentileMillis(), getMaxMillis());
+    }
+}
@@ -0,0 +1,25 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.metrics;
+
+/**
+ * JMX view of a {@link Timer}, with all durations in milliseconds
+ */
+public interface TimerMXBean {
+
+    public long getCount();
+
+    public double getTotalMillis();
+
+    public double getMeanMillis();
+
+    public double getMaxMillis();
+
+    public double get50thPercentileMillis();
+
+    public double get95thPercentileMillis();
+
+    public double get99thPercentileMillis();
+}
@@ -0,0 +1,105 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.metrics;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+public class MetricRegistryTest extends Assert {
+
+    @Test
+    public void testTimer() {
+        MetricRegistry registry = new MetricRegistry();
+        Timer timer = registry.timer("op.Test");
+        assertSame(timer, registry.timer("op.Test"));
+        assertEquals(0L, timer.getCount());
+        assertEquals(0L, timer.getPercentileNanos(0.99));
+
+        for (int i = 1; i <= 100; i++) {
+            timer.record(i, TimeUnit.MILLISECONDS);
+        }
+        assertEquals(100L, timer.getCount());
+        assertEquals(5050L, timer.getTotalTime(TimeUnit.MILLISECONDS));
+        assertEquals(100L, timer.getMax(TimeUnit.MILLISECONDS));
+        assertEquals(50.5, timer.getMeanMillis(), 1e-9);
+
+        assertEquals(50, timer.get50thPercentileMillis(), 50 * 0.125);
+        assertEquals(95, timer.get95thPercentileMillis(), 95 * 0.125);
+        assertEquals(99, timer.get99thPercentileMillis(), 99 * 0.125);
+        assertTrue(timer.get99thPercentileMillis() <= timer.getMaxMillis());
+    }
+
+    @Test
+    public void testTimerBuckets() {
+        assertEquals(0, Timer.bucket(0));
+        assertEquals(7, Timer.bucket(7));
+        int previous = -1;
+        for (long nanos : new long[] { 1, 8, 15, 16, 1000, 1000000, Long.MAX_VALUE }) {
+            int bucket = Timer.bucket(nanos);
+            assertTrue(bucket > previous);
+            assertTrue(Timer.lowerBound(bucket) <= nanos);
+            assertTrue(Timer.lowerBound(bucket) >= nanos - nanos / 8);
+            previous = bucket;
+        }
+    }
+
+    @Test
+    public void testCounterAndGauge() {
+        MetricRegistry registry = new MetricRegistry();
+        Counter counter = registry.counter("odb.Test.putAll.bytes");
+        counter.increment();
+        counter.increment(10);
+        assertEquals(11L, registry.counter("odb.Test.putAll.bytes").getCount());
+
+        registry.gauge("cache.objects.hitRate", new Gauge() {
+            @Override
+            public double getValue() {
+                return 0.5;
+            }
+        });
+        assertEquals(0.5, ((Gauge) registry.getMetrics().get("cache.objects.hitRate")).getValue(),
+                0D);
+
+        try {
+            registry.timer("odb.Test.putAll.bytes");
+            fail("expected IAE");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("not a timer"));
+        }
+
+        assertEquals(ImmutableList.of("cache.objects.hitRate", "odb.Test.putAll.bytes"),
+                ImmutableList.copyOf(registry.getMetrics().keySet()));
+        assertTrue(registry.remove("cache.objects.hitRate"));
+        assertFalse(registry.remove("cache.objects.hitRate"));
+    }
+
+    @Test
+    public void testListener() {
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("a");
+        final List<String> events = Lists.newArrayList();
+        registry.addListener(new MetricRegistry.Listener() {
+            @Override
+            public void added(String name, Metric metric) {
+                events.add("+" + name);
+            }
+
+            @Override
+            public void removed(String name, Metric metric) {
+                events.add("-" + name);
+            }
+        });
+        registry.timer("b");
+        registry.timer("b");
+        registry.remove("a");
+        assertEquals(ImmutableList.of("+a", "+b", "-a"), events);
+    }
+}
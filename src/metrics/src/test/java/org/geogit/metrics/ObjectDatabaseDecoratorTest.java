@@ -0,0 +1,108 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.metrics;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevObject;
+import org.geogit.storage.ConfigDatabase;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.inject.util.Providers;
+
+public class ObjectDatabaseDecoratorTest extends Assert {
+
+    private MetricRegistry registry;
+
+    private ConfigDatabase configDb;
+
+    private HeapObjectDatabse db;
+
+    private ObjectDatabase decorated;
+
+    @Before
+    public void setUp() {
+        registry = new MetricRegistry();
+        configDb = mock(ConfigDatabase.class);
+        when(configDb.get(MetricsModule.METRICS_ENABLED, Boolean.class)).thenReturn(
+                Optional.of(Boolean.TRUE));
+        db = new HeapObjectDatabse();
+        db.open();
+        ObjectDatabaseDecorator decorator = new ObjectDatabaseDecorator(
+                Providers.<ObjectDatabase> of(db), Providers.of(configDb), registry);
+        assertTrue(decorator.canDecorate(db));
+        decorated = decorator.decorate((ObjectDatabase) db);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    private static RevFeature feature(int i) {
+        return RevFeature.build(ImmutableList.of(Optional.<Object> of("value" + i)));
+    }
+
+    @Test
+    public void testMetrics() {
+        List<RevObject> features = Lists.newArrayList();
+        for (int i = 0; i < 10; i++) {
+            features.add(feature(i));
+        }
+        decorated.put(features.get(0));
+        decorated.putAll(features.iterator());
+
+        assertTrue(decorated.exists(features.get(1).getId()));
+        assertEquals(features.get(2), decorated.get(features.get(2).getId()));
+        assertEquals(features.get(3), decorated.getFeature(features.get(3).getId()));
+
+        List<ObjectId> ids = Lists.transform(features, new Function<RevObject, ObjectId>() {
+            @Override
+            public ObjectId apply(RevObject o) {
+                return o.getId();
+            }
+        });
+        List<RevObject> read = Lists.newArrayList(decorated.getAll(ids));
+        assertEquals(10, read.size());
+
+        final String prefix = "odb.HeapObjectDatabse.";
+        assertEquals(1, registry.timer(prefix + "put").getCount());
+        assertEquals(1, registry.timer(prefix + "putAll").getCount());
+        assertEquals(10, registry.counter(prefix + "putAll.objects").getCount());
+        assertTrue(registry.counter(prefix + "putAll.bytes").getCount() > 0);
+        assertEquals(1, registry.timer(prefix + "exists").getCount());
+        assertEquals(2, registry.timer(prefix + "get").getCount());
+        assertEquals(1, registry.timer(prefix + "getAll").getCount());
+        assertEquals(10, registry.counter(prefix + "getAll.objects").getCount());
+        assertTrue(registry.counter(prefix + "getAll.bytes").getCount() > 0);
+    }
+
+    @Test
+    public void testDisabled() {
+        when(configDb.get(MetricsModule.METRICS_ENABLED, Boolean.class)).thenReturn(
+                Optional.<Boolean> absent());
+        ObjectDatabaseDecorator decorator = new ObjectDatabaseDecorator(
+                Providers.<ObjectDatabase> of(db), Providers.of(configDb), registry);
+        ObjectDatabase disabled = decorator.decorate((ObjectDatabase) db);
+        disabled.putAll(Iterators.forArray(feature(1), feature(2)));
+        assertEquals(0, registry.timer("odb.HeapObjectDatabse.putAll").getCount());
+        assertEquals(0, registry.counter("odb.HeapObjectDatabse.putAll.objects").getCount());
+    }
+}
@@ -16,6 +16,7 @@ import org.geogit.cli.GeogitCLI;
 import org.geogit.osm.internal.EmptyOSMDownloadException;
 import org.geogit.osm.internal.Mapping;
 import org.geogit.osm.internal.OSMImportOp;
+import org.geogit.osm.internal.OSMImportOp.PointCacheType;
 import org.geogit.osm.internal.OSMReport;
 
 import com.beust.jcommander.Parameter;
@@ -44,6 +45,9 @@ public class OSMImport extends AbstractCommand implements CLICommand {
     @Parameter(names = "--message", description = "Message for the commit to create.")
     public String message;
 
+    @Parameter(names = "--point-cache", description = "How to keep node coordinates while importing: sparse (default), dense (for large extracts) or bdbje")
+    public String pointCache = "sparse";
+
     @Override
     protected void runInternal(GeogitCLI cli) throws IOException {
         checkParameter(apiUrl != null && apiUrl.size() == 1, "One file must be specified");
@@ -53,6 +57,14 @@ public class OSMImport extends AbstractCommand implements CLICommand {
         checkParameter(message == null || mappingFile != null,
                 "Cannot use --message if not using --mapping");
 
+        PointCacheType pointCacheType = null;
+        for (PointCacheType type : PointCacheType.values()) {
+            if (type.name().equalsIgnoreCase(pointCache)) {
+                pointCacheType = type;
+            }
+        }
+        checkParameter(pointCacheType != null, "Unknown point cache type: %s", pointCache);
+
         Mapping mapping = null;
         if (mappingFile != null) {
             mapping = Mapping.fromFile(mappingFile);
@@ -62,7 +74,7 @@ public class OSMImport extends AbstractCommand implements CLICommand {
             message = message == null ? "Updated OSM data" : message;
             Optional<OSMReport> report = cli.getGeogit().command(OSMImportOp.class)
                     .setDataSource(importFile.getAbsolutePath()).setMapping(mapping)
-                    .setMessage(message).setNoRaw(noRaw).setAdd(add)
+                    .setMessage(message).setNoRaw(noRaw).setAdd(add).setPointCache(pointCacheType)
                     .setProgressListener(cli.getProgressListener()).call();
             if (report.isPresent()) {
                 OSMReport rep = report.get();
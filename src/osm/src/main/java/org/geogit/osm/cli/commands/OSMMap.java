@@ -40,6 +40,9 @@ public class OSMMap extends AbstractCommand implements CLICommand {
     @Parameter(names = { "--message", "-m" }, description = "The message for the commit to create")
     public String message;
 
+    @Parameter(names = "--incremental", description = "Map only the OSM data changed since the last time the mapping was applied")
+    public boolean incremental;
+
     private GeoGIT geogit;
 
     /**
@@ -68,7 +71,7 @@ public class OSMMap extends AbstractCommand implements CLICommand {
                 : message;
 
         ObjectId newTreeId = geogit.command(OSMMapOp.class).setMapping(mapping).setMessage(message)
-                .call().getId();
+                .setIncremental(incremental).call().getId();
 
         ConsoleReader console = cli.getConsole();
         if (newTreeId.equals(oldTreeId)) {
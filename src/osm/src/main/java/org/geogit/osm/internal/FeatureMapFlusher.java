@@ -10,9 +10,11 @@ import java.util.Set;
 
 import org.geogit.api.DefaultProgressListener;
 import org.geogit.api.ProgressListener;
+import org.geogit.repository.FeatureToDelete;
 import org.geogit.repository.WorkingTree;
 import org.opengis.feature.Feature;
 import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
 
 import com.google.common.collect.HashMultimap;
 
@@ -28,7 +30,7 @@ public class FeatureMapFlusher {
 
     private static final int LIMIT = 100000;
 
-    private HashMultimap<String, SimpleFeature> map;
+    private HashMultimap<String, Feature> map;
 
     private WorkingTree workTree;
 
@@ -49,8 +51,25 @@ public class FeatureMapFlusher {
 
     }
 
+    /**
+     * Adds the deletion of a feature, to be applied to the working tree along with the inserted
+     * features. A feature should not be both inserted and deleted under the same path before the
+     * next flush, since the order in which they're applied is undefined.
+     * 
+     * @param path the path of the tree to delete the feature from
+     * @param type the feature type of the tree
+     * @param fid the id of the feature to delete
+     */
+    public void delete(String path, SimpleFeatureType type, String fid) {
+        map.put(path, new FeatureToDelete(type, fid));
+        count++;
+        if (count > LIMIT) {
+            flushAll();
+        }
+    }
+
     private void flush(String path) {
-        Set<SimpleFeature> features = map.get(path);
+        Set<Feature> features = map.get(path);
         if (!features.isEmpty()) {
             Iterator<? extends Feature> iterator = features.iterator();
             ProgressListener listener = new DefaultProgressListener();
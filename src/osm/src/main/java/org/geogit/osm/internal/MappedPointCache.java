@@ -0,0 +1,328 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.osm.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+import java.util.List;
+
+import org.geogit.api.Platform;
+import org.geogit.api.plumbing.ResolveGeogitDir;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * A {@link PointCache} that keeps node coordinates in a memory mapped temporary file, as fixed
+ * width records addressed by node id, so storing and looking up a node is a couple of array
+ * accesses instead of a database operation.
+ * <p>
+ * Each coordinate is stored as a pair of ints in units of {@code 1E-7} degrees, which is the
+ * precision of the OSM data model, in 8 bytes per node. The latitude is stored shifted so that a
+ * record of all zeroes, like the ones of the holes of the file, reads as a missing node.
+ * <p>
+ * The two variants differ on how node ids map to file offsets:
+ * <ul>
+ * <li>{@link Dense} uses the node id as the index of its record, which makes the file as large as
+ * the largest id times the record size. It's the best choice for planet files and extracts of
+ * large areas, where most ids are in use. The file is sparse on file systems supporting it and only
+ * the regions touched get mapped.
+ * <li>{@link Sparse} allocates fixed size chunks of consecutive ids as they're first used, so the
+ * file grows with the number of chunks in use. It's suited for small extracts whose ids are spread
+ * over the whole id space, and supports negative ids as found on files edited with JOSM.
+ * </ul>
+ */
+abstract class MappedPointCache implements PointCache {
+
+    private static final int RECORD_SIZE = 8;
+
+    private static final double SCALE = 1E7;
+
+    private static final int LAT_OFFSET = 90 * 10000000 + 1;
+
+    /**
+     * Size of the regions of the file mapped at once, 128MB or 16M nodes
+     */
+    private static final int SEGMENT_SHIFT = 27;
+
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+    private File file;
+
+    private RandomAccessFile raf;
+
+    private FileChannel channel;
+
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    /**
+     * Creates a cache backed by a temporary file in the {@code osm} directory of the repository of
+     * the given platform.
+     */
+    MappedPointCache(Platform platform) {
+        this(resolveDirectory(platform));
+    }
+
+    /**
+     * Creates a cache backed by a temporary file in the given directory.
+     */
+    MappedPointCache(File directory) {
+        Preconditions.checkNotNull(directory);
+        try {
+            if (!directory.exists() && !directory.mkdirs()) {
+                throw new IllegalStateException("Unable to create point cache directory: '"
+                        + directory.getAbsolutePath() + "'");
+            }
+            this.file = File.createTempFile("tmpPointCache_", ".bin", directory);
+            this.file.deleteOnExit();
+            this.raf = new RandomAccessFile(file, "rw");
+            this.channel = raf.getChannel();
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private static File resolveDirectory(Platform platform) {
+        final Optional<URL> repoUrl = new ResolveGeogitDir(platform).call();
+        if (!repoUrl.isPresent()) {
+            throw new IllegalStateException("Can't find geogit repository home");
+        }
+        try {
+            return new File(new File(repoUrl.get().toURI()), "osm");
+        } catch (URISyntaxException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * @param nodeId the id of a node
+     * @param allocate whether to make room for the node if there's none yet
+     * @return the offset of the record of the node in the file, or {@code -1} if there's no room
+     *         for it and {@code allocate} is false
+     */
+    protected abstract long offset(long nodeId, boolean allocate);
+
+    private MappedByteBuffer segment(final long offset) {
+        final int index = (int) (offset >>> SEGMENT_SHIFT);
+        MappedByteBuffer[] segments = this.segments;
+        if (index < segments.length && segments[index] != null) {
+            return segments[index];
+        }
+        return map(index);
+    }
+
+    private synchronized MappedByteBuffer map(final int index) {
+        Preconditions.checkState(channel != null, "point cache disposed");
+        MappedByteBuffer[] segments = this.segments;
+        if (index >= segments.length) {
+            segments = Arrays.copyOf(segments, Math.max(index + 1, 2 * segments.length));
+        } else if (segments[index] != null) {
+            return segments[index];
+        } else {
+            segments = segments.clone();
+        }
+        try {
+            // mapping past the end of the file grows it, leaving a hole where supported
+            segments[index] = channel.map(MapMode.READ_WRITE, (long) index << SEGMENT_SHIFT,
+                    1L << SEGMENT_SHIFT);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        this.segments = segments;
+        return segments[index];
+    }
+
+    @Override
+    public void put(Long nodeId, Coordinate coord) {
+        final long offset = offset(nodeId.longValue(), true);
+        final MappedByteBuffer segment = segment(offset);
+        final int position = (int) (offset & SEGMENT_MASK);
+        segment.putInt(position, (int) Math.round(coord.x * SCALE));
+        segment.putInt(position + 4, (int) Math.round(coord.y * SCALE) + LAT_OFFSET);
+    }
+
+    @Override
+    public Coordinate get(long nodeId) {
+        final long offset = offset(nodeId, false);
+        if (offset >= 0) {
+            final MappedByteBuffer segment = segment(offset);
+            final int position = (int) (offset & SEGMENT_MASK);
+            final int lat = segment.getInt(position + 4);
+            if (lat != 0) {
+                // subtract before scaling to get the closest double to the original decimal
+                return new Coordinate(segment.getInt(position) / SCALE, (lat - LAT_OFFSET) / SCALE);
+            }
+        }
+        throw new IllegalArgumentException(String.format("node id %s not found", nodeId));
+    }
+
+    @Override
+    public Coordinate[] get(List<Long> ids) {
+        Coordinate[] coords = new Coordinate[ids.size()];
+        for (int index = 0; index < coords.length; index++) {
+            coords[index] = get(ids.get(index).longValue());
+        }
+        return coords;
+    }
+
+    @Override
+    public synchronized void dispose() {
+        if (channel == null) {
+            return;
+        }
+        // mapped buffers can't be unmapped explicitly, the file contents go away once they're
+        // garbage collected
+        segments = new MappedByteBuffer[0];
+        try {
+            raf.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Error closing point cache", e);
+        } finally {
+            channel = null;
+            raf = null;
+            file.delete();
+        }
+    }
+
+    /**
+     * A point cache addressing records directly by node id.
+     */
+    static final class Dense extends MappedPointCache {
+
+        Dense(Platform platform) {
+            super(platform);
+        }
+
+        Dense(File directory) {
+            super(directory);
+        }
+
+        @Override
+        protected long offset(long nodeId, boolean allocate) {
+            Preconditions.checkArgument(nodeId >= 0,
+                    "Node id %s can't be stored in a dense point cache, use a sparse one", nodeId);
+            return nodeId * RECORD_SIZE;
+        }
+    }
+
+    /**
+     * A point cache addressing records by chunks of consecutive node ids allocated on first use.
+     */
+    static final class Sparse extends MappedPointCache {
+
+        /**
+         * 4096 nodes, 32KB per chunk
+         */
+        private static final int CHUNK_SHIFT = 12;
+
+        private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+
+        private static final long CHUNK_SIZE = RECORD_SIZE << CHUNK_SHIFT;
+
+        private final ChunkIndex chunks = new ChunkIndex();
+
+        Sparse(Platform platform) {
+            super(platform);
+        }
+
+        Sparse(File directory) {
+            super(directory);
+        }
+
+        @Override
+        protected long offset(long nodeId, boolean allocate) {
+            // arithmetic shift, negative ids go to negative chunk numbers
+            final long chunk = nodeId >> CHUNK_SHIFT;
+            int slot;
+            synchronized (chunks) {
+                slot = chunks.get(chunk);
+                if (slot < 0) {
+                    if (!allocate) {
+                        return -1;
+                    }
+                    slot = chunks.add(chunk);
+                }
+            }
+            return slot * CHUNK_SIZE + (nodeId & CHUNK_MASK) * RECORD_SIZE;
+        }
+    }
+
+    /**
+     * An open addressing hash table from chunk number to the order in which the chunk was
+     * allocated, which is its slot in the file.
+     */
+    private static final class ChunkIndex {
+
+        private long[] keys = new long[1024];
+
+        private int[] slots = new int[1024];
+
+        private int size;
+
+        ChunkIndex() {
+            Arrays.fill(slots, -1);
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        /**
+         * @return the slot of the chunk, or {@code -1} if it's not allocated
+         */
+        int get(long chunk) {
+            final int mask = keys.length - 1;
+            for (int i = hash(chunk) & mask;; i = (i + 1) & mask) {
+                if (slots[i] < 0) {
+                    return -1;
+                }
+                if (keys[i] == chunk) {
+                    return slots[i];
+                }
+            }
+        }
+
+        /**
+         * Allocates the next slot to a chunk known not to be in the index.
+         */
+        int add(long chunk) {
+            if (2 * (size + 1) > keys.length) {
+                long[] oldKeys = keys;
+                int[] oldSlots = slots;
+                keys = new long[2 * oldKeys.length];
+                slots = new int[2 * oldSlots.length];
+                Arrays.fill(slots, -1);
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (oldSlots[i] >= 0) {
+                        insert(oldKeys[i], oldSlots[i]);
+                    }
+                }
+            }
+            final int slot = size++;
+            insert(chunk, slot);
+            return slot;
+        }
+
+        private void insert(long chunk, int slot) {
+            final int mask = keys.length - 1;
+            int i = hash(chunk) & mask;
+            while (slots[i] >= 0) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = chunk;
+            slots[i] = slot;
+        }
+    }
+}
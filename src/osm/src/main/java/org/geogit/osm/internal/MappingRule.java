@@ -28,6 +28,7 @@ import org.opengis.referencing.NoSuchAuthorityCodeException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
 
+import com.google.common.base.Objects;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
@@ -133,13 +134,11 @@ public class MappingRule {
 
     private SimpleFeatureType featureType;
 
-    private SimpleFeatureBuilder featureBuilder;
-
     private Class<?> geometryType;
 
     private GeomRestriction geomRestriction;
 
-    private ArrayList<String> _mandatoryTags = null;
+    private volatile ArrayList<String> _mandatoryTags = null;
 
     private static GeometryFactory gf = new GeometryFactory();
 
@@ -170,7 +169,7 @@ public class MappingRule {
      * 
      * @return
      */
-    public SimpleFeatureType getFeatureType() {
+    public synchronized SimpleFeatureType getFeatureType() {
         if (featureType == null) {
             SimpleFeatureTypeBuilder fb = new SimpleFeatureTypeBuilder();
             fb.setName(name);
@@ -205,9 +204,6 @@ public class MappingRule {
                 fb.add("nodes", String.class);
             }
             featureType = fb.buildFeatureType();
-
-            featureBuilder = new SimpleFeatureBuilder(featureType);
-
         }
         return featureType;
 
@@ -250,7 +246,10 @@ public class MappingRule {
         if (!canBeApplied(feature, tags)) {
             return Optional.absent();
         }
-        for (AttributeDescriptor attribute : getFeatureType().getAttributeDescriptors()) {
+        // a builder per feature, rules are applied concurrently on parallel imports
+        final SimpleFeatureType featureType = getFeatureType();
+        final SimpleFeatureBuilder featureBuilder = new SimpleFeatureBuilder(featureType);
+        for (AttributeDescriptor attribute : featureType.getAttributeDescriptors()) {
             String attrName = attribute.getName().toString();
             Class<?> clazz = attribute.getType().getBinding();
             if (Geometry.class.isAssignableFrom(clazz)) {
@@ -425,7 +424,8 @@ public class MappingRule {
         if (o instanceof MappingRule) {
             MappingRule m = (MappingRule) o;
             return name.equals(m.name) && m.fields.equals(fields) && m.filter.equals(filter)
-                    && m.exclude.equals(exclude) && m.defaultFields.equals(defaultFields);
+                    && Objects.equal(m.exclude, exclude)
+                    && Objects.equal(m.defaultFields, defaultFields);
         } else {
             return false;
         }
@@ -433,14 +433,16 @@ public class MappingRule {
 
     private ArrayList<String> getMandatoryTags() {
         if (_mandatoryTags == null) {
-            _mandatoryTags = Lists.newArrayList();
+            // only published once populated, for concurrent callers
+            ArrayList<String> mandatoryTags = Lists.newArrayList();
             if (exclude != null) {
                 for (String key : this.exclude.keySet()) {
                     if (exclude.get(key) == null) {
-                        _mandatoryTags.add(key);
+                        mandatoryTags.add(key);
                     }
                 }
             }
+            _mandatoryTags = mandatoryTags;
         }
         return _mandatoryTags;
 
@@ -0,0 +1,506 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.osm.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.Platform;
+import org.geogit.storage.bdbje.EnvironmentBuilder;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.Closeables;
+import com.sleepycat.bind.tuple.LongBinding;
+import com.sleepycat.je.CacheMode;
+import com.sleepycat.je.Cursor;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.Durability;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentConfig;
+import com.sleepycat.je.LockMode;
+import com.sleepycat.je.OperationStatus;
+
+/**
+ * A persistent reverse index from node id to the ids of the ways that contain the node, kept in
+ * the {@code osm/nodeways} directory of the repository.
+ * <p>
+ * It's maintained as diffs are applied, so that when a diff moves a node only the ways containing
+ * it have to be rebuilt. The index is a hint: a way listed for a node may no longer contain it, or
+ * may not even exist in the current branch, so users have to check the way they get.
+ * <p>
+ * The index records the {@link #getWayTree() way tree} it was last brought up to date with, so
+ * that when the ways of the working tree change by other means than applying a diff, such as
+ * checking out another branch, the index can be updated from the difference between both trees.
+ * Imports don't write to it, as one random insert per way node would dominate the import time,
+ * they {@link #clear() clear} it instead, and an index with no way tree is populated from the
+ * repository ways with a {@link #bulkLoad() bulk load} before applying a diff.
+ * <p>
+ * Instances are safe to use concurrently and must be {@link #close() closed} after use.
+ */
+class NodeWayIndex {
+
+    private static final String DATABASE_NAME = "nodeways";
+
+    private static final String STATE_DATABASE_NAME = "nodeways_state";
+
+    private static final byte[] WAY_TREE_KEY = { 'w', 'a', 'y', 's' };
+
+    /**
+     * Number of (node, way) pairs sorted in memory by a {@link BulkLoad} before spilling them to a
+     * temporary file, 16MB worth of them
+     */
+    private static final int RUN_PAIRS = 1024 * 1024;
+
+    /**
+     * Maximum number of runs merged at once, larger loads are merged in several passes
+     */
+    private static final int MERGE_WIDTH = 64;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private Environment environment;
+
+    private Database database;
+
+    private Database stateDatabase;
+
+    public NodeWayIndex(Platform platform) {
+        EnvironmentConfig envCfg = new EnvironmentConfig();
+        envCfg.setAllowCreate(true);
+        envCfg.setTransactional(false);
+        envCfg.setSharedCache(true);
+        envCfg.setCacheMode(CacheMode.MAKE_COLD);
+        envCfg.setDurability(Durability.COMMIT_NO_SYNC);
+
+        EnvironmentBuilder environmentBuilder = new EnvironmentBuilder(platform);
+        environmentBuilder.setRelativePath("osm", DATABASE_NAME);
+        environmentBuilder.setIsStagingDatabase(true);
+        environmentBuilder.setConfig(envCfg);
+
+        this.environment = environmentBuilder.get();
+        this.database = openDatabase();
+        this.stateDatabase = openStateDatabase();
+    }
+
+    private Database openDatabase() {
+        DatabaseConfig dbc = new DatabaseConfig();
+        dbc.setAllowCreate(true);
+        dbc.setSortedDuplicates(true);
+        return environment.openDatabase(null, DATABASE_NAME, dbc);
+    }
+
+    private Database openStateDatabase() {
+        DatabaseConfig dbc = new DatabaseConfig();
+        dbc.setAllowCreate(true);
+        return environment.openDatabase(null, STATE_DATABASE_NAME, dbc);
+    }
+
+    private Database database() {
+        Preconditions.checkState(database != null, "node way index closed");
+        return database;
+    }
+
+    /**
+     * @return the id of the way tree the index was last brought up to date with, if any
+     */
+    public Optional<ObjectId> getWayTree() {
+        Preconditions.checkState(stateDatabase != null, "node way index closed");
+        DatabaseEntry data = new DatabaseEntry();
+        OperationStatus status = stateDatabase.get(null, new DatabaseEntry(WAY_TREE_KEY), data,
+                LockMode.READ_COMMITTED);
+        if (!OperationStatus.SUCCESS.equals(status)) {
+            return Optional.absent();
+        }
+        return Optional.of(ObjectId.createNoClone(data.getData()));
+    }
+
+    /**
+     * Records that the index is up to date with the ways of the given tree
+     * 
+     * @param wayTreeId the id of the way tree, {@link ObjectId#NULL} if there are no ways
+     */
+    public void setWayTree(ObjectId wayTreeId) {
+        Preconditions.checkState(stateDatabase != null, "node way index closed");
+        stateDatabase.put(null, new DatabaseEntry(WAY_TREE_KEY),
+                new DatabaseEntry(wayTreeId.getRawValue()));
+    }
+
+    /**
+     * Removes all the ways from the index, and the way tree it was up to date with
+     */
+    public synchronized void clear() {
+        database().close();
+        database = null;
+        stateDatabase.close();
+        stateDatabase = null;
+        environment.truncateDatabase(null, DATABASE_NAME, false);
+        environment.truncateDatabase(null, STATE_DATABASE_NAME, false);
+        database = openDatabase();
+        stateDatabase = openStateDatabase();
+    }
+
+    /**
+     * Records that the given way contains the given nodes
+     */
+    public void add(long wayId, List<Long> nodeIds) {
+        final Database database = database();
+        DatabaseEntry key = new DatabaseEntry();
+        DatabaseEntry data = new DatabaseEntry();
+        LongBinding.longToEntry(wayId, data);
+        for (Long nodeId : nodeIds) {
+            LongBinding.longToEntry(nodeId.longValue(), key);
+            database.putNoDupData(null, key, data);
+        }
+    }
+
+    /**
+     * Records that the given way no longer contains the given nodes
+     */
+    public void remove(long wayId, List<Long> nodeIds) {
+        DatabaseEntry key = new DatabaseEntry();
+        DatabaseEntry data = new DatabaseEntry();
+        Cursor cursor = database().openCursor(null, null);
+        try {
+            for (Long nodeId : nodeIds) {
+                LongBinding.longToEntry(nodeId.longValue(), key);
+                LongBinding.longToEntry(wayId, data);
+                if (OperationStatus.SUCCESS.equals(cursor.getSearchBoth(key, data,
+                        LockMode.DEFAULT))) {
+                    cursor.delete();
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the ids of the ways recorded as containing the given node
+     */
+    public Set<Long> getWays(long nodeId) {
+        Set<Long> ways = Sets.newTreeSet();
+        DatabaseEntry key = new DatabaseEntry();
+        DatabaseEntry data = new DatabaseEntry();
+        LongBinding.longToEntry(nodeId, key);
+        Cursor cursor = database().openCursor(null, null);
+        try {
+            OperationStatus status = cursor.getSearchKey(key, data, LockMode.DEFAULT);
+            while (OperationStatus.SUCCESS.equals(status)) {
+                ways.add(Long.valueOf(LongBinding.entryToLong(data)));
+                status = cursor.getNextDup(key, data, LockMode.DEFAULT);
+            }
+        } finally {
+            cursor.close();
+        }
+        return ways;
+    }
+
+    /**
+     * @return a bulk load to add the nodes of many ways at once, which has to be
+     *         {@link BulkLoad#close() closed} after use
+     */
+    public BulkLoad bulkLoad() {
+        return new BulkLoad(environment.getHome().getParentFile());
+    }
+
+    public synchronized void close() {
+        if (environment == null) {
+            return;
+        }
+        try {
+            if (database != null) {
+                database.close();
+            }
+            if (stateDatabase != null) {
+                stateDatabase.close();
+            }
+        } finally {
+            database = null;
+            stateDatabase = null;
+            try {
+                environment.sync();
+            } finally {
+                environment.close();
+                environment = null;
+            }
+        }
+    }
+
+    /**
+     * Adds the nodes of many ways to the index in node id order, which is much cheaper than
+     * {@link NodeWayIndex#add(long, List) adding} them way by way, as each insert lands next to
+     * the previous one in the B-tree instead of at a random place.
+     * <p>
+     * The (node, way) pairs are sorted in runs of {@link #RUN_PAIRS} that are spilled to temporary
+     * files, and {@link #load()} merges the runs as it inserts them.
+     */
+    class BulkLoad implements Closeable {
+
+        private final File tempDir;
+
+        private long[] pairs;
+
+        private int size;
+
+        private final List<File> runs = Lists.newArrayList();
+
+        private BulkLoad(File tempDir) {
+            this.tempDir = tempDir;
+        }
+
+        /**
+         * Records that the given way contains the given nodes, once {@link #load() loaded}
+         */
+        public void add(long wayId, List<Long> nodeIds) {
+            if (pairs == null) {
+                pairs = new long[2 * RUN_PAIRS];
+            }
+            for (Long nodeId : nodeIds) {
+                if (size == pairs.length) {
+                    spill();
+                }
+                pairs[size++] = nodeId.longValue();
+                pairs[size++] = wayId;
+            }
+        }
+
+        /**
+         * Inserts all the added pairs into the index
+         */
+        public void load() {
+            spill();
+            try {
+                while (runs.size() > MERGE_WIDTH) {
+                    List<File> merged = Lists.newArrayList(runs.subList(0, MERGE_WIDTH));
+                    runs.subList(0, MERGE_WIDTH).clear();
+                    final File file = newRun();
+                    final DataOutputStream out = newRunStream(file);
+                    try {
+                        merge(merged, new Target() {
+                            @Override
+                            public void put(long node, long way) throws IOException {
+                                out.writeLong(node);
+                                out.writeLong(way);
+                            }
+                        });
+                    } finally {
+                        out.close();
+                        for (File run : merged) {
+                            run.delete();
+                        }
+                    }
+                }
+                final DatabaseEntry key = new DatabaseEntry();
+                final DatabaseEntry data = new DatabaseEntry();
+                final Cursor cursor = database().openCursor(null, null);
+                try {
+                    merge(runs, new Target() {
+                        @Override
+                        public void put(long node, long way) {
+                            LongBinding.longToEntry(node, key);
+                            LongBinding.longToEntry(way, data);
+                            cursor.putNoDupData(key, data);
+                        }
+                    });
+                } finally {
+                    cursor.close();
+                }
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            } finally {
+                close();
+            }
+        }
+
+        private void merge(List<File> files, Target target) throws IOException {
+            PriorityQueue<Run> queue = new PriorityQueue<Run>(Math.max(1, files.size()),
+                    Run.BY_NEXT_PAIR);
+            try {
+                for (File file : files) {
+                    Run run = new Run(file);
+                    if (run.next()) {
+                        queue.add(run);
+                    } else {
+                        run.close();
+                    }
+                }
+                Run run;
+                while ((run = queue.poll()) != null) {
+                    target.put(run.node, run.way);
+                    if (run.next()) {
+                        queue.add(run);
+                    } else {
+                        run.close();
+                    }
+                }
+            } finally {
+                for (Run run : queue) {
+                    run.close();
+                }
+            }
+        }
+
+        /**
+         * Deletes the spilled runs
+         */
+        @Override
+        public void close() {
+            for (File run : runs) {
+                run.delete();
+            }
+            runs.clear();
+            pairs = null;
+            size = 0;
+        }
+
+        private void spill() {
+            if (size == 0) {
+                return;
+            }
+            sort(pairs, size / 2);
+            try {
+                DataOutputStream out = newRunStream(newRun());
+                try {
+                    for (int i = 0; i < size; i++) {
+                        out.writeLong(pairs[i]);
+                    }
+                } finally {
+                    out.close();
+                }
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+            size = 0;
+        }
+
+        private File newRun() throws IOException {
+            File file = File.createTempFile("tmpNodeWays_", ".run", tempDir);
+            file.deleteOnExit();
+            runs.add(file);
+            return file;
+        }
+
+        private DataOutputStream newRunStream(File file) throws IOException {
+            return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),
+                    BUFFER_SIZE));
+        }
+    }
+
+    /**
+     * Where a {@link BulkLoad} merges its runs to
+     */
+    private static interface Target {
+
+        void put(long node, long way) throws IOException;
+    }
+
+    /**
+     * Heap sorts the first {@code count} (node, way) pairs of {@code pairs} in place
+     */
+    private static void sort(long[] pairs, int count) {
+        for (int i = count / 2 - 1; i >= 0; i--) {
+            siftDown(pairs, i, count);
+        }
+        for (int end = count - 1; end > 0; end--) {
+            swap(pairs, 0, end);
+            siftDown(pairs, 0, end);
+        }
+    }
+
+    private static void siftDown(long[] pairs, int i, int count) {
+        int child;
+        while ((child = 2 * i + 1) < count) {
+            if (child + 1 < count && compare(pairs, child + 1, child) > 0) {
+                child++;
+            }
+            if (compare(pairs, child, i) <= 0) {
+                return;
+            }
+            swap(pairs, i, child);
+            i = child;
+        }
+    }
+
+    private static int compare(long[] pairs, int i, int j) {
+        int c = compare(pairs[2 * i], pairs[2 * j]);
+        return c != 0 ? c : compare(pairs[2 * i + 1], pairs[2 * j + 1]);
+    }
+
+    private static int compare(long a, long b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    private static void swap(long[] pairs, int i, int j) {
+        long node = pairs[2 * i];
+        long way = pairs[2 * i + 1];
+        pairs[2 * i] = pairs[2 * j];
+        pairs[2 * i + 1] = pairs[2 * j + 1];
+        pairs[2 * j] = node;
+        pairs[2 * j + 1] = way;
+    }
+
+    /**
+     * A sorted run of (node, way) pairs spilled to a file by a {@link BulkLoad}
+     */
+    private static class Run {
+
+        static final Comparator<Run> BY_NEXT_PAIR = new Comparator<Run>() {
+            @Override
+            public int compare(Run o1, Run o2) {
+                int c = NodeWayIndex.compare(o1.node, o2.node);
+                return c != 0 ? c : NodeWayIndex.compare(o1.way, o2.way);
+            }
+        };
+
+        private final DataInputStream in;
+
+        long node;
+
+        long way;
+
+        Run(File file) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file),
+                    BUFFER_SIZE));
+        }
+
+        /**
+         * Reads the next pair
+         * 
+         * @return {@code false} if the run is exhausted
+         */
+        boolean next() throws IOException {
+            try {
+                node = in.readLong();
+            } catch (EOFException e) {
+                return false;
+            }
+            way = in.readLong();
+            return true;
+        }
+
+        void close() {
+            Closeables.closeQuietly(in);
+        }
+    }
+}
@@ -8,8 +8,11 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.io.File;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
@@ -17,12 +20,21 @@ import javax.annotation.Nullable;
 import org.geogit.api.AbstractGeoGitOp;
 import org.geogit.api.Context;
 import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
 import org.geogit.api.Platform;
 import org.geogit.api.ProgressListener;
+import org.geogit.api.Ref;
+import org.geogit.api.RevFeature;
 import org.geogit.api.SubProgressListener;
+import org.geogit.api.plumbing.DiffTree;
 import org.geogit.api.plumbing.FindTreeChild;
+import org.geogit.api.plumbing.LsTreeOp;
+import org.geogit.api.plumbing.LsTreeOp.Strategy;
+import org.geogit.api.plumbing.diff.DiffEntry;
 import org.geogit.repository.FeatureToDelete;
 import org.geogit.repository.WorkingTree;
+import org.geogit.storage.StagingDatabase;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.opengis.feature.Feature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.openstreetmap.osmosis.core.container.v0_6.ChangeContainer;
@@ -39,7 +51,10 @@ import org.openstreetmap.osmosis.xml.v0_6.XmlChangeReader;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
@@ -59,6 +74,12 @@ import com.vividsolutions.jts.geom.impl.PackedCoordinateSequenceFactory;
 
 public class OSMApplyDiffOp extends AbstractGeoGitOp<Optional<OSMReport>> {
 
+    /**
+     * Number of changed ways above which the node way index is rebuilt with a bulk load rather
+     * than updated way by way
+     */
+    private static final int MAX_INDEX_UPDATES = 100 * 1000;
+
     /**
      * The file to import
      */
@@ -85,6 +106,114 @@ public class OSMApplyDiffOp extends AbstractGeoGitOp<Optional<OSMReport>> {
     }
 
     public OSMReport parseDiffFileAndInsert() {
+        final NodeWayIndex nodeWays = new NodeWayIndex(platform());
+        try {
+            updateIndex(nodeWays);
+            OSMReport report = parseDiffFileAndInsert(nodeWays);
+            // the sink kept the index up to date with the ways it inserted and deleted
+            nodeWays.setWayTree(wayTreeId());
+            return report;
+        } finally {
+            nodeWays.close();
+        }
+    }
+
+    /**
+     * @return the id of the way tree of the working tree, or {@link ObjectId#NULL} if there are no
+     *         ways
+     */
+    private ObjectId wayTreeId() {
+        Optional<NodeRef> waysNodeRef = command(FindTreeChild.class)
+                .setChildPath(OSMUtils.WAY_TYPE_NAME).setParent(workingTree().getTree()).call();
+        return waysNodeRef.isPresent() ? waysNodeRef.get().objectId() : ObjectId.NULL;
+    }
+
+    /**
+     * Brings the node way index up to date with the ways in the working tree, from the difference
+     * with the way tree it was last updated with, or rebuilding it if there's no such tree, as
+     * left by imports, or the difference is too large
+     */
+    private void updateIndex(NodeWayIndex nodeWays) {
+        final ObjectId wayTree = wayTreeId();
+        final Optional<ObjectId> indexed = nodeWays.getWayTree();
+        if (indexed.isPresent() && indexed.get().equals(wayTree)) {
+            return;
+        }
+        if (indexed.isPresent()
+                && (indexed.get().isNull() || stagingDatabase().exists(indexed.get()))
+                && updateIndex(nodeWays, indexed.get(), wayTree)) {
+            nodeWays.setWayTree(wayTree);
+            return;
+        }
+        nodeWays.clear();
+        indexWays(nodeWays);
+        nodeWays.setWayTree(wayTree);
+    }
+
+    /**
+     * Updates the node way index with the ways changed between the given way trees
+     * 
+     * @return {@code false} if more than {@link #MAX_INDEX_UPDATES} ways changed, in which case
+     *         rebuilding the index is cheaper and the index is left partially updated
+     */
+    private boolean updateIndex(NodeWayIndex nodeWays, ObjectId oldWayTree, ObjectId newWayTree) {
+        getProgressListener().setDescription("Updating the OSM way index...");
+        Iterator<DiffEntry> changes = command(DiffTree.class).setOldTree(oldWayTree)
+                .setNewTree(newWayTree).call();
+        int updated = 0;
+        while (changes.hasNext()) {
+            if (++updated > MAX_INDEX_UPDATES) {
+                return false;
+            }
+            DiffEntry change = changes.next();
+            if (change.getOldObject() != null) {
+                NodeRef way = change.getOldObject();
+                Optional<List<Long>> nodeIds = ConvertAndImportSink.getNodeIds(stagingDatabase()
+                        .getFeature(way.objectId()));
+                if (nodeIds.isPresent()) {
+                    nodeWays.remove(Long.parseLong(way.name()), nodeIds.get());
+                }
+            }
+            if (change.getNewObject() != null) {
+                NodeRef way = change.getNewObject();
+                Optional<List<Long>> nodeIds = ConvertAndImportSink.getNodeIds(stagingDatabase()
+                        .getFeature(way.objectId()));
+                if (nodeIds.isPresent()) {
+                    nodeWays.add(Long.parseLong(way.name()), nodeIds.get());
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds the ways in the working tree to the node way index
+     */
+    private void indexWays(NodeWayIndex nodeWays) {
+        if (wayTreeId().isNull()) {
+            return;
+        }
+        getProgressListener().setDescription("Indexing OSM ways...");
+        Iterator<NodeRef> ways = command(LsTreeOp.class)
+                .setReference(Ref.WORK_HEAD + ":" + OSMUtils.WAY_TYPE_NAME)
+                .setStrategy(Strategy.FEATURES_ONLY).call();
+        NodeWayIndex.BulkLoad bulkLoad = nodeWays.bulkLoad();
+        try {
+            while (ways.hasNext()) {
+                NodeRef way = ways.next();
+                RevFeature feature = stagingDatabase().getFeature(way.objectId());
+                Optional<List<Long>> nodeIds = ConvertAndImportSink.getNodeIds(feature);
+                if (nodeIds.isPresent()) {
+                    bulkLoad.add(Long.parseLong(way.name()), nodeIds.get());
+                }
+            }
+            bulkLoad.load();
+        } finally {
+            bulkLoad.close();
+        }
+    }
+
+    private OSMReport parseDiffFileAndInsert(NodeWayIndex nodeWays) {
         final WorkingTree workTree = workingTree();
 
         final int queueCapacity = 100 * 1000;
@@ -100,7 +229,7 @@ public class OSMApplyDiffOp extends AbstractGeoGitOp<Optional<OSMReport>> {
 
         ProgressListener progressListener = getProgressListener();
         ConvertAndImportSink sink = new ConvertAndImportSink(target, context, workingTree(),
-                platform(), new SubProgressListener(progressListener, 100));
+                platform(), nodeWays, new SubProgressListener(progressListener, 100));
         reader.setChangeSink(sink);
 
         Thread readerThread = new Thread(reader, "osm-diff-reader-thread");
@@ -142,10 +271,19 @@ public class OSMApplyDiffOp extends AbstractGeoGitOp<Optional<OSMReport>> {
 
     /**
      * A sink that processes OSM changes and translates the to the repository working tree
-     * 
+     * <p>
+     * Besides the ways in the diff, the ways in the repository containing nodes moved by the diff
+     * get their geometries rebuilt, as found through the {@link NodeWayIndex}, which is kept up to
+     * date with the ways in the diff. Way geometries are built from the nodes in the diff, and the
+     * ones in the working tree for nodes not in it, so nodes are expected to come before the ways
+     * that refer to them, as in the diffs produced by Osmosis and the OSM replication diffs.
      */
     static class ConvertAndImportSink implements ChangeSink {
 
+        private static final int LOCATION_INDEX = OSMUtils.nodeType().indexOf("location");
+
+        private static final int NODES_INDEX = OSMUtils.wayType().indexOf("nodes");
+
         private static final Function<WayNode, Long> NODELIST_TO_ID_LIST = new Function<WayNode, Long>() {
             @Override
             public Long apply(WayNode input) {
@@ -177,11 +315,28 @@ public class OSMApplyDiffOp extends AbstractGeoGitOp<Optional<OSMReport>> {
 
         private Geometry bbox;
 
+        private StagingDatabase stagingDatabase;
+
+        private NodeWayIndex nodeWays;
+
+        /**
+         * Ids of the nodes whose location is changed by the diff
+         */
+        private Set<Long> movedNodes = Sets.newHashSet();
+
+        /**
+         * Ids of the ways created, modified or deleted by the diff
+         */
+        private Set<Long> changedWays = Sets.newHashSet();
+
         public ConvertAndImportSink(QueueIterator<Feature> target, Context cmdLocator,
-                WorkingTree workTree, Platform platform, ProgressListener progressListener) {
+                WorkingTree workTree, Platform platform, NodeWayIndex nodeWays,
+                ProgressListener progressListener) {
             super();
             this.target = target;
             this.workTree = workTree;
+            this.stagingDatabase = cmdLocator.stagingDatabase();
+            this.nodeWays = nodeWays;
             this.progressListener = progressListener;
             this.latestChangeset = 0;
             this.latestTimestamp = 0;
@@ -220,6 +375,7 @@ public class OSMApplyDiffOp extends AbstractGeoGitOp<Optional<OSMReport>> {
 
         @Override
         public void complete() {
+            updateWaysOfMovedNodes();
             progressListener.setProgress(count);
             progressListener.complete();
             target.finish();
@@ -240,6 +396,9 @@ public class OSMApplyDiffOp extends AbstractGeoGitOp<Optional<OSMReport>> {
                 SimpleFeatureType ft = entity instanceof Node ? OSMUtils.nodeType() : OSMUtils
                         .wayType();
                 String id = Long.toString(entity.getId());
+                if (entity instanceof Way) {
+                    removeFromIndex((Way) entity);
+                }
                 target.put(new FeatureToDelete(ft, id));
                 return;
             }
@@ -264,6 +423,9 @@ public class OSMApplyDiffOp extends AbstractGeoGitOp<Optional<OSMReport>> {
             switch (entity.getType()) {
             case Node:
                 nodeCount++;
+                if (changeAction.equals(ChangeAction.Modify)) {
+                    checkMoved((Node) entity);
+                }
                 geom = parsePoint((Node) entity);
                 break;
             case Way:
@@ -277,6 +439,12 @@ public class OSMApplyDiffOp extends AbstractGeoGitOp<Optional<OSMReport>> {
                 if (changeAction.equals(ChangeAction.Create) && geom.within(bbox)
                         || changeAction.equals(ChangeAction.Modify)) {
                     Feature feature = converter.toFeature(entity, geom);
+                    if (entity instanceof Way) {
+                        Way way = (Way) entity;
+                        removeFromIndex(way);
+                        nodeWays.add(way.getId(), Lists.transform(way.getWayNodes(),
+                                NODELIST_TO_ID_LIST));
+                    }
                     target.put(feature);
                 }
             }
@@ -334,7 +502,7 @@ public class OSMApplyDiffOp extends AbstractGeoGitOp<Optional<OSMReport>> {
             final List<Long> ids = Lists.transform(nodes, NODELIST_TO_ID_LIST);
 
             try {
-                Coordinate[] coordinates = pointCache.get(ids);
+                Coordinate[] coordinates = getCoordinates(ids);
                 return GEOMF.createLineString(coordinates);
             } catch (IllegalArgumentException e) {
                 unableToProcessCount++;
@@ -342,6 +510,120 @@ public class OSMApplyDiffOp extends AbstractGeoGitOp<Optional<OSMReport>> {
             }
 
         }
+
+        /**
+         * @return the coordinates of the given nodes, as changed by the diff or as found in the
+         *         working tree otherwise
+         * @throws IllegalArgumentException if any of the nodes can't be found
+         */
+        private Coordinate[] getCoordinates(List<Long> ids) {
+            Coordinate[] coordinates = new Coordinate[ids.size()];
+            for (int i = 0; i < coordinates.length; i++) {
+                final Long nodeId = ids.get(i);
+                try {
+                    coordinates[i] = pointCache.get(nodeId.longValue());
+                } catch (IllegalArgumentException notInDiff) {
+                    Optional<RevFeature> node = findFeature(OSMUtils.NODE_TYPE_NAME, nodeId);
+                    checkArgument(node.isPresent(), "node id %s not found", nodeId);
+                    coordinates[i] = getLocation(node.get());
+                    pointCache.put(nodeId, coordinates[i]);
+                }
+            }
+            return coordinates;
+        }
+
+        /**
+         * Records the node as moved if its location in the working tree is a different one
+         */
+        private void checkMoved(Node node) {
+            Optional<RevFeature> oldNode = findFeature(OSMUtils.NODE_TYPE_NAME, node.getId());
+            if (oldNode.isPresent()) {
+                Coordinate oldLocation = getLocation(oldNode.get());
+                if (oldLocation.x != node.getLongitude() || oldLocation.y != node.getLatitude()) {
+                    movedNodes.add(Long.valueOf(node.getId()));
+                }
+            }
+        }
+
+        /**
+         * Removes the nodes of the way as found in the working tree from the node way index
+         */
+        private void removeFromIndex(Way way) {
+            final Long wayId = Long.valueOf(way.getId());
+            changedWays.add(wayId);
+            Optional<RevFeature> oldWay = findFeature(OSMUtils.WAY_TYPE_NAME, wayId);
+            if (oldWay.isPresent()) {
+                Optional<List<Long>> nodeIds = getNodeIds(oldWay.get());
+                if (nodeIds.isPresent()) {
+                    nodeWays.remove(wayId.longValue(), nodeIds.get());
+                }
+            }
+        }
+
+        /**
+         * Rebuilds the geometries of the ways in the working tree that contain any of the moved
+         * nodes and are not changed by the diff themselves
+         */
+        private void updateWaysOfMovedNodes() {
+            Set<Long> wayIds = Sets.newTreeSet();
+            for (Long nodeId : movedNodes) {
+                wayIds.addAll(nodeWays.getWays(nodeId.longValue()));
+            }
+            wayIds.removeAll(changedWays);
+            for (Long wayId : wayIds) {
+                Optional<RevFeature> way = findFeature(OSMUtils.WAY_TYPE_NAME, wayId);
+                if (!way.isPresent()) {
+                    // the index may refer to ways not in this branch
+                    continue;
+                }
+                Optional<List<Long>> nodeIds = getNodeIds(way.get());
+                if (!nodeIds.isPresent() || Collections.disjoint(nodeIds.get(), movedNodes)) {
+                    continue;
+                }
+                Coordinate[] coordinates;
+                try {
+                    coordinates = getCoordinates(nodeIds.get());
+                } catch (IllegalArgumentException e) {
+                    unableToProcessCount++;
+                    continue;
+                }
+                SimpleFeatureBuilder builder = new SimpleFeatureBuilder(OSMUtils.wayType());
+                ImmutableList<Optional<Object>> values = way.get().getValues();
+                for (int i = 0; i < values.size(); i++) {
+                    builder.set(i, values.get(i).orNull());
+                }
+                builder.set("way", GEOMF.createLineString(coordinates));
+                target.put(builder.buildFeature(wayId.toString()));
+            }
+        }
+
+        private Optional<RevFeature> findFeature(String treePath, Long id) {
+            Optional<org.geogit.api.Node> node = workTree.findUnstaged(NodeRef.appendChild(
+                    treePath, id.toString()));
+            if (!node.isPresent()) {
+                return Optional.absent();
+            }
+            return Optional.of(stagingDatabase.getFeature(node.get().getObjectId()));
+        }
+
+        private static Coordinate getLocation(RevFeature node) {
+            return ((Point) node.getValues().get(LOCATION_INDEX).get()).getCoordinate();
+        }
+
+        /**
+         * @return the ids of the nodes of a way feature
+         */
+        static Optional<List<Long>> getNodeIds(RevFeature way) {
+            Optional<Object> nodes = way.getValues().get(NODES_INDEX);
+            if (!nodes.isPresent()) {
+                return Optional.absent();
+            }
+            List<Long> nodeIds = Lists.newArrayList();
+            for (String nodeId : Splitter.on(';').omitEmptyStrings().split((String) nodes.get())) {
+                nodeIds.add(Long.valueOf(nodeId));
+            }
+            return Optional.of(nodeIds);
+        }
     }
 
 }
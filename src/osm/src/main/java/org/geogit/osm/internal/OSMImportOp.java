@@ -12,9 +12,13 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Nullable;
 
@@ -47,6 +51,8 @@ import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Stopwatch;
 import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.io.Closeables;
 import com.vividsolutions.jts.geom.Coordinate;
@@ -56,8 +62,6 @@ import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.geom.impl.PackedCoordinateSequenceFactory;
 
-import crosby.binary.osmosis.OsmosisReader;
-
 /**
  * Imports data from OSM, whether from a URL that represents an endpoint that supports the OSM
  * overpass api, or from a file with OSM data
@@ -66,6 +70,11 @@ import crosby.binary.osmosis.OsmosisReader;
 @Hookable(name = "osmimport")
 public class OSMImportOp extends AbstractGeoGitOp<Optional<OSMReport>> {
 
+    /**
+     * Number of features handed over to the working tree at once
+     */
+    private static final int FEATURE_BATCH_SIZE = 1000;
+
     /**
      * The filter to use if calling the overpass API
      */
@@ -88,6 +97,8 @@ public class OSMImportOp extends AbstractGeoGitOp<Optional<OSMReport>> {
 
     private String message;
 
+    private PointCacheType pointCache = PointCacheType.SPARSE;
+
     /**
      * Sets the filter to use. It uses the overpass Query Language
      * 
@@ -133,6 +144,19 @@ public class OSMImportOp extends AbstractGeoGitOp<Optional<OSMReport>> {
         return this;
     }
 
+    /**
+     * Sets how the coordinates of the nodes are kept while importing, to build the geometries of
+     * the ways referring to them. Defaults to {@link PointCacheType#SPARSE}.
+     * 
+     * @param pointCache the kind of point cache to use
+     * @return {@code this}
+     */
+    public OSMImportOp setPointCache(PointCacheType pointCache) {
+        checkNotNull(pointCache);
+        this.pointCache = pointCache;
+        return this;
+    }
+
     public OSMImportOp setMapping(Mapping mapping) {
         this.mapping = mapping;
         return this;
@@ -268,6 +292,42 @@ public class OSMImportOp extends AbstractGeoGitOp<Optional<OSMReport>> {
         }
     }
 
+    /**
+     * The ways of keeping the coordinates of the nodes while importing
+     */
+    public static enum PointCacheType {
+        /**
+         * Memory mapped coordinates indexed by node id, for large extracts and planet files
+         */
+        DENSE {
+            @Override
+            PointCache create(Platform platform) {
+                return new MappedPointCache.Dense(platform);
+            }
+        },
+        /**
+         * Memory mapped coordinates allocated in chunks of consecutive node ids, for small extracts
+         * and files with negative node ids
+         */
+        SPARSE {
+            @Override
+            PointCache create(Platform platform) {
+                return new MappedPointCache.Sparse(platform);
+            }
+        },
+        /**
+         * A temporary BerkeleyDB JE database
+         */
+        BDBJE {
+            @Override
+            PointCache create(Platform platform) {
+                return new BDBJEPointCache(platform);
+            }
+        };
+
+        abstract PointCache create(Platform platform);
+    }
+
     private OSMReport parseDataFileAndInsert(@Nullable File file, final InputStream dataIn,
             final EntityConverter converter) {
 
@@ -283,7 +343,7 @@ public class OSMImportOp extends AbstractGeoGitOp<Optional<OSMReport>> {
 
         RunnableSource reader;
         if (pbf) {
-            reader = new OsmosisReader(dataIn);
+            reader = new ParallelPbfReader(dataIn, Math.max(2, platform().availableProcessors()));
         } else {
             reader = new org.geogit.osm.internal.XmlReader(dataIn, true, compression);
         }
@@ -293,24 +353,55 @@ public class OSMImportOp extends AbstractGeoGitOp<Optional<OSMReport>> {
             workTree.delete(OSMUtils.NODE_TYPE_NAME);
             workTree.delete(OSMUtils.WAY_TYPE_NAME);
         }
+        // the imported ways are indexed in bulk by the first diff applied
+        final NodeWayIndex nodeWays = new NodeWayIndex(platform());
+        try {
+            nodeWays.clear();
+        } finally {
+            nodeWays.close();
+        }
 
         final int queueCapacity = 100 * 1000;
         final int timeout = 1;
         final TimeUnit timeoutUnit = TimeUnit.SECONDS;
-        // With this iterator and the osm parsing happening on a separate thread, we follow a
-        // producer/consumer approach so that the osm parse thread produces featrures into the
-        // iterator's queue, and WorkingTree.insert consumes them on this thread
-        QueueIterator<Feature> iterator = new QueueIterator<Feature>(queueCapacity, timeout,
-                timeoutUnit);
+        // With this iterator and the osm parsing happening on separate threads, we follow a
+        // producer/consumer approach so that the osm parse threads produce featrures into the
+        // iterator's queue, and WorkingTree.insertBatches consumes them on this thread
+        final QueueIterator<Feature> iterator = new QueueIterator<Feature>(queueCapacity,
+                timeout, timeoutUnit);
 
         ProgressListener progressListener = getProgressListener();
-        ConvertAndImportSink sink = new ConvertAndImportSink(converter, iterator, platform(),
-                mapping, noRaw, new SubProgressListener(progressListener, 100));
+        ConvertAndImportSink sink = new ConvertAndImportSink(converter, iterator,
+                pointCache.create(platform()), mapping, noRaw, new SubProgressListener(
+                        progressListener, 100));
         reader.setSink(sink);
 
+        final AtomicReference<Throwable> readerFailure = new AtomicReference<Throwable>();
         Thread readerThread = new Thread(reader, "osm-import-reader-thread");
+        readerThread.setUncaughtExceptionHandler(new UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread t, Throwable e) {
+                readerFailure.set(e);
+                iterator.finish();
+            }
+        });
         readerThread.start();
 
+        // fails the insert before any tree is updated if the reader failed
+        Iterator<Feature> features = new AbstractIterator<Feature>() {
+            @Override
+            protected Feature computeNext() {
+                if (iterator.hasNext()) {
+                    return iterator.next();
+                }
+                Throwable failure = readerFailure.get();
+                if (failure != null) {
+                    throw Throwables.propagate(failure);
+                }
+                return endOfData();
+            }
+        };
+
         Function<Feature, String> parentTreePathResolver = new Function<Feature, String>() {
             @Override
             public String apply(Feature input) {
@@ -330,7 +421,8 @@ public class OSMImportOp extends AbstractGeoGitOp<Optional<OSMReport>> {
                 // no-op
             }
         };
-        workTree.insert(parentTreePathResolver, iterator, noPorgressReportingListener, null, null);
+        workTree.insertBatches(parentTreePathResolver,
+                Iterators.partition(features, FEATURE_BATCH_SIZE), noPorgressReportingListener);
 
         if (sink.getCount() == 0) {
             throw new EmptyOSMDownloadException();
@@ -365,19 +457,19 @@ public class OSMImportOp extends AbstractGeoGitOp<Optional<OSMReport>> {
             }
         };
 
-        private int count = 0;
+        private final AtomicLong count = new AtomicLong();
 
-        private int nodeCount;
+        private final AtomicLong nodeCount = new AtomicLong();
 
-        private int wayCount;
+        private final AtomicLong wayCount = new AtomicLong();
 
-        private int unableToProcessCount = 0;
+        private final AtomicLong unableToProcessCount = new AtomicLong();
 
         private EntityConverter converter;
 
-        private long latestChangeset;
+        private final AtomicLong latestChangeset = new AtomicLong();
 
-        private long latestTimestamp;
+        private final AtomicLong latestTimestamp = new AtomicLong();
 
         private PointCache pointCache;
 
@@ -392,44 +484,43 @@ public class OSMImportOp extends AbstractGeoGitOp<Optional<OSMReport>> {
         private Stopwatch sw;
 
         public ConvertAndImportSink(EntityConverter converter, QueueIterator<Feature> target,
-                Platform platform, Mapping mapping, boolean noRaw, ProgressListener progressListener) {
+                PointCache pointCache, Mapping mapping, boolean noRaw,
+                ProgressListener progressListener) {
             super();
             this.converter = converter;
             this.target = target;
             this.mapping = mapping;
             this.noRaw = noRaw;
             this.progressListener = progressListener;
-            this.latestChangeset = 0;
-            this.latestTimestamp = 0;
-            this.pointCache = new BDBJEPointCache(platform);
+            this.pointCache = pointCache;
             this.sw = Stopwatch.createStarted();
         }
 
         public long getUnprocessedCount() {
-            return unableToProcessCount;
+            return unableToProcessCount.get();
         }
 
         public long getCount() {
-            return count;
+            return count.get();
         }
 
         public long getNodeCount() {
-            return nodeCount;
+            return nodeCount.get();
         }
 
         public long getWayCount() {
-            return wayCount;
+            return wayCount.get();
         }
 
         @Override
         public void complete() {
-            progressListener.setProgress(count);
+            progressListener.setProgress(count.get());
             progressListener.complete();
             target.finish();
             pointCache.dispose();
             sw.stop();
-            progressListener.setDescription(String
-                    .format("%,d entities processed in %s", count, sw));
+            progressListener.setDescription(String.format("%,d entities processed in %s",
+                    count.get(), sw));
         }
 
         @Override
@@ -437,22 +528,27 @@ public class OSMImportOp extends AbstractGeoGitOp<Optional<OSMReport>> {
             pointCache.dispose();
         }
 
+        /**
+         * Converts an entity and queues the resulting features. Safe to call concurrently, as
+         * {@link ParallelPbfReader} does, as long as the nodes of a way are processed before it.
+         */
         @Override
         public void process(EntityContainer entityContainer) {
             Entity entity = entityContainer.getEntity();
-            if (++count % 10 == 0) {
+            final long count = this.count.incrementAndGet();
+            if (count % 10 == 0) {
                 progressListener.setProgress(count);
             }
-            latestChangeset = Math.max(latestChangeset, entity.getChangesetId());
-            latestTimestamp = Math.max(latestTimestamp, entity.getTimestamp().getTime());
+            max(latestChangeset, entity.getChangesetId());
+            max(latestTimestamp, entity.getTimestamp().getTime());
             Geometry geom = null;
             switch (entity.getType()) {
             case Node:
-                nodeCount++;
+                nodeCount.incrementAndGet();
                 geom = parsePoint((Node) entity);
                 break;
             case Way:
-                wayCount++;
+                wayCount.incrementAndGet();
                 geom = parseLine((Way) entity);
                 break;
             default:
@@ -483,7 +579,7 @@ public class OSMImportOp extends AbstractGeoGitOp<Optional<OSMReport>> {
          * @return
          */
         public long getLatestTimestamp() {
-            return latestTimestamp;
+            return latestTimestamp.get();
         }
 
         /**
@@ -492,11 +588,18 @@ public class OSMImportOp extends AbstractGeoGitOp<Optional<OSMReport>> {
          * @return
          */
         public long getLatestChangeset() {
-            return latestChangeset;
+            return latestChangeset.get();
         }
 
         public boolean hasProcessedEntities() {
-            return latestChangeset != 0;
+            return latestChangeset.get() != 0;
+        }
+
+        private static void max(AtomicLong max, long value) {
+            long current;
+            while ((current = max.get()) < value && !max.compareAndSet(current, value)) {
+                // retry
+            }
         }
 
         @Override
@@ -522,7 +625,7 @@ public class OSMImportOp extends AbstractGeoGitOp<Optional<OSMReport>> {
             final List<WayNode> nodes = way.getWayNodes();
 
             if (nodes.size() < 2) {
-                unableToProcessCount++;
+                unableToProcessCount.incrementAndGet();
                 return null;
             }
 
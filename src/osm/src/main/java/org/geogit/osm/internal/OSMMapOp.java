@@ -7,6 +7,7 @@ package org.geogit.osm.internal;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import javax.annotation.Nullable;
@@ -18,22 +19,28 @@ import org.geogit.api.ObjectId;
 import org.geogit.api.RevFeature;
 import org.geogit.api.RevFeatureType;
 import org.geogit.api.RevTree;
+import org.geogit.api.plumbing.DiffTree;
 import org.geogit.api.plumbing.LsTreeOp;
 import org.geogit.api.plumbing.LsTreeOp.Strategy;
 import org.geogit.api.plumbing.RevObjectParse;
 import org.geogit.api.plumbing.RevParse;
+import org.geogit.api.plumbing.diff.DiffEntry;
 import org.geogit.api.porcelain.AddOp;
 import org.geogit.api.porcelain.CommitOp;
 import org.geogit.osm.internal.log.OSMMappingLogEntry;
+import org.geogit.osm.internal.log.ReadOSMMapping;
+import org.geogit.osm.internal.log.ReadOSMMappingLogEntry;
 import org.geogit.osm.internal.log.WriteOSMMappingEntries;
 import org.opengis.feature.Feature;
 import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
 
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
 
 /**
  * Creates new data in a geogit repository, based on the current OSM data in the repository and a
@@ -54,6 +61,8 @@ public class OSMMapOp extends AbstractGeoGitOp<RevTree> {
      */
     private String message;
 
+    private boolean incremental;
+
     /**
      * Sets the mapping to use
      * 
@@ -76,6 +85,22 @@ public class OSMMapOp extends AbstractGeoGitOp<RevTree> {
         return this;
     }
 
+    /**
+     * Sets whether to re-map only the raw OSM features that changed since the last time this same
+     * mapping was applied, as recorded in the mapping log, instead of all of them. Features in the
+     * mapped trees that were edited since then are only updated if their raw features changed.
+     * <p>
+     * If the mapping was not applied before, or any of its rules was applied since by another
+     * mapping, all the features are mapped.
+     * 
+     * @param incremental whether to map changes only
+     * @return {@code this}
+     */
+    public OSMMapOp setIncremental(boolean incremental) {
+        this.incremental = incremental;
+        return this;
+    }
+
     @Override
     protected RevTree _call() {
 
@@ -88,6 +113,40 @@ public class OSMMapOp extends AbstractGeoGitOp<RevTree> {
 
         ObjectId oldTreeId = workingTree().getTree().getId();
 
+        FeatureMapFlusher insertsByParent = new FeatureMapFlusher(workingTree());
+        Optional<ObjectId> lastMappedTree = incremental ? resolveLastMappedTree() : Optional
+                .<ObjectId> absent();
+        final boolean hasFeatures;
+        if (lastMappedTree.isPresent()) {
+            hasFeatures = mapChanges(lastMappedTree.get(), oldTreeId, insertsByParent);
+        } else {
+            hasFeatures = mapAll(insertsByParent);
+        }
+
+        if (hasFeatures) {
+            insertsByParent.flushAll();
+
+            ObjectId newTreeId = workingTree().getTree().getId();
+            // If the mapping generates the same mapped features that already exist, we do nothing
+            if (!newTreeId.equals(oldTreeId)) {
+                command(AddOp.class).call();
+                command(CommitOp.class).setMessage(message).call();
+                command(WriteOSMMappingEntries.class).setMapping(mapping)
+                        .setMappingLogEntry(new OSMMappingLogEntry(oldTreeId, newTreeId)).call();
+            }
+
+        }
+
+        return workingTree().getTree();
+
+    }
+
+    /**
+     * Maps all the features in the "node" and "way" trees
+     * 
+     * @return whether there were any features to map
+     */
+    private boolean mapAll(FeatureMapFlusher insertsByParent) {
         Iterator<Feature> nodes;
         if (mapping.canUseNodes()) {
             nodes = getFeatures("WORK_HEAD:node");
@@ -102,32 +161,99 @@ public class OSMMapOp extends AbstractGeoGitOp<RevTree> {
         }
         Iterator<Feature> iterator = Iterators.concat(nodes, ways);
 
-        if (iterator.hasNext()) {
-            FeatureMapFlusher insertsByParent = new FeatureMapFlusher(workingTree());
-            while (iterator.hasNext()) {
-                Feature feature = iterator.next();
-                Optional<MappedFeature> newFeature = mapping.map(feature);
-                if (newFeature.isPresent()) {
-                    String path = newFeature.get().getPath();
-                    SimpleFeature sf = (SimpleFeature) newFeature.get().getFeature();
-                    insertsByParent.put(path, sf);
-                }
+        if (!iterator.hasNext()) {
+            return false;
+        }
+        while (iterator.hasNext()) {
+            Feature feature = iterator.next();
+            Optional<MappedFeature> newFeature = mapping.map(feature);
+            if (newFeature.isPresent()) {
+                String path = newFeature.get().getPath();
+                SimpleFeature sf = (SimpleFeature) newFeature.get().getFeature();
+                insertsByParent.put(path, sf);
             }
-            insertsByParent.flushAll();
+        }
+        return true;
+    }
 
-            ObjectId newTreeId = workingTree().getTree().getId();
-            // If the mapping generates the same mapped features that already exist, we do nothing
-            if (!newTreeId.equals(oldTreeId)) {
-                command(AddOp.class).call();
-                command(CommitOp.class).setMessage(message).call();
-                command(WriteOSMMappingEntries.class).setMapping(mapping)
-                        .setMappingLogEntry(new OSMMappingLogEntry(oldTreeId, newTreeId)).call();
+    /**
+     * Returns the tree that resulted from the last time this same mapping was applied, if all of
+     * its rules were last applied by it, as recorded in the mapping log.
+     */
+    private Optional<ObjectId> resolveLastMappedTree() {
+        OSMMappingLogEntry entry = null;
+        for (MappingRule rule : mapping.getRules()) {
+            Optional<OSMMappingLogEntry> ruleEntry = command(ReadOSMMappingLogEntry.class)
+                    .setPath(rule.getName()).call();
+            if (!ruleEntry.isPresent()) {
+                return Optional.absent();
             }
-
+            if (entry != null
+                    && !entry.getPostMappingId().equals(ruleEntry.get().getPostMappingId())) {
+                return Optional.absent();
+            }
+            entry = ruleEntry.get();
         }
+        if (entry == null || !stagingDatabase().exists(entry.getPostMappingId())) {
+            return Optional.absent();
+        }
+        Optional<Mapping> lastMapping = command(ReadOSMMapping.class).setEntry(entry).call();
+        if (!lastMapping.isPresent() || !lastMapping.get().equals(mapping)) {
+            return Optional.absent();
+        }
+        return Optional.of(entry.getPostMappingId());
+    }
 
-        return workingTree().getTree();
-
+    /**
+     * Re-maps the features in the "node" and "way" trees that changed since the last mapping,
+     * removing the mapped features of the ones that were deleted or no longer map to the same
+     * tree.
+     * 
+     * @param lastMappedTree the root tree right after the last mapping
+     * @param currentTree the current root tree
+     * @return whether there were any changes to map
+     */
+    private boolean mapChanges(ObjectId lastMappedTree, ObjectId currentTree,
+            FeatureMapFlusher insertsByParent) {
+        List<String> paths = Lists.newArrayList();
+        if (mapping.canUseNodes()) {
+            paths.add(OSMUtils.NODE_TYPE_NAME);
+        }
+        if (mapping.canUseWays()) {
+            paths.add(OSMUtils.WAY_TYPE_NAME);
+        }
+        if (paths.isEmpty()) {
+            return false;
+        }
+        Iterator<DiffEntry> diffs = command(DiffTree.class).setFilter(paths)
+                .setOldTree(lastMappedTree).setNewTree(currentTree).call();
+        if (!diffs.hasNext()) {
+            return false;
+        }
+        NodeRefToFeature toFeature = new NodeRefToFeature();
+        while (diffs.hasNext()) {
+            DiffEntry diff = diffs.next();
+            Optional<MappedFeature> oldFeature = Optional.absent();
+            Optional<MappedFeature> newFeature = Optional.absent();
+            if (diff.getOldObject() != null) {
+                oldFeature = mapping.map(toFeature.apply(diff.getOldObject()));
+            }
+            if (diff.getNewObject() != null) {
+                newFeature = mapping.map(toFeature.apply(diff.getNewObject()));
+            }
+            if (newFeature.isPresent()) {
+                insertsByParent.put(newFeature.get().getPath(), (SimpleFeature) newFeature.get()
+                        .getFeature());
+            }
+            if (oldFeature.isPresent()
+                    && !(newFeature.isPresent() && newFeature.get().getPath()
+                            .equals(oldFeature.get().getPath()))) {
+                Feature mapped = oldFeature.get().getFeature();
+                insertsByParent.delete(oldFeature.get().getPath(),
+                        (SimpleFeatureType) mapped.getType(), mapped.getIdentifier().getID());
+            }
+        }
+        return true;
     }
 
     private Iterator<Feature> getFeatures(String ref) {
@@ -140,30 +266,34 @@ public class OSMMapOp extends AbstractGeoGitOp<RevTree> {
 
         Iterator<NodeRef> iterator = op.call();
 
-        Function<NodeRef, Feature> nodeRefToFeature = new Function<NodeRef, Feature>() {
-
-            private final Map<String, FeatureBuilder> builders = //
-            ImmutableMap.<String, FeatureBuilder> of(//
-                    OSMUtils.NODE_TYPE_NAME, //
-                    new FeatureBuilder(RevFeatureType.build(OSMUtils.nodeType())), //
-                    OSMUtils.WAY_TYPE_NAME,//
-                    new FeatureBuilder(RevFeatureType.build(OSMUtils.wayType())));
-
-            private final RevObjectParse parseCommand = command(RevObjectParse.class);
-
-            @Override
-            @Nullable
-            public Feature apply(@Nullable NodeRef ref) {
-                RevFeature revFeature = parseCommand.setObjectId(ref.objectId())
-                        .call(RevFeature.class).get();
-                final String parentPath = ref.getParentPath();
-                FeatureBuilder featureBuilder = builders.get(parentPath);
-                String fid = ref.name();
-                Feature feature = featureBuilder.build(fid, revFeature);
-                return feature;
-            }
+        return Iterators.transform(iterator, new NodeRefToFeature());
+    }
+
+    /**
+     * Builds the raw OSM feature a "node" or "way" tree node refers to
+     */
+    private class NodeRefToFeature implements Function<NodeRef, Feature> {
+
+        private final Map<String, FeatureBuilder> builders = //
+        ImmutableMap.<String, FeatureBuilder> of(//
+                OSMUtils.NODE_TYPE_NAME, //
+                new FeatureBuilder(RevFeatureType.build(OSMUtils.nodeType())), //
+                OSMUtils.WAY_TYPE_NAME,//
+                new FeatureBuilder(RevFeatureType.build(OSMUtils.wayType())));
+
+        private final RevObjectParse parseCommand = command(RevObjectParse.class);
+
+        @Override
+        @Nullable
+        public Feature apply(@Nullable NodeRef ref) {
+            RevFeature revFeature = parseCommand.setObjectId(ref.objectId())
+                    .call(RevFeature.class).get();
+            final String parentPath = ref.getParentPath();
+            FeatureBuilder featureBuilder = builders.get(parentPath);
+            String fid = ref.name();
+            Feature feature = featureBuilder.build(fid, revFeature);
+            return feature;
+        }
 
-        };
-        return Iterators.transform(iterator, nodeRefToFeature);
     }
 }
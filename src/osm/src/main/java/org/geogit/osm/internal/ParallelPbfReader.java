@@ -0,0 +1,249 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.osm.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.openstreetmap.osmosis.core.OsmosisRuntimeException;
+import org.openstreetmap.osmosis.core.container.v0_6.EntityContainer;
+import org.openstreetmap.osmosis.core.domain.v0_6.EntityType;
+import org.openstreetmap.osmosis.core.task.v0_6.RunnableSource;
+import org.openstreetmap.osmosis.core.task.v0_6.Sink;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import crosby.binary.file.BlockInputStream;
+import crosby.binary.file.BlockReaderAdapter;
+import crosby.binary.file.FileBlock;
+import crosby.binary.file.FileBlockPosition;
+import crosby.binary.osmosis.OsmosisBinaryParser;
+
+/**
+ * A replacement for {@link crosby.binary.osmosis.OsmosisReader} that decodes the blocks of a PBF
+ * stream and hands their entities to the sink on a pool of threads.
+ * <p>
+ * Blocks are read sequentially from the stream, but inflated and parsed concurrently, and then the
+ * entities of each block are processed by a separate task, in the order they appear in the block.
+ * Since building the geometry of a way needs the nodes it refers to, the entities of a block with
+ * ways are not processed until all the blocks with nodes before it in the stream have been
+ * processed, which for files sorted by type, as produced by Osmosis and most extract providers,
+ * means nodes are processed in parallel first and ways in parallel after them.
+ * <p>
+ * The sink's {@link Sink#process process} method is hence called concurrently and must be thread
+ * safe, while {@link Sink#complete complete} and {@link Sink#release release} are called once from
+ * the thread running the reader.
+ */
+class ParallelPbfReader implements RunnableSource {
+
+    private final InputStream input;
+
+    private final int threads;
+
+    private Sink sink;
+
+    /**
+     * @param input the PBF stream to read
+     * @param threads the number of threads to decode and process blocks on
+     */
+    public ParallelPbfReader(InputStream input, int threads) {
+        Preconditions.checkArgument(threads > 0);
+        this.input = input;
+        this.threads = threads;
+    }
+
+    @Override
+    public void setSink(Sink sink) {
+        this.sink = sink;
+    }
+
+    @Override
+    public void run() {
+        Preconditions.checkState(sink != null, "sink not set");
+        final ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("osm-pbf-reader-%d").build());
+        try {
+            sink.initialize(Collections.<String, Object> emptyMap());
+            Dispatcher dispatcher = new Dispatcher(executor);
+            new BlockInputStream(input, dispatcher).process();
+            dispatcher.awaitAll();
+            sink.complete();
+        } catch (IOException e) {
+            throw new OsmosisRuntimeException("Unable to process PBF stream", e);
+        } finally {
+            executor.shutdownNow();
+            sink.release();
+        }
+    }
+
+    /**
+     * Collects the entities of a single block
+     */
+    private static class BlockCollector implements Sink {
+
+        private final List<EntityContainer> entities = new ArrayList<EntityContainer>();
+
+        private boolean hasWays;
+
+        @Override
+        public void initialize(Map<String, Object> metaData) {
+        }
+
+        @Override
+        public void process(EntityContainer entityContainer) {
+            entities.add(entityContainer);
+            hasWays |= entityContainer.getEntity().getType() == EntityType.Way;
+        }
+
+        @Override
+        public void complete() {
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    /**
+     * Schedules the decoding and processing of blocks in stream order, as they're read on the
+     * reader thread.
+     */
+    private class Dispatcher implements BlockReaderAdapter {
+
+        private final ExecutorService executor;
+
+        /**
+         * Blocks being decoded, in stream order
+         */
+        private final LinkedList<Future<BlockCollector>> decoding = new LinkedList<Future<BlockCollector>>();
+
+        /**
+         * Blocks being processed
+         */
+        private final List<Future<?>> processing = new LinkedList<Future<?>>();
+
+        /**
+         * Blocks with nodes being processed, that blocks with ways have to wait for
+         */
+        private final List<Future<?>> processingNodes = new LinkedList<Future<?>>();
+
+        Dispatcher(ExecutorService executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public boolean skipBlock(FileBlockPosition message) {
+            return false;
+        }
+
+        @Override
+        public void handleBlock(final FileBlock message) {
+            decoding.add(executor.submit(new Callable<BlockCollector>() {
+                @Override
+                public BlockCollector call() {
+                    BlockCollector collector = new BlockCollector();
+                    OsmosisBinaryParser parser = new OsmosisBinaryParser();
+                    parser.setSink(collector);
+                    parser.handleBlock(message);
+                    return collector;
+                }
+            }));
+            // keep no more than a couple of decoded blocks per thread in memory
+            while (decoding.size() + processing.size() > 2 * threads) {
+                if (processing.isEmpty()) {
+                    dispatch(true);
+                } else {
+                    await(processing, 1);
+                }
+            }
+            while (dispatch(false)) {
+                // dispatch the blocks already decoded
+            }
+        }
+
+        @Override
+        public void complete() {
+            while (dispatch(true)) {
+                // dispatch the remaining blocks
+            }
+        }
+
+        /**
+         * Waits for all the scheduled blocks to be processed
+         */
+        void awaitAll() {
+            await(processing, processing.size());
+            processingNodes.clear();
+        }
+
+        /**
+         * Schedules the processing of the next block in stream order if it's decoded
+         *
+         * @param wait whether to wait for the block to be decoded
+         * @return whether a block was scheduled
+         */
+        private boolean dispatch(boolean wait) {
+            if (decoding.isEmpty() || !(wait || decoding.getFirst().isDone())) {
+                return false;
+            }
+            final BlockCollector block = get(decoding.removeFirst());
+            if (block.hasWays) {
+                await(processingNodes, processingNodes.size());
+            }
+            Future<?> future = executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (EntityContainer entity : block.entities) {
+                        sink.process(entity);
+                    }
+                }
+            });
+            processing.add(future);
+            if (!block.hasWays) {
+                await(processingNodes, 0);
+                processingNodes.add(future);
+            }
+            return true;
+        }
+
+        /**
+         * Waits for the first {@code count} futures of the list and removes them, along with any
+         * other finished future, rethrowing the failure of any of them.
+         */
+        private void await(List<Future<?>> futures, int count) {
+            int i = 0;
+            for (Iterator<Future<?>> it = futures.iterator(); it.hasNext(); i++) {
+                Future<?> future = it.next();
+                if (i < count || future.isDone()) {
+                    get(future);
+                    it.remove();
+                }
+            }
+        }
+
+        private <T> T get(Future<T> future) {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                throw Throwables.propagate(e);
+            } catch (ExecutionException e) {
+                throw Throwables.propagate(e.getCause());
+            }
+        }
+    }
+}
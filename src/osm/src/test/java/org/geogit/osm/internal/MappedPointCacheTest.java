@@ -0,0 +1,114 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.osm.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+import com.vividsolutions.jts.geom.Coordinate;
+
+public class MappedPointCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private void assertPutGet(PointCache cache, long... ids) {
+        for (long id : ids) {
+            cache.put(Long.valueOf(id), coord(id));
+        }
+        for (long id : ids) {
+            Coordinate coord = cache.get(id);
+            // coordinates round trip exactly at the OSM precision
+            assertEquals(coord(id).x, coord.x, 0D);
+            assertEquals(coord(id).y, coord.y, 0D);
+        }
+    }
+
+    private static Coordinate coord(long id) {
+        long seed = Math.abs(id % 1000003);
+        return new Coordinate(Double.parseDouble(String.format("%.7f", -180 + seed * 0.00035997)),
+                Double.parseDouble(String.format("%.7f", 90 - seed * 0.00017998)));
+    }
+
+    private void assertNotFound(PointCache cache, long id) {
+        try {
+            cache.get(id);
+            fail("expected IAE for missing node " + id);
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains(String.valueOf(id)));
+        }
+    }
+
+    @Test
+    public void testDense() {
+        PointCache cache = new MappedPointCache.Dense(folder.getRoot());
+        try {
+            assertPutGet(cache, 0, 1, 2, 1000, 16 * 1024 * 1024 + 3, 40000000);
+            assertNotFound(cache, 3);
+            assertNotFound(cache, 50000000);
+
+            // zero coordinates are not mistaken for missing nodes
+            cache.put(Long.valueOf(4), new Coordinate(0, 0));
+            assertEquals(new Coordinate(0, 0), cache.get(4));
+
+            Coordinate[] coords = cache.get(ImmutableList.of(Long.valueOf(1000), Long.valueOf(1)));
+            assertArrayEquals(new Coordinate[] { coord(1000), coord(1) }, coords);
+            try {
+                cache.put(Long.valueOf(-1), coord(1));
+                fail("expected IAE for negative id");
+            } catch (IllegalArgumentException e) {
+                assertTrue(true);
+            }
+        } finally {
+            cache.dispose();
+        }
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void testSparse() {
+        PointCache cache = new MappedPointCache.Sparse(folder.getRoot());
+        try {
+            long[] ids = new long[1000];
+            for (int i = 0; i < ids.length; i++) {
+                // spread over the whole id space, including negative ids
+                ids[i] = (i - 100) * 7919L * 4099L + i;
+            }
+            assertPutGet(cache, ids);
+            assertNotFound(cache, ids[10] + 1);
+            assertNotFound(cache, Long.MAX_VALUE);
+
+            File file = folder.getRoot().listFiles()[0];
+            // one 32KB chunk per id, all in the first mapped region
+            assertEquals(1L << 27, file.length());
+        } finally {
+            cache.dispose();
+        }
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void testDisposed() {
+        PointCache cache = new MappedPointCache.Sparse(folder.getRoot());
+        cache.put(Long.valueOf(1), coord(1));
+        cache.dispose();
+        cache.dispose();
+        try {
+            cache.put(Long.valueOf(1 << 20), coord(1));
+            fail("expected ISE after dispose");
+        } catch (IllegalStateException e) {
+            assertTrue(true);
+        }
+    }
+}
@@ -7,6 +7,7 @@ package org.geogit.osm.internal;
 
 import java.io.File;
 
+import org.geogit.api.ObjectId;
 import org.geogit.api.RevFeature;
 import org.geogit.api.plumbing.RevObjectParse;
 import org.geogit.test.integration.RepositoryTestCase;
@@ -15,6 +16,7 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 
 public class OSMAplyDiffOpTest extends RepositoryTestCase {
     @Rule
@@ -78,4 +80,62 @@ public class OSMAplyDiffOpTest extends RepositoryTestCase {
         assertFalse(revFeature.isPresent());
 
     }
+
+    @Test
+    public void testApplyChangesetWithMovedNode() throws Exception {
+        String filename = getClass().getResource("ways.xml").getFile();
+        File file = new File(filename);
+        geogit.command(OSMImportOp.class).setDataSource(file.getAbsolutePath()).call();
+        Optional<RevFeature> unchanged = geogit.command(RevObjectParse.class)
+                .setRefSpec("WORK_HEAD:way/31347480").call(RevFeature.class);
+        assertTrue(unchanged.isPresent());
+
+        // the diff only has the node, the ways containing it are updated through the index
+        String changesetFilename = getClass().getResource("changeset_moved_node.xml").getFile();
+        OSMReport report = geogit.command(OSMApplyDiffOp.class)
+                .setDiffFile(new File(changesetFilename)).call().get();
+        assertEquals(1, report.getCount());
+        assertEquals(0, report.getUnpprocessedCount());
+
+        Optional<RevFeature> revFeature = geogit.command(RevObjectParse.class)
+                .setRefSpec("WORK_HEAD:way/31045880").call(RevFeature.class);
+        assertTrue(revFeature.isPresent());
+        ImmutableList<Optional<Object>> values = revFeature.get().getValues();
+        String wkt = "LINESTRING (7.1923 50.7395, 7.1923127 50.7396946, 7.1923444 50.7397419, 7.1924199 50.7397781)";
+        assertEquals(wkt, values.get(7).get().toString());
+        assertEquals("345117525;345117526;1300224327;345117527", values.get(6).get());
+
+        // ways not containing the node are left untouched
+        revFeature = geogit.command(RevObjectParse.class).setRefSpec("WORK_HEAD:way/31347480")
+                .call(RevFeature.class);
+        assertEquals(unchanged.get().getId(), revFeature.get().getId());
+    }
+
+    @Test
+    public void testApplyChangesetWithStaleIndex() throws Exception {
+        String filename = getClass().getResource("ways.xml").getFile();
+        File file = new File(filename);
+        geogit.command(OSMImportOp.class).setDataSource(file.getAbsolutePath()).call();
+
+        // an index brought up to date with another way tree, as after checking out a branch
+        NodeWayIndex nodeWays = new NodeWayIndex(geogit.getPlatform());
+        try {
+            nodeWays.add(1L, ImmutableList.of(Long.valueOf(2L)));
+            nodeWays.setWayTree(ObjectId.NULL);
+        } finally {
+            nodeWays.close();
+        }
+
+        String changesetFilename = getClass().getResource("changeset_moved_node.xml").getFile();
+        geogit.command(OSMApplyDiffOp.class).setDiffFile(new File(changesetFilename)).call();
+
+        // the index was updated with the ways of the working tree before applying the diff
+        Optional<RevFeature> revFeature = geogit.command(RevObjectParse.class)
+                .setRefSpec("WORK_HEAD:way/31045880").call(RevFeature.class);
+        assertTrue(revFeature.isPresent());
+        assertEquals("345117525;345117526;1300224327;345117527", revFeature.get().getValues()
+                .get(6).get());
+        String wkt = "LINESTRING (7.1923 50.7395, 7.1923127 50.7396946, 7.1923444 50.7397419, 7.1924199 50.7397781)";
+        assertEquals(wkt, revFeature.get().getValues().get(7).get().toString());
+    }
 }
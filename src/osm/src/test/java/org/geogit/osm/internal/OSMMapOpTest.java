@@ -96,6 +96,52 @@ public class OSMMapOpTest extends RepositoryTestCase {
 
     }
 
+    @Test
+    public void testIncrementalMapping() throws Exception {
+        String filename = OSMImportOp.class.getResource("ways.xml").getFile();
+        File file = new File(filename);
+        geogit.command(OSMImportOp.class).setDataSource(file.getAbsolutePath()).call();
+        geogit.command(AddOp.class).call();
+        geogit.command(CommitOp.class).setMessage("msg").call();
+
+        Map<String, AttributeDefinition> fields = Maps.newHashMap();
+        Map<String, List<String>> filter = Maps.newHashMap();
+        filter.put("oneway", Lists.newArrayList("yes"));
+        fields.put("geom", new AttributeDefinition("geom", FieldType.LINESTRING));
+        fields.put("lit", new AttributeDefinition("lit", FieldType.STRING));
+        MappingRule mappingRule = new MappingRule("onewaystreets", filter, null, fields, null);
+        Mapping mapping = new Mapping(Lists.newArrayList(mappingRule));
+
+        // nothing mapped before, so everything gets mapped
+        geogit.command(OSMMapOp.class).setMapping(mapping).setIncremental(true).call();
+        assertTrue(exists("HEAD:onewaystreets/24777894"));
+        assertTrue(exists("HEAD:onewaystreets/31045880"));
+        assertTrue(exists("HEAD:onewaystreets/31347480"));
+
+        // a mapped feature removed by hand is not mapped again if its way didn't change
+        WorkingTree workTree = geogit.getRepository().workingTree();
+        workTree.delete("onewaystreets", "24777894");
+        workTree.delete("way", "31045880");
+        geogit.command(AddOp.class).call();
+        geogit.command(CommitOp.class).setMessage("msg").call();
+
+        geogit.command(OSMMapOp.class).setMapping(mapping).setIncremental(true).call();
+        assertFalse(exists("HEAD:onewaystreets/24777894"));
+        assertFalse(exists("HEAD:onewaystreets/31045880"));
+        assertTrue(exists("HEAD:onewaystreets/31347480"));
+
+        // unless mapping everything again
+        geogit.command(OSMMapOp.class).setMapping(mapping).call();
+        assertTrue(exists("HEAD:onewaystreets/24777894"));
+        assertFalse(exists("HEAD:onewaystreets/31045880"));
+        assertTrue(exists("HEAD:onewaystreets/31347480"));
+    }
+
+    private boolean exists(String refSpec) {
+        return geogit.command(RevObjectParse.class).setRefSpec(refSpec).call(RevFeature.class)
+                .isPresent();
+    }
+
     @Test
     public void testMappingDefaultFields() throws Exception {
         // import and check that we have both ways and nodes
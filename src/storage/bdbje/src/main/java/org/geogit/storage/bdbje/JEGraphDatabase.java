@@ -183,12 +183,15 @@ public class JEGraphDatabase extends SynchronizedGraphDatabase {
 
         @Override
         public void configure() throws RepositoryConnectionException {
-            RepositoryConnectionException.StorageType.GRAPH.configure(configDb, "bdbje", "0.1");
+            RepositoryConnectionException.StorageType.GRAPH.configure(configDb,
+                    JEObjectDatabase.FORMAT_NAME, JEObjectDatabase.VERSION);
         }
 
         @Override
         public void checkConfig() throws RepositoryConnectionException {
-            RepositoryConnectionException.StorageType.GRAPH.verify(configDb, "bdbje", "0.1");
+            RepositoryConnectionException.StorageType.GRAPH.verifyOrUpgrade(configDb,
+                    JEObjectDatabase.FORMAT_NAME, JEObjectDatabase.VERSION,
+                    JEObjectDatabase.UPGRADABLE_VERSIONS);
         }
 
         @Override
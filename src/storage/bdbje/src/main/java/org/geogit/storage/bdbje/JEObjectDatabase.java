@@ -40,7 +40,7 @@ import org.geogit.storage.BulkOpListener;
 import org.geogit.storage.ConfigDatabase;
 import org.geogit.storage.ObjectDatabase;
 import org.geogit.storage.ObjectReader;
-import org.geogit.storage.datastream.DataStreamSerializationFactory;
+import org.geogit.storage.datastream.DataStreamSerializationFactoryV2;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -55,8 +55,8 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.UnmodifiableIterator;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
-import com.ning.compress.lzf.LZFInputStream;
 import com.sleepycat.je.CacheMode;
+import com.sleepycat.je.CheckpointConfig;
 import com.sleepycat.je.Cursor;
 import com.sleepycat.je.CursorConfig;
 import com.sleepycat.je.Database;
@@ -78,6 +78,19 @@ public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDa
     /** Name of the BDB JE Environment inside the .geogit folder used for the objects database */
     static final String ENVIRONMENT_NAME = "objects";
 
+    public static final String FORMAT_NAME = "bdbje";
+
+    /**
+     * Version of the BDB JE storage format, recorded under the {@code bdbje.version} key shared by
+     * the object, staging and graph databases.
+     * <p>
+     * Version 0.2 writes features in the {@link DataStreamSerializationFactoryV2 V2 format}, which
+     * version 0.1 can't read. Version 0.1 databases are upgraded when opened.
+     */
+    public static final String VERSION = "0.2";
+
+    static final String[] UPGRADABLE_VERSIONS = { "0.1" };
+
     private static final Logger LOGGER = LoggerFactory.getLogger(JEObjectDatabase.class);
 
     private static final int SYNC_BYTES_LIMIT = 512 * 1024 * 1024;
@@ -100,6 +113,21 @@ public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDa
 
     private static final String OBJECT_DURABILITY_CONFIG_KEY = "bdbje.object_durability";
 
+    /**
+     * The default number of objects after which {@link #putAll} switches from buffered inserts to
+     * a {@link BulkLoad sorted bulk load} for the rest of the objects
+     */
+    private static final Integer DEFAULT_BULK_LOAD_THRESHOLD = 100 * 1000;
+
+    private static final String BULK_LOAD_THRESHOLD_CONFIG_KEY = "bdbje.bulkload_threshold";
+
+    /**
+     * Size of the sorted runs a bulk load spills to disk, and how many of them are merged at once
+     */
+    private static final int BULK_LOAD_RUN_BYTES = 64 * 1024 * 1024;
+
+    private static final int BULK_LOAD_MERGE_WIDTH = 128;
+
     private EnvironmentBuilder envProvider;
 
     /**
@@ -124,7 +152,7 @@ public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDa
 
     public JEObjectDatabase(final ConfigDatabase configDB, final EnvironmentBuilder envProvider,
             final boolean readOnly, final String envName) {
-        super(DataStreamSerializationFactory.INSTANCE);
+        super(DataStreamSerializationFactoryV2.INSTANCE);
         this.configDB = configDB;
         this.envProvider = envProvider;
         this.readOnly = readOnly;
@@ -394,8 +422,14 @@ public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDa
                 InternalByteArrayOutputStream out = new InternalByteArrayOutputStream(this.buffSize);
                 TreeMap<ObjectId, int[]> offsets = Maps.newTreeMap(ObjectId.NATURAL_ORDER);
 
+                final int bulkLoadThreshold = getBulkLoadThreshold();
                 int objectsInBuffer = 0;
                 while (true) {
+                    if (count == bulkLoadThreshold) {
+                        // too many objects for unsorted inserts to stay efficient, sort the rest
+                        // of them by key before inserting
+                        break;
+                    }
                     if (!serializeNextObject(offsets, out)) {
                         break;
                     }
@@ -426,6 +460,9 @@ public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDa
                             objectsInBuffer, (out.size() / 1024));
                 }
                 waitForWrites(pendingWrites);
+                if (objects.hasNext()) {
+                    count += new BulkLoad(objects, listener).run();
+                }
             } catch (Exception e) {
                 LOGGER.error("Error inserting objects: " + e.getMessage(), e);
                 throw e;
@@ -472,6 +509,98 @@ public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDa
 
     }
 
+    /**
+     * Inserts a large number of objects in key order: the objects are serialized to
+     * {@link SortedObjectRuns sorted runs} spilled to disk, and the merged runs are inserted
+     * sequentially, so that each btree node is written once instead of being dirtied and evicted
+     * over and over by random inserts.
+     * <p>
+     * Transactional databases commit every {@link #getBulkPartitionSize() partition} without
+     * syncing, deferred write ones are not logged as they go; either way the log is made durable
+     * once at the end of the load, followed by a single checkpoint.
+     */
+    private class BulkLoad {
+
+        private final Iterator<? extends RevObject> objects;
+
+        private final BulkOpListener listener;
+
+        BulkLoad(Iterator<? extends RevObject> objects, BulkOpListener listener) {
+            this.objects = objects;
+            this.listener = listener;
+        }
+
+        public int run() {
+            Stopwatch sw = Stopwatch.createStarted();
+            int count = 0;
+            SortedObjectRuns runs = new SortedObjectRuns(env.getHome(), BULK_LOAD_RUN_BYTES,
+                    BULK_LOAD_MERGE_WIDTH);
+            try {
+                while (objects.hasNext()) {
+                    RevObject o = objects.next();
+                    InternalByteArrayOutputStream out = runs.buffer();
+                    int offset = out.size();
+                    writeObject(o, out);
+                    runs.added(o.getId(), offset);
+                    count++;
+                }
+                LOGGER.debug("Sorted {} objects in {} runs in {}", count,
+                        runs.spilledRuns() + 1, sw);
+                insert(runs.sorted());
+            } finally {
+                runs.close();
+            }
+            LOGGER.debug("Bulk loaded {} objects in {}", count, sw.stop());
+            return count;
+        }
+
+        private void insert(Iterator<SortedObjectRuns.Entry> sorted) {
+            final boolean transactional = objectDb.getConfig().getTransactional();
+            final int partitionSize = getBulkPartitionSize();
+            TransactionConfig txConfig = new TransactionConfig();
+            txConfig.setReadUncommitted(true);
+            txConfig.setDurability(Durability.COMMIT_NO_SYNC);
+
+            DatabaseEntry key = new DatabaseEntry(new byte[ObjectId.NUM_BYTES]);
+            Transaction transaction = null;
+            int inTransaction = 0;
+            try {
+                while (sorted.hasNext()) {
+                    SortedObjectRuns.Entry e = sorted.next();
+                    if (transactional && transaction == null) {
+                        transaction = env.beginTransaction(null, txConfig);
+                    }
+                    e.id.getRawValue(key.getData());
+                    OperationStatus status = objectDb.putNoOverwrite(transaction, key,
+                            new DatabaseEntry(e.data));
+                    if (OperationStatus.SUCCESS.equals(status)) {
+                        listener.inserted(e.id, e.data.length);
+                    } else if (OperationStatus.KEYEXIST.equals(status)) {
+                        listener.found(e.id, null);
+                    }
+                    if (transaction != null && ++inTransaction == partitionSize) {
+                        commit(transaction);
+                        transaction = null;
+                        inTransaction = 0;
+                    }
+                }
+                commit(transaction);
+            } catch (RuntimeException e) {
+                abort(transaction);
+                throw e;
+            }
+
+            if (objectDb.getConfig().getDeferredWrite()) {
+                objectDb.sync();
+            } else {
+                env.flushLog(true);
+            }
+            CheckpointConfig checkpoint = new CheckpointConfig();
+            checkpoint.setForce(true);
+            env.checkpoint(checkpoint);
+        }
+    }
+
     private AtomicInteger bytesWritten = new AtomicInteger();
 
     private class InsertTask implements Callable<Void> {
@@ -715,12 +844,13 @@ public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDa
 
     @Override
     public void configure() throws RepositoryConnectionException {
-        RepositoryConnectionException.StorageType.OBJECT.configure(configDB, "bdbje", "0.1");
+        RepositoryConnectionException.StorageType.OBJECT.configure(configDB, FORMAT_NAME, VERSION);
     }
 
     @Override
     public void checkConfig() throws RepositoryConnectionException {
-        RepositoryConnectionException.StorageType.OBJECT.verify(configDB, "bdbje", "0.1");
+        RepositoryConnectionException.StorageType.OBJECT.verifyOrUpgrade(configDB, FORMAT_NAME,
+                VERSION, UPGRADABLE_VERSIONS);
     }
 
     @Override
@@ -802,7 +932,7 @@ public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDa
                     status = cursor.getSearchKey(key, data, LockMode.READ_UNCOMMITTED);
                     if (SUCCESS.equals(status)) {
                         InputStream rawData;
-                        rawData = new LZFInputStream(new ByteArrayInputStream(data.getData()));
+                        rawData = uncompress(new ByteArrayInputStream(data.getData()));
                         found = reader.read(id, rawData);
                         listener.found(found.getId(), data.getSize());
                     } else {
@@ -843,6 +973,11 @@ public class JEObjectDatabase extends AbstractObjectDatabase implements ObjectDa
         return configuredSize.or(DEFAULT_BULK_PARTITIONING).intValue();
     }
 
+    private int getBulkLoadThreshold() {
+        Optional<Integer> threshold = configDB.get(BULK_LOAD_THRESHOLD_CONFIG_KEY, Integer.class);
+        return threshold.or(DEFAULT_BULK_LOAD_THRESHOLD).intValue();
+    }
+
     @Nullable
     private Transaction newTransaction() {
         final boolean transactional = objectDb.getConfig().getTransactional();
@@ -363,11 +363,14 @@ public class JEStagingDatabase extends AbstractStagingDatabase {
 
     @Override
     public void configure() throws RepositoryConnectionException {
-        RepositoryConnectionException.StorageType.STAGING.configure(configDB, "bdbje", "0.1");
+        RepositoryConnectionException.StorageType.STAGING.configure(configDB,
+                JEObjectDatabase.FORMAT_NAME, JEObjectDatabase.VERSION);
     }
 
     @Override
     public void checkConfig() throws RepositoryConnectionException {
-        RepositoryConnectionException.StorageType.STAGING.verify(configDB, "bdbje", "0.1");
+        RepositoryConnectionException.StorageType.STAGING.verifyOrUpgrade(configDB,
+                JEObjectDatabase.FORMAT_NAME, JEObjectDatabase.VERSION,
+                JEObjectDatabase.UPGRADABLE_VERSIONS);
     }
 }
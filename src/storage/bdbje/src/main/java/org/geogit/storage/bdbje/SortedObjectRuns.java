@@ -0,0 +1,289 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.bdbje;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.geogit.api.ObjectId;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import com.google.common.io.Closeables;
+
+/**
+ * Sorts serialized objects by id with an external merge sort, so they can be inserted in key
+ * order.
+ * <p>
+ * Objects are serialized to an in memory {@link #buffer() run}, which is sorted and spilled to a
+ * temporary file once it reaches the configured size. {@link #sorted()} then merges the spilled
+ * runs and the last one, in several passes if there are more runs than can be merged at once.
+ */
+class SortedObjectRuns implements Closeable {
+
+    /**
+     * A serialized object
+     */
+    static final class Entry {
+
+        final ObjectId id;
+
+        final byte[] data;
+
+        Entry(ObjectId id, byte[] data) {
+            this.id = id;
+            this.data = data;
+        }
+    }
+
+    private static final Comparator<PeekingIterator<Entry>> BY_NEXT_ID = new Comparator<PeekingIterator<Entry>>() {
+        @Override
+        public int compare(PeekingIterator<Entry> o1, PeekingIterator<Entry> o2) {
+            return o1.peek().id.compareTo(o2.peek().id);
+        }
+    };
+
+    private static final Comparator<Object[]> BY_ID = new Comparator<Object[]>() {
+        @Override
+        public int compare(Object[] o1, Object[] o2) {
+            return ((ObjectId) o1[0]).compareTo((ObjectId) o2[0]);
+        }
+    };
+
+    private final File tempDir;
+
+    private final int runBytes;
+
+    private final int mergeWidth;
+
+    private InternalByteArrayOutputStream buffer;
+
+    /**
+     * id, offset, and size of the objects in {@link #buffer}
+     */
+    private List<Object[]> entries;
+
+    private final LinkedList<File> runs = new LinkedList<File>();
+
+    private final List<RunIterator> openIterators = new ArrayList<RunIterator>();
+
+    /**
+     * @param tempDir the directory to spill the runs to
+     * @param runBytes the size of the serialized objects after which a run is spilled
+     * @param mergeWidth the maximum number of runs to merge at once
+     */
+    SortedObjectRuns(File tempDir, int runBytes, int mergeWidth) {
+        this.tempDir = tempDir;
+        this.runBytes = runBytes;
+        this.mergeWidth = Math.max(2, mergeWidth);
+        newRun();
+    }
+
+    private void newRun() {
+        buffer = new InternalByteArrayOutputStream(Math.min(runBytes, 16 * 1024 * 1024));
+        entries = new ArrayList<Object[]>();
+    }
+
+    /**
+     * @return the buffer to serialize the next object to, followed by a call to
+     *         {@link #added(ObjectId, int)}
+     */
+    InternalByteArrayOutputStream buffer() {
+        return buffer;
+    }
+
+    /**
+     * @param id the id of the object just serialized to the {@link #buffer()}
+     * @param offset the size of the buffer before the object was serialized
+     */
+    void added(ObjectId id, int offset) {
+        entries.add(new Object[] { id, Integer.valueOf(offset),
+                Integer.valueOf(buffer.size() - offset) });
+        if (buffer.size() >= runBytes) {
+            runs.add(spill(sortedRun()));
+            newRun();
+        }
+    }
+
+    /**
+     * @return the number of runs spilled to disk so far
+     */
+    int spilledRuns() {
+        return runs.size();
+    }
+
+    /**
+     * @return all the objects added, sorted by id; objects added more than once are returned as
+     *         many times
+     */
+    Iterator<Entry> sorted() {
+        while (runs.size() > mergeWidth) {
+            List<PeekingIterator<Entry>> iterators = new ArrayList<PeekingIterator<Entry>>();
+            List<File> merged = new ArrayList<File>();
+            for (int i = 0; i < mergeWidth; i++) {
+                File run = runs.removeFirst();
+                merged.add(run);
+                iterators.add(Iterators.peekingIterator(open(run)));
+            }
+            runs.add(spill(new MergingIterator(iterators)));
+            for (File run : merged) {
+                run.delete();
+            }
+        }
+        List<PeekingIterator<Entry>> iterators = new ArrayList<PeekingIterator<Entry>>();
+        for (File run : runs) {
+            iterators.add(Iterators.peekingIterator(open(run)));
+        }
+        iterators.add(Iterators.peekingIterator(sortedRun()));
+        newRun();
+        return new MergingIterator(iterators);
+    }
+
+    /**
+     * Closes the open runs and deletes the spilled ones
+     */
+    @Override
+    public void close() {
+        for (RunIterator it : openIterators) {
+            it.close();
+        }
+        openIterators.clear();
+        for (File run : runs) {
+            run.delete();
+        }
+        runs.clear();
+    }
+
+    private Iterator<Entry> sortedRun() {
+        final byte[] data = buffer.bytes();
+        final List<Object[]> entries = this.entries;
+        Collections.sort(entries, BY_ID);
+        return new AbstractIterator<Entry>() {
+            final Iterator<Object[]> it = entries.iterator();
+
+            @Override
+            protected Entry computeNext() {
+                if (!it.hasNext()) {
+                    return endOfData();
+                }
+                Object[] e = it.next();
+                int offset = ((Integer) e[1]).intValue();
+                int size = ((Integer) e[2]).intValue();
+                return new Entry((ObjectId) e[0], Arrays.copyOfRange(data, offset, offset + size));
+            }
+        };
+    }
+
+    private File spill(Iterator<Entry> sorted) {
+        try {
+            File file = File.createTempFile("geogitObjects", ".run", tempDir);
+            file.deleteOnExit();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file), 1024 * 1024));
+            try {
+                while (sorted.hasNext()) {
+                    Entry e = sorted.next();
+                    out.write(e.id.getRawValue());
+                    out.writeInt(e.data.length);
+                    out.write(e.data);
+                }
+            } finally {
+                out.close();
+            }
+            return file;
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private RunIterator open(File run) {
+        RunIterator it = new RunIterator(run);
+        openIterators.add(it);
+        return it;
+    }
+
+    private static class MergingIterator extends AbstractIterator<Entry> {
+
+        private final PriorityQueue<PeekingIterator<Entry>> queue;
+
+        MergingIterator(List<PeekingIterator<Entry>> iterators) {
+            queue = new PriorityQueue<PeekingIterator<Entry>>(Math.max(1, iterators.size()),
+                    BY_NEXT_ID);
+            for (PeekingIterator<Entry> it : iterators) {
+                if (it.hasNext()) {
+                    queue.add(it);
+                }
+            }
+        }
+
+        @Override
+        protected Entry computeNext() {
+            PeekingIterator<Entry> lowest = queue.poll();
+            if (lowest == null) {
+                return endOfData();
+            }
+            Entry next = lowest.next();
+            if (lowest.hasNext()) {
+                queue.add(lowest);
+            }
+            return next;
+        }
+    }
+
+    private static class RunIterator extends AbstractIterator<Entry> {
+
+        private final DataInputStream in;
+
+        RunIterator(File run) {
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(run),
+                        64 * 1024));
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+
+        void close() {
+            Closeables.closeQuietly(in);
+        }
+
+        @Override
+        protected Entry computeNext() {
+            byte[] rawId = new byte[ObjectId.NUM_BYTES];
+            try {
+                try {
+                    in.readFully(rawId);
+                } catch (EOFException eof) {
+                    close();
+                    return endOfData();
+                }
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                return new Entry(ObjectId.createNoClone(rawId), data);
+            } catch (IOException e) {
+                close();
+                throw Throwables.propagate(e);
+            }
+        }
+    }
+}
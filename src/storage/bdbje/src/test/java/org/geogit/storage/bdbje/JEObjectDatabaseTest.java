@@ -1,11 +1,15 @@
 package org.geogit.storage.bdbje;
 
 import java.io.File;
+import java.util.List;
 
+import org.geogit.api.RevFeature;
 import org.geogit.api.RevObject;
 import org.geogit.api.RevTree;
 import org.geogit.api.TestPlatform;
 import org.geogit.repository.Hints;
+import org.geogit.storage.BulkOpListener;
+import org.geogit.storage.BulkOpListener.CountingListener;
 import org.geogit.storage.ConfigDatabase;
 import org.geogit.storage.ObjectDatabase;
 import org.geogit.storage.fs.IniFileConfigDatabase;
@@ -16,6 +20,10 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
 public class JEObjectDatabaseTest extends Assert {
 
     @Rule
@@ -131,6 +139,30 @@ public class JEObjectDatabaseTest extends Assert {
         db2.close();
     }
 
+    @Test
+    public void testBulkLoad() {
+        new IniFileConfigDatabase(platform).put("bdbje.bulkload_threshold", 100);
+        db = createDb();
+
+        List<RevObject> objects = Lists.newArrayList();
+        for (int i = 0; i < 1000; i++) {
+            objects.add(RevFeature.build(ImmutableList.<Optional<Object>> of(
+                    Optional.<Object> of("feature." + i), Optional.<Object> of(i))));
+        }
+        // a few objects already present before, and repeated within the bulk loaded ones
+        db.putAll(objects.subList(500, 510).iterator());
+        objects.addAll(objects.subList(900, 910));
+
+        CountingListener listener = BulkOpListener.newCountingListener();
+        db.putAll(objects.iterator(), listener);
+        assertEquals(990, listener.inserted());
+        assertEquals(20, listener.found());
+
+        for (RevObject o : objects) {
+            assertEquals(o, db.get(o.getId()));
+        }
+    }
+
     public void testMultipleInstances() {
         ObjectDatabase db1 = createDb();
         ObjectDatabase db2 = createDb();
@@ -0,0 +1,98 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.bdbje;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.geogit.api.ObjectId;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Lists;
+
+public class SortedObjectRunsTest extends Assert {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private List<ObjectId> add(SortedObjectRuns runs, int count) throws Exception {
+        List<ObjectId> ids = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            ObjectId id = ObjectId.forString("object." + i);
+            InternalByteArrayOutputStream out = runs.buffer();
+            int offset = out.size();
+            out.write(id.toString().getBytes("UTF-8"));
+            runs.added(id, offset);
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    private void assertSorted(List<ObjectId> expected, Iterator<SortedObjectRuns.Entry> sorted)
+            throws Exception {
+        Collections.sort(expected);
+        for (ObjectId id : expected) {
+            assertTrue(sorted.hasNext());
+            SortedObjectRuns.Entry e = sorted.next();
+            assertEquals(id, e.id);
+            assertEquals(id.toString(), new String(e.data, "UTF-8"));
+        }
+        assertFalse(sorted.hasNext());
+    }
+
+    @Test
+    public void testInMemory() throws Exception {
+        SortedObjectRuns runs = new SortedObjectRuns(folder.getRoot(), 1024 * 1024, 4);
+        try {
+            List<ObjectId> ids = add(runs, 1000);
+            assertEquals(0, runs.spilledRuns());
+            assertSorted(ids, runs.sorted());
+        } finally {
+            runs.close();
+        }
+    }
+
+    @Test
+    public void testSpilledRuns() throws Exception {
+        // 40 bytes per object, 25 objects per run, 40 runs merged in several passes
+        SortedObjectRuns runs = new SortedObjectRuns(folder.getRoot(), 1000, 4);
+        try {
+            List<ObjectId> ids = add(runs, 1000);
+            assertEquals(40, runs.spilledRuns());
+            assertSorted(ids, runs.sorted());
+        } finally {
+            runs.close();
+        }
+        assertEquals(0, folder.getRoot().listFiles().length);
+    }
+
+    @Test
+    public void testDuplicates() throws Exception {
+        SortedObjectRuns runs = new SortedObjectRuns(folder.getRoot(), 1000, 4);
+        try {
+            List<ObjectId> ids = add(runs, 100);
+            ids.addAll(add(runs, 100));
+            assertSorted(ids, runs.sorted());
+        } finally {
+            runs.close();
+        }
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        SortedObjectRuns runs = new SortedObjectRuns(new File(folder.getRoot(), "unused"), 1000,
+                4);
+        try {
+            assertFalse(runs.sorted().hasNext());
+        } finally {
+            runs.close();
+        }
+    }
+}
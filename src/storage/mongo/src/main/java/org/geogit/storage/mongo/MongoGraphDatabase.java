@@ -32,12 +32,15 @@ public class MongoGraphDatabase extends BlueprintsGraphDatabase<MongoGraph> {
 
     @Override
     public void configure() throws RepositoryConnectionException {
-        RepositoryConnectionException.StorageType.GRAPH.configure(config, "mongodb", "0.1");
+        RepositoryConnectionException.StorageType.GRAPH.configure(config,
+                MongoObjectDatabase.FORMAT_NAME, MongoObjectDatabase.VERSION);
     }
 
     @Override
     public void checkConfig() throws RepositoryConnectionException {
-        RepositoryConnectionException.StorageType.GRAPH.verify(config, "mongodb", "0.1");
+        RepositoryConnectionException.StorageType.GRAPH.verifyOrUpgrade(config,
+                MongoObjectDatabase.FORMAT_NAME, MongoObjectDatabase.VERSION,
+                MongoObjectDatabase.UPGRADABLE_VERSIONS);
     }
 
     @Override
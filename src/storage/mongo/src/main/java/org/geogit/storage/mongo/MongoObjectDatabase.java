@@ -26,7 +26,7 @@ import org.geogit.storage.ObjectDatabase;
 import org.geogit.storage.ObjectInserter;
 import org.geogit.storage.ObjectSerializingFactory;
 import org.geogit.storage.ObjectWriter;
-import org.geogit.storage.datastream.DataStreamSerializationFactory;
+import org.geogit.storage.datastream.DataStreamSerializationFactoryV2;
 
 import com.google.common.base.Functions;
 import com.google.common.collect.AbstractIterator;
@@ -48,6 +48,20 @@ import com.mongodb.WriteResult;
  * @see http://mongodb.com/
  */
 public class MongoObjectDatabase implements ObjectDatabase {
+
+    public static final String FORMAT_NAME = "mongodb";
+
+    /**
+     * Version of the MongoDB storage format, recorded under the {@code mongodb.version} key shared
+     * by the object, staging and graph databases.
+     * <p>
+     * Version 0.2 writes features in the {@link DataStreamSerializationFactoryV2 V2 format}, which
+     * version 0.1 can't read. Version 0.1 databases are upgraded when opened.
+     */
+    public static final String VERSION = "0.2";
+
+    static final String[] UPGRADABLE_VERSIONS = { "0.1" };
+
     private final MongoConnectionManager manager;
 
     protected final ConfigDatabase config;
@@ -58,7 +72,7 @@ public class MongoObjectDatabase implements ObjectDatabase {
 
     protected DBCollection collection = null;
 
-    protected ObjectSerializingFactory serializers = DataStreamSerializationFactory.INSTANCE;
+    protected ObjectSerializingFactory serializers = DataStreamSerializationFactoryV2.INSTANCE;
 
     private String collectionName;
 
@@ -114,7 +128,7 @@ public class MongoObjectDatabase implements ObjectDatabase {
 
     @Override
     public void configure() throws RepositoryConnectionException {
-        RepositoryConnectionException.StorageType.OBJECT.configure(config, "mongodb", "0.1");
+        RepositoryConnectionException.StorageType.OBJECT.configure(config, FORMAT_NAME, VERSION);
         String uri = config.get("mongodb.uri").or(config.getGlobal("mongodb.uri"))
                 .or("mongodb://localhost:27017/");
         String database = config.get("mongodb.database").or(config.getGlobal("mongodb.database"))
@@ -125,7 +139,8 @@ public class MongoObjectDatabase implements ObjectDatabase {
 
     @Override
     public void checkConfig() throws RepositoryConnectionException {
-        RepositoryConnectionException.StorageType.OBJECT.verify(config, "mongodb", "0.1");
+        RepositoryConnectionException.StorageType.OBJECT.verifyOrUpgrade(config, FORMAT_NAME,
+                VERSION, UPGRADABLE_VERSIONS);
     }
 
     @Override
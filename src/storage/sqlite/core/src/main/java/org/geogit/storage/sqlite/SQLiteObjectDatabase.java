@@ -32,7 +32,7 @@ import org.geogit.storage.ConfigDatabase;
 import org.geogit.storage.ObjectDatabase;
 import org.geogit.storage.ObjectInserter;
 import org.geogit.storage.ObjectSerializingFactory;
-import org.geogit.storage.datastream.DataStreamSerializationFactory;
+import org.geogit.storage.datastream.DataStreamSerializationFactoryV2;
 
 import com.google.common.base.Function;
 import com.google.common.base.Predicates;
@@ -51,7 +51,7 @@ public abstract class SQLiteObjectDatabase<C> implements ObjectDatabase {
 
     final ConfigDatabase configdb;
 
-    final ObjectSerializingFactory serializer = DataStreamSerializationFactory.INSTANCE;
+    final ObjectSerializingFactory serializer = DataStreamSerializationFactoryV2.INSTANCE;
 
     C cx;
 
@@ -94,12 +94,12 @@ public abstract class SQLiteObjectDatabase<C> implements ObjectDatabase {
 
     @Override
     public boolean exists(ObjectId id) {
-        return has(id.toString(), cx);
+        return has(id, cx);
     }
 
     @Override
     public List<ObjectId> lookUp(String partialId) {
-        return Lists.newArrayList(transform(search(partialId, cx), StringToObjectId.INSTANCE));
+        return Lists.newArrayList(search(partialId, cx));
     }
 
     @Override
@@ -124,7 +124,7 @@ public abstract class SQLiteObjectDatabase<C> implements ObjectDatabase {
 
     @Override
     public RevObject getIfPresent(ObjectId id) {
-        InputStream bytes = get(id.toString(), cx);
+        InputStream bytes = get(id, cx);
         return readObject(bytes, id);
     }
 
@@ -183,9 +183,8 @@ public abstract class SQLiteObjectDatabase<C> implements ObjectDatabase {
 
     @Override
     public boolean put(RevObject object) {
-        String id = object.getId().toString();
         try {
-            put(id, writeObject(object), cx);
+            put(object.getId(), writeObject(object), cx);
         } catch (IOException e) {
             throw new RuntimeException("Unable to serialize object: " + object);
         }
@@ -209,7 +208,7 @@ public abstract class SQLiteObjectDatabase<C> implements ObjectDatabase {
 
     @Override
     public boolean delete(ObjectId objectId) {
-        return delete(objectId.toString(), cx);
+        return delete(objectId, cx);
     }
 
     @Override
@@ -272,9 +271,11 @@ public abstract class SQLiteObjectDatabase<C> implements ObjectDatabase {
      * Creates the object table with the following schema:
      * 
      * <pre>
-     * objects(id:varchar PRIMARY KEY, object:blob)
+     * objects(id:blob PRIMARY KEY, object:blob)
      * </pre>
      * 
+     * Where {@code id} is the 20 byte {@link ObjectId#getRawValue() raw value} of the object id.
+     * 
      * Implementations of this method should be prepared to be called multiple times, so must check
      * if the table already exists.
      * 
@@ -285,16 +286,16 @@ public abstract class SQLiteObjectDatabase<C> implements ObjectDatabase {
     /**
      * Determines if the object with the specified id exists.
      */
-    protected abstract boolean has(String id, C cx);
+    protected abstract boolean has(ObjectId id, C cx);
 
     /**
-     * Searches for objects with ids that match the speciifed partial string.
+     * Searches for objects with ids starting with the specified partial string.
      * 
-     * @param partialId The partial id.
+     * @param partialId The partial id, as a hexadecimal string.
      * 
      * @return Iterable of matches.
      */
-    protected abstract Iterable<String> search(String partialId, C cx);
+    protected abstract Iterable<ObjectId> search(String partialId, C cx);
 
     /**
      * Retrieves the object with the specified id.
@@ -302,17 +303,17 @@ public abstract class SQLiteObjectDatabase<C> implements ObjectDatabase {
      * Must return <code>null</code> if no such object exists.
      * </p>
      */
-    protected abstract InputStream get(String id, C cx);
+    protected abstract InputStream get(ObjectId id, C cx);
 
     /**
      * Inserts or updates the object with the specified id.
      */
-    protected abstract void put(String id, InputStream obj, C cx);
+    protected abstract void put(ObjectId id, InputStream obj, C cx);
 
     /**
      * Deletes the object with the specified id.
      * 
      * @return Flag indicating if object was actually removed.
      */
-    protected abstract boolean delete(String id, C cx);
+    protected abstract boolean delete(ObjectId id, C cx);
 }
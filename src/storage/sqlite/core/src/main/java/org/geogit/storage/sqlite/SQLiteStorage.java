@@ -26,8 +26,12 @@ public class SQLiteStorage {
 
     /**
      * Implementation version.
+     * <p>
+     * Version 0.2 stores object ids as binary instead of as hexadecimal strings, so databases
+     * created by version 0.1 can't be read, and writes features in the V2 format, which version
+     * 0.1 can't read either.
      */
-    public static final String VERSION = "0.1";
+    public static final String VERSION = "0.2";
 
     /**
      * Returns the .geogit directory for the platform object.
@@ -8,6 +8,7 @@ import static org.geogit.storage.sqlite.XerialSQLiteModule.LOG;
 
 import java.io.IOException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -104,6 +105,20 @@ public abstract class DbOp<T> {
         return obj;
     }
 
+    /**
+     * Prepares a statement, reusing the one already prepared for the same sql if the connection
+     * comes from a {@link PooledDataSource}.
+     * <p>
+     * The statement is tracked to be closed unless it's cached by the connection.
+     * </p>
+     */
+    protected PreparedStatement prepare(Connection cx, String sql) throws SQLException {
+        if (cx instanceof PooledDataSource.StatementCache) {
+            return ((PooledDataSource.StatementCache) cx).prepareCached(sql);
+        }
+        return open(cx.prepareStatement(sql));
+    }
+
     void close() {
         while (!open.isEmpty()) {
             Object obj = open.pop();
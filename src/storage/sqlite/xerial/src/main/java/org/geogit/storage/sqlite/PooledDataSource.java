@@ -0,0 +1,238 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.sqlite;
+
+import static org.geogit.storage.sqlite.XerialSQLiteModule.LOG;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A data source that keeps a few connections to a SQLite database open to be reused, instead of
+ * opening the database file on every operation, so concurrent readers each get their own
+ * connection at a low cost.
+ * <p>
+ * Connections are returned to the pool when closed. When there's no idle connection a new one is
+ * opened, so getting a connection never blocks, and connections returned once the pool already
+ * has {@code maxIdle} idle ones are closed.
+ * <p>
+ * Pooled connections also cache the statements prepared through
+ * {@link DbOp#prepare(Connection, String)}, which live as long as the underlying connection.
+ */
+class PooledDataSource implements DataSource {
+
+    /**
+     * Implemented by pooled connections to prepare statements that are reused across checkouts of
+     * the same connection.
+     */
+    interface StatementCache {
+
+        /**
+         * Returns a prepared statement for the given sql, which must not be closed by the caller.
+         */
+        PreparedStatement prepareCached(String sql) throws SQLException;
+    }
+
+    private final DataSource dataSource;
+
+    private final int maxIdle;
+
+    private final Deque<PhysicalConnection> idle = new ArrayDeque<PhysicalConnection>();
+
+    private boolean closed;
+
+    /**
+     * @param dataSource the data source to open new connections from
+     * @param maxIdle the maximum number of idle connections to keep open
+     */
+    public PooledDataSource(DataSource dataSource, int maxIdle) {
+        Preconditions.checkNotNull(dataSource);
+        Preconditions.checkArgument(maxIdle > 0);
+        this.dataSource = dataSource;
+        this.maxIdle = maxIdle;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        PhysicalConnection connection;
+        synchronized (this) {
+            Preconditions.checkState(!closed, "data source is closed");
+            connection = idle.pollFirst();
+        }
+        if (connection == null) {
+            connection = new PhysicalConnection(dataSource.getConnection());
+        }
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {
+                Connection.class, StatementCache.class }, new CheckedOutConnection(connection));
+    }
+
+    private void release(PhysicalConnection connection) {
+        synchronized (this) {
+            if (!closed && idle.size() < maxIdle) {
+                idle.addFirst(connection);
+                return;
+            }
+        }
+        connection.close();
+    }
+
+    /**
+     * Closes the idle connections, connections in use are closed once they're returned.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        PhysicalConnection connection;
+        while ((connection = poll()) != null) {
+            connection.close();
+        }
+    }
+
+    private synchronized PhysicalConnection poll() {
+        return idle.pollFirst();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return dataSource.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        dataSource.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        dataSource.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return dataSource.getLoginTimeout();
+    }
+
+    @Override
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        return dataSource.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return dataSource.isWrapperFor(iface);
+    }
+
+    /**
+     * An open database connection along with its cached statements.
+     */
+    private static class PhysicalConnection {
+
+        final Connection cx;
+
+        final Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+
+        PhysicalConnection(Connection cx) {
+            this.cx = cx;
+        }
+
+        PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement ps = statements.get(sql);
+            if (ps == null) {
+                ps = cx.prepareStatement(sql);
+                statements.put(sql, ps);
+            } else {
+                ps.clearParameters();
+                ps.clearBatch();
+            }
+            return ps;
+        }
+
+        void close() {
+            try {
+                for (PreparedStatement ps : statements.values()) {
+                    ps.close();
+                }
+                cx.close();
+            } catch (SQLException e) {
+                LOG.debug("error closing connection: " + cx, e);
+            }
+        }
+    }
+
+    /**
+     * Handler of the connections handed out by the pool, that returns the connection to the pool
+     * when closed, and can't be used afterwards.
+     */
+    private class CheckedOutConnection implements InvocationHandler {
+
+        private PhysicalConnection connection;
+
+        CheckedOutConnection(PhysicalConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            final String name = method.getName();
+            if (method.getDeclaringClass().equals(Object.class)) {
+                if ("equals".equals(name)) {
+                    return Boolean.valueOf(proxy == args[0]);
+                }
+                if ("hashCode".equals(name)) {
+                    return Integer.valueOf(System.identityHashCode(proxy));
+                }
+                return "PooledConnection[" + (connection == null ? "closed" : connection.cx) + "]";
+            }
+            if ("close".equals(name) && method.getParameterTypes().length == 0) {
+                if (connection != null) {
+                    PhysicalConnection released = connection;
+                    connection = null;
+                    release(released);
+                }
+                return null;
+            }
+            if ("isClosed".equals(name)) {
+                return Boolean.valueOf(connection == null || connection.cx.isClosed());
+            }
+            if (connection == null) {
+                throw new SQLException("Connection is closed");
+            }
+            if ("prepareCached".equals(name)) {
+                return connection.prepare((String) args[0]);
+            }
+            try {
+                return method.invoke(connection.cx, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -15,8 +15,12 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import javax.sql.DataSource;
 
@@ -28,8 +32,11 @@ import org.geogit.storage.ConfigDatabase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Function;
+import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
 import com.google.common.io.ByteStreams;
 import com.google.inject.Inject;
 
@@ -44,6 +51,15 @@ public class XerialObjectDatabase extends SQLiteObjectDatabase<DataSource> {
 
     static final String OBJECTS = "objects";
 
+    /**
+     * Number of ids looked up by a single query in {@link #getAll}, below the default SQLite limit
+     * of 999 parameters per statement
+     */
+    static final int IN_LIST_SIZE = 256;
+
+    static final String GET_ALL_SQL = format("SELECT id, object FROM %s WHERE id IN (%s)",
+            OBJECTS, Joiner.on(',').join(Collections.nCopies(IN_LIST_SIZE, "?")));
+
     final int partitionSize = 10 * 1000; // TODO make configurable
 
     final String dbName;
@@ -62,11 +78,13 @@ public class XerialObjectDatabase extends SQLiteObjectDatabase<DataSource> {
 
     @Override
     protected DataSource connect(File geogitDir) {
-        return Xerial.newDataSource(new File(geogitDir, dbName + ".db"));
+        DataSource dataSource = Xerial.newDataSource(new File(geogitDir, dbName + ".db"));
+        return new PooledDataSource(dataSource, Math.max(2, platform.availableProcessors()));
     }
 
     @Override
     protected void close(DataSource ds) {
+        ((PooledDataSource) ds).close();
     }
 
     @Override
@@ -74,8 +92,11 @@ public class XerialObjectDatabase extends SQLiteObjectDatabase<DataSource> {
         new DbOp<Void>() {
             @Override
             protected Void doRun(Connection cx) throws SQLException {
+                // readers don't block the writer nor the other way around, and it's persistent
+                open(cx.createStatement()).execute(log("PRAGMA journal_mode=WAL", LOG));
+
                 String sql = format(
-                        "CREATE TABLE IF NOT EXISTS %s (id varchar PRIMARY KEY, object blob)",
+                        "CREATE TABLE IF NOT EXISTS %s (id blob PRIMARY KEY, object blob)",
                         OBJECTS);
                 open(cx.createStatement()).execute(log(sql, LOG));
                 return null;
@@ -84,46 +105,101 @@ public class XerialObjectDatabase extends SQLiteObjectDatabase<DataSource> {
     }
 
     @Override
-    public boolean has(final String id, DataSource ds) {
+    public boolean has(final ObjectId id, DataSource ds) {
         return new DbOp<Boolean>() {
             @Override
             protected Boolean doRun(Connection cx) throws SQLException {
-                String sql = format("SELECT count(*) FROM %s WHERE id = ?", OBJECTS);
+                String sql = format("SELECT 1 FROM %s WHERE id = ?", OBJECTS);
 
-                PreparedStatement ps = open(cx.prepareStatement(log(sql, LOG, id)));
-                ps.setString(1, id);
+                PreparedStatement ps = prepare(cx, log(sql, LOG, id));
+                ps.setBytes(1, id.getRawValue());
 
                 ResultSet rs = open(ps.executeQuery());
-                rs.next();
-
-                return rs.getInt(1) > 0;
+                return rs.next();
             }
         }.run(ds);
     }
 
+    /**
+     * Looks up the ids starting with the partial id as a range of the primary key.
+     */
     @Override
-    public Iterable<String> search(final String partialId, DataSource ds) {
-        Connection cx = Xerial.newConnection(ds);
-        final ResultSet rs = new DbOp<ResultSet>() {
+    public Iterable<ObjectId> search(final String partialId, DataSource ds) {
+        final byte[][] range = prefixRange(partialId);
+        if (range == null) {
+            return Collections.emptyList();
+        }
+        return new DbOp<List<ObjectId>>() {
             @Override
-            protected ResultSet doRun(Connection cx) throws SQLException {
-                String sql = format("SELECT id FROM %s WHERE id LIKE '%%%s%%'", OBJECTS, partialId);
-                return cx.createStatement().executeQuery(log(sql, LOG));
+            protected List<ObjectId> doRun(Connection cx) throws SQLException {
+                String sql = range[1] == null ? format("SELECT id FROM %s WHERE id >= ?", OBJECTS)
+                        : format("SELECT id FROM %s WHERE id >= ? AND id < ?", OBJECTS);
+
+                PreparedStatement ps = prepare(cx, log(sql, LOG, partialId));
+                ps.setBytes(1, range[0]);
+                if (range[1] != null) {
+                    ps.setBytes(2, range[1]);
+                }
+
+                List<ObjectId> ids = new ArrayList<ObjectId>();
+                ResultSet rs = open(ps.executeQuery());
+                while (rs.next()) {
+                    ids.add(ObjectId.createNoClone(rs.getBytes(1)));
+                }
+                return ids;
             }
-        }.run(cx);
+        }.run(ds);
+    }
 
-        return new StringResultSetIterable(rs, cx);
+    /**
+     * Computes the range of raw ids starting with a partial id.
+     * 
+     * @return the inclusive lower bound and the exclusive upper bound, which is {@code null} if
+     *         there's none, or {@code null} if the partial id is not a hexadecimal string
+     */
+    static byte[][] prefixRange(String partialId) {
+        if (partialId.length() > 2 * ObjectId.NUM_BYTES) {
+            return null;
+        }
+        for (int i = 0; i < partialId.length(); i++) {
+            if (Character.digit(partialId.charAt(i), 16) < 0) {
+                return null;
+            }
+        }
+        // the upper bound is the prefix plus one, as in "abf" -> "ac"
+        int last = partialId.length() - 1;
+        while (last >= 0 && Character.digit(partialId.charAt(last), 16) == 15) {
+            last--;
+        }
+        byte[] upper = null;
+        if (last >= 0) {
+            int digit = Character.digit(partialId.charAt(last), 16) + 1;
+            upper = toBytes(partialId.substring(0, last) + Character.forDigit(digit, 16));
+        }
+        return new byte[][] { toBytes(partialId), upper };
+    }
+
+    /**
+     * Parses a hexadecimal string, padding it with a trailing zero if its length is odd.
+     */
+    private static byte[] toBytes(String hex) {
+        byte[] bytes = new byte[(hex.length() + 1) / 2];
+        for (int i = 0; i < hex.length(); i++) {
+            int digit = Character.digit(hex.charAt(i), 16);
+            bytes[i / 2] |= i % 2 == 0 ? digit << 4 : digit;
+        }
+        return bytes;
     }
 
     @Override
-    public InputStream get(final String id, DataSource ds) {
+    public InputStream get(final ObjectId id, DataSource ds) {
         return new DbOp<InputStream>() {
             @Override
             protected InputStream doRun(Connection cx) throws SQLException {
                 String sql = format("SELECT object FROM %s WHERE id = ?", OBJECTS);
 
-                PreparedStatement ps = open(cx.prepareStatement(log(sql, LOG, id)));
-                ps.setString(1, id);
+                PreparedStatement ps = prepare(cx, log(sql, LOG, id));
+                ps.setBytes(1, id.getRawValue());
 
                 ResultSet rs = open(ps.executeQuery());
                 if (!rs.next()) {
@@ -137,14 +213,14 @@ public class XerialObjectDatabase extends SQLiteObjectDatabase<DataSource> {
     }
 
     @Override
-    public void put(final String id, final InputStream obj, DataSource ds) {
+    public void put(final ObjectId id, final InputStream obj, DataSource ds) {
         new DbOp<Void>() {
             @Override
             protected Void doRun(Connection cx) throws SQLException, IOException {
                 String sql = format("INSERT OR IGNORE INTO %s (id,object) VALUES (?,?)", OBJECTS);
 
-                PreparedStatement ps = open(cx.prepareStatement(log(sql, LOG, id, obj)));
-                ps.setString(1, id);
+                PreparedStatement ps = prepare(cx, log(sql, LOG, id, obj));
+                ps.setBytes(1, id.getRawValue());
                 ps.setBytes(2, ByteStreams.toByteArray(obj));
                 ps.executeUpdate();
 
@@ -154,20 +230,78 @@ public class XerialObjectDatabase extends SQLiteObjectDatabase<DataSource> {
     }
 
     @Override
-    public boolean delete(final String id, DataSource ds) {
+    public boolean delete(final ObjectId id, DataSource ds) {
         return new DbOp<Boolean>() {
             @Override
             protected Boolean doRun(Connection cx) throws SQLException {
                 String sql = format("DELETE FROM %s WHERE id = ?", OBJECTS);
 
-                PreparedStatement ps = open(cx.prepareStatement(log(sql, LOG, id)));
-                ps.setString(1, id);
+                PreparedStatement ps = prepare(cx, log(sql, LOG, id));
+                ps.setBytes(1, id.getRawValue());
 
                 return ps.executeUpdate() > 0;
             }
         }.run(ds);
     }
 
+    /**
+     * Override to look up the objects in batches sorted by id, each batch through a single
+     * connection and a prepared statement querying {@link #IN_LIST_SIZE} ids at once, so the
+     * primary key index is walked in order instead of at random.
+     */
+    @Override
+    public Iterator<RevObject> getAll(final Iterable<ObjectId> ids, final BulkOpListener listener) {
+        Preconditions.checkState(isOpen(), "No open database connection");
+        Iterator<List<ObjectId>> batches = Iterators.partition(ids.iterator(), partitionSize);
+        return Iterators.concat(Iterators.transform(batches,
+                new Function<List<ObjectId>, Iterator<RevObject>>() {
+                    @Override
+                    public Iterator<RevObject> apply(List<ObjectId> batch) {
+                        List<ObjectId> sorted = ObjectId.NATURAL_ORDER.sortedCopy(batch);
+                        return getAll(sorted, listener, cx).iterator();
+                    }
+                }));
+    }
+
+    List<RevObject> getAll(final List<ObjectId> ids, final BulkOpListener listener,
+            DataSource ds) {
+        return new DbOp<List<RevObject>>() {
+            @Override
+            protected List<RevObject> doRun(Connection cx) throws SQLException {
+                PreparedStatement ps = prepare(cx, log(GET_ALL_SQL, LOG));
+
+                List<RevObject> found = new ArrayList<RevObject>(ids.size());
+                Map<ObjectId, byte[]> rows = new HashMap<ObjectId, byte[]>();
+                for (List<ObjectId> chunk : Lists.partition(ids, IN_LIST_SIZE)) {
+                    // repeat the last id on the last chunk to always use the same statement
+                    for (int i = 0; i < IN_LIST_SIZE; i++) {
+                        ObjectId id = chunk.get(Math.min(i, chunk.size() - 1));
+                        ps.setBytes(i + 1, id.getRawValue());
+                    }
+                    rows.clear();
+                    ResultSet rs = ps.executeQuery();
+                    try {
+                        while (rs.next()) {
+                            rows.put(ObjectId.createNoClone(rs.getBytes(1)), rs.getBytes(2));
+                        }
+                    } finally {
+                        rs.close();
+                    }
+                    for (ObjectId id : chunk) {
+                        byte[] bytes = rows.get(id);
+                        if (bytes == null) {
+                            listener.notFound(id);
+                        } else {
+                            found.add(readObject(new ByteArrayInputStream(bytes), id));
+                            listener.found(id, bytes.length);
+                        }
+                    }
+                }
+                return found;
+            }
+        }.run(ds);
+    }
+
     /**
      * Override to optimize batch insert.
      */
@@ -184,7 +318,7 @@ public class XerialObjectDatabase extends SQLiteObjectDatabase<DataSource> {
             protected Void doRun(Connection cx) throws SQLException, IOException {
                 // use INSERT OR IGNORE to deal with duplicates cleanly
                 String sql = format("INSERT OR IGNORE INTO %s (object,id) VALUES (?,?)", OBJECTS);
-                PreparedStatement stmt = open(cx.prepareStatement(log(sql, LOG)));
+                PreparedStatement stmt = prepare(cx, log(sql, LOG));
 
                 // partition the objects into chunks for batch processing
                 Iterator<List<? extends RevObject>> it = (Iterator) Iterators.partition(objects,
@@ -194,7 +328,7 @@ public class XerialObjectDatabase extends SQLiteObjectDatabase<DataSource> {
                     List<? extends RevObject> objs = it.next();
                     for (RevObject obj : objs) {
                         stmt.setBytes(1, ByteStreams.toByteArray(writeObject(obj)));
-                        stmt.setString(2, obj.getId().toString());
+                        stmt.setBytes(2, obj.getId().getRawValue());
                         stmt.addBatch();
                     }
 
@@ -231,7 +365,7 @@ public class XerialObjectDatabase extends SQLiteObjectDatabase<DataSource> {
             @Override
             protected Long doRun(Connection cx) throws SQLException, IOException {
                 String sql = format("DELETE FROM %s WHERE id = ?", OBJECTS);
-                PreparedStatement stmt = open(cx.prepareStatement(log(sql, LOG)));
+                PreparedStatement stmt = prepare(cx, log(sql, LOG));
 
                 long count = 0;
 
@@ -241,7 +375,7 @@ public class XerialObjectDatabase extends SQLiteObjectDatabase<DataSource> {
                 while (it.hasNext()) {
                     List<ObjectId> l = it.next();
                     for (ObjectId id : l) {
-                        stmt.setString(1, id.toString());
+                        stmt.setBytes(1, id.getRawValue());
                         stmt.addBatch();
                     }
 
@@ -0,0 +1,115 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.test.integration.sqlite;
+
+import java.util.List;
+import java.util.Set;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevObject;
+import org.geogit.api.TestPlatform;
+import org.geogit.storage.BulkOpListener;
+import org.geogit.storage.BulkOpListener.CountingListener;
+import org.geogit.storage.fs.IniFileConfigDatabase;
+import org.geogit.storage.sqlite.Xerial;
+import org.geogit.storage.sqlite.XerialObjectDatabase;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+public class XerialObjectDatabaseTest extends Assert {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private XerialObjectDatabase db;
+
+    @Before
+    public void setUp() {
+        folder.newFolder(".geogit");
+        TestPlatform platform = new TestPlatform(folder.getRoot());
+        platform.setUserHome(folder.newFolder("home"));
+        Xerial.turnSynchronizationOff();
+        db = new XerialObjectDatabase(new IniFileConfigDatabase(platform), platform);
+        db.open();
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    private List<RevObject> createFeatures(int count) {
+        List<RevObject> objects = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            objects.add(RevFeature.build(ImmutableList.<Optional<Object>> of(
+                    Optional.<Object> of("feature." + i), Optional.<Object> of(i))));
+        }
+        return objects;
+    }
+
+    @Test
+    public void testGetAll() {
+        // more than a couple of IN lists, the last one partial
+        List<RevObject> objects = createFeatures(600);
+        db.putAll(objects.iterator());
+
+        List<ObjectId> ids = Lists.newArrayList();
+        for (RevObject o : objects) {
+            ids.add(o.getId());
+        }
+        List<RevObject> missing = createFeatures(603).subList(600, 603);
+        for (RevObject o : missing) {
+            ids.add(o.getId());
+        }
+
+        CountingListener listener = BulkOpListener.newCountingListener();
+        Set<RevObject> found = ImmutableSet.copyOf(db.getAll(ids, listener));
+        assertEquals(600, listener.found());
+        assertEquals(3, listener.notFound());
+        assertEquals(ImmutableSet.copyOf(objects), found);
+    }
+
+    @Test
+    public void testLookUp() {
+        List<RevObject> objects = createFeatures(100);
+        db.putAll(objects.iterator());
+
+        for (RevObject o : objects) {
+            String id = o.getId().toString();
+            assertEquals(ImmutableList.of(o.getId()), db.lookUp(id));
+            for (String prefix : ImmutableList.of(id.substring(0, 7), id.substring(0, 8))) {
+                List<ObjectId> matches = db.lookUp(prefix);
+                assertTrue(matches.contains(o.getId()));
+                for (ObjectId match : matches) {
+                    assertTrue(match.toString().startsWith(prefix));
+                }
+            }
+        }
+        assertEquals(100, db.lookUp("").size());
+        assertTrue(db.lookUp("not hex").isEmpty());
+    }
+
+    @Test
+    public void testPutGetDelete() {
+        RevObject o = createFeatures(1).get(0);
+        assertFalse(db.exists(o.getId()));
+        assertTrue(db.put(o));
+        assertTrue(db.exists(o.getId()));
+        assertEquals(o, db.get(o.getId()));
+        assertTrue(db.delete(o.getId()));
+        assertFalse(db.exists(o.getId()));
+        assertNull(db.getIfPresent(o.getId()));
+    }
+}
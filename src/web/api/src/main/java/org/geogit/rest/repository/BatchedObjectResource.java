@@ -18,7 +18,9 @@ import java.util.List;
 import org.geogit.api.GeoGIT;
 import org.geogit.api.ObjectId;
 import org.geogit.api.plumbing.CreateDeduplicator;
+import org.geogit.api.plumbing.ResolveBitmaps;
 import org.geogit.remote.BinaryPackedObjects;
+import org.geogit.remote.PackProtocol;
 import org.geogit.repository.Repository;
 import org.geogit.storage.Deduplicator;
 import org.restlet.Context;
@@ -26,6 +28,7 @@ import org.restlet.Finder;
 import org.restlet.data.MediaType;
 import org.restlet.data.Request;
 import org.restlet.data.Response;
+import org.restlet.data.Status;
 import org.restlet.resource.OutputRepresentation;
 import org.restlet.resource.Representation;
 import org.restlet.resource.Resource;
@@ -38,6 +41,10 @@ import com.google.gson.JsonParser;
 
 /**
  * Takes a set of commit Ids and packs up their contents into a binary stream to send to the client.
+ * <p>
+ * Requests with the {@link PackProtocol#MEDIA_TYPE pack} media type get a compressed, resumable,
+ * version 2 pack, any other request is read as a JSON want/have message and answered with the
+ * objects one after the other.
  */
 public class BatchedObjectResource extends Finder {
 
@@ -69,6 +76,23 @@ public class BatchedObjectResource extends Finder {
                 throw Throwables.propagate(e);
             }
 
+            final GeoGIT ggit = getGeogit(getRequest()).get();
+            final Repository repository = ggit.getRepository();
+
+            if (isPackRequest(entity)) {
+                final PackProtocol.Request request;
+                try {
+                    request = PackProtocol.readRequest(inStream);
+                } catch (IOException e) {
+                    throw new RestletException(e.getMessage(), Status.CLIENT_ERROR_BAD_REQUEST, e);
+                }
+                final Deduplicator deduplicator = ggit.command(CreateDeduplicator.class).call();
+                BinaryPackedObjects packer = new BinaryPackedObjects(repository.stagingDatabase(),
+                    ggit.command(ResolveBitmaps.class).call());
+                getResponse().setEntity(new PackRepresentation(packer, request, deduplicator));
+                return;
+            }
+
             final Reader body = new InputStreamReader(inStream);
             final JsonParser parser = new JsonParser();
             final JsonElement messageJson = parser.parse(body);
@@ -102,15 +126,53 @@ public class BatchedObjectResource extends Finder {
                 }
             }
 
-            final GeoGIT ggit = getGeogit(getRequest()).get();
-            final Repository repository = ggit.getRepository();
             final Deduplicator deduplicator = ggit.command(CreateDeduplicator.class).call();
 
-            BinaryPackedObjects packer = new BinaryPackedObjects(repository.stagingDatabase());
+            BinaryPackedObjects packer = new BinaryPackedObjects(repository.stagingDatabase(),
+                    ggit.command(ResolveBitmaps.class).call());
             getResponse().setEntity(new RevObjectBinaryRepresentation(packer, want, have, deduplicator));
         }
     }
 
+    static boolean isPackRequest(Representation entity) {
+        MediaType mediaType = entity.getMediaType();
+        return mediaType != null && PackProtocol.MEDIA_TYPE.equals(mediaType.getName());
+    }
+
+    /**
+     * Writes the requested objects as a version 2 pack
+     * 
+     * @see PackProtocol
+     */
+    private static class PackRepresentation extends OutputRepresentation {
+
+        private static final MediaType PACK = new MediaType(PackProtocol.MEDIA_TYPE);
+
+        private final BinaryPackedObjects packer;
+
+        private final PackProtocol.Request request;
+
+        private final Deduplicator deduplicator;
+
+        public PackRepresentation(BinaryPackedObjects packer, PackProtocol.Request request,
+                Deduplicator deduplicator) {
+            super(PACK);
+            this.packer = packer;
+            this.request = request;
+            this.deduplicator = deduplicator;
+        }
+
+        @Override
+        public void write(OutputStream out) throws IOException {
+            try {
+                packer.writePack(out, request.getWant(), request.getHave(),
+                        request.getResumeFrom(), request.getTraversal(), deduplicator);
+            } finally {
+                deduplicator.release();
+            }
+        }
+    }
+
     private static class RevObjectBinaryRepresentation extends OutputRepresentation {
         private final BinaryPackedObjects packer;
 
@@ -10,11 +10,14 @@ import static org.geogit.rest.repository.RESTUtils.getGeogit;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.geogit.api.GeoGIT;
 import org.geogit.api.ObjectId;
 import org.geogit.api.Ref;
 import org.geogit.api.plumbing.RefParse;
+import org.geogit.api.plumbing.UpdateBitmapsOp;
 import org.geogit.web.api.commands.PushManager;
 import org.restlet.Context;
 import org.restlet.data.ClientInfo;
@@ -24,15 +27,27 @@ import org.restlet.data.Request;
 import org.restlet.data.Response;
 import org.restlet.resource.Resource;
 import org.restlet.resource.Variant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  *
  */
 public class EndPush extends Resource {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(EndPush.class);
+
+    /**
+     * Updates the bitmaps of the pushed tips one push at a time, after the push is answered
+     */
+    private static final ExecutorService BITMAPS_EXECUTOR = Executors
+            .newSingleThreadExecutor(new ThreadFactoryBuilder().setDaemon(true)
+                    .setNameFormat("geogit-push-bitmaps-%d").build());
+
     @Override
     public void init(Context context, Request request, Response response) {
         super.init(context, request, response);
@@ -75,10 +90,28 @@ public class EndPush extends Resource {
             } else {
                 PushManager pushManager = PushManager.get();
                 pushManager.connectionSucceeded(ggit.get(), ipAddress, refspec, oid);
+                updateBitmaps(ggit.get(), oid);
                 w.write("Push succeeded for address: " + ipAddress);
                 w.flush();
             }
         }
     }
 
+    /**
+     * Keeps the pushed tip bitmapped so fetches and clones don't walk the pushed trees. It's done
+     * in the background as it walks the trees of the new commits, and it's only an optimization,
+     * so failures are logged without affecting the push.
+     */
+    private static void updateBitmaps(final GeoGIT geogit, final ObjectId tip) {
+        BITMAPS_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    geogit.command(UpdateBitmapsOp.class).addTip(tip).call();
+                } catch (RuntimeException e) {
+                    LOGGER.warn("Error updating the bitmaps of pushed commit " + tip, e);
+                }
+            }
+        });
+    }
 }
@@ -37,7 +37,11 @@ public class SendObjectResource extends Resource {
             final GeoGIT ggit = getGeogit(getRequest()).get();
             final BinaryPackedObjects unpacker = new BinaryPackedObjects(ggit.getRepository()
                     .objectDatabase());
-            unpacker.ingest(input);
+            if (BatchedObjectResource.isPackRequest(entity)) {
+                unpacker.ingestPack(input);
+            } else {
+                unpacker.ingest(input);
+            }
 
         } catch (IOException e) {
             e.printStackTrace();
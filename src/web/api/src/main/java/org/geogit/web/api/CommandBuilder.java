@@ -22,6 +22,7 @@ import org.geogit.web.api.commands.GetCommitGraph;
 import org.geogit.web.api.commands.Log;
 import org.geogit.web.api.commands.LsTree;
 import org.geogit.web.api.commands.MergeWebOp;
+import org.geogit.web.api.commands.MetricsWebOp;
 import org.geogit.web.api.commands.PullWebOp;
 import org.geogit.web.api.commands.PushWebOp;
 import org.geogit.web.api.commands.RebuildGraphWebOp;
@@ -109,6 +110,8 @@ public class CommandBuilder {
             command = buildCat(options);
         } else if ("statistics".equalsIgnoreCase(commandName)) {
             command = buildStatistics(options);
+        } else if ("metrics".equalsIgnoreCase(commandName)) {
+            command = buildMetrics(options);
         } else {
             throw new CommandSpecException("'" + commandName + "' is not a geogit command");
         }
@@ -511,4 +514,16 @@ public class CommandBuilder {
         command.setUntil(options.getFirstValue("branch", null));
         return command;
     }
+
+    /**
+     * Builds the {@link MetricsWebOp} command.
+     * 
+     * @param options the parameter set
+     * @return the built command
+     */
+    static MetricsWebOp buildMetrics(ParameterSet options) {
+        MetricsWebOp command = new MetricsWebOp();
+        command.setPrefix(options.getFirstValue("prefix", null));
+        return command;
+    }
 }
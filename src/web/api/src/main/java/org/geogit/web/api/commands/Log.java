@@ -21,11 +21,13 @@ import org.geogit.api.RevCommit;
 import org.geogit.api.RevFeature;
 import org.geogit.api.RevFeatureType;
 import org.geogit.api.RevObject;
+import org.geogit.api.plumbing.DiffCount;
 import org.geogit.api.plumbing.FindTreeChild;
 import org.geogit.api.plumbing.ParseTimestamp;
 import org.geogit.api.plumbing.RevObjectParse;
 import org.geogit.api.plumbing.RevParse;
 import org.geogit.api.plumbing.diff.DiffEntry;
+import org.geogit.api.plumbing.diff.DiffObjectCount;
 import org.geogit.api.porcelain.DiffOp;
 import org.geogit.api.porcelain.LogOp;
 import org.geogit.storage.FieldType;
@@ -272,20 +274,14 @@ public class Log extends AbstractWebAPICommand {
 
                     // If it's a shallow clone, the commit may not exist
                     if (parent.equals(ObjectId.NULL) || geogit.stagingDatabase().exists(parent)) {
-                        final Iterator<DiffEntry> diff = geogit.command(DiffOp.class)
-                                .setOldVersion(parent).setNewVersion(input.getId())
-                                .setFilter(pathFilter).call();
-
-                        while (diff.hasNext()) {
-                            DiffEntry entry = diff.next();
-                            if (entry.changeType() == DiffEntry.ChangeType.ADDED) {
-                                added++;
-                            } else if (entry.changeType() == DiffEntry.ChangeType.MODIFIED) {
-                                modified++;
-                            } else {
-                                removed++;
-                            }
-                        }
+                        // counted from the diff summary cache once the commit has been seen
+                        final DiffObjectCount count = geogit.command(DiffCount.class)
+                                .setOldVersion(parent.toString())
+                                .setNewVersion(input.getId().toString()).addFilter(pathFilter)
+                                .call();
+                        added = (int) count.getFeaturesAdded();
+                        modified = (int) count.getFeaturesChanged();
+                        removed = (int) count.getFeaturesRemoved();
                     }
 
                     return new CommitWithChangeCounts(input, added, modified, removed);
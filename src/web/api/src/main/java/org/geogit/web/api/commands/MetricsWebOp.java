@@ -0,0 +1,86 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.web.api.commands;
+
+import java.util.Map.Entry;
+import java.util.SortedMap;
+
+import org.geogit.metrics.Counter;
+import org.geogit.metrics.Gauge;
+import org.geogit.metrics.Metric;
+import org.geogit.metrics.MetricRegistry;
+import org.geogit.metrics.Timer;
+import org.geogit.web.api.AbstractWebAPICommand;
+import org.geogit.web.api.CommandContext;
+import org.geogit.web.api.CommandResponse;
+import org.geogit.web.api.ResponseWriter;
+
+/**
+ * Lists the command timings, object database timings and counts, and cache statistics recorded in
+ * the {@link MetricRegistry#global() global metrics registry}, optionally only those whose name
+ * starts with a given prefix.
+ */
+public class MetricsWebOp extends AbstractWebAPICommand {
+
+    private String prefix;
+
+    public void setPrefix(String prefix) {
+        this.prefix = prefix;
+    }
+
+    /**
+     * Runs the command and builds the appropriate response.
+     * 
+     * @param context - the context to use for this command
+     */
+    @Override
+    public void run(CommandContext context) {
+        final SortedMap<String, Metric> metrics;
+        SortedMap<String, Metric> all = MetricRegistry.global().getMetrics();
+        if (prefix == null || prefix.isEmpty()) {
+            metrics = all;
+        } else {
+            metrics = all.subMap(prefix, prefix + Character.MAX_VALUE);
+        }
+
+        context.setResponseContent(new CommandResponse() {
+            @Override
+            public void write(ResponseWriter out) throws Exception {
+                out.start();
+                for (Entry<String, Metric> e : metrics.entrySet()) {
+                    writeMetric(out, e.getKey(), e.getValue());
+                }
+                out.finish();
+            }
+        });
+    }
+
+    private static void writeMetric(ResponseWriter out, String name, Metric metric)
+            throws Exception {
+        if (metric instanceof Timer) {
+            Timer timer = (Timer) metric;
+            out.getWriter().writeStartElement("timer");
+            out.writeElement("name", name);
+            out.writeElement("count", String.valueOf(timer.getCount()));
+            out.writeElement("totalMillis", String.valueOf(timer.getTotalMillis()));
+            out.writeElement("meanMillis", String.valueOf(timer.getMeanMillis()));
+            out.writeElement("maxMillis", String.valueOf(timer.getMaxMillis()));
+            out.writeElement("p50Millis", String.valueOf(timer.get50thPercentileMillis()));
+            out.writeElement("p95Millis", String.valueOf(timer.get95thPercentileMillis()));
+            out.writeElement("p99Millis", String.valueOf(timer.get99thPercentileMillis()));
+            out.getWriter().writeEndElement();
+        } else if (metric instanceof Counter) {
+            out.getWriter().writeStartElement("counter");
+            out.writeElement("name", name);
+            out.writeElement("count", String.valueOf(((Counter) metric).getCount()));
+            out.getWriter().writeEndElement();
+        } else if (metric instanceof Gauge) {
+            out.getWriter().writeStartElement("gauge");
+            out.writeElement("name", name);
+            out.writeElement("value", String.valueOf(((Gauge) metric).getValue()));
+            out.getWriter().writeEndElement();
+        }
+    }
+}
@@ -13,11 +13,11 @@ import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
 import org.geogit.api.RevCommit;
 import org.geogit.api.RevPerson;
+import org.geogit.api.plumbing.DiffCount;
 import org.geogit.api.plumbing.LsTreeOp;
 import org.geogit.api.plumbing.ParseTimestamp;
 import org.geogit.api.plumbing.RevParse;
-import org.geogit.api.plumbing.diff.DiffEntry;
-import org.geogit.api.porcelain.DiffOp;
+import org.geogit.api.plumbing.diff.DiffObjectCount;
 import org.geogit.api.porcelain.LogOp;
 import org.geogit.web.api.AbstractWebAPICommand;
 import org.geogit.web.api.CommandContext;
@@ -120,19 +120,12 @@ public class StatisticsWebOp extends AbstractWebAPICommand {
         int modifiedFeatures = 0;
         int removedFeatures = 0;
         if (since != null && !since.trim().isEmpty() && firstCommit != null && lastCommit != null) {
-            final Iterator<DiffEntry> diff = geogit.command(DiffOp.class)
-                    .setOldVersion(firstCommit.getId()).setNewVersion(lastCommit.getId())
-                    .setFilter(path).call();
-            while (diff.hasNext()) {
-                DiffEntry entry = diff.next();
-                if (entry.changeType() == DiffEntry.ChangeType.ADDED) {
-                    addedFeatures++;
-                } else if (entry.changeType() == DiffEntry.ChangeType.MODIFIED) {
-                    modifiedFeatures++;
-                } else {
-                    removedFeatures++;
-                }
-            }
+            final DiffObjectCount count = geogit.command(DiffCount.class)
+                    .setOldVersion(firstCommit.getId().toString())
+                    .setNewVersion(lastCommit.getId().toString()).addFilter(path).call();
+            addedFeatures = (int) count.getFeaturesAdded();
+            modifiedFeatures = (int) count.getFeaturesChanged();
+            removedFeatures = (int) count.getFeaturesRemoved();
         }
 
         final RevCommit first = firstCommit;